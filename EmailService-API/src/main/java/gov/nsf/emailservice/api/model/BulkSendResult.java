@@ -0,0 +1,101 @@
+package gov.nsf.emailservice.api.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import gov.nsf.common.model.BaseResponseWrapper;
+
+/**
+ * Outcome of one row of a bulk send - extends BaseResponseWrapper
+ *
+ * - errors is populated if the row could not be merged, validated or sent
+ * - processed and failed count the rows finished so far, including this one, so every result also reports
+ *   the progress of the bulk send
+ */
+@JsonInclude(JsonInclude.Include.ALWAYS)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({"row", "trackingID", "sendStatus", "processed", "failed"})
+public class BulkSendResult extends BaseResponseWrapper {
+
+    private int row;
+    private String trackingID;
+    private SendStatus sendStatus;
+    private int processed;
+    private int failed;
+
+    public BulkSendResult(){
+        super();
+    }
+
+    public BulkSendResult(int row){
+        super();
+        this.row = row;
+    }
+
+    /**
+     * The position of the row in the request, starting at 1
+     *
+     * @return int
+     */
+    public int getRow() {
+        return row;
+    }
+
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    /**
+     * The tracking ID of the send request if the letter was queued in the send outbox
+     *
+     * @return String
+     */
+    public String getTrackingID() {
+        return trackingID;
+    }
+
+    public void setTrackingID(String trackingID) {
+        this.trackingID = trackingID;
+    }
+
+    /**
+     * Queued or Sent, or null if the row failed
+     *
+     * @return SendStatus
+     */
+    public SendStatus getSendStatus() {
+        return sendStatus;
+    }
+
+    public void setSendStatus(SendStatus sendStatus) {
+        this.sendStatus = sendStatus;
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(int processed) {
+        this.processed = processed;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(super.toString());
+        sb.append("Row : " + row);
+        sb.append(", Tracking ID : " + trackingID);
+        sb.append(", Send Status : " + sendStatus);
+        sb.append("\n");
+
+        return sb.toString();
+    }
+}
@@ -14,7 +14,7 @@ import java.util.List;
 @JsonInclude(JsonInclude.Include.ALWAYS)
 @JsonIgnoreProperties(ignoreUnknown = true)
 @Generated("org.jsonschema2pojo")
-@JsonPropertyOrder({"eltrID", "eltrContent", "eltrStatus", "eltrStatusUser", "eltrStatusDate", "plainText", "tmplID", "emailInfo", "searchParameters", "applID"})
+@JsonPropertyOrder({"eltrID", "eltrContent", "eltrStatus", "eltrStatusUser", "eltrStatusDate", "plainText", "tmplID", "emailInfo", "searchParameters", "applID", "lastUpdated"})
 public class Letter {
 
     private String eltrID;
@@ -27,6 +27,7 @@ public class Letter {
     private EmailInfo emailInfo;
     private List<SearchParameter> searchParameters;
     private String applID;
+    private Long lastUpdated;
 
     public Letter(String id) {
         setEltrID(id);
@@ -111,6 +112,19 @@ public class Letter {
 
     public void setApplID(String applID) { this.applID = applID; }
 
+    /**
+     * Returns the last_updt_tmsp of the letter in epoch milliseconds, or null if it was not read from the DB
+     *
+     * @return Long
+     */
+    public Long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public void setLastUpdated(Long lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+
 
     @Override
     public String toString() {
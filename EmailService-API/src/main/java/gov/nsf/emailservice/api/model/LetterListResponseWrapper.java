@@ -1,5 +1,6 @@
 package gov.nsf.emailservice.api.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import gov.nsf.common.model.BaseResponseWrapper;
 
 import java.util.List;
@@ -11,11 +12,20 @@ public class LetterListResponseWrapper extends BaseResponseWrapper{
 
     private List<Letter> letters;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String nextCursor;
+
     public LetterListResponseWrapper(List<Letter> letters){
         super();
         this.letters = letters;
     }
 
+    public LetterListResponseWrapper(List<Letter> letters, String nextCursor){
+        super();
+        this.letters = letters;
+        this.nextCursor = nextCursor;
+    }
+
     public LetterListResponseWrapper(){
         super();
     }
@@ -28,12 +38,27 @@ public class LetterListResponseWrapper extends BaseResponseWrapper{
         this.letters = letters;
     }
 
+    /**
+     * Cursor to pass as the after parameter for the next page of letters - null on the last page
+     *
+     * @return String
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append(super.toString());
         sb.append("Letters : " + letters);
         sb.append("\n");
+        sb.append("Next Cursor : " + nextCursor);
+        sb.append("\n");
 
         return sb.toString();
 
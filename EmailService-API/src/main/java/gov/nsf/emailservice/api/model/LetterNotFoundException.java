@@ -0,0 +1,20 @@
+package gov.nsf.emailservice.api.model;
+
+import gov.nsf.common.exception.ResourceNotFoundException;
+
+/**
+ * LetterNotFoundException for eltrIDs that do not exist
+ *
+ * A missing letter is an expected answer to a client (404), not a failure, so the stack trace is not filled in.
+ */
+public class LetterNotFoundException extends ResourceNotFoundException {
+
+    public LetterNotFoundException(String msg) {
+        super(msg);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,101 @@
+package gov.nsf.emailservice.api.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Criteria for finding letters - a letter matches when it has every search parameter and passes every
+ * filter that is set (null filters are ignored)
+ */
+public class LetterSearchCriteria {
+
+    private List<SearchParameter> searchParameters;
+    private String applID;
+    private LetterStatus status;
+    private String fromDate;
+    private String toDate;
+
+    public LetterSearchCriteria(){
+        this.searchParameters = new ArrayList<SearchParameter>();
+    }
+
+    public LetterSearchCriteria(List<SearchParameter> searchParameters){
+        this.searchParameters = searchParameters;
+    }
+
+    /**
+     * Search parameters the letter must all have (AND)
+     *
+     * @return List<SearchParameter>
+     */
+    public List<SearchParameter> getSearchParameters() {
+        return searchParameters;
+    }
+
+    public void setSearchParameters(List<SearchParameter> searchParameters) {
+        this.searchParameters = searchParameters;
+    }
+
+    public String getApplID() {
+        return applID;
+    }
+
+    public void setApplID(String applID) {
+        this.applID = applID;
+    }
+
+    public LetterStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(LetterStatus status) {
+        this.status = status;
+    }
+
+    /**
+     * First day (yyyy-MM-dd, inclusive) of the letter status date range
+     *
+     * @return String
+     */
+    public String getFromDate() {
+        return fromDate;
+    }
+
+    public void setFromDate(String fromDate) {
+        this.fromDate = fromDate;
+    }
+
+    /**
+     * Last day (yyyy-MM-dd, inclusive) of the letter status date range
+     *
+     * @return String
+     */
+    public String getToDate() {
+        return toDate;
+    }
+
+    public void setToDate(String toDate) {
+        this.toDate = toDate;
+    }
+
+    /**
+     * Returns true if any of the applID, status or date filters is set
+     *
+     * @return boolean
+     */
+    public boolean hasFilters() {
+        return applID != null || status != null || fromDate != null || toDate != null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{");
+        sb.append("searchParameters=" + searchParameters + ", ");
+        sb.append("applID=" + applID + ", ");
+        sb.append("status=" + status + ", ");
+        sb.append("fromDate=" + fromDate + ", ");
+        sb.append("toDate=" + toDate + "}");
+        return sb.toString();
+    }
+}
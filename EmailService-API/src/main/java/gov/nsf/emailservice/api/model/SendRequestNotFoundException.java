@@ -0,0 +1,13 @@
+package gov.nsf.emailservice.api.model;
+
+import gov.nsf.common.exception.ResourceNotFoundException;
+
+/**
+ * SendRequestNotFoundException for tracking IDs that are not in the send outbox
+ */
+public class SendRequestNotFoundException extends ResourceNotFoundException {
+
+    public SendRequestNotFoundException(String msg) {
+        super(msg);
+    }
+}
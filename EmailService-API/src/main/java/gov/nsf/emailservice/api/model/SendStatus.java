@@ -0,0 +1,39 @@
+package gov.nsf.emailservice.api.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SendStatus enum class - status of a send request in the send outbox
+ */
+public enum SendStatus {
+    Queued("Q"),
+    Sending("P"),
+    Sent("S"),
+    Failed("F");
+
+    private final String statusCode;
+    private static final Map<String,SendStatus> valueToStatus = new HashMap<String,SendStatus>();
+
+    static{
+        for(SendStatus status : SendStatus.values()){
+            valueToStatus.put(status.getCode(), status);
+        }
+    }
+
+    SendStatus(String statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public String getCode() {
+        return this.statusCode;
+    }
+
+    public static SendStatus getStatusFromCode(String code){
+        if(!valueToStatus.containsKey(code)){
+            throw new IllegalArgumentException("The status code " + code + " does not map to a valid SendStatus");
+        }
+
+        return valueToStatus.get(code);
+    }
+}
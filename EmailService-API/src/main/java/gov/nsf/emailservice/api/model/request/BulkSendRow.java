@@ -0,0 +1,62 @@
+package gov.nsf.emailservice.api.model.request;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One recipient row of POST /sendletter/bulk - the recipients of one letter and the variables merged into it
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BulkSendRow {
+
+    private List<String> toAddresses;
+    private List<String> ccAddresses;
+    private Map<String, String> variables;
+
+    public BulkSendRow(){
+
+    }
+
+    public BulkSendRow(List<String> toAddresses, Map<String, String> variables) {
+        this.toAddresses = toAddresses;
+        this.variables = variables;
+    }
+
+    public List<String> getToAddresses() {
+        return toAddresses;
+    }
+
+    public void setToAddresses(List<String> toAddresses) {
+        this.toAddresses = toAddresses;
+    }
+
+    /**
+     * The cc addresses of this letter - if null, the cc addresses of the bulk letter are used
+     *
+     * @return List<String>
+     */
+    public List<String> getCcAddresses() {
+        return ccAddresses;
+    }
+
+    public void setCcAddresses(List<String> ccAddresses) {
+        this.ccAddresses = ccAddresses;
+    }
+
+    /**
+     * The values of the ${name} placeholders of the bulk letter's content and subject
+     *
+     * @return Map<String, String>
+     */
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    public void setVariables(Map<String, String> variables) {
+        this.variables = variables;
+    }
+}
@@ -0,0 +1,44 @@
+package gov.nsf.emailservice.api.model.request;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import gov.mynsf.common.email.model.SendMetaData;
+
+/**
+ * Request body of POST /letter/{id}/send - the letter itself is read from the ltr database
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SendStoredLetterRequest {
+
+    private SendMetaData sendMetaData;
+    private String eltrStatusUser;
+
+    public SendStoredLetterRequest(){
+
+    }
+
+    public SendStoredLetterRequest(SendMetaData sendMetaData, String eltrStatusUser) {
+        this.sendMetaData = sendMetaData;
+        this.eltrStatusUser = eltrStatusUser;
+    }
+
+    public SendMetaData getSendMetaData() {
+        return sendMetaData;
+    }
+
+    public void setSendMetaData(SendMetaData sendMetaData) {
+        this.sendMetaData = sendMetaData;
+    }
+
+    /**
+     * The user recorded as ltr_stts_user_id when the letter is marked Sent
+     *
+     * @return String
+     */
+    public String getEltrStatusUser() {
+        return eltrStatusUser;
+    }
+
+    public void setEltrStatusUser(String eltrStatusUser) {
+        this.eltrStatusUser = eltrStatusUser;
+    }
+}
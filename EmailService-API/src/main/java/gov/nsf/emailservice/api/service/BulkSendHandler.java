@@ -0,0 +1,20 @@
+package gov.nsf.emailservice.api.service;
+
+import gov.nsf.emailservice.api.model.BulkSendResult;
+
+import java.io.IOException;
+
+/**
+ * Callback for consuming the per-row results of a bulk send as the rows finish, see EmailService.sendBulkLetter
+ *
+ */
+public interface BulkSendHandler {
+
+    /**
+     * Handles the result of the next finished row
+     *
+     * @param result
+     * @throws IOException
+     */
+    public void handleResult(BulkSendResult result) throws IOException;
+}
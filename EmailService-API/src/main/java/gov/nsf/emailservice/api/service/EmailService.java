@@ -2,10 +2,14 @@ package gov.nsf.emailservice.api.service;
 
 import gov.mynsf.common.email.model.EmailRequest;
 import gov.mynsf.common.email.model.SendMetaData;
+import gov.nsf.common.exception.FormValidationException;
 import gov.nsf.common.exception.RollbackException;
 import gov.nsf.common.model.BaseResponseWrapper;
 
 import gov.nsf.emailservice.api.model.*;
+import gov.nsf.emailservice.api.model.request.BulkSendRow;
+
+import java.util.Iterator;
 
 /**
  * EmailService interface
@@ -44,6 +48,91 @@ public interface EmailService {
      */
     public LetterListResponseWrapper findLetter(SearchParameter searchParameter) throws RollbackException;
 
+    /**
+     * Returns one page of the Letters stored in the ltr database that are mapped to the passed search parameter,
+     * in ntfy_ltr_id order
+     *
+     * @param searchParameter
+     *      - searchParameter must be non-null
+     *      - searchParameter.key must be non-null/non-empty and must be a valid search parameter key (e.g. Award_Id)
+     *      - searchParameter.value must be non-null/non-empty
+     * @param limit
+     *      - the maximum number of Letters in the page
+     * @param after
+     *      - the nextCursor of the previous page, or null for the first page
+     * @return LetterListResponseWrapper
+     *      - contains a List of at most limit Letter objects
+     *      - contains the nextCursor for the following page, or null if this is the last page
+     *      - contains three Lists of errors, warnings, and informationals with BaseError objects
+     *          - errors list will be populated if any validations fail or any exceptions are thrown
+     *
+     * @throws RollbackException
+     */
+    public LetterListResponseWrapper findLetter(SearchParameter searchParameter, int limit, String after) throws RollbackException;
+
+    /**
+     * Streams all Letters stored in the ltr database that are mapped to the passed search parameter to the
+     * passed LetterHandler, one Letter at a time and in ntfy_ltr_id order, without holding them all in memory
+     *
+     * @param searchParameter
+     *      - searchParameter must be non-null
+     *      - searchParameter.key must be non-null/non-empty and must be a valid search parameter key (e.g. Award_Id)
+     *      - searchParameter.value must be non-null/non-empty
+     * @param letterHandler
+     *      - called once per Letter
+     *
+     * @throws RollbackException
+     */
+    public void findLetter(SearchParameter searchParameter, LetterHandler letterHandler) throws RollbackException;
+
+    /**
+     * Returns all Letters stored in the ltr database that match every search parameter and filter of the
+     * passed criteria
+     *
+     * @param criteria
+     *      - criteria.searchParameters must be non-empty and every key must be a valid search parameter key (e.g. Award_Id)
+     *      - criteria.applID, criteria.status, criteria.fromDate and criteria.toDate are optional filters
+     *      - criteria.fromDate and criteria.toDate are inclusive yyyy-MM-dd dates compared to the letter status date
+     * @return LetterListResponseWrapper
+     *      - contains a List of Letter objects
+     *      - contains three Lists of errors, warnings, and informationals with BaseError objects
+     *          - errors list will be populated if any validations fail or any exceptions are thrown
+     *
+     * @throws RollbackException
+     */
+    public LetterListResponseWrapper findLetter(LetterSearchCriteria criteria) throws RollbackException;
+
+    /**
+     * Returns one page of the Letters stored in the ltr database that match every search parameter and filter
+     * of the passed criteria, in ntfy_ltr_id order
+     *
+     * @param criteria
+     *      - see findLetter(LetterSearchCriteria)
+     * @param limit
+     *      - the maximum number of Letters in the page
+     * @param after
+     *      - the nextCursor of the previous page, or null for the first page
+     * @return LetterListResponseWrapper
+     *      - contains a List of at most limit Letter objects
+     *      - contains the nextCursor for the following page, or null if this is the last page
+     *
+     * @throws RollbackException
+     */
+    public LetterListResponseWrapper findLetter(LetterSearchCriteria criteria, int limit, String after) throws RollbackException;
+
+    /**
+     * Streams all Letters stored in the ltr database that match every search parameter and filter of the
+     * passed criteria to the passed LetterHandler, one Letter at a time and in ntfy_ltr_id order
+     *
+     * @param criteria
+     *      - see findLetter(LetterSearchCriteria)
+     * @param letterHandler
+     *      - called once per Letter
+     *
+     * @throws RollbackException
+     */
+    public void findLetter(LetterSearchCriteria criteria, LetterHandler letterHandler) throws RollbackException;
+
     /**
      *  Saves the passed Letter object into the ltr database and returns the stored Letter object
      *
@@ -179,6 +268,24 @@ public interface EmailService {
      */
     public LetterResponseWrapper deleteLetter(String id) throws RollbackException;
 
+    /**
+     * Deletes the Letter stored in the ltr database with the passed id
+     *
+     * @param id
+     *      - id must be non-null/non-empty and must be an integer string
+     *      - id must be a valid letter ID in the database
+     * @param returnDeleted
+     *      - if true, the deleted Letter is returned
+     *      - if false, the deletion skips reading the Letter and no Letter is returned
+     * @return LetterResponseWrapper
+     *      - contains the deleted Letter object if returnDeleted is true
+     *      - contains three Lists of errors, warnings, and informationals with BaseError objects
+     *          - errors list will be populated if any validations fail or any exceptions are thrown
+     *
+     * @throws RollbackException
+     */
+    public LetterResponseWrapper deleteLetter(String id, boolean returnDeleted) throws RollbackException;
+
     /**
      * Returns the search parameters stored in the ltr database for the passed Letter ID
      *
@@ -220,8 +327,66 @@ public interface EmailService {
      * @return BaseResponseWrapper
      *      - contains three Lists of errors, warnings, and informationals with BaseError objects
      *          - errors list will be populated if any validations fail or any exceptions are thrown
+     *      - is a SendLetterResponseWrapper with the tracking ID of the send request if the letter was queued
+     *        in the send outbox instead of being sent right away
      */
     public BaseResponseWrapper sendLetter(Letter letter, SendMetaData metaData);
 
+    /**
+     * Returns the status of a send request queued in the send outbox
+     *
+     * @param trackingID
+     *      - trackingID must be the tracking ID returned by sendLetter
+     * @return SendLetterResponseWrapper
+     *      - contains the tracking ID, the send status, the number of send attempts and the last send error
+     *
+     * @throws RollbackException
+     */
+    public SendLetterResponseWrapper getSendStatus(String trackingID) throws RollbackException;
+
+    /**
+     * Sends a letter stored in the ltr database and marks it Sent
+     * - The letter is marked Sent only if it has not been sent yet, so a letter is never sent twice even
+     *   when several callers send it at the same time
+     * - If the letter is invalid or cannot be queued, it stays unsent. Once it is marked Sent it stays Sent,
+     *   even if the mail server then fails to take it (that failure is reported to the caller)
+     *
+     * @param id
+     *      - id must be a valid letter ID in the database of a letter that has not been sent
+     * @param metaData
+     *      - see sendLetter
+     * @param eltrStatusUser
+     *      - the user recorded as having sent the letter
+     * @return BaseResponseWrapper
+     *      - contains three Lists of errors, warnings, and informationals with BaseError objects
+     *      - is a SendLetterResponseWrapper with the tracking ID of the send request if the letter was queued
+     *        in the send outbox instead of being sent right away
+     *
+     * @throws RollbackException
+     * @throws FormValidationException if the stored letter or metaData cannot be sent
+     */
+    public BaseResponseWrapper sendStoredLetter(String id, SendMetaData metaData, String eltrStatusUser) throws RollbackException, FormValidationException;
+
+    /**
+     * Sends one letter per row, with the row's variables merged into the passed letter (mail merge)
+     * - Every ${name} placeholder of letter.eltrContent and letter.emailInfo.mailSubject is replaced with the
+     *   row's value for name; values merged into HTML content are HTML escaped
+     * - Each merged letter is validated and sent as sendLetter would (or queued, if a send outbox is set)
+     * - Rows are read as they are needed, so a stream of rows is never held in memory all at once
+     *
+     * @param letter
+     *      - the letter sent to every row; letter.emailInfo.toAddresses is replaced by each row's toAddresses,
+     *        and letter.emailInfo.ccAddresses by each row's ccAddresses if they are set
+     * @param metaData
+     *      - see sendLetter
+     * @param rows
+     *      - the recipients and variables of each letter
+     * @param bulkSendHandler
+     *      - called once per row as the rows finish, in no particular order, with the row's errors if it failed
+     *
+     * @throws RollbackException
+     */
+    public void sendBulkLetter(Letter letter, SendMetaData metaData, Iterator<BulkSendRow> rows, BulkSendHandler bulkSendHandler) throws RollbackException;
+
 
 }
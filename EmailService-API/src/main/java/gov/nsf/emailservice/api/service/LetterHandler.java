@@ -0,0 +1,20 @@
+package gov.nsf.emailservice.api.service;
+
+import gov.nsf.emailservice.api.model.Letter;
+
+import java.io.IOException;
+
+/**
+ * Callback for consuming streamed Letter objects one at a time, see EmailService.findLetter(SearchParameter, LetterHandler)
+ *
+ */
+public interface LetterHandler {
+
+    /**
+     * Handles the next Letter of the stream
+     *
+     * @param letter
+     * @throws IOException
+     */
+    public void handleLetter(Letter letter) throws IOException;
+}
@@ -0,0 +1,137 @@
+package gov.nsf.emailservice.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * CompressionInterceptor asks the email service for compressed responses and compresses large request bodies
+ *
+ * - Accept-Encoding: gzip, deflate is sent with every request (unless the request already has one), and gzip or
+ *   deflate encoded responses are decompressed as they are read, so streamed responses stay streamed
+ * - When compressRequests is set, request bodies of at least minCompressSize bytes are sent gzip encoded
+ */
+public class CompressionInterceptor implements ClientHttpRequestInterceptor {
+
+    private static final String GZIP = "gzip";
+    private static final String X_GZIP = "x-gzip";
+    private static final String DEFLATE = "deflate";
+    private static final String ACCEPTED_ENCODINGS = GZIP + ", " + DEFLATE;
+
+    private final boolean compressRequests;
+    private final int minCompressSize;
+
+    public CompressionInterceptor(boolean compressRequests, int minCompressSize) {
+        this.compressRequests = compressRequests;
+        this.minCompressSize = minCompressSize;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        HttpHeaders headers = request.getHeaders();
+        if (!headers.containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+            headers.set(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+        }
+
+        byte[] sentBody = body;
+        if (compressRequests && body.length >= minCompressSize && !headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            sentBody = gzip(body);
+            headers.set(HttpHeaders.CONTENT_ENCODING, GZIP);
+            headers.setContentLength(sentBody.length);
+        }
+
+        ClientHttpResponse response = execution.execute(request, sentBody);
+        String contentEncoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (contentEncoding == null) {
+            return response;
+        }
+        String coding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+        if (GZIP.equals(coding) || X_GZIP.equals(coding) || DEFLATE.equals(coding)) {
+            return new DecompressingResponse(response, !DEFLATE.equals(coding));
+        }
+        return response;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+        gzipOutputStream.write(body);
+        gzipOutputStream.close();
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Response wrapper that hands out the decompressed body and hides the Content-Encoding and Content-Length
+     * of the compressed one
+     */
+    private static class DecompressingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+        private final boolean gzip;
+        private HttpHeaders headers;
+        private InputStream body;
+
+        private DecompressingResponse(ClientHttpResponse response, boolean gzip) {
+            this.response = response;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                PushbackInputStream compressed = new PushbackInputStream(response.getBody());
+                int first = compressed.read();
+                if (first < 0) {
+                    body = compressed;
+                } else {
+                    compressed.unread(first);
+                    body = gzip ? new GZIPInputStream(compressed) : new InflaterInputStream(compressed);
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if (headers == null) {
+                headers = new HttpHeaders();
+                headers.putAll(response.getHeaders());
+                headers.remove(HttpHeaders.CONTENT_ENCODING);
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+            }
+            return headers;
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return response.getRawStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public void close() {
+            response.close();
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package gov.nsf.emailservice.client;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import gov.mynsf.common.email.model.EmailRequest;
 import gov.mynsf.common.email.model.SendMetaData;
@@ -9,36 +12,92 @@ import gov.mynsf.common.restclient.NsfRestTemplate;
 import gov.nsf.common.exception.RollbackException;
 import gov.nsf.common.model.BaseResponseWrapper;
 import gov.nsf.emailservice.api.model.*;
+import gov.nsf.emailservice.api.model.request.BulkSendRow;
 import gov.nsf.emailservice.api.model.request.SendLetterRequest;
+import gov.nsf.emailservice.api.model.request.SendStoredLetterRequest;
+import gov.nsf.emailservice.api.service.BulkSendHandler;
 import gov.nsf.emailservice.api.service.EmailService;
+import gov.nsf.emailservice.api.service.LetterHandler;
 import org.apache.commons.codec.binary.Base64;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.DefaultUriTemplateHandler;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Created by jacklinden on 11/18/16.
  */
 public class EmailServiceClientImpl implements EmailService {
 
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final String IMMUTABLE = "immutable";
+    private static final int DEFAULT_LETTER_VALIDATOR_CACHE_SIZE = 1000;
+    private static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+
     private String emailServiceURL;
     private String emailServiceServiceUserName;
     private String emailServicePassword;
     private boolean authenticationRequired;
     private int requestTimeout;
+    private int letterValidatorCacheSize = DEFAULT_LETTER_VALIDATOR_CACHE_SIZE;
+    private boolean compressRequests;
+    private int compressionMinSize = DEFAULT_COMPRESSION_MIN_SIZE;
+
+    // Last getLetter response per letter ID with its ETag, least recently used first
+    private final Map<String, CachedLetter> letterValidatorCache = new LinkedHashMap<String, CachedLetter>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedLetter> eldest) {
+            return size() > letterValidatorCacheSize;
+        }
+    };
 
+    /**
+     * Returns the letter with the passed ID
+     * - The last response for each letter is kept with its ETag (up to letterValidatorCacheSize letters)
+     * - A letter the service marked immutable (Sent) is served from that copy without a request
+     * - Otherwise the request carries If-None-Match, and a 304 response is served from that copy
+     *
+     * @param id
+     * @return LetterResponseWrapper
+     * @throws RollbackException
+     */
     @Override
     public LetterResponseWrapper getLetter(String id) throws RollbackException {
 
 
         String requestUrl = emailServiceURL + "/letter/" + id + "/";
-        String responseBody = sendRequest(requestUrl, HttpMethod.GET, null);
+        String responseBody = null;
+
+        CachedLetter cachedLetter = getCachedLetter(id);
+        if (cachedLetter != null && cachedLetter.immutable) {
+            responseBody = cachedLetter.responseBody;
+        } else {
+            ResponseEntity<String> response = sendConditionalRequest(requestUrl, cachedLetter != null ? cachedLetter.eTag : null);
+            if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && cachedLetter != null) {
+                responseBody = cachedLetter.responseBody;
+            } else {
+                responseBody = response.getBody();
+                cacheLetter(id, response);
+            }
+        }
 
         LetterResponseWrapper wrapper = null;
         try {
@@ -52,7 +111,7 @@ public class EmailServiceClientImpl implements EmailService {
 
     @Override
     public LetterListResponseWrapper findLetter(SearchParameter searchParameter) throws RollbackException {
-        String requestUrl = emailServiceURL + "/letter?" + searchParameter.getKey() + "=" + searchParameter.getValue();
+        URI requestUrl = URI.create(getFindLetterURL(searchParameter));
         String responseBody = sendRequest(requestUrl, HttpMethod.GET, null);
 
         LetterListResponseWrapper wrapper = null;
@@ -65,6 +124,179 @@ public class EmailServiceClientImpl implements EmailService {
         return wrapper;
     }
 
+    @Override
+    public LetterListResponseWrapper findLetter(SearchParameter searchParameter, int limit, String after) throws RollbackException {
+        URI requestUrl = URI.create(getFindLetterURL(searchParameter) + getPageQuery(limit, after));
+        String responseBody = sendRequest(requestUrl, HttpMethod.GET, null);
+
+        LetterListResponseWrapper wrapper = null;
+        try {
+            wrapper = (LetterListResponseWrapper) extractWrapperResponse(responseBody, LetterListResponseWrapper.class, "letterListResponseWrapper");
+        } catch (IOException e) {
+            throw new RollbackException(e);
+        }
+
+        return wrapper;
+    }
+
+    @Override
+    public void findLetter(SearchParameter searchParameter, LetterHandler letterHandler) throws RollbackException {
+        streamLetters(URI.create(getFindLetterURL(searchParameter)), letterHandler);
+    }
+
+    @Override
+    public LetterListResponseWrapper findLetter(LetterSearchCriteria criteria) throws RollbackException {
+        URI requestUrl = URI.create(getFindLetterURL(criteria));
+        String responseBody = sendRequest(requestUrl, HttpMethod.GET, null);
+
+        LetterListResponseWrapper wrapper = null;
+        try {
+            wrapper = (LetterListResponseWrapper) extractWrapperResponse(responseBody, LetterListResponseWrapper.class, "letterListResponseWrapper");
+        } catch (IOException e) {
+            throw new RollbackException(e);
+        }
+
+        return wrapper;
+    }
+
+    @Override
+    public LetterListResponseWrapper findLetter(LetterSearchCriteria criteria, int limit, String after) throws RollbackException {
+        URI requestUrl = URI.create(getFindLetterURL(criteria) + getPageQuery(limit, after));
+        String responseBody = sendRequest(requestUrl, HttpMethod.GET, null);
+
+        LetterListResponseWrapper wrapper = null;
+        try {
+            wrapper = (LetterListResponseWrapper) extractWrapperResponse(responseBody, LetterListResponseWrapper.class, "letterListResponseWrapper");
+        } catch (IOException e) {
+            throw new RollbackException(e);
+        }
+
+        return wrapper;
+    }
+
+    @Override
+    public void findLetter(LetterSearchCriteria criteria, LetterHandler letterHandler) throws RollbackException {
+        streamLetters(URI.create(getFindLetterURL(criteria)), letterHandler);
+    }
+
+    /**
+     * Returns the findLetter URL for the passed search parameter, with the key and value URL encoded
+     *
+     * @param searchParameter
+     * @return String
+     */
+    private String getFindLetterURL(SearchParameter searchParameter) {
+        return emailServiceURL + "/letter?" + encodeQueryParam(searchParameter.getKey()) + "=" + encodeQueryParam(searchParameter.getValue());
+    }
+
+    /**
+     * Returns the findLetter URL for the passed criteria, with every key and value URL encoded
+     *
+     * @param criteria
+     * @return String
+     */
+    private String getFindLetterURL(LetterSearchCriteria criteria) {
+        StringBuilder requestUrl = new StringBuilder(emailServiceURL + "/letter?");
+        for (SearchParameter searchParameter : criteria.getSearchParameters()) {
+            requestUrl.append(encodeQueryParam(searchParameter.getKey()) + "=" + encodeQueryParam(searchParameter.getValue()) + "&");
+        }
+        if (criteria.getApplID() != null) {
+            requestUrl.append("applID=" + encodeQueryParam(criteria.getApplID()) + "&");
+        }
+        if (criteria.getStatus() != null) {
+            requestUrl.append("status=" + criteria.getStatus() + "&");
+        }
+        if (criteria.getFromDate() != null) {
+            requestUrl.append("fromDate=" + encodeQueryParam(criteria.getFromDate()) + "&");
+        }
+        if (criteria.getToDate() != null) {
+            requestUrl.append("toDate=" + encodeQueryParam(criteria.getToDate()) + "&");
+        }
+        return requestUrl.substring(0, requestUrl.length() - 1);
+    }
+
+    /**
+     * Returns the findLetter page query parameters to append to a findLetter URL, URL encoded
+     *
+     * @param limit
+     * @param after - may be null
+     * @return String
+     */
+    private static String getPageQuery(int limit, String after) {
+        return "&limit=" + encodeQueryParam(String.valueOf(limit)) + (after != null ? "&after=" + encodeQueryParam(after) : "");
+    }
+
+    /**
+     * URL encodes a query parameter name or value - the URL is then sent as a URI, so it is not encoded again
+     *
+     * @param value
+     * @return String
+     */
+    private static String encodeQueryParam(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Requests the passed findLetter URL as NDJSON and hands each Letter to the letterHandler as it is read
+     * - a baseResponseWrapper line ends the stream with the error the service ran into after the first letter
+     *
+     * @param requestUrl
+     * @param letterHandler
+     * @throws RollbackException
+     */
+    private void streamLetters(URI requestUrl, final LetterHandler letterHandler) throws RollbackException {
+        RestTemplate emailServiceClient = null;
+        try {
+            emailServiceClient = setupRestTemplate();
+        } catch (KeyStoreException | KeyManagementException | NoSuchAlgorithmException e) {
+            throw new RollbackException(e);
+        }
+
+        final HttpHeaders headers = authenticationRequired ? createHttpEntityWithAuthAndBody(emailServiceServiceUserName, emailServicePassword, null).getHeaders() : getBaseHeaders();
+
+        try {
+            emailServiceClient.execute(requestUrl, HttpMethod.GET, new RequestCallback() {
+                @Override
+                public void doWithRequest(ClientHttpRequest request) throws IOException {
+                    request.getHeaders().putAll(headers);
+                    request.getHeaders().set("Accept", APPLICATION_NDJSON_VALUE + ", " + MediaType.APPLICATION_JSON_VALUE);
+                }
+            }, new ResponseExtractor<Void>() {
+                @Override
+                public Void extractData(ClientHttpResponse response) throws IOException {
+                    ObjectMapper mapper = new ObjectMapper();
+                    MappingIterator<JsonNode> lines = mapper.reader(JsonNode.class).readValues(response.getBody());
+                    while (lines.hasNext()) {
+                        JsonNode line = lines.next();
+                        if (line.has("baseResponseWrapper")) {
+                            throw new IOException("The letter stream ended with an error: " + line.get("baseResponseWrapper"));
+                        }
+                        letterHandler.handleLetter(mapper.treeToValue(line, Letter.class));
+                    }
+                    return null;
+                }
+            });
+        } catch (RestClientException e) {
+            throw new RollbackException(e);
+        }
+    }
+
+    /**
+     * Returns a lazy iterator over the pages of letters mapped to the passed search parameter - each page
+     * is only requested from the service once the previous one has been consumed
+     *
+     * @param searchParameter
+     * @param limit - the maximum number of letters per page
+     * @return Iterator<LetterListResponseWrapper>
+     */
+    public Iterator<LetterListResponseWrapper> findLetterPages(SearchParameter searchParameter, int limit) {
+        return new LetterPageIterator(this, searchParameter, limit);
+    }
+
     @Override
     public LetterResponseWrapper saveLetter(Letter letter) throws RollbackException {
         return saveLetter(letter, null);
@@ -106,6 +338,7 @@ public class EmailServiceClientImpl implements EmailService {
 
         String requestUrl = emailServiceURL + "/letter/" + letter.getEltrID()  + "/";
         String responseBody = sendRequest(requestUrl, HttpMethod.PUT, jsonBody);
+        evictCachedLetter(letter.getEltrID());
         LetterResponseWrapper wrapper = null;
 
         try {
@@ -119,8 +352,14 @@ public class EmailServiceClientImpl implements EmailService {
 
     @Override
     public LetterResponseWrapper deleteLetter(String id) throws RollbackException {
-        String requestUrl = emailServiceURL + "/letter/" + id + "/";
+        return deleteLetter(id, true);
+    }
+
+    @Override
+    public LetterResponseWrapper deleteLetter(String id, boolean returnDeleted) throws RollbackException {
+        String requestUrl = emailServiceURL + "/letter/" + id + "/?returnDeleted=" + returnDeleted;
         String responseBody = sendRequest(requestUrl, HttpMethod.DELETE, null);
+        evictCachedLetter(id);
 
         LetterResponseWrapper wrapper = null;
         try {
@@ -167,7 +406,8 @@ public class EmailServiceClientImpl implements EmailService {
         String responseBody = sendRequest(requestUrl, HttpMethod.POST, jsonBody);
 
         try {
-            wrapper = extractWrapperResponse(responseBody, BaseResponseWrapper.class, "baseResponseWrapper");
+            // a SendLetterResponseWrapper with the tracking ID if the service queued the letter in its send outbox
+            wrapper = extractWrapperResponse(responseBody, SendLetterResponseWrapper.class, "sendLetterResponseWrapper");
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -176,6 +416,96 @@ public class EmailServiceClientImpl implements EmailService {
         return wrapper;
     }
 
+    @Override
+    public BaseResponseWrapper sendStoredLetter(String id, SendMetaData metaData, String eltrStatusUser) throws RollbackException {
+        String jsonBody = null;
+        try {
+            jsonBody = new ObjectMapper().writeValueAsString(new SendStoredLetterRequest(metaData, eltrStatusUser));
+        } catch (JsonProcessingException e) {
+            throw new RollbackException(e);
+        }
+
+        String requestUrl = emailServiceURL + "/letter/" + id + "/send";
+        String responseBody = sendRequest(requestUrl, HttpMethod.POST, jsonBody);
+        evictCachedLetter(id);
+
+        BaseResponseWrapper wrapper = null;
+        try {
+            wrapper = extractWrapperResponse(responseBody, SendLetterResponseWrapper.class, "sendLetterResponseWrapper");
+        } catch (IOException e) {
+            throw new RollbackException(e);
+        }
+
+        return wrapper;
+    }
+
+    /**
+     * Posts the letter and the rows to /sendletter/bulk, writing the rows to the request as they are read from
+     * the iterator, and hands each row's result to the bulkSendHandler as it is read from the NDJSON response
+     * - the request body is streamed in chunks rather than buffered, so the rows are never all in memory
+     * - the response can only be read once the last row has been sent, so X-Stream-Results is not sent and the
+     *   email service holds the results back until then
+     *
+     * @param letter
+     * @param metaData
+     * @param rows
+     * @param bulkSendHandler
+     * @throws RollbackException
+     */
+    @Override
+    public void sendBulkLetter(final Letter letter, final SendMetaData metaData, final Iterator<BulkSendRow> rows, final BulkSendHandler bulkSendHandler) throws RollbackException {
+        RestTemplate emailServiceClient = setupStreamingRestTemplate();
+        final HttpHeaders headers = authenticationRequired ? createHttpEntityWithAuthAndBody(emailServiceServiceUserName, emailServicePassword, null).getHeaders() : getBaseHeaders();
+
+        try {
+            emailServiceClient.execute(emailServiceURL + "/sendletter/bulk", HttpMethod.POST, new RequestCallback() {
+                @Override
+                public void doWithRequest(ClientHttpRequest request) throws IOException {
+                    request.getHeaders().putAll(headers);
+                    request.getHeaders().set("Accept", APPLICATION_NDJSON_VALUE + ", " + MediaType.APPLICATION_JSON_VALUE);
+
+                    JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(request.getBody(), JsonEncoding.UTF8);
+                    generator.writeStartObject();
+                    generator.writeObjectField("letter", letter);
+                    generator.writeObjectField("sendMetaData", metaData);
+                    generator.writeArrayFieldStart("rows");
+                    while (rows.hasNext()) {
+                        generator.writeObject(rows.next());
+                    }
+                    generator.writeEndArray();
+                    generator.writeEndObject();
+                    generator.flush();
+                }
+            }, new ResponseExtractor<Void>() {
+                @Override
+                public Void extractData(ClientHttpResponse response) throws IOException {
+                    MappingIterator<BulkSendResult> results = new ObjectMapper().reader(BulkSendResult.class).readValues(response.getBody());
+                    while (results.hasNext()) {
+                        bulkSendHandler.handleResult(results.next());
+                    }
+                    return null;
+                }
+            });
+        } catch (RestClientException e) {
+            throw new RollbackException(e);
+        }
+    }
+
+    @Override
+    public SendLetterResponseWrapper getSendStatus(String trackingID) throws RollbackException {
+        String requestUrl = emailServiceURL + "/sendletter/" + trackingID;
+        String responseBody = sendRequest(requestUrl, HttpMethod.GET, null);
+
+        SendLetterResponseWrapper wrapper = null;
+        try {
+            wrapper = (SendLetterResponseWrapper) extractWrapperResponse(responseBody, SendLetterResponseWrapper.class, "sendLetterResponseWrapper");
+        } catch (IOException e) {
+            throw new RollbackException(e);
+        }
+
+        return wrapper;
+    }
+
 
     private BaseResponseWrapper extractBaseResponse(String body)
             throws IOException {
@@ -226,12 +556,105 @@ public class EmailServiceClientImpl implements EmailService {
         return headers;
     }
 
+    /**
+     * Returns a RestTemplate for a request to the email service, which accepts compressed responses and
+     * compresses request bodies of at least compressionMinSize bytes (if compressRequests is set)
+     *
+     * @return RestTemplate
+     */
+    private RestTemplate setupRestTemplate() throws KeyStoreException, KeyManagementException, NoSuchAlgorithmException {
+        RestTemplate restTemplate = NsfRestTemplate.setupRestTemplate(authenticationRequired, requestTimeout);
+        restTemplate.getInterceptors().add(new CompressionInterceptor(compressRequests, compressionMinSize));
+        return restTemplate;
+    }
+
+    /**
+     * Returns a RestTemplate that streams request bodies to the email service instead of buffering them - it
+     * has no interceptors, as RestTemplate buffers the body of every intercepted request
+     *
+     * @return RestTemplate
+     */
+    private RestTemplate setupStreamingRestTemplate() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setBufferRequestBody(false);
+        requestFactory.setConnectTimeout(requestTimeout);
+        requestFactory.setReadTimeout(requestTimeout);
+        return new RestTemplate(requestFactory);
+    }
+
+    /**
+     * Sends a GET request, with If-None-Match set to the passed ETag if there is one, and returns the response
+     * (the response to a 4xx or 5xx status carries its body)
+     *
+     * @param URL
+     * @param eTag - may be null
+     * @return ResponseEntity<String>
+     * @throws RollbackException
+     */
+    private ResponseEntity<String> sendConditionalRequest(String URL, String eTag) throws RollbackException {
+        RestTemplate emailServiceClient = null;
+
+        try {
+            emailServiceClient = setupRestTemplate();
+        } catch (KeyStoreException | KeyManagementException | NoSuchAlgorithmException e) {
+            throw new RollbackException(e);
+        }
+
+        HttpHeaders headers = authenticationRequired ? createHttpEntityWithAuthAndBody(emailServiceServiceUserName, emailServicePassword, null).getHeaders() : getBaseHeaders();
+        if (eTag != null) {
+            headers.setIfNoneMatch(eTag);
+        }
+
+        try {
+            return emailServiceClient.exchange(URL, HttpMethod.GET, new HttpEntity<String>(null, headers), String.class);
+        } catch (HttpClientErrorException ex) {
+            return new ResponseEntity<String>(ex.getResponseBodyAsString(), ex.getStatusCode());
+        } catch (HttpServerErrorException ex){
+            return new ResponseEntity<String>(ex.getResponseBodyAsString(), ex.getStatusCode());
+        }
+    }
+
+    private CachedLetter getCachedLetter(String id) {
+        synchronized (letterValidatorCache) {
+            return letterValidatorCache.get(id);
+        }
+    }
+
+    /**
+     * Keeps the passed getLetter response if it carries an ETag, otherwise drops the kept response for the letter
+     *
+     * @param id
+     * @param response
+     */
+    private void cacheLetter(String id, ResponseEntity<String> response) {
+        String eTag = response.getHeaders().getETag();
+        String cacheControl = response.getHeaders().getCacheControl();
+        synchronized (letterValidatorCache) {
+            if (response.getStatusCode() == HttpStatus.OK && eTag != null && letterValidatorCacheSize > 0) {
+                letterValidatorCache.put(id, new CachedLetter(eTag, cacheControl != null && cacheControl.contains(IMMUTABLE), response.getBody()));
+            } else {
+                letterValidatorCache.remove(id);
+            }
+        }
+    }
+
+    private void evictCachedLetter(String id) {
+        synchronized (letterValidatorCache) {
+            letterValidatorCache.remove(id);
+        }
+    }
+
     private String sendRequest(String URL, HttpMethod httpMethod, String jsonBody ){
+        // expanded and encoded as RestTemplate.exchange(String, ...) does
+        return sendRequest(new DefaultUriTemplateHandler().expand(URL), httpMethod, jsonBody);
+    }
+
+    private String sendRequest(URI URL, HttpMethod httpMethod, String jsonBody ){
 
         RestTemplate emailServiceClient = null;
 
         try {
-            emailServiceClient = NsfRestTemplate.setupRestTemplate(authenticationRequired, requestTimeout);
+            emailServiceClient = setupRestTemplate();
         } catch (KeyStoreException | KeyManagementException | NoSuchAlgorithmException e) {
 
         }
@@ -297,4 +720,57 @@ public class EmailServiceClientImpl implements EmailService {
     public void setRequestTimeout(int requestTimeout) {
         this.requestTimeout = requestTimeout;
     }
+
+    public int getLetterValidatorCacheSize() {
+        return letterValidatorCacheSize;
+    }
+
+    /**
+     * Sets the number of letters whose last getLetter response is kept for revalidation - 0 disables it
+     *
+     * @param letterValidatorCacheSize
+     */
+    public void setLetterValidatorCacheSize(int letterValidatorCacheSize) {
+        this.letterValidatorCacheSize = letterValidatorCacheSize;
+        synchronized (letterValidatorCache) {
+            letterValidatorCache.clear();
+        }
+    }
+
+    public boolean isCompressRequests() {
+        return compressRequests;
+    }
+
+    /**
+     * Sets whether request bodies of at least compressionMinSize bytes are sent gzip encoded - off by default,
+     * as the email service must accept compressed request bodies
+     *
+     * @param compressRequests
+     */
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public void setCompressionMinSize(int compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    /**
+     * A getLetter response body with its ETag
+     */
+    private static class CachedLetter {
+        private final String eTag;
+        private final boolean immutable;
+        private final String responseBody;
+
+        private CachedLetter(String eTag, boolean immutable, String responseBody) {
+            this.eTag = eTag;
+            this.immutable = immutable;
+            this.responseBody = responseBody;
+        }
+    }
 }
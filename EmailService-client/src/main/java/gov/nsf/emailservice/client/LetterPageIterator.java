@@ -0,0 +1,56 @@
+package gov.nsf.emailservice.client;
+
+import gov.nsf.common.exception.RollbackException;
+import gov.nsf.emailservice.api.model.LetterListResponseWrapper;
+import gov.nsf.emailservice.api.model.SearchParameter;
+import gov.nsf.emailservice.api.service.EmailService;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the findLetter pages for a search parameter
+ *
+ * Each page is requested with the nextCursor of the previous one when hasNext() is first called for it.
+ * Iteration ends after the page without a nextCursor, or after a page that carries errors.
+ */
+public class LetterPageIterator implements Iterator<LetterListResponseWrapper> {
+
+    private final EmailService emailService;
+    private final SearchParameter searchParameter;
+    private final int limit;
+
+    private String nextCursor;
+    private boolean lastPageRead;
+    private LetterListResponseWrapper nextPage;
+
+    public LetterPageIterator(EmailService emailService, SearchParameter searchParameter, int limit) {
+        this.emailService = emailService;
+        this.searchParameter = searchParameter;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextPage == null && !lastPageRead) {
+            try {
+                nextPage = emailService.findLetter(searchParameter, limit, nextCursor);
+            } catch (RollbackException e) {
+                throw new IllegalStateException(e);
+            }
+            nextCursor = nextPage.getNextCursor();
+            lastPageRead = nextCursor == null || (nextPage.getErrors() != null && !nextPage.getErrors().isEmpty());
+        }
+        return nextPage != null;
+    }
+
+    @Override
+    public LetterListResponseWrapper next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LetterListResponseWrapper page = nextPage;
+        nextPage = null;
+        return page;
+    }
+}
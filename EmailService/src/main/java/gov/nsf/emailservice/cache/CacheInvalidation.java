@@ -0,0 +1,62 @@
+package gov.nsf.emailservice.cache;
+
+/**
+ * CacheInvalidation tells the other nodes to remove a key (or, if the key is null, every entry) from
+ * one of their caches
+ *
+ * Keys must be Strings or Lists of Strings so they can be sent between processes as JSON.
+ */
+public class CacheInvalidation {
+
+    private String origin;
+    private String cacheName;
+    private Object key;
+
+    public CacheInvalidation() {
+    }
+
+    public CacheInvalidation(String origin, String cacheName, Object key) {
+        this.origin = origin;
+        this.cacheName = cacheName;
+        this.key = key;
+    }
+
+    /**
+     * ID of the node that published the invalidation
+     *
+     * @return String
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public void setCacheName(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    /**
+     * Key to remove - null to remove every entry of the cache
+     *
+     * @return Object
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    public void setKey(Object key) {
+        this.key = key;
+    }
+
+    @Override
+    public String toString() {
+        return "{origin=" + origin + ", cacheName=" + cacheName + ", key=" + key + "}";
+    }
+}
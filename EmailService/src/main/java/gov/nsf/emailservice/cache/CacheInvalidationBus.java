@@ -0,0 +1,25 @@
+package gov.nsf.emailservice.cache;
+
+/**
+ * CacheInvalidationBus carries cache invalidations between the nodes of a deployment, so an entry written
+ * on one node is removed from the local caches of every other node
+ *
+ * Delivery is best effort - the time to live of each cache bounds the staleness left by a lost invalidation.
+ */
+public interface CacheInvalidationBus {
+
+    /**
+     * Sends the invalidation to the listeners of the other nodes - a bus may also deliver it to the
+     * listeners of the publishing node
+     *
+     * @param invalidation
+     */
+    void publish(CacheInvalidation invalidation);
+
+    /**
+     * Registers a listener for the invalidations published on this bus
+     *
+     * @param listener
+     */
+    void subscribe(CacheInvalidationListener listener);
+}
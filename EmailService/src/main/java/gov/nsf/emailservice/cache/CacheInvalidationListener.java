@@ -0,0 +1,14 @@
+package gov.nsf.emailservice.cache;
+
+/**
+ * Receives the invalidations published on a CacheInvalidationBus
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * Called for every invalidation on the bus, including the ones the listener's own node published
+     *
+     * @param invalidation
+     */
+    void onInvalidation(CacheInvalidation invalidation);
+}
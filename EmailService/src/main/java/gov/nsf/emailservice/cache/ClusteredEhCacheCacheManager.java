@@ -0,0 +1,128 @@
+package gov.nsf.emailservice.cache;
+
+import net.sf.ehcache.Ehcache;
+import org.springframework.cache.Cache;
+import org.springframework.cache.ehcache.EhCacheCacheManager;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * ClusteredEhCacheCacheManager is an EhCacheCacheManager whose caches publish every eviction on an
+ * invalidationBus, and which removes the keys the other nodes publish from its own Ehcache caches
+ *
+ * Evictions are published when they are applied to the local cache, so with transactionAware set they are
+ * only published once the transaction commits.
+ */
+public class ClusteredEhCacheCacheManager extends EhCacheCacheManager implements CacheInvalidationListener {
+
+    private final String nodeID = UUID.randomUUID().toString();
+    private CacheInvalidationBus invalidationBus;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (invalidationBus == null) {
+            throw new IllegalArgumentException("Property 'invalidationBus' is required");
+        }
+        super.afterPropertiesSet();
+        invalidationBus.subscribe(this);
+    }
+
+    @Override
+    protected Cache decorateCache(Cache cache) {
+        return super.decorateCache(new InvalidationPublishingCache(cache));
+    }
+
+    /**
+     * Removes the invalidated key from the local Ehcache cache, skipping the node's own invalidations
+     *
+     * @param invalidation
+     */
+    @Override
+    public void onInvalidation(CacheInvalidation invalidation) {
+        if (nodeID.equals(invalidation.getOrigin())) {
+            return;
+        }
+
+        Ehcache ehcache = getCacheManager().getEhcache(invalidation.getCacheName());
+        if (ehcache == null) {
+            return;
+        }
+        if (invalidation.getKey() == null) {
+            ehcache.removeAll();
+        } else {
+            ehcache.remove(invalidation.getKey());
+        }
+    }
+
+    public String getNodeID() {
+        return nodeID;
+    }
+
+    public CacheInvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+
+    public void setInvalidationBus(CacheInvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+    }
+
+    /**
+     * Cache that publishes its evictions and clears on the invalidationBus
+     */
+    private class InvalidationPublishingCache implements Cache {
+
+        private final Cache target;
+
+        private InvalidationPublishingCache(Cache target) {
+            this.target = target;
+        }
+
+        @Override
+        public String getName() {
+            return target.getName();
+        }
+
+        @Override
+        public Object getNativeCache() {
+            return target.getNativeCache();
+        }
+
+        @Override
+        public ValueWrapper get(Object key) {
+            return target.get(key);
+        }
+
+        @Override
+        public <T> T get(Object key, Class<T> type) {
+            return target.get(key, type);
+        }
+
+        @Override
+        public <T> T get(Object key, Callable<T> valueLoader) {
+            return target.get(key, valueLoader);
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            target.put(key, value);
+        }
+
+        @Override
+        public ValueWrapper putIfAbsent(Object key, Object value) {
+            return target.putIfAbsent(key, value);
+        }
+
+        @Override
+        public void evict(Object key) {
+            target.evict(key);
+            invalidationBus.publish(new CacheInvalidation(nodeID, getName(), key));
+        }
+
+        @Override
+        public void clear() {
+            target.clear();
+            invalidationBus.publish(new CacheInvalidation(nodeID, getName(), null));
+        }
+    }
+}
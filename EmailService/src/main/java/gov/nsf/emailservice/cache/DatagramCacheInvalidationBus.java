@@ -0,0 +1,255 @@
+package gov.nsf.emailservice.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.nsf.emailservice.common.util.Constants;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * DatagramCacheInvalidationBus broadcasts invalidations as JSON UDP datagrams to every peer and delivers
+ * the datagrams it receives on its own port to its listeners
+ *
+ * Every node lists the other nodes as peers ("host:port"), which works between processes on one host as
+ * well as between hosts, without needing multicast. A lost datagram only leaves an entry stale until it
+ * expires.
+ *
+ * Datagrams from hosts that are not peers are dropped. With a sharedSecret every datagram starts with an
+ * HMAC-SHA256 of its JSON, and datagrams without a valid one are dropped too - a replayed datagram can only
+ * evict an entry again.
+ */
+public class DatagramCacheInvalidationBus implements CacheInvalidationBus, InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = Logger.getLogger(DatagramCacheInvalidationBus.class);
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+    private static final int MAC_LENGTH = 32;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<CacheInvalidationListener>();
+
+    private int port;
+    private List<String> peers = Collections.emptyList();
+    private String sharedSecret;
+
+    private List<InetSocketAddress> peerAddresses = Collections.emptyList();
+    private Set<InetAddress> peerHosts = Collections.emptySet();
+    private DatagramSocket socket;
+    private Thread receiver;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        Set<InetAddress> hosts = new HashSet<InetAddress>();
+        for (String peer : peers) {
+            int separator = peer.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException(Constants.INVALID_CACHE_INVALIDATION_PEER + peer);
+            }
+            InetSocketAddress address = new InetSocketAddress(peer.substring(0, separator).trim(), Integer.parseInt(peer.substring(separator + 1).trim()));
+            addresses.add(address);
+            if (address.getAddress() != null) {
+                hosts.add(address.getAddress());
+            }
+        }
+        this.peerAddresses = addresses;
+        this.peerHosts = hosts;
+
+        socket = new DatagramSocket(port);
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "cache-invalidation-receiver-" + socket.getLocalPort());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (socket != null) {
+            socket.close();
+        }
+        if (receiver != null) {
+            receiver.join(1000);
+        }
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        byte[] message;
+        try {
+            message = sign(mapper.writeValueAsBytes(invalidation));
+        } catch (IOException | GeneralSecurityException e) {
+            LOGGER.error(Constants.ERROR_PUBLISHING_CACHE_INVALIDATION + invalidation + ": " + e);
+            return;
+        }
+
+        for (InetSocketAddress peerAddress : peerAddresses) {
+            try {
+                socket.send(new DatagramPacket(message, message.length, peerAddress));
+            } catch (IOException e) {
+                LOGGER.warn(Constants.ERROR_PUBLISHING_CACHE_INVALIDATION + peerAddress + ": " + e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(CacheInvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Delivers the received datagrams to the listeners until the socket is closed
+     */
+    private void receive() {
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    LOGGER.warn(Constants.ERROR_RECEIVING_CACHE_INVALIDATION + e);
+                }
+                continue;
+            }
+
+            try {
+                byte[] message = readMessage(packet);
+                if (message == null) {
+                    continue;
+                }
+                CacheInvalidation invalidation = mapper.readValue(message, CacheInvalidation.class);
+                for (CacheInvalidationListener listener : listeners) {
+                    listener.onInvalidation(invalidation);
+                }
+            } catch (Exception e) {
+                LOGGER.warn(Constants.ERROR_RECEIVING_CACHE_INVALIDATION + e);
+            }
+        }
+    }
+
+    /**
+     * Returns the JSON of a datagram received from a peer, or null if it has to be dropped because it comes
+     * from another host or its signature does not match
+     *
+     * @param packet
+     * @return byte[]
+     * @throws GeneralSecurityException
+     */
+    byte[] readMessage(DatagramPacket packet) throws GeneralSecurityException {
+        if (!peerHosts.contains(packet.getAddress())) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(Constants.DROPPED_CACHE_INVALIDATION_FROM_NON_PEER + packet.getAddress());
+            }
+            return null;
+        }
+
+        byte[] data = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+        if (sharedSecret == null) {
+            return data;
+        }
+        if (data.length < MAC_LENGTH) {
+            LOGGER.warn(Constants.DROPPED_UNSIGNED_CACHE_INVALIDATION + packet.getAddress());
+            return null;
+        }
+
+        byte[] message = Arrays.copyOfRange(data, MAC_LENGTH, data.length);
+        if (!MessageDigest.isEqual(Arrays.copyOf(data, MAC_LENGTH), getMac().doFinal(message))) {
+            LOGGER.warn(Constants.DROPPED_UNSIGNED_CACHE_INVALIDATION + packet.getAddress());
+            return null;
+        }
+        return message;
+    }
+
+    /**
+     * Prefixes the message with its HMAC if there is a sharedSecret
+     *
+     * @param message
+     * @return byte[]
+     * @throws GeneralSecurityException
+     */
+    byte[] sign(byte[] message) throws GeneralSecurityException {
+        if (sharedSecret == null) {
+            return message;
+        }
+
+        byte[] signed = new byte[MAC_LENGTH + message.length];
+        System.arraycopy(getMac().doFinal(message), 0, signed, 0, MAC_LENGTH);
+        System.arraycopy(message, 0, signed, MAC_LENGTH, message.length);
+        return signed;
+    }
+
+    private Mac getMac() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(Constants.CACHE_INVALIDATION_MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(sharedSecret.getBytes(StandardCharsets.UTF_8), Constants.CACHE_INVALIDATION_MAC_ALGORITHM));
+        return mac;
+    }
+
+    /**
+     * UDP port invalidations are received on - 0 for any free port
+     *
+     * @return int
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Returns the UDP port the bus actually listens on
+     *
+     * @return int
+     */
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    /**
+     * The other nodes of the deployment, each as "host:port"
+     *
+     * @param peers
+     */
+    public void setPeers(List<String> peers) {
+        this.peers = peers;
+    }
+
+    public String getSharedSecret() {
+        return sharedSecret;
+    }
+
+    /**
+     * Secret shared by every node, used to sign the datagrams - null sends and accepts unsigned datagrams
+     *
+     * @param sharedSecret
+     */
+    public void setSharedSecret(String sharedSecret) {
+        this.sharedSecret = sharedSecret;
+    }
+}
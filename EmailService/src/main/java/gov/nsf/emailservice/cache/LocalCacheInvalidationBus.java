@@ -0,0 +1,26 @@
+package gov.nsf.emailservice.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * LocalCacheInvalidationBus delivers invalidations synchronously to the listeners of the same JVM
+ *
+ * Used by single-node deployments and by tests that run several cache managers in one JVM.
+ */
+public class LocalCacheInvalidationBus implements CacheInvalidationBus {
+
+    private final List<CacheInvalidationListener> listeners = new CopyOnWriteArrayList<CacheInvalidationListener>();
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        for (CacheInvalidationListener listener : listeners) {
+            listener.onInvalidation(invalidation);
+        }
+    }
+
+    @Override
+    public void subscribe(CacheInvalidationListener listener) {
+        listeners.add(listener);
+    }
+}
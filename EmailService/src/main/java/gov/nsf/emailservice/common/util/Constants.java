@@ -57,10 +57,12 @@ public final class Constants {
 
     public static final String INVALID_ELTR_STATUS = "Value for eltrStatus can only be \'Sent\' or \'Draft\'";
     public static final String ERROR_GETTING_LETTER = "Unable to retrieve letter - ";
+    public static final String ERROR_GETTING_LETTERS = "Unable to retrieve letters - ";
     public static final String ERROR_SAVING_LETTER = "Unable to create letter - ";
     public static final String ERROR_UPDATING_LETTER = "Unable to update letter - ";
 
     public static final String ERROR_GETTING_SAVED_LETTER = "Could not retrieve saved letter";
+    public static final String ERROR_GETTING_GENERATED_ELTR_ID = "No ntfy_ltr_id was generated for the inserted letter";
     public static final String ERROR_GETTING_UPDATED_LETTER = "Could not retrieve updated or recently saved letter: ";
     public static final String ERROR_LETTER_ALREADY_SENT_UPDATE = "Cannot update letter with SENT status: ";
     public static final String ERROR_LETTER_ALREADY_SENT_DELETE = "Cannot delete letter with SENT status: ";
@@ -120,6 +122,9 @@ public final class Constants {
     public static final String MAIL_SUBJECT = "ltr_subj";
     public static final String ELTR_STATUS = "ltr_stts_code";
     public static final String ELTR_ID = "ntfy_ltr_id";
+    public static final String ELTR_IDS = "ntfy_ltr_ids";
+    public static final String AFTER_ELTR_ID = "after_ntfy_ltr_id";
+    public static final String PAGE_LIMIT = "page_limit";
     public static final String ELTR_USER = "ltr_stts_user_id";
     public static final String ELTR_DATE = "ltr_stts_date";
     public static final String PLAIN_TEXT = "plain_txt_fmt_flag";
@@ -130,6 +135,9 @@ public final class Constants {
     public static final String SEARCH_PARAMETER_KEY = "ntfy_ltr_atr_id";
     public static final String SEARCH_PARAMETER_VALUE = "atr_val";
     public static final String MAIL_ADDRESS = "emai_addr";
+    public static final String ROW_TYPE = "row_type";
+    public static final String ROW_TYPE_RECIPIENT = "R";
+    public static final String ROW_TYPE_SEARCH_PARAMETER = "P";
     public static final String CURRENT_DATE = "getdate()";
     public static final String EN_SVC = "EnSvc";
     public static final String MY_NSF = "MyNSF";
@@ -154,53 +162,106 @@ public final class Constants {
             "ntfyLtr.appl_id," +
             "ntfyLtr.ltr_subj, " +
             "ltrRecp.ltr_recp_type_code," +
-            "ltrRecp.emai_addr " +
+            "ltrRecp.emai_addr, " +
+            "ntfyLtr.last_updt_tmsp " +
             "from dbo.ntfy_ltr ntfyLtr, dbo.ntfy_ltr_recp ltrRecp " +
             "where ntfyLtr.ntfy_ltr_id=:" + ELTR_ID + " and " +
             "ntfyLtr.ntfy_ltr_id = ltrRecp.ntfy_ltr_id and " +
             "ltrRecp.ltr_recp_type_code in('BC','CC','F','TO')";
 
-    public static final String GET_LETTER_BY_LAST_INSERTED_QUERY = "select " +
+    // Recipient rows (row_type R) and search parameter rows (row_type P) of one letter in a single result set
+    public static final String GET_LETTER_WITH_SEARCH_PARAMETERS_BY_ID_QUERY = "select " +
+            "'" + ROW_TYPE_RECIPIENT + "' as " + ROW_TYPE + ", " +
             "ntfyLtr.ltr_cntn_txt, " +
             "ntfyLtr.ltr_stts_code, " +
             "ntfyLtr.ltr_stts_user_id, " +
             "ntfyLtr.ltr_stts_date, " +
             "ntfyLtr.tmpl_id, " +
-            "ntfyLtr.plain_txt_fmt_flag, " +
-            "ntfyLtr.appl_id, " +
-            "ntfyLtr.ntfy_ltr_id, " +
+            "ntfyLtr.plain_txt_fmt_flag," +
+            "ntfyLtr.ntfy_ltr_id," +
+            "ntfyLtr.appl_id," +
             "ntfyLtr.ltr_subj, " +
-            "ltrRecp.ltr_recp_type_code, " +
-            "ltrRecp.emai_addr " +
+            "ltrRecp.ltr_recp_type_code," +
+            "ltrRecp.emai_addr, " +
+            "ntfyLtr.last_updt_tmsp, " +
+            "null as atr_name, " +
+            "null as atr_val " +
             "from dbo.ntfy_ltr ntfyLtr, dbo.ntfy_ltr_recp ltrRecp " +
-            "where ntfyLtr.ntfy_ltr_id in(select max(ntfy_ltr_id) from dbo.ntfy_ltr) and " +
+            "where ntfyLtr.ntfy_ltr_id=:" + ELTR_ID + " and " +
             "ntfyLtr.ntfy_ltr_id = ltrRecp.ntfy_ltr_id and " +
-            "ltrRecp.ltr_recp_type_code in('BC','CC','F','TO')";
+            "ltrRecp.ltr_recp_type_code in('BC','CC','F','TO') " +
+            "union all " +
+            "select " +
+            "'" + ROW_TYPE_SEARCH_PARAMETER + "' as " + ROW_TYPE + ", " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "a.ntfy_ltr_id, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "b.atr_name, " +
+            "a.atr_val " +
+            "from dbo.ntfy_ltr_addl_info a , dbo.ntfy_ltr_atr_lkup b " +
+            "where a.ntfy_ltr_atr_id = b.ntfy_ltr_atr_id and " +
+            "a.ntfy_ltr_id = :" + ELTR_ID;
 
+    public static final String GET_LETTERS_BY_IDS_QUERY = "select " +
+            "ntfyLtr.ltr_cntn_txt, " +
+            "ntfyLtr.ltr_stts_code, " +
+            "ntfyLtr.ltr_stts_user_id, " +
+            "ntfyLtr.ltr_stts_date, " +
+            "ntfyLtr.tmpl_id, " +
+            "ntfyLtr.plain_txt_fmt_flag," +
+            "ntfyLtr.ntfy_ltr_id," +
+            "ntfyLtr.appl_id," +
+            "ntfyLtr.ltr_subj, " +
+            "ltrRecp.ltr_recp_type_code," +
+            "ltrRecp.emai_addr, " +
+            "ntfyLtr.last_updt_tmsp " +
+            "from dbo.ntfy_ltr ntfyLtr, dbo.ntfy_ltr_recp ltrRecp " +
+            "where ntfyLtr.ntfy_ltr_id in (:" + ELTR_IDS + ") and " +
+            "ntfyLtr.ntfy_ltr_id = ltrRecp.ntfy_ltr_id and " +
+            "ltrRecp.ltr_recp_type_code in('BC','CC','F','TO')";
 
-    public static final String UPDATE_LETTER_WITH_SAME_STATUS_QUERY = "update dbo.ntfy_ltr " +
+    // Only updates letters that have not been sent yet; the status date and user only change along with the status
+    public static final String UPDATE_UNSENT_LETTER_QUERY = "update dbo.ntfy_ltr " +
             "set ltr_subj=:" + MAIL_SUBJECT + ", " +
             "ltr_cntn_txt=:" + ELTR_CONTENT + ", " +
+            "ltr_stts_date = case when ltr_stts_code = :" + ELTR_STATUS + " then ltr_stts_date else getdate() end, " +
+            "ltr_stts_user_id = case when ltr_stts_code = :" + ELTR_STATUS + " then ltr_stts_user_id else :" + ELTR_USER + " end, " +
+            "ltr_stts_code = :" + ELTR_STATUS + ", " +
             "last_updt_pgm= :" + LAST_UPT_PGM + ", " +
             "last_updt_user =:" + LAST_UPT_USER + ", " +
             "last_updt_tmsp = getdate() " +
-            "where ntfy_ltr_id =:" + ELTR_ID;
+            "where ntfy_ltr_id =:" + ELTR_ID + " and " +
+            "ltr_stts_code <> 'S'";
 
-    public static final String UPDATE_LETTER_WITH_NEW_STATUS_QUERY = "update dbo.ntfy_ltr " +
-            "set ltr_subj=:" + MAIL_SUBJECT + ", " +
-            "ltr_cntn_txt=:" + ELTR_CONTENT + ", " +
-            "ltr_stts_code = :" + ELTR_STATUS + ", " +
+    // Compare-and-set of a stored letter to Sent: only one of several concurrent senders updates the row
+    public static final String MARK_LETTER_SENT_QUERY = "update dbo.ntfy_ltr " +
+            "set ltr_stts_code = 'S', " +
             "ltr_stts_date = getdate(), " +
             "ltr_stts_user_id = :" + ELTR_USER + ", " +
             "last_updt_pgm= :" + LAST_UPT_PGM + ", " +
             "last_updt_user =:" + LAST_UPT_USER + ", " +
             "last_updt_tmsp = getdate() " +
-            "where ntfy_ltr_id =:" + ELTR_ID;
+            "where ntfy_ltr_id =:" + ELTR_ID + " and " +
+            "ltr_stts_code <> 'S'";
 
 
     public static final String DELETE_MAIL_RECIPIENTS_QUERY = "delete from dbo.ntfy_ltr_recp " +
             "where ntfy_ltr_id = :" + ELTR_ID;
 
+    public static final String DELETE_MAIL_RECIPIENT_QUERY = "delete from dbo.ntfy_ltr_recp " +
+            "where ntfy_ltr_id = :" + ELTR_ID + " and " +
+            "ltr_recp_type_code = :" + RECIPIENT_TYPE_CODE + " and " +
+            "lower(ltrim(rtrim(coalesce(emai_addr, '')))) = :" + MAIL_ADDRESS;
+
     public static final String INSERT_ELTR_QUERY = "INSERT INTO dbo.ntfy_ltr" +
             "( " +
             "ltr_cntn_txt, " +
@@ -232,23 +293,6 @@ public final class Constants {
 
 
 
-    public static final String INSERT_MAIL_RECIPIENT_QUERY_WITHOUT_ID = "INSERT INTO dbo.ntfy_ltr_recp" +
-            "(" +
-            "ntfy_ltr_id, " +
-            "ltr_recp_type_code, " +
-            "emai_addr, " +
-            "last_updt_pgm, " +
-            "last_updt_user, " +
-            "last_updt_tmsp" +
-            ") " + //Values
-            "select max(ntfy_ltr_id), " +
-            ":" + RECIPIENT_TYPE_CODE + ", " +
-            ":" + MAIL_ADDRESS + ", " +
-            ":" + LAST_UPT_PGM + ", " +
-            ":" + LAST_UPT_USER + ", " +
-            "getdate() " +
-            "from dbo.ntfy_ltr";
-
     public static final String INSERT_MAIL_RECIPIENT_QUERY_WITH_ID = "INSERT INTO dbo.ntfy_ltr_recp" +
             "(" +
             "ntfy_ltr_id, " +
@@ -279,6 +323,17 @@ public final class Constants {
 
 
 
+    public static final String GET_SEARCH_PARAMETERS_BY_IDS_QUERY = "select " +
+            "a.ntfy_ltr_id, " +
+            "a.atr_val, " +
+            "b.atr_name, " +
+            "a.last_updt_pgm, " +
+            "a.last_updt_user, " +
+            "a.last_updt_tmsp " +
+            "from dbo.ntfy_ltr_addl_info a , dbo.ntfy_ltr_atr_lkup b " +
+            "where a.ntfy_ltr_atr_id = b.ntfy_ltr_atr_id and " +
+            "ntfy_ltr_id in (:" + ELTR_IDS + ")";
+
     public static final String INSERT_SEARCH_PARAMETER_QUERY = "INSERT INTO dbo.ntfy_ltr_addl_info " +
             "(" +
             "ntfy_ltr_id, " +
@@ -287,22 +342,32 @@ public final class Constants {
             "last_updt_pgm, " +
             "last_updt_user, " +
             "last_updt_tmsp" +
-            ") SELECT " +
+            ") VALUES(" +
             ":" + ELTR_ID + ", " +
-            "ntfy_ltr_atr_id , "  +
+            ":" + SEARCH_PARAMETER_KEY + ", "  +
             ":" + SEARCH_PARAMETER_VALUE + ", " +
             ":" + LAST_UPT_PGM + ", " +
             ":" + LAST_UPT_USER + ", " +
-            "getdate() FROM dbo.ntfy_ltr_atr_lkup where atr_name =:" + Constants.SEARCH_PARAMETER_KEY;
+            "getdate())";
 
-    public static final String SEARCH_PARAMETER_LOOKUP_QUERY = "select atr_name from dbo.ntfy_ltr_atr_lkup";
+    // every row of the lookup table - the effective dating is applied in memory by SearchParameterLookup
+    public static final String SEARCH_PARAMETER_DEFINITIONS_QUERY = "select ntfy_ltr_atr_id, atr_name, eff_date, end_date from dbo.ntfy_ltr_atr_lkup";
 
 
     public static final String DELETE_SEARCH_PARAMETERS_QUERY = "delete from dbo.ntfy_ltr_addl_info " +
             "where ntfy_ltr_id = :" + ELTR_ID;
 
-    public static final String DELETE_ELTR_QUERY = "delete from dbo.ntfy_ltr " +
-            "where ntfy_ltr_id = :" + ELTR_ID;;
+    public static final String DELETE_UNSENT_SEARCH_PARAMETERS_QUERY = "delete from dbo.ntfy_ltr_addl_info " +
+            "where ntfy_ltr_id in (select ntfy_ltr_id from dbo.ntfy_ltr " +
+            "where ntfy_ltr_id = :" + ELTR_ID + " and ltr_stts_code <> 'S')";
+
+    public static final String DELETE_UNSENT_MAIL_RECIPIENTS_QUERY = "delete from dbo.ntfy_ltr_recp " +
+            "where ntfy_ltr_id in (select ntfy_ltr_id from dbo.ntfy_ltr " +
+            "where ntfy_ltr_id = :" + ELTR_ID + " and ltr_stts_code <> 'S')";
+
+    public static final String DELETE_UNSENT_ELTR_QUERY = "delete from dbo.ntfy_ltr " +
+            "where ntfy_ltr_id = :" + ELTR_ID + " and " +
+            "ltr_stts_code <> 'S'";
 
 
     public static final String GET_LETTER_IDS_QUERY = "select a.ntfy_ltr_id from " +
@@ -313,10 +378,246 @@ public final class Constants {
             "b.atr_name=:" + Constants.ATR_NAME + " and " +
             "a.atr_val=:" + Constants.SEARCH_PARAMETER_VALUE;
 
+    // Letters, recipients (row_type R) and search parameters (row_type P) of all letters whose ID is returned by the
+    // letter ID query formatted in as %1$s, grouped by ntfy_ltr_id so they can be read one letter at a time
+    public static final String STREAM_LETTERS_QUERY_FORMAT = "select " +
+            "'" + ROW_TYPE_RECIPIENT + "' as " + ROW_TYPE + ", " +
+            "ntfyLtr.ltr_cntn_txt, " +
+            "ntfyLtr.ltr_stts_code, " +
+            "ntfyLtr.ltr_stts_user_id, " +
+            "ntfyLtr.ltr_stts_date, " +
+            "ntfyLtr.tmpl_id, " +
+            "ntfyLtr.plain_txt_fmt_flag," +
+            "ntfyLtr.ntfy_ltr_id," +
+            "ntfyLtr.appl_id," +
+            "ntfyLtr.ltr_subj, " +
+            "ltrRecp.ltr_recp_type_code," +
+            "ltrRecp.emai_addr, " +
+            "ntfyLtr.last_updt_tmsp, " +
+            "null as atr_name, " +
+            "null as atr_val " +
+            "from dbo.ntfy_ltr ntfyLtr, dbo.ntfy_ltr_recp ltrRecp " +
+            "where ntfyLtr.ntfy_ltr_id in (%1$s) and " +
+            "ntfyLtr.ntfy_ltr_id = ltrRecp.ntfy_ltr_id and " +
+            "ltrRecp.ltr_recp_type_code in('BC','CC','F','TO') " +
+            "union all " +
+            "select " +
+            "'" + ROW_TYPE_SEARCH_PARAMETER + "' as " + ROW_TYPE + ", " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "c.ntfy_ltr_id, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "null, " +
+            "d.atr_name, " +
+            "c.atr_val " +
+            "from dbo.ntfy_ltr_addl_info c , dbo.ntfy_ltr_atr_lkup d " +
+            "where c.ntfy_ltr_atr_id = d.ntfy_ltr_atr_id and " +
+            "c.ntfy_ltr_id in (%1$s) " +
+            "order by ntfy_ltr_id, " + ROW_TYPE;
+
+    // Letters, recipients and search parameters of all letters with the search parameter
+    public static final String STREAM_LETTERS_QUERY = String.format(STREAM_LETTERS_QUERY_FORMAT, GET_LETTER_IDS_QUERY);
+
+    // Keyset page of letter IDs - :page_limit letters with ntfy_ltr_id above :after_ntfy_ltr_id, in ntfy_ltr_id order
+    public static final String GET_LETTER_IDS_PAGE_QUERY = "select top (:" + Constants.PAGE_LIMIT + ") a.ntfy_ltr_id from " +
+            "dbo.ntfy_ltr_atr_lkup b, " +
+            "dbo.ntfy_ltr_addl_info a " +
+            "where " +
+            "a.ntfy_ltr_atr_id = b.ntfy_ltr_atr_id and " +
+            "b.atr_name=:" + Constants.ATR_NAME + " and " +
+            "a.atr_val=:" + Constants.SEARCH_PARAMETER_VALUE + " and " +
+            "a.ntfy_ltr_id > :" + Constants.AFTER_ELTR_ID + " " +
+            "order by a.ntfy_ltr_id";
+
+    // Letter IDs matching every search parameter of a LetterSearchCriteria - a0 is the most selective search
+    // parameter and each further one (a1, a2, ...) is intersected with an exists clause on the same ntfy_ltr_id,
+    // so every lookup is a seek on the (ntfy_ltr_atr_id, atr_val) index
+    public static final String SEARCH_CRITERIA_LETTER_IDS_SELECT = "select a0.ntfy_ltr_id ";
+    public static final String SEARCH_CRITERIA_LETTER_IDS_PAGE_SELECT = "select top (:" + Constants.PAGE_LIMIT + ") a0.ntfy_ltr_id ";
+    public static final String SEARCH_CRITERIA_LETTER_IDS_FROM = "from dbo.ntfy_ltr_addl_info a0 " +
+            "where a0.ntfy_ltr_atr_id = :" + Constants.ATR_ID + "0 and " +
+            "a0.atr_val = :" + Constants.ATR_VAL + "0";
+    public static final String SEARCH_CRITERIA_SEARCH_PARAMETER_CLAUSE = " and exists (select 1 from dbo.ntfy_ltr_addl_info a%1$d " +
+            "where a%1$d.ntfy_ltr_id = a0.ntfy_ltr_id and " +
+            "a%1$d.ntfy_ltr_atr_id = :" + Constants.ATR_ID + "%1$d and " +
+            "a%1$d.atr_val = :" + Constants.ATR_VAL + "%1$d)";
+    public static final String SEARCH_CRITERIA_LETTER_CLAUSE = " and exists (select 1 from dbo.ntfy_ltr l " +
+            "where l.ntfy_ltr_id = a0.ntfy_ltr_id";
+    public static final String SEARCH_CRITERIA_APPL_ID_CLAUSE = " and l.appl_id = :" + Constants.APPL_ID;
+    public static final String SEARCH_CRITERIA_STATUS_CLAUSE = " and l.ltr_stts_code = :" + Constants.ELTR_STATUS;
+    public static final String SEARCH_CRITERIA_FROM_DATE_CLAUSE = " and l.ltr_stts_date >= :" + Constants.FROM_DATE;
+    public static final String SEARCH_CRITERIA_TO_DATE_CLAUSE = " and l.ltr_stts_date < :" + Constants.TO_DATE;
+    public static final String SEARCH_CRITERIA_PAGE_CLAUSE = " and a0.ntfy_ltr_id > :" + Constants.AFTER_ELTR_ID + " " +
+            "order by a0.ntfy_ltr_id";
+
+    // Number of ntfy_ltr_addl_info rows matching the search parameter at index %1$d of a LetterSearchCriteria, used
+    // to order the search parameters from most to least selective. The counts of all the search parameters are
+    // read in one query (joined with SEARCH_PARAMETER_MATCH_COUNT_UNION) and keyed by the index, as atr_val is
+    // compared with the column's collation and may not match the passed value exactly.
+    public static final String SEARCH_PARAMETER_MATCH_COUNT_QUERY = "select %1$d as " + Constants.SEARCH_PARAMETER_INDEX + ", count(*) as " + Constants.MATCH_COUNT + " " +
+            "from dbo.ntfy_ltr_addl_info a " +
+            "where a.ntfy_ltr_atr_id = :" + Constants.ATR_ID + "%1$d and " +
+            "a.atr_val = :" + Constants.ATR_VAL + "%1$d";
+    public static final String SEARCH_PARAMETER_MATCH_COUNT_UNION = " union all ";
+
+    // Replication lag in seconds of the SQL Server availability group replica the query runs on
+    public static final String REPLICATION_LAG_QUERY = "select datediff(second, last_commit_time, getdate()) " +
+            "from sys.dm_hadr_database_replica_states " +
+            "where is_local = 1 and database_id = db_id()";
+    public static final int DEFAULT_MAX_REPLICATION_LAG_SECONDS = 30;
+    public static final long DEFAULT_LAG_CHECK_INTERVAL_MILLIS = 5000;
+    public static final String ERROR_CONNECTING_TO_REPLICA = "Could not connect to replica, using primary: ";
+    public static final String ERROR_CHECKING_REPLICATION_LAG = "Could not check replica replication lag, skipping replica: ";
+    public static final String REPLICA_LAGGING = "Replica replication lag above maximum, skipping replica - lag in seconds: ";
+
+    // Send outbox - /sendletter requests waiting to be sent by the SendOutbox workers
+    public static final String SEND_REQUEST_ID = "send_rqst_id";
+    public static final String SEND_REQUEST_TEXT = "send_rqst_txt";
+    public static final String SEND_STATUS = "send_stts_code";
+    public static final String SEND_ATTEMPTS = "atmp_cnt";
+    public static final String NEXT_ATTEMPT_TMSP = "next_atmp_tmsp";
+    public static final String LAST_ERROR = "last_err_txt";
+    public static final String NOW = "now";
+    public static final String STALE_BEFORE = "stale_before";
+
+    public static final String INSERT_SEND_REQUEST_QUERY = "INSERT INTO dbo.ntfy_ltr_send_otbx" +
+            "(" +
+            "send_rqst_txt, " +
+            "send_stts_code, " +
+            "atmp_cnt, " +
+            "next_atmp_tmsp, " +
+            "last_updt_pgm, " +
+            "last_updt_user, " +
+            "last_updt_tmsp" +
+            ") " +
+            "VALUES(" +
+            ":" + SEND_REQUEST_TEXT + ", " +
+            "'Q', " +
+            "0, " +
+            ":" + NOW + ", " +
+            ":" + LAST_UPT_PGM + ", " +
+            ":" + LAST_UPT_USER + ", " +
+            ":" + NOW + ")";
+
+    public static final String GET_SEND_REQUEST_STATUS_QUERY = "select send_rqst_id, send_stts_code, atmp_cnt, last_err_txt " +
+            "from dbo.ntfy_ltr_send_otbx " +
+            "where send_rqst_id = :" + SEND_REQUEST_ID;
+
+    // Queued requests that are due and requests whose sender stopped (claimed before :stale_before), oldest first
+    public static final String FIND_DUE_SEND_REQUESTS_QUERY = "select top (:" + PAGE_LIMIT + ") send_rqst_id, send_rqst_txt, send_stts_code, atmp_cnt, last_err_txt " +
+            "from dbo.ntfy_ltr_send_otbx " +
+            "where (send_stts_code = 'Q' and next_atmp_tmsp <= :" + NOW + ") or " +
+            "(send_stts_code = 'P' and last_updt_tmsp < :" + STALE_BEFORE + ") " +
+            "order by send_rqst_id";
+
+    // Claims a request for one sender - atmp_cnt is the version, so of several nodes claiming the same row only one updates it
+    public static final String CLAIM_SEND_REQUEST_QUERY = "update dbo.ntfy_ltr_send_otbx " +
+            "set send_stts_code = 'P', " +
+            "atmp_cnt = atmp_cnt + 1, " +
+            "last_updt_tmsp = :" + NOW + " " +
+            "where send_rqst_id = :" + SEND_REQUEST_ID + " and " +
+            "send_stts_code = :" + SEND_STATUS + " and " +
+            "atmp_cnt = :" + SEND_ATTEMPTS;
+
+    // Records the outcome of a claimed request, unless another sender has claimed it since
+    public static final String COMPLETE_SEND_REQUEST_QUERY = "update dbo.ntfy_ltr_send_otbx " +
+            "set send_stts_code = :" + SEND_STATUS + ", " +
+            "next_atmp_tmsp = :" + NEXT_ATTEMPT_TMSP + ", " +
+            "last_err_txt = :" + LAST_ERROR + ", " +
+            "last_updt_tmsp = :" + NOW + " " +
+            "where send_rqst_id = :" + SEND_REQUEST_ID + " and " +
+            "send_stts_code = 'P' and " +
+            "atmp_cnt = :" + SEND_ATTEMPTS;
+
+    public static final String LETTERS_CACHE = "letters";
+    public static final String MISSING_LETTERS_CACHE = "missingLetters";
+    public static final String SEARCH_PARAMETER_LETTER_IDS_CACHE = "searchParameterLetterIDs";
+    // Time to live of draft letters in the letters cache - Sent letters never expire
+    public static final int DEFAULT_DRAFT_LETTER_TIME_TO_LIVE_SECONDS = 60;
+    public static final int DEFAULT_OFF_HEAP_PAGE_SIZE = 4096;
+    public static final int DEFAULT_OFF_HEAP_MIN_CONTENT_BYTES = 1024;
+    public static final String CACHED_LETTER_CONTENT_EVICTED = "Content of the cached letter was evicted from the off-heap content store: ";
+    public static final String INVALID_CACHE_INVALIDATION_PEER = "Cache invalidation peer must be host:port: ";
+    public static final String ERROR_PUBLISHING_CACHE_INVALIDATION = "Could not publish cache invalidation to ";
+    public static final String ERROR_RECEIVING_CACHE_INVALIDATION = "Could not receive cache invalidation: ";
+    public static final String DROPPED_CACHE_INVALIDATION_FROM_NON_PEER = "Dropped cache invalidation from a host that is not a peer: ";
+    public static final String DROPPED_UNSIGNED_CACHE_INVALIDATION = "Dropped cache invalidation with a missing or invalid signature from ";
+    public static final String CACHE_INVALIDATION_MAC_ALGORITHM = "HmacSHA256";
+
     public static final String SEPARATOR = "-";
     public static final String YES = "Y";
     public static final String NO = "N";
-    public static final String MAX_ID = "MAX_ID";
+    public static final int DEFAULT_BATCH_FETCH_SIZE = 500;
+    public static final int DEFAULT_BATCH_INSERT_SIZE = 500;
+    public static final String INVALID_BATCH_INSERT_SIZE = "batchInsertSize must be at least 1: ";
+    public static final int DEFAULT_STREAM_FETCH_SIZE = 500;
+    public static final long DEFAULT_SEARCH_PARAMETER_REFRESH_INTERVAL_MILLIS = 3600000;
+    public static final long DEFAULT_SEARCH_PARAMETER_RETRY_INTERVAL_MILLIS = 60000;
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    // Sent letters can no longer change, so clients may keep them without revalidating; drafts must be revalidated
+    public static final String SENT_LETTER_CACHE_CONTROL = "private, max-age=31536000, immutable";
+    public static final String DRAFT_LETTER_CACHE_CONTROL = "private, no-cache";
+
+    public static final String GZIP_ENCODING = "gzip";
+    public static final String X_GZIP_ENCODING = "x-gzip";
+    public static final String DEFLATE_ENCODING = "deflate";
+    public static final String IDENTITY_ENCODING = "identity";
+    public static final String UTF_8_ENCODING = "UTF-8";
+    // Responses smaller than this are not worth compressing
+    public static final int DEFAULT_COMPRESSION_MIN_SIZE_BYTES = 1024;
+    public static final int COMPRESSION_BUFFER_SIZE = 8192;
+    public static final long DEFAULT_MAX_INFLATED_REQUEST_BYTES = 10485760;
+    public static final String DEFAULT_COMPRESSIBLE_CONTENT_TYPES = "application/json,application/x-ndjson,application/javascript,application/xml,text/";
+    public static final String UNSUPPORTED_CONTENT_ENCODING = "Unsupported Content-Encoding: ";
+    public static final String INFLATED_REQUEST_TOO_LARGE = "Decompressed request body is larger than the maximum in bytes: ";
+
+    public static final int DEFAULT_SEND_OUTBOX_CONCURRENCY = 4;
+    public static final long DEFAULT_SEND_OUTBOX_POLL_INTERVAL_MILLIS = 1000;
+    public static final int DEFAULT_SEND_OUTBOX_MAX_ATTEMPTS = 5;
+    // Doubled after every failed attempt
+    public static final long DEFAULT_SEND_OUTBOX_RETRY_DELAY_MILLIS = 30000;
+    // A request claimed longer ago than this is taken to belong to a stopped node and is sent again
+    public static final long DEFAULT_SEND_OUTBOX_CLAIM_TIMEOUT_MILLIS = 600000;
+    // Letters sent together over one connection by a sender thread, when a batchingJavaMailSender is set
+    public static final int DEFAULT_SEND_OUTBOX_BATCH_SIZE = 20;
+    public static final int MAX_LAST_ERROR_LENGTH = 512;
+    public static final String SEND_LETTER_RESPONSE_WRAPPER = "sendLetterResponseWrapper";
+    public static final String SEND_STATUS_PATH = "/sendletter/";
+    public static final String LETTER_PATH = "/letter/";
+    public static final String ERROR_QUEUEING_SEND_REQUEST = "Unable to queue letter for sending - ";
+    public static final String ERROR_INSERTING_SEND_REQUEST = "Error inserting send request into the send outbox: ";
+    public static final String ERROR_GETTING_GENERATED_SEND_REQUEST_ID = "No send_rqst_id was generated for the queued send request";
+    public static final String ERROR_READING_SEND_OUTBOX = "Error reading the send outbox: ";
+    public static final String ERROR_UPDATING_SEND_OUTBOX = "Error updating send request in the send outbox: ";
+    public static final String ERROR_DRAINING_SEND_OUTBOX = "Could not drain the send outbox: ";
+    public static final String ERROR_SENDING_QUEUED_LETTER = "Could not send queued send request: ";
+    public static final String SEND_REQUEST_DOES_NOT_EXIST = "Tracking ID does not exist: ";
+    public static final String TRACKING_ID_NON_NUMERIC = "Tracking ID has to be a valid integer";
+    public static final String SEND_OUTBOX_STOPPED = "The send outbox is stopped";
+
+    public static final int DEFAULT_SMTP_POOL_MAX_TOTAL = 8;
+    // Idle connections are closed well before mail servers drop them (typically after 60 seconds or more)
+    public static final long DEFAULT_SMTP_POOL_MAX_IDLE_MILLIS = 30000;
+    // A connection idle for longer than this is checked with an SMTP NOOP before it is reused
+    public static final long DEFAULT_SMTP_POOL_VALIDATE_AFTER_IDLE_MILLIS = 5000;
+    public static final int DEFAULT_SMTP_POOL_MAX_MESSAGES_PER_CONNECTION = 100;
+    public static final long DEFAULT_SMTP_POOL_BORROW_TIMEOUT_MILLIS = 30000;
+    public static final long DEFAULT_SMTP_POOL_EVICTION_INTERVAL_MILLIS = 10000;
+    public static final String MESSAGE_ID_HEADER = "Message-ID";
+    public static final String ERROR_SMTP_CONNECTION_FAILED = "Mail server connection failed";
+    public static final String ERROR_SMTP_POOL_EXHAUSTED = "Timed out waiting for a pooled SMTP connection after ms: ";
+    public static final String ERROR_CLOSING_SMTP_CONNECTION = "Error closing SMTP connection: ";
+    public static final String ERROR_EVICTING_SMTP_CONNECTIONS = "Could not evict idle SMTP connections: ";
+    public static final String SMTP_POOL_CLOSED = "The SMTP connection pool is closed";
+    public static final String ERROR_SENDING_MESSAGE_BATCH = "Could not send message batch: ";
+    public static final String ERROR_PREPARING_MESSAGE = "Could not prepare message: ";
 
     public static final String LETTER_RESPONSE_WRAPPER = "letterResponseWrapper";
 
@@ -338,9 +639,33 @@ public final class Constants {
     public static final String SEARCH_PARAMETER_KEY_FIELD = "searchParameter.key";
 
     public static final String ATR_NAME = "atr_name";
-    public static final String INVALID_NUMBER_OF_SEARCH_PARAMETERS = "The field can only have one key-value pair";
+    public static final String INVALID_NUMBER_OF_SEARCH_PARAMETERS = "The field must have at least one key-value pair";
     public static final String QUERY_PARAMETERS = "URL Query Parameters";
 
+    public static final String ATR_ID = "atr_id_";
+    public static final String ATR_VAL = "atr_val_";
+    public static final String MATCH_COUNT = "match_count";
+    public static final String SEARCH_PARAMETER_INDEX = "search_parameter_index";
+    public static final String FROM_DATE = "from_date";
+    public static final String TO_DATE = "to_date";
+    public static final String STATUS_FIELD = "status";
+    public static final String FROM_DATE_FIELD = "fromDate";
+    public static final String TO_DATE_FIELD = "toDate";
+    public static final String SEARCH_DATE_FORMAT = "yyyy-MM-dd";
+    public static final String INVALID_STATUS_FILTER = "The field can only be 'Sent' or 'Draft': " + STATUS_FIELD;
+    public static final String INVALID_DATE_FILTER = "The field must be a " + SEARCH_DATE_FORMAT + " date: ";
+    public static final String INVALID_DATE_RANGE = "The field cannot be after " + TO_DATE_FIELD + ": " + FROM_DATE_FIELD;
+    public static final String INVALID_APPL_ID_FILTER = "The field must be a non-negative integer: " + APPL_ID_FIELD;
+    public static final String RESERVED_SEARCH_PARAMETER_NAME = "The name is reserved for a findLetter filter or page parameter: ";
+
+    public static final String LIMIT = "limit";
+    public static final String AFTER = "after";
+    public static final int DEFAULT_PAGE_LIMIT = 100;
+    public static final int MAX_PAGE_LIMIT = 1000;
+    public static final String CURSOR_PREFIX = "ltr:";
+    public static final String INVALID_PAGE_LIMIT = "The field must be an integer between 1 and " + MAX_PAGE_LIMIT + ": " + LIMIT;
+    public static final String INVALID_PAGE_CURSOR = "The field must be a nextCursor value returned by a previous request: " + AFTER;
+
     public static final String ERROR_GETTING_LETTER_IDS = "Could not get letter IDs for search parameter name: ";
     public static final String ERROR_FINDING_LETTER = "Error finding letter: ";
     public static final String ERROR_DELETING_SEARCH_PARAMETERS = "Error deleting search parameters for eltrID: ";
@@ -353,6 +678,30 @@ public final class Constants {
     public static final String APPL_ID_NON_NUMERIC = "Application ID has to be a valid interger";
     public static final String SEARCH_PARAMETER_RESPONSE_WRAPPER = "searchParameterResponseWrapper";
     public static final String ERROR_LOOKING_UP_PARAMETER_NAMES = "Error looking up search parameter names: ";
+    public static final String ERROR_LOOKING_UP_PARAMETER_IDS = "Error looking up search parameter IDs: ";
+    public static final String ERROR_RELOADING_SEARCH_PARAMETERS = "Could not reload search parameters, serving the previously loaded ones: ";
     public static final String ERROR_SENDING_STORED_LETTER = "Unable to send stored letter: ";
     public static final String ERROR_LETTER_ALREADY_SENT_SEND = "Cannot send a letter that has already been sent";
+    public static final String ERROR_MARKING_LETTER_SENT = "Unable to mark letter as sent - ";
+    public static final String STORED_LETTER_STAYS_SENT = " - the letter stays Sent, as the mail server may have accepted it: ";
+    public static final String INVALID_DEBUG_RECIPIENTS = "Debug Recipient invalid. SendMetaData must contain a valid debugRecipient(s) when sendLevel==[DebugLevel].";
+    public static final String SEND_STORED_LETTER_REQUEST_FIELD = "sendStoredLetterRequest";
+
+    // Mail merge (POST /sendletter/bulk)
+    public static final int DEFAULT_MAIL_MERGE_CONCURRENCY = 4;
+    // Rows rendered or sent at once per mail merge thread; further rows are not read until one finishes
+    public static final int MAIL_MERGE_ROWS_IN_FLIGHT_PER_THREAD = 2;
+    public static final String BULK_SEND_ROWS_FIELD = "rows";
+    public static final String BULK_SEND_ROW_FIELD = "row";
+    public static final String MERGE_VARIABLES_FIELD = "variables";
+    public static final String SEND_METADATA_FIELD = "sendMetaData";
+    public static final String MISSING_MERGE_VARIABLE = "Missing mail merge variable: ";
+    public static final String BULK_SEND_ROWS_BEFORE_LETTER = "letter must come before rows in a bulk send request";
+    public static final String ERROR_READING_BULK_SEND_REQUEST = "Could not read bulk send request: ";
+    // Sent by clients that read the bulk send results while they are still sending rows
+    public static final String BULK_SEND_STREAM_RESULTS_HEADER = "X-Stream-Results";
+    // Results held back for other clients beyond this size go to a temporary file
+    public static final int MAX_HELD_BULK_SEND_RESULTS_IN_MEMORY_BYTES = 1048576;
+    public static final String HELD_BULK_SEND_RESULTS_FILE_PREFIX = "bulk-send-results";
+    public static final String ERROR_SENDING_BULK_ROW = "Unable to send mail merge row: ";
 }
@@ -0,0 +1,76 @@
+package gov.nsf.emailservice.common.util;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Letter content or subject with ${name} placeholders, parsed once and rendered for every row of a mail merge
+ *
+ * - A "${" without a closing "}" is kept as it is
+ * - Rendering fails with an IllegalArgumentException if a placeholder has no value
+ * - Instances are immutable and can be rendered from several threads at once
+ */
+public final class MailMergeTemplate {
+
+    private static final String PLACEHOLDER_START = "${";
+    private static final String PLACEHOLDER_END = "}";
+
+    // literals.get(i) comes before names.get(i); the last literal follows the last placeholder
+    private final List<String> literals = new ArrayList<String>();
+    private final List<String> names = new ArrayList<String>();
+    private final int literalLength;
+
+    private MailMergeTemplate(String template) {
+        int length = 0;
+        int start = 0;
+        while (true) {
+            int placeholderStart = template.indexOf(PLACEHOLDER_START, start);
+            int placeholderEnd = placeholderStart < 0 ? -1 : template.indexOf(PLACEHOLDER_END, placeholderStart + PLACEHOLDER_START.length());
+            if (placeholderEnd < 0) {
+                break;
+            }
+            literals.add(template.substring(start, placeholderStart));
+            names.add(template.substring(placeholderStart + PLACEHOLDER_START.length(), placeholderEnd).trim());
+            length += placeholderStart - start;
+            start = placeholderEnd + PLACEHOLDER_END.length();
+        }
+        literals.add(template.substring(start));
+        literalLength = length + template.length() - start;
+    }
+
+    /**
+     * Parses the passed template
+     *
+     * @param template
+     * @return MailMergeTemplate, or null if template is null
+     */
+    public static MailMergeTemplate compile(String template) {
+        return template != null ? new MailMergeTemplate(template) : null;
+    }
+
+    /**
+     * Replaces every placeholder with its value
+     *
+     * @param variables
+     * @param escapeHtml - HTML escape the values, for HTML letter content
+     * @return String
+     * @throws IllegalArgumentException if a placeholder has no value
+     */
+    public String render(Map<String, String> variables, boolean escapeHtml) {
+        if (names.isEmpty()) {
+            return literals.get(0);
+        }
+        StringBuilder rendered = new StringBuilder(literalLength + 16 * names.size());
+        for (int i = 0; i < names.size(); i++) {
+            String value = variables != null ? variables.get(names.get(i)) : null;
+            if (value == null) {
+                throw new IllegalArgumentException(Constants.MISSING_MERGE_VARIABLE + names.get(i));
+            }
+            rendered.append(literals.get(i)).append(escapeHtml ? StringEscapeUtils.escapeHtml(value) : value);
+        }
+        return rendered.append(literals.get(names.size())).toString();
+    }
+}
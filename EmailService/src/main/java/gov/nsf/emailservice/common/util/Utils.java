@@ -6,7 +6,9 @@ import gov.nsf.emailservice.api.model.Letter;
 import gov.nsf.emailservice.api.model.SearchParameter;
 import gov.nsf.emailservice.common.util.Constants;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -75,4 +77,41 @@ public class Utils {
 
         return searchParameters;
     }
+
+    /**
+     * Returns the opaque findLetter page cursor pointing after the passed eltrID
+     *
+     * @param eltrID
+     * @return
+     */
+    public static String encodeLetterCursor(String eltrID){
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((Constants.CURSOR_PREFIX + eltrID).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the eltrID the passed findLetter page cursor points after, or null if it is not a valid cursor
+     *
+     * @param cursor
+     * @return
+     */
+    public static String decodeLetterCursor(String cursor){
+        String decoded = null;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        if(!decoded.startsWith(Constants.CURSOR_PREFIX)){
+            return null;
+        }
+
+        String eltrID = decoded.substring(Constants.CURSOR_PREFIX.length());
+        try {
+            Integer.parseInt(eltrID);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return eltrID;
+    }
 }
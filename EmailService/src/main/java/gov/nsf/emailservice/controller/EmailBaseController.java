@@ -9,6 +9,7 @@ import gov.nsf.common.model.BaseError;
 import gov.nsf.common.model.BaseResponseWrapper;
 import gov.nsf.emailservice.api.model.InvalidSearchParameterException;
 import gov.nsf.emailservice.api.model.LetterAlreadySentException;
+import gov.nsf.emailservice.api.model.LetterNotFoundException;
 import gov.nsf.emailservice.common.util.Constants;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
@@ -109,6 +110,24 @@ public class EmailBaseController {
         return new EmberModel.Builder<BaseResponseWrapper>(Constants.BASE_RESPONSE_WRAPPER, response).build();
     }
 
+    /**
+     * Response handler for LetterNotFoundException exceptions
+     * - A missing letter is an expected answer to clients polling for it, so it is only logged at debug level
+     * @param ex
+     * @return BaseResponseWrapper w/ empty Letter field
+     */
+    @ExceptionHandler({ LetterNotFoundException.class })
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    @ResponseBody
+    public EmberModel processLetterNotFoundException(LetterNotFoundException ex) {
+        BaseResponseWrapper response = new BaseResponseWrapper();
+        response.addError(new BaseError(Constants.ELTR_ID_FIELD, ex.getErrMsg()));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("EmailBaseController - Letter not found : " + ex);
+        }
+        return new EmberModel.Builder<BaseResponseWrapper>(Constants.BASE_RESPONSE_WRAPPER, response).build();
+    }
+
     /**
      * Response handler for ResourceNotFoundException exceptions
      * @param ex
@@ -1,24 +1,54 @@
 package gov.nsf.emailservice.controller;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.mynsf.common.email.model.SendMetaData;
 import gov.nsf.common.exception.FormValidationException;
 import gov.nsf.common.exception.RollbackException;
+import gov.nsf.common.model.BaseError;
 import gov.nsf.common.model.BaseResponseWrapper;
 import gov.nsf.emailservice.api.model.*;
+import gov.nsf.emailservice.api.model.request.BulkSendRow;
 import gov.nsf.emailservice.api.model.request.SendLetterRequest;
+import gov.nsf.emailservice.api.model.request.SendStoredLetterRequest;
 import gov.nsf.emailservice.common.util.Utils;
 import gov.nsf.emailservice.validator.*;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import gov.nsf.common.ember.model.EmberModel;
 import gov.nsf.emailservice.common.util.Constants;
+import gov.nsf.emailservice.api.service.BulkSendHandler;
 import gov.nsf.emailservice.api.service.EmailService;
+import gov.nsf.emailservice.api.service.LetterHandler;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Controller to serve /emailservice requests
@@ -33,9 +63,17 @@ public class EmailController extends EmailBaseController {
     @Autowired
     private EmailServiceValidatorFactory emailServiceValidatorFactory;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static final Logger LOGGER = Logger.getLogger(EmailController.class);
+
 
     /**
      * GET handler for /letter/{id}
+     * - The response carries an ETag and Last-Modified taken from the letter's ntfy_ltr_id and last_updt_tmsp;
+     *   a request whose If-None-Match or If-Modified-Since still matches gets an empty 304 response
+     * - Sent letters are marked immutable, drafts must be revalidated on every use
      *
      * @return JSON response of Letter object
      */
@@ -47,14 +85,34 @@ public class EmailController extends EmailBaseController {
     @ApiResponses(value = {
             @ApiResponse(code = 500, message = "Internal Server Error"),
             @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 304, message = "Not Modified"),
             @ApiResponse(code = 400, message = "Input/Business Validation Error"),
             @ApiResponse(code = 404, message = "Not Found")})
-    public EmberModel getLetter(@PathVariable String id) throws RollbackException, FormValidationException {
+    public EmberModel getLetter(@PathVariable String id, WebRequest webRequest, HttpServletResponse response) throws RollbackException, FormValidationException {
         emailServiceValidatorFactory.getValidator("getLetter").validateRequest(id);
         LetterResponseWrapper wrapper = emailService.getLetter(id);
+
+        Letter letter = wrapper.getLetter();
+        if (letter != null && letter.getLastUpdated() != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, letter.getEltrStatus() == LetterStatus.Sent ? Constants.SENT_LETTER_CACHE_CONTROL : Constants.DRAFT_LETTER_CACHE_CONTROL);
+            if (webRequest.checkNotModified(getLetterETag(letter), letter.getLastUpdated())) {
+                return null;
+            }
+        }
         return new EmberModel.Builder<LetterResponseWrapper>(Constants.LETTER_RESPONSE_WRAPPER, wrapper).build();
     }
 
+    /**
+     * Returns the ETag of the letter - a weak validator, as it is derived from the last update time rather
+     * than from the bytes of the response
+     *
+     * @param letter
+     * @return String
+     */
+    private static String getLetterETag(Letter letter) {
+        return "W/\"" + letter.getEltrID() + Constants.SEPARATOR + Long.toHexString(letter.getLastUpdated()) + "\"";
+    }
+
     /**
      * GET handler for /letter/{id}/parameters
      *
@@ -77,7 +135,10 @@ public class EmailController extends EmailBaseController {
     }
 
     /**
-     * GET handler for /letter?paramName=paramVal
+     * GET handler for /letter?paramName=paramVal[&paramName2=paramVal2...]
+     * - letters must match every search parameter
+     * - applID, status, fromDate and toDate (yyyy-MM-dd, inclusive) optionally filter the matched letters
+     * - limit and/or after (a previous nextCursor) return one page of the letters in ntfy_ltr_id order
      *
      * @return JSON response of Letter object
      */
@@ -92,15 +153,131 @@ public class EmailController extends EmailBaseController {
             @ApiResponse(code = 400, message = "Input/Business Validation Error"),
             @ApiResponse(code = 404, message = "Not Found")})
     public EmberModel findLetter(@RequestParam Map<String, String> parameterMap) throws RollbackException, FormValidationException {
-        Letter letter = new Letter();
-        letter.setSearchParameters(Utils.getSearchParametersFromMap(parameterMap));
-        emailServiceValidatorFactory.getValidator("findLetter").validateRequest(letter);
+        Map<String, String> searchParameterMap = new HashMap<String, String>(parameterMap);
+        String limit = searchParameterMap.remove(Constants.LIMIT);
+        String after = searchParameterMap.remove(Constants.AFTER);
+
+        EmailServiceValidator validator = emailServiceValidatorFactory.getValidator("findLetter");
+        LetterSearchCriteria criteria = getSearchCriteria(searchParameterMap, validator);
+        validator.validatePageRequest(limit, after);
 
-        SearchParameter searchParameter = letter.getSearchParameters().get(0);
-        LetterListResponseWrapper wrapper = emailService.findLetter(searchParameter);
+        boolean paged = limit != null || after != null;
+        int pageLimit = limit != null ? Integer.parseInt(limit) : Constants.DEFAULT_PAGE_LIMIT;
+        LetterListResponseWrapper wrapper = null;
+        if (isSingleSearchParameter(criteria)) {
+            SearchParameter searchParameter = criteria.getSearchParameters().get(0);
+            wrapper = paged ? emailService.findLetter(searchParameter, pageLimit, after) : emailService.findLetter(searchParameter);
+        } else {
+            wrapper = paged ? emailService.findLetter(criteria, pageLimit, after) : emailService.findLetter(criteria);
+        }
         return new EmberModel.Builder<LetterListResponseWrapper>("letterListResponseWrapper", wrapper).build();
     }
 
+    /**
+     * GET handler for /letter?paramName=paramVal with Accept: application/x-ndjson
+     * - streams every matching letter to the response as one JSON object per line instead of building
+     *   the whole response in memory
+     * - send Accept: application/x-ndjson, application/json to receive validation errors as JSON
+     * - an error while reading the letters ends the stream with a baseResponseWrapper line carrying the error;
+     *   the response status is 500 if no letter had been written yet, otherwise it is already committed as 200
+     */
+    @RequestMapping(value = {"/letter", "/auth/letter"}, method = RequestMethod.GET, produces = Constants.APPLICATION_NDJSON_VALUE)
+    @ApiOperation(value = "Stream Letters",
+            notes = "This API streams the Letters with the search parameter as newline delimited JSON.",
+            response = Letter.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Internal Server Error"),
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "Input/Business Validation Error")})
+    public void streamLetters(@RequestParam Map<String, String> parameterMap, HttpServletResponse response) throws RollbackException, FormValidationException, IOException {
+        LetterSearchCriteria criteria = getSearchCriteria(new HashMap<String, String>(parameterMap), emailServiceValidatorFactory.getValidator("findLetter"));
+
+        response.setContentType(Constants.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+        generator.setRootValueSeparator(null);
+
+        final int[] lettersWritten = new int[1];
+        LetterHandler letterHandler = new LetterHandler() {
+            @Override
+            public void handleLetter(Letter streamedLetter) throws IOException {
+                generator.writeObject(streamedLetter);
+                generator.writeRaw('\n');
+                lettersWritten[0]++;
+            }
+        };
+        try {
+            if (isSingleSearchParameter(criteria)) {
+                emailService.findLetter(criteria.getSearchParameters().get(0), letterHandler);
+            } else {
+                emailService.findLetter(criteria, letterHandler);
+            }
+        } catch (RollbackException | RuntimeException e) {
+            LOGGER.error("EmailController - Letter stream failed after " + lettersWritten[0] + " letters : " + e);
+            if (lettersWritten[0] == 0) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            writeStreamError(generator, e instanceof RollbackException
+                    ? new BaseError(Constants.DB_TRANSACTION_ERROR, ((RollbackException) e).getErrMsg())
+                    : new BaseError(Constants.SERVER_500_ERROR, String.valueOf(e.getMessage())));
+        }
+        generator.close();
+    }
+
+    /**
+     * Ends an NDJSON stream with a baseResponseWrapper line carrying the passed error
+     *
+     * @param generator
+     * @param error
+     * @throws IOException
+     */
+    private void writeStreamError(JsonGenerator generator, BaseError error) throws IOException {
+        BaseResponseWrapper wrapper = new BaseResponseWrapper();
+        wrapper.addError(error);
+        generator.writeObject(new EmberModel.Builder<BaseResponseWrapper>(Constants.BASE_RESPONSE_WRAPPER, wrapper).build());
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Builds and validates the LetterSearchCriteria of a findLetter request - applID, status, fromDate and toDate
+     * are removed from the passed map as filters and every remaining entry is a search parameter (the validators
+     * reject search parameters named like a filter when letters are saved)
+     *
+     * @param searchParameterMap
+     * @param validator
+     * @return LetterSearchCriteria
+     * @throws FormValidationException
+     */
+    private LetterSearchCriteria getSearchCriteria(Map<String, String> searchParameterMap, EmailServiceValidator validator) throws FormValidationException {
+        String applID = searchParameterMap.remove(Constants.APPL_ID_FIELD);
+        String status = searchParameterMap.remove(Constants.STATUS_FIELD);
+        String fromDate = searchParameterMap.remove(Constants.FROM_DATE_FIELD);
+        String toDate = searchParameterMap.remove(Constants.TO_DATE_FIELD);
+
+        Letter letter = new Letter();
+        letter.setSearchParameters(Utils.getSearchParametersFromMap(searchParameterMap));
+        validator.validateRequest(letter);
+        validator.validateFilterRequest(applID, status, fromDate, toDate);
+
+        LetterSearchCriteria criteria = new LetterSearchCriteria(letter.getSearchParameters());
+        criteria.setApplID(applID);
+        criteria.setStatus(status != null ? LetterStatus.forValue(status) : null);
+        criteria.setFromDate(fromDate);
+        criteria.setToDate(toDate);
+        return criteria;
+    }
+
+    /**
+     * Returns true if the criteria is a single search parameter without filters, which the single search
+     * parameter queries answer
+     *
+     * @param criteria
+     * @return boolean
+     */
+    private static boolean isSingleSearchParameter(LetterSearchCriteria criteria) {
+        return criteria.getSearchParameters().size() == 1 && !criteria.hasFilters();
+    }
+
     /**
      * POST handler for /letter
      *
@@ -148,6 +325,8 @@ public class EmailController extends EmailBaseController {
 
     /**
      * PUT handler for /letter/{id}
+     * - returns the deleted letter by default, like EmailService.deleteLetter(id); with returnDeleted=false
+     *   no letter is read or returned
      *
      * @return JSON response of Letter object
      */
@@ -161,14 +340,16 @@ public class EmailController extends EmailBaseController {
             @ApiResponse(code = 200, message = "Success"),
             @ApiResponse(code = 400, message = "Input/Business Validation Error"),
             @ApiResponse(code = 404, message = "Not Found")})
-    public EmberModel deleteLetter(@PathVariable String id) throws RollbackException, FormValidationException {
+    public EmberModel deleteLetter(@PathVariable String id, @RequestParam(value = "returnDeleted", required = false, defaultValue = "true") boolean returnDeleted) throws RollbackException, FormValidationException {
         emailServiceValidatorFactory.getValidator("deleteLetter").validateRequest(id);
-        LetterResponseWrapper wrapper = emailService.deleteLetter(id);
+        LetterResponseWrapper wrapper = emailService.deleteLetter(id, returnDeleted);
         return new EmberModel.Builder<LetterResponseWrapper>(Constants.LETTER_RESPONSE_WRAPPER, wrapper).build();
     }
 
     /**
      * POST handler for /sendletter
+     * - if the letter is queued in the send outbox, answers 202 Accepted with the tracking ID of the send
+     *   request, and its status URL in the Location header
      *
      * @return JSON response of email object
      */
@@ -180,13 +361,333 @@ public class EmailController extends EmailBaseController {
     @ApiResponses(value = {
             @ApiResponse(code = 500, message = "Internal Server Error"),
             @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 202, message = "Queued for sending"),
             @ApiResponse(code = 400, message = "Input/Business Validation Error"),
             @ApiResponse(code = 404, message = "Not Found")})
-    public EmberModel sendLetter(@RequestBody SendLetterRequest letterRequest) throws FormValidationException {
+    public EmberModel sendLetter(@RequestBody SendLetterRequest letterRequest, HttpServletRequest request, HttpServletResponse response) throws FormValidationException {
         new SendLetterValidator().validateRequest(letterRequest);
         BaseResponseWrapper wrapper = emailService.sendLetter(letterRequest.getLetter(), letterRequest.getSendMetaData());
+        String requestURI = request.getRequestURI();
+        return getSendLetterResponse(wrapper, requestURI.substring(0, requestURI.lastIndexOf('/')), response);
+    }
+
+    /**
+     * POST handler for /letter/{id}/send
+     * - sends the stored letter and marks it Sent, without the letter being sent back and forth
+     * - a letter that has already been sent (including by a concurrent request) is never sent again
+     * - if the letter is queued in the send outbox, answers 202 Accepted like /sendletter
+     *
+     * @return JSON response of email object
+     */
+    @RequestMapping(value = {"/letter/{id}/send", "/auth/letter/{id}/send"}, method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    @ApiOperation(value = "Send Stored Letter",
+            notes = "This API sends a stored Letter and marks it Sent.",
+            response = SendLetterResponseWrapper.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Internal Server Error"),
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 202, message = "Queued for sending"),
+            @ApiResponse(code = 400, message = "Input/Business Validation Error"),
+            @ApiResponse(code = 404, message = "Not Found")})
+    public EmberModel sendStoredLetter(@PathVariable String id, @RequestBody SendStoredLetterRequest sendStoredLetterRequest, HttpServletRequest request, HttpServletResponse response) throws RollbackException, FormValidationException {
+        emailServiceValidatorFactory.getValidator("sendStoredLetter").validateRequest(id);
+        new SendLetterValidator().validateRequest(sendStoredLetterRequest);
+        BaseResponseWrapper wrapper = emailService.sendStoredLetter(id, sendStoredLetterRequest.getSendMetaData(), sendStoredLetterRequest.getEltrStatusUser());
+        String requestURI = request.getRequestURI();
+        return getSendLetterResponse(wrapper, requestURI.substring(0, requestURI.lastIndexOf(Constants.LETTER_PATH)), response);
+    }
+
+    /**
+     * Returns the response of a send - 202 Accepted with the status URL of the send request in the Location
+     * header if the letter was queued in the send outbox
+     *
+     * @param wrapper
+     * @param basePath - the request URI up to the /sendletter or /letter path
+     * @param response
+     * @return EmberModel
+     */
+    private static EmberModel getSendLetterResponse(BaseResponseWrapper wrapper, String basePath, HttpServletResponse response) {
+        if (wrapper instanceof SendLetterResponseWrapper) {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            response.setHeader(HttpHeaders.LOCATION, basePath + Constants.SEND_STATUS_PATH + ((SendLetterResponseWrapper) wrapper).getTrackingID());
+            return new EmberModel.Builder<BaseResponseWrapper>(Constants.SEND_LETTER_RESPONSE_WRAPPER, wrapper).build();
+        }
         return new EmberModel.Builder<BaseResponseWrapper>("baseResponseWrapper", wrapper).build();
     }
 
+    /**
+     * POST handler for /sendletter/bulk - sends one letter per row with the row's variables merged in
+     * - the body is {"letter": {...}, "sendMetaData": {...}, "rows": [{"toAddresses": [...], "variables": {...}}, ...]}
+     *   with letter and sendMetaData before rows; the rows are read as they are sent, never all at once
+     * - the response is one BulkSendResult per row as newline delimited JSON, in the order the rows finish
+     * - a client that sends X-Stream-Results: true gets each result as its row finishes, and must read them
+     *   while it is still sending rows
+     * - for other clients, results are only written once all rows have been read, so clients that send the
+     *   whole request before reading the response (e.g. RestTemplate) cannot block the server; rows are sent
+     *   in the meantime, and their results are held back in memory up to MAX_HELD_BULK_SEND_RESULTS_IN_MEMORY_BYTES,
+     *   then in a temporary file
+     * - if a row cannot be read, the rows before it are still sent and reported, followed by a last result
+     *   with the read error
+     * - an invalid letter or request is answered with 400 and a JSON BaseResponseWrapper before any row is sent;
+     *   the mapping has no produces so that the error response can be negotiated as JSON
+     */
+    @RequestMapping(value = {"/sendletter/bulk","/auth/sendletter/bulk"}, method = RequestMethod.POST)
+    @ApiOperation(value = "Send Bulk Letter",
+            notes = "This API sends a Letter to every row with the row's variables merged in, and streams the result of each row as newline delimited JSON.",
+            response = BulkSendResult.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Internal Server Error"),
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 400, message = "Input/Business Validation Error")})
+    public void sendBulkLetter(HttpServletRequest request, HttpServletResponse response) throws RollbackException, FormValidationException, IOException {
+        JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream());
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new HttpMessageNotReadableException(Constants.ERROR_READING_BULK_SEND_REQUEST + parser.getCurrentToken());
+            }
+
+            Letter letter = null;
+            SendMetaData metaData = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (Constants.LETTER_FIELD.equals(fieldName)) {
+                    letter = parser.readValueAs(Letter.class);
+                } else if (Constants.SEND_METADATA_FIELD.equals(fieldName)) {
+                    metaData = parser.readValueAs(SendMetaData.class);
+                } else if (Constants.BULK_SEND_ROWS_FIELD.equals(fieldName)) {
+                    if (letter == null) {
+                        throw new FormValidationException(Constants.INVALID_FORM_DATA, Collections.singletonList(new BaseError(Constants.LETTER_FIELD, Constants.BULK_SEND_ROWS_BEFORE_LETTER)));
+                    }
+                    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                        throw new HttpMessageNotReadableException(Constants.ERROR_READING_BULK_SEND_REQUEST + Constants.BULK_SEND_ROWS_FIELD + " must be an array");
+                    }
+                    new SendLetterValidator().validateBulkRequest(letter, metaData);
+                    sendBulkLetter(letter, metaData, new BulkSendRowIterator(parser), Boolean.parseBoolean(request.getHeader(Constants.BULK_SEND_STREAM_RESULTS_HEADER)), response);
+                    return;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            throw new FormValidationException(Constants.INVALID_FORM_DATA, Collections.singletonList(new BaseError(Constants.BULK_SEND_ROWS_FIELD, Constants.MISSING_NULL_EMPTY_FIELD + Constants.BULK_SEND_ROWS_FIELD)));
+        } catch (JsonProcessingException e) {
+            throw new HttpMessageNotReadableException(Constants.ERROR_READING_BULK_SEND_REQUEST + e.getOriginalMessage(), e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Sends the rows and streams their results - unless streamResults is set, those of the rows finished before
+     * the last row was read are held back until then
+     *
+     * @param letter
+     * @param metaData
+     * @param rows
+     * @param streamResults
+     * @param response
+     * @throws RollbackException
+     * @throws IOException
+     */
+    private void sendBulkLetter(Letter letter, SendMetaData metaData, final BulkSendRowIterator rows, boolean streamResults, HttpServletResponse response) throws RollbackException, IOException {
+        response.setContentType(Constants.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        BulkSendResultWriter resultWriter = new BulkSendResultWriter(response.getOutputStream(), rows, streamResults ? null : new HeldResults());
+
+        try {
+            try {
+                emailService.sendBulkLetter(letter, metaData, rows, resultWriter);
+            } catch (UncheckedIOException e) {
+                if (rows.isExhausted()) {
+                    throw e;
+                }
+                // the rows read so far have been sent - report them and the read error instead of failing the request
+                BulkSendResult readError = new BulkSendResult(rows.getRowsRead() + 1);
+                readError.addError(new BaseError(Constants.BULK_SEND_ROWS_FIELD, Constants.ERROR_READING_BULK_SEND_REQUEST + e.getCause()));
+                resultWriter.handleResult(readError);
+            }
+            resultWriter.releaseHeldResults();
+        } finally {
+            resultWriter.close();
+        }
+    }
+
+    /**
+     * Writes each BulkSendResult as a line of newline delimited JSON as its row finishes, or holds it back in
+     * heldResults (if set) until the last row has been read
+     */
+    private class BulkSendResultWriter implements BulkSendHandler {
+
+        private final OutputStream out;
+        private final BulkSendRowIterator rows;
+        private HeldResults heldResults;
+
+        BulkSendResultWriter(OutputStream out, BulkSendRowIterator rows, HeldResults heldResults) {
+            this.out = out;
+            this.rows = rows;
+            this.heldResults = heldResults;
+        }
+
+        @Override
+        public void handleResult(BulkSendResult result) throws IOException {
+            byte[] line = objectMapper.writeValueAsBytes(result);
+            if (heldResults != null && !rows.isExhausted()) {
+                heldResults.write(line);
+                heldResults.write('\n');
+                return;
+            }
+            releaseHeldResults();
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+
+        /**
+         * Writes out the results held back so far, and every later result as its row finishes
+         *
+         * @throws IOException
+         */
+        void releaseHeldResults() throws IOException {
+            if (heldResults != null) {
+                heldResults.writeTo(out);
+                heldResults.close();
+                heldResults = null;
+            }
+            out.flush();
+        }
+
+        void close() throws IOException {
+            if (heldResults != null) {
+                heldResults.close();
+            }
+        }
+    }
+
+    /**
+     * Serialized results held back in memory up to MAX_HELD_BULK_SEND_RESULTS_IN_MEMORY_BYTES, then in a
+     * temporary file that is deleted on close
+     */
+    private static class HeldResults extends OutputStream {
+
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream fileStream;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if (fileStream == null && memory.size() + length > Constants.MAX_HELD_BULK_SEND_RESULTS_IN_MEMORY_BYTES) {
+                file = File.createTempFile(Constants.HELD_BULK_SEND_RESULTS_FILE_PREFIX, ".ndjson");
+                fileStream = new BufferedOutputStream(new FileOutputStream(file));
+                memory.writeTo(fileStream);
+                memory = null;
+            }
+            if (fileStream != null) {
+                fileStream.write(buffer, offset, length);
+            } else {
+                memory.write(buffer, offset, length);
+            }
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            if (fileStream == null) {
+                memory.writeTo(out);
+                return;
+            }
+            fileStream.close();
+            Files.copy(file.toPath(), out);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileStream != null) {
+                try {
+                    fileStream.close();
+                } finally {
+                    Files.deleteIfExists(file.toPath());
+                    fileStream = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the rows array of a bulk send request one BulkSendRow at a time
+     */
+    private static class BulkSendRowIterator implements Iterator<BulkSendRow> {
+
+        private final JsonParser parser;
+        private JsonToken nextToken;
+        private boolean exhausted;
+        private int rowsRead;
+
+        BulkSendRowIterator(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        /**
+         * @return whether the end of the rows array has been read
+         */
+        boolean isExhausted() {
+            return exhausted;
+        }
+
+        int getRowsRead() {
+            return rowsRead;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextToken == null && !exhausted) {
+                try {
+                    nextToken = parser.nextToken();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                exhausted = nextToken == JsonToken.END_ARRAY || nextToken == null;
+            }
+            return !exhausted;
+        }
+
+        @Override
+        public BulkSendRow next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            nextToken = null;
+            try {
+                BulkSendRow row = parser.readValueAs(BulkSendRow.class);
+                rowsRead++;
+                return row;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * GET handler for /sendletter/{trackingID}
+     *
+     * @return JSON response of the status of a send request queued in the send outbox
+     */
+    @RequestMapping(value = {"/sendletter/{trackingID}","/auth/sendletter/{trackingID}"}, method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    @ApiOperation(value = "Get Send Status",
+            notes = "This API returns the status of a letter queued for sending.",
+            response = SendLetterResponseWrapper.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 500, message = "Internal Server Error"),
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 404, message = "Not Found")})
+    public EmberModel getSendStatus(@PathVariable String trackingID) throws RollbackException {
+        SendLetterResponseWrapper wrapper = emailService.getSendStatus(trackingID);
+        return new EmberModel.Builder<SendLetterResponseWrapper>(Constants.SEND_LETTER_RESPONSE_WRAPPER, wrapper).build();
+    }
+
 
 }
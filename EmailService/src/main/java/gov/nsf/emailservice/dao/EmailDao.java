@@ -2,9 +2,12 @@ package gov.nsf.emailservice.dao;
 
 import gov.nsf.common.exception.RollbackException;
 import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.LetterSearchCriteria;
 import gov.nsf.emailservice.api.model.SearchParameter;
+import gov.nsf.emailservice.api.service.LetterHandler;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -29,6 +32,63 @@ public interface EmailDao {
      */
     public List<Letter> findLetter(SearchParameter searchParameter, Set<String> validSearchParameters) throws RollbackException;
 
+    /**
+     * Gets one page of the IDs of the letters with the search parameter, in ntfy_ltr_id order
+     *
+     * @param searchParameter
+     * @param limit - the maximum number of IDs returned
+     * @param afterEltrID - only IDs above this one are returned; null for the first page
+     * @return List<String>
+     */
+    public List<String> findLetterIDs(SearchParameter searchParameter, Set<String> validSearchParameters, int limit, String afterEltrID) throws RollbackException;
+
+    /**
+     * Streams the letters with the search parameter to the letterHandler one at a time, in ntfy_ltr_id order
+     *
+     * @param searchParameter
+     * @param letterHandler
+     * @return the number of letters streamed
+     */
+    public int findLetter(SearchParameter searchParameter, Set<String> validSearchParameters, LetterHandler letterHandler) throws RollbackException;
+
+    /**
+     * Gets the letters matching every search parameter and filter of the criteria
+     *
+     * @param criteria
+     * @param searchParameterIDs - the ntfy_ltr_atr_id of each valid search parameter name
+     * @return List<Letter>
+     */
+    public List<Letter> findLetter(LetterSearchCriteria criteria, Map<String, Integer> searchParameterIDs) throws RollbackException;
+
+    /**
+     * Gets one page of the IDs of the letters matching the criteria, in ntfy_ltr_id order
+     *
+     * @param criteria
+     * @param searchParameterIDs - the ntfy_ltr_atr_id of each valid search parameter name
+     * @param limit - the maximum number of IDs returned
+     * @param afterEltrID - only IDs above this one are returned; null for the first page
+     * @return List<String>
+     */
+    public List<String> findLetterIDs(LetterSearchCriteria criteria, Map<String, Integer> searchParameterIDs, int limit, String afterEltrID) throws RollbackException;
+
+    /**
+     * Streams the letters matching the criteria to the letterHandler one at a time, in ntfy_ltr_id order
+     *
+     * @param criteria
+     * @param searchParameterIDs - the ntfy_ltr_atr_id of each valid search parameter name
+     * @param letterHandler
+     * @return the number of letters streamed
+     */
+    public int findLetter(LetterSearchCriteria criteria, Map<String, Integer> searchParameterIDs, LetterHandler letterHandler) throws RollbackException;
+
+    /**
+     * Gets the letters (with recipients and search parameters) for the passed eltrIDs
+     *
+     * @param eltrIDs
+     * @return List<Letter> in the order of the passed IDs
+     */
+    public List<Letter> getLetters(List<String> eltrIDs) throws RollbackException;
+
 
     /**
      * Saves the letter into the ELTR DB
@@ -54,26 +114,57 @@ public interface EmailDao {
      */
     public Letter updateLetter(Letter letter) throws RollbackException;
 
+    /**
+     * Marks the letter Sent if it has not been sent yet, and returns it
+     * - If the letter does not exist or has already been sent, throws an exception (ending the transaction)
+     *
+     * @param id
+     * @param eltrStatusUser
+     * @return the letter, with Sent status
+     * @throws RollbackException
+     */
+    public Letter markLetterSent(String id, String eltrStatusUser) throws RollbackException;
+
     /**
      *
      * @param id
      */
     public Letter deleteLetter(String id) throws RollbackException;
 
+    /**
+     * Deletes the letter with the passed id, and its recipients and search parameters
+     * - If returnDeleted is set, the letter is read (and checked to exist and not be Sent) before it is deleted
+     *
+     * @param id
+     * @param returnDeleted - whether the deleted letter should be read and returned
+     * @return the deleted Letter, or null if returnDeleted is false
+     * @throws RollbackException
+     */
+    public Letter deleteLetter(String id, boolean returnDeleted) throws RollbackException;
+
     /**
      * Stores the search paremeters in the table
      *
      * @param letter
-     * @param validSearchParameters
+     * @param searchParameterIDs - search parameter name to ntfy_ltr_atr_id map, see getSearchParameterIDs
      * @throws RollbackException
      */
-    public void storeSearchParameters(Letter letter, Set<String> validSearchParameters) throws RollbackException;
+    public void storeSearchParameters(Letter letter, Map<String, Integer> searchParameterIDs) throws RollbackException;
 
         /**
-         * Returns a set of search parameter names from the lookup table
+         * Returns the set of search parameter names that are effective now in the lookup table
          *
          * @return Set<String>
          * @throws RollbackException
          */
     public Set<String> getSearchParameterNames() throws RollbackException;
+
+    /**
+     * Returns a map of the search parameter names that are effective now in the lookup table to their
+     * ntfy_ltr_atr_id
+     *
+     * @return Map<String, Integer>
+     * @throws RollbackException
+     */
+    public Map<String, Integer> getSearchParameterIDs() throws RollbackException;
 }
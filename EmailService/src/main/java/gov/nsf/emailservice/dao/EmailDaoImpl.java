@@ -5,31 +5,61 @@ import gov.nsf.common.exception.RollbackException;
 import gov.nsf.emailservice.api.model.*;
 import gov.nsf.emailservice.common.util.Constants;
 import gov.nsf.emailservice.common.util.Utils;
+import gov.nsf.emailservice.api.service.LetterHandler;
+import gov.nsf.emailservice.dao.rowmapper.LetterListResultSetExtractor;
 import gov.nsf.emailservice.dao.rowmapper.LetterResultsSetExtractor;
+import gov.nsf.emailservice.dao.rowmapper.LetterStreamRowCallbackHandler;
+import gov.nsf.emailservice.dao.rowmapper.LetterWithSearchParametersResultSetExtractor;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.*;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
+import gov.nsf.emailservice.dao.rowmapper.SearchParameterMapResultSetExtractor;
 import gov.nsf.emailservice.dao.rowmapper.SearchParameterResultSetExtractor;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 
 /**
  * EmailDaoImpl implements the EmailDao methods for retrieving information from
  * the DB
  *
  */
-public class EmailDaoImpl implements EmailDao {
+public class EmailDaoImpl implements EmailDao, MailRecipientRowsMXBean, InitializingBean, DisposableBean {
 
     @Autowired
     private DataSource dataSource;
     private NamedParameterJdbcTemplate jdbcTemplate;
+    private NamedParameterJdbcTemplate streamingJdbcTemplate;
+    private int batchFetchSize = Constants.DEFAULT_BATCH_FETCH_SIZE;
+    private int batchInsertSize = Constants.DEFAULT_BATCH_INSERT_SIZE;
+    private int streamFetchSize = Constants.DEFAULT_STREAM_FETCH_SIZE;
+    private CacheManager cacheManager;
+    private long searchParameterRefreshIntervalMillis = Constants.DEFAULT_SEARCH_PARAMETER_REFRESH_INTERVAL_MILLIS;
+    private long searchParameterRetryIntervalMillis = Constants.DEFAULT_SEARCH_PARAMETER_RETRY_INTERVAL_MILLIS;
+    private SearchParameterLookup searchParameterLookup;
+
+    private final AtomicLong mailRecipientRowsInserted = new AtomicLong();
+    private final AtomicLong mailRecipientRowsDeleted = new AtomicLong();
+    private final AtomicLong mailRecipientRowsUnchanged = new AtomicLong();
 
     private static final Logger LOGGER = Logger.getLogger(EmailDaoImpl.class);
 
@@ -70,46 +100,199 @@ public class EmailDaoImpl implements EmailDao {
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    /**
+     * Batch fetch size getter
+     *
+     * @return int
+     */
+    public int getBatchFetchSize() {
+        return batchFetchSize;
+    }
+
+    /**
+     * Batch fetch size setter - the maximum number of letter IDs read per query by findLetter
+     *
+     * @param batchFetchSize
+     */
+    public void setBatchFetchSize(int batchFetchSize) {
+        this.batchFetchSize = batchFetchSize;
+    }
+
+    /**
+     * Batch insert size getter
+     *
+     * @return int
+     */
+    public int getBatchInsertSize() {
+        return batchInsertSize;
+    }
+
+    /**
+     * Batch insert size setter - the maximum number of rows sent per JDBC batch when inserting mail recipients
+     *
+     * @param batchInsertSize - at least 1
+     */
+    public void setBatchInsertSize(int batchInsertSize) {
+        if (batchInsertSize < 1) {
+            throw new IllegalArgumentException(Constants.INVALID_BATCH_INSERT_SIZE + batchInsertSize);
+        }
+        this.batchInsertSize = batchInsertSize;
+    }
+
+    /**
+     * Stream fetch size getter
+     *
+     * @return int
+     */
+    public int getStreamFetchSize() {
+        return streamFetchSize;
+    }
+
+    /**
+     * Stream fetch size setter - the JDBC fetch size used when streaming letters, which bounds the
+     * number of rows the driver holds in memory at a time
+     *
+     * @param streamFetchSize
+     */
+    public void setStreamFetchSize(int streamFetchSize) {
+        this.streamFetchSize = streamFetchSize;
+    }
+
+    /**
+     * Cache manager getter
+     *
+     * @return CacheManager
+     */
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    /**
+     * Cache manager setter - when set, findLetter reads the letter IDs of a search parameter from the
+     * searchParameterLetterIDs cache and the letters from the letters cache; null disables both
+     *
+     * @param cacheManager
+     */
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * Search parameter refresh interval getter
+     *
+     * @return long
+     */
+    public long getSearchParameterRefreshIntervalMillis() {
+        return searchParameterRefreshIntervalMillis;
+    }
+
+    /**
+     * Search parameter refresh interval setter - how long after a load of the lkup table the next read
+     * starts a background reload (the loaded search parameters are served until it completes)
+     *
+     * @param searchParameterRefreshIntervalMillis
+     */
+    public void setSearchParameterRefreshIntervalMillis(long searchParameterRefreshIntervalMillis) {
+        this.searchParameterRefreshIntervalMillis = searchParameterRefreshIntervalMillis;
+    }
+
+    /**
+     * Search parameter retry interval getter
+     *
+     * @return long
+     */
+    public long getSearchParameterRetryIntervalMillis() {
+        return searchParameterRetryIntervalMillis;
+    }
+
+    /**
+     * Search parameter retry interval setter - how long after a failed background reload of the lkup table
+     * the next one is started
+     *
+     * @param searchParameterRetryIntervalMillis
+     */
+    public void setSearchParameterRetryIntervalMillis(long searchParameterRetryIntervalMillis) {
+        this.searchParameterRetryIntervalMillis = searchParameterRetryIntervalMillis;
+    }
+
+    /**
+     * Returns the number of ntfy_ltr_recp rows inserted by saveLetter and updateLetter since startup
+     *
+     * @return long
+     */
+    @Override
+    public long getMailRecipientRowsInserted() {
+        return mailRecipientRowsInserted.get();
+    }
+
+    /**
+     * Returns the number of ntfy_ltr_recp rows deleted by updateLetter since startup
+     *
+     * @return long
+     */
+    @Override
+    public long getMailRecipientRowsDeleted() {
+        return mailRecipientRowsDeleted.get();
+    }
+
+    /**
+     * Returns the number of unchanged ntfy_ltr_recp rows updateLetter left in place since startup
+     *
+     * @return long
+     */
+    @Override
+    public long getMailRecipientRowsUnchanged() {
+        return mailRecipientRowsUnchanged.get();
+    }
+
 
     /**
      * Gets the letter by querying the eltr_eltr table using the eltrID as the key
+     * - The mail recipients and search parameters are read along with the letter in a single query
+     * - Letters are cached by eltrID in the letters cache (Sent letters never expire, drafts expire quickly)
+     * - IDs that do not exist are cached in the missingLetters cache for a short time, so polling a deleted
+     *   letter does not reach the DB on every request. A letter saved with such an ID evicts it.
+     * - Neither cache is filled when the letter was read from a replica, which may lag behind the primary
      *
      * @param id
      * @return letter
+     * @throws LetterNotFoundException if there is no letter with that ID
      */
     @Override
+    @Cacheable(value="letters", key="T(gov.nsf.emailservice.dao.EmailDaoImpl).getLetterCacheKey(#p0)", unless="T(gov.nsf.emailservice.dao.ReplicaRoutingDataSource).isReplicaRead()")
     public Letter getLetter(String id) throws RollbackException {
+        Cache missingLetters = getCache(Constants.MISSING_LETTERS_CACHE);
+        if (missingLetters != null && missingLetters.get(getLetterCacheKey(id)) != null) {
+            throw new LetterNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
+        }
+
         Letter letter = null;
         Map parameters = Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(id));
 
         try {
-            letter = executeQuery(Constants.GET_LETTER_BY_ID_QUERY, parameters);
+            letter = this.jdbcTemplate.query(Constants.GET_LETTER_WITH_SEARCH_PARAMETERS_BY_ID_QUERY, parameters, new LetterWithSearchParametersResultSetExtractor());
         } catch (Exception e) {
             LOGGER.error(Constants.ERROR_GETTING_LETTER + e);
             throw new RollbackException(Constants.ERROR_GETTING_LETTER + e);
         }
 
         if (letter == null) {
-            LOGGER.error(Constants.ERROR_GETTING_LETTER + Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
-            throw new ResourceNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
-        }
-
-        List<SearchParameter> searchParameters = null;
-
-        try{
-            searchParameters = getSearchParameters(letter.getEltrID());
-        } catch( RollbackException ex ){
-            LOGGER.error(Constants.ERROR_GETTING_LETTER + ex);
-            throw new ResourceNotFoundException(Constants.ERROR_GETTING_LETTER + ex);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(Constants.ERROR_GETTING_LETTER + Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
+            }
+            if (missingLetters != null && !ReplicaRoutingDataSource.isReplicaRead()) {
+                missingLetters.put(getLetterCacheKey(id), Boolean.TRUE);
+            }
+            throw new LetterNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
         }
 
-        letter.setSearchParameters(searchParameters);
-
         return letter;
     }
 
     /**
      * Finds all letters associated with the given search parameter key-value pair
+     * - The letter IDs are cached per key-value pair and the letters per eltrID, so a repeated search
+     *   does not reach the DB until a letter with that pair is stored, changed or deleted
      *
      * @param searchParameter
      * @return List<Letter>
@@ -123,18 +306,367 @@ public class EmailDaoImpl implements EmailDao {
 
         List<String> eltrIDs = null;
         try {
-            eltrIDs = getLetterIDs(searchParameter);
+            eltrIDs = getCachedLetterIDs(searchParameter);
+        } catch(RollbackException ex){
+            throw new RollbackException(Constants.ERROR_FINDING_LETTER + ex);
+        }
+
+        List<Letter> letters = null;
+        try{
+            letters = getLetters(eltrIDs);
+        } catch( RollbackException ex){
+            throw new RollbackException(Constants.ERROR_FINDING_LETTER + ex);
+        }
+
+        return letters;
+    }
+
+    /**
+     * Streams all letters associated with the given search parameter key-value pair to the letterHandler
+     *
+     * Reads a single result set ordered by ntfy_ltr_id with a fetch size of streamFetchSize, so only the
+     * letter currently being read is held in memory no matter how many letters match
+     *
+     * @param searchParameter
+     * @param letterHandler
+     * @return the number of letters streamed
+     * @throws RollbackException
+     */
+    @Override
+    public int findLetter(SearchParameter searchParameter, Set<String> validSearchParameters, LetterHandler letterHandler) throws RollbackException{
+        if(!validSearchParameters.contains(searchParameter.getKey())){
+            throw new InvalidSearchParameterException(Constants.ERROR_FINDING_LETTER + Constants.SEARCH_PARAMETER_DOES_NOT_EXIST + searchParameter.getKey());
+        }
+
+        return streamLetters(Constants.STREAM_LETTERS_QUERY, getGetLetterIdsParameters(searchParameter), letterHandler);
+    }
+
+    /**
+     * Finds all letters matching every search parameter and filter of the given criteria
+     *
+     * @param criteria
+     * @param searchParameterIDs
+     * @return List<Letter>
+     * @throws RollbackException
+     */
+    @Override
+    public List<Letter> findLetter(LetterSearchCriteria criteria, Map<String, Integer> searchParameterIDs) throws RollbackException{
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        String letterIDsFrom = getSearchCriteriaLetterIDsFrom(criteria, searchParameterIDs, parameters);
+        if(letterIDsFrom == null){
+            return new ArrayList<Letter>();
+        }
+
+        try {
+            List<String> eltrIDs = queryLetterIDs(Constants.SEARCH_CRITERIA_LETTER_IDS_SELECT + letterIDsFrom, parameters, criteria.getSearchParameters().get(0));
+            return getLetters(eltrIDs);
         } catch(RollbackException ex){
             throw new RollbackException(Constants.ERROR_FINDING_LETTER + ex);
         }
+    }
+
+    /**
+     * Finds one keyset page of the IDs of the letters matching every search parameter and filter of the given criteria
+     *
+     * @param criteria
+     * @param searchParameterIDs
+     * @param limit - the maximum number of IDs returned
+     * @param afterEltrID - only IDs above this one are returned; null for the first page
+     * @return List<String> in ntfy_ltr_id order
+     * @throws RollbackException
+     */
+    @Override
+    public List<String> findLetterIDs(LetterSearchCriteria criteria, Map<String, Integer> searchParameterIDs, int limit, String afterEltrID) throws RollbackException{
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        String letterIDsFrom = getSearchCriteriaLetterIDsFrom(criteria, searchParameterIDs, parameters);
+        if(letterIDsFrom == null){
+            return new ArrayList<String>();
+        }
+        parameters.put(Constants.PAGE_LIMIT, limit);
+        parameters.put(Constants.AFTER_ELTR_ID, afterEltrID != null ? Integer.parseInt(afterEltrID) : 0);
+
+        try {
+            return queryLetterIDs(Constants.SEARCH_CRITERIA_LETTER_IDS_PAGE_SELECT + letterIDsFrom + Constants.SEARCH_CRITERIA_PAGE_CLAUSE, parameters, criteria.getSearchParameters().get(0));
+        } catch(RollbackException ex){
+            throw new RollbackException(Constants.ERROR_FINDING_LETTER + ex);
+        }
+    }
+
+    /**
+     * Streams all letters matching every search parameter and filter of the given criteria to the letterHandler
+     *
+     * @param criteria
+     * @param searchParameterIDs
+     * @param letterHandler
+     * @return the number of letters streamed
+     * @throws RollbackException
+     */
+    @Override
+    public int findLetter(LetterSearchCriteria criteria, Map<String, Integer> searchParameterIDs, LetterHandler letterHandler) throws RollbackException{
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        String letterIDsFrom = getSearchCriteriaLetterIDsFrom(criteria, searchParameterIDs, parameters);
+        if(letterIDsFrom == null){
+            return 0;
+        }
+
+        String queryStr = String.format(Constants.STREAM_LETTERS_QUERY_FORMAT, Constants.SEARCH_CRITERIA_LETTER_IDS_SELECT + letterIDsFrom);
+        return streamLetters(queryStr, parameters, letterHandler);
+    }
+
+    /**
+     * Helper method for streaming the letters read by a STREAM_LETTERS_QUERY_FORMAT query to the letterHandler
+     *
+     * @param queryStr
+     * @param parameters
+     * @param letterHandler
+     * @return the number of letters streamed
+     * @throws RollbackException
+     */
+    private int streamLetters(String queryStr, Map parameters, LetterHandler letterHandler) throws RollbackException{
+        LetterStreamRowCallbackHandler rowCallbackHandler = new LetterStreamRowCallbackHandler(letterHandler);
+        try {
+            streamingJdbcTemplate.query(queryStr, parameters, rowCallbackHandler);
+            rowCallbackHandler.finish();
+        } catch (Exception e) {
+            LOGGER.error(Constants.ERROR_FINDING_LETTER + e);
+            throw new RollbackException(Constants.ERROR_FINDING_LETTER + e);
+        }
+
+        return rowCallbackHandler.getLetterCount();
+    }
+
+    /**
+     * Builds the from/where part of the letter ID query for the given criteria and puts its parameters into
+     * the passed map
+     *
+     * The search parameters are ordered from the fewest to the most matching rows so the query is driven by
+     * the most selective one. Returns null if a search parameter matches no row at all - no letter can match
+     * the criteria then, so the caller can skip the letter query.
+     *
+     * @param criteria
+     * @param searchParameterIDs
+     * @param parameters
+     * @return String
+     * @throws RollbackException
+     */
+    private String getSearchCriteriaLetterIDsFrom(LetterSearchCriteria criteria, Map<String, Integer> searchParameterIDs, Map<String, Object> parameters) throws RollbackException{
+        for(SearchParameter searchParameter : criteria.getSearchParameters()){
+            if(!searchParameterIDs.containsKey(searchParameter.getKey())){
+                throw new InvalidSearchParameterException(Constants.ERROR_FINDING_LETTER + Constants.SEARCH_PARAMETER_DOES_NOT_EXIST + searchParameter.getKey());
+            }
+        }
+
+        List<SearchParameter> searchParameters = criteria.getSearchParameters();
+        if(searchParameters.size() > 1){
+            searchParameters = orderBySelectivity(searchParameters, searchParameterIDs);
+            if(searchParameters == null){
+                return null;
+            }
+        }
+
+        StringBuilder queryStr = new StringBuilder(Constants.SEARCH_CRITERIA_LETTER_IDS_FROM);
+        for(int i = 0; i < searchParameters.size(); i++){
+            if(i > 0){
+                queryStr.append(String.format(Constants.SEARCH_CRITERIA_SEARCH_PARAMETER_CLAUSE, i));
+            }
+            parameters.put(Constants.ATR_ID + i, searchParameterIDs.get(searchParameters.get(i).getKey()));
+            parameters.put(Constants.ATR_VAL + i, searchParameters.get(i).getValue());
+        }
+
+        if(criteria.hasFilters()){
+            queryStr.append(Constants.SEARCH_CRITERIA_LETTER_CLAUSE);
+            if(criteria.getApplID() != null){
+                queryStr.append(Constants.SEARCH_CRITERIA_APPL_ID_CLAUSE);
+                parameters.put(Constants.APPL_ID, Integer.parseInt(criteria.getApplID()));
+            }
+            if(criteria.getStatus() != null){
+                queryStr.append(Constants.SEARCH_CRITERIA_STATUS_CLAUSE);
+                parameters.put(Constants.ELTR_STATUS, criteria.getStatus().getCode());
+            }
+            if(criteria.getFromDate() != null){
+                queryStr.append(Constants.SEARCH_CRITERIA_FROM_DATE_CLAUSE);
+                parameters.put(Constants.FROM_DATE, java.sql.Date.valueOf(LocalDate.parse(criteria.getFromDate())));
+            }
+            if(criteria.getToDate() != null){
+                queryStr.append(Constants.SEARCH_CRITERIA_TO_DATE_CLAUSE);
+                parameters.put(Constants.TO_DATE, java.sql.Date.valueOf(LocalDate.parse(criteria.getToDate()).plusDays(1)));
+            }
+            queryStr.append(")");
+        }
+
+        return queryStr.toString();
+    }
+
+    /**
+     * Returns the search parameters ordered from the fewest to the most matching ntfy_ltr_addl_info rows, or null
+     * if any of them matches no row - the counts of all the search parameters are read in one index-only query,
+     * which runs before the search query
+     *
+     * @param searchParameters
+     * @param searchParameterIDs
+     * @return List<SearchParameter>
+     * @throws RollbackException
+     */
+    private List<SearchParameter> orderBySelectivity(List<SearchParameter> searchParameters, Map<String, Integer> searchParameterIDs) throws RollbackException{
+        StringBuilder queryStr = new StringBuilder();
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        for(int i = 0; i < searchParameters.size(); i++){
+            if(i > 0){
+                queryStr.append(Constants.SEARCH_PARAMETER_MATCH_COUNT_UNION);
+            }
+            queryStr.append(String.format(Constants.SEARCH_PARAMETER_MATCH_COUNT_QUERY, i));
+            parameters.put(Constants.ATR_ID + i, searchParameterIDs.get(searchParameters.get(i).getKey()));
+            parameters.put(Constants.ATR_VAL + i, searchParameters.get(i).getValue());
+        }
+
+        final int searchParameterCount = searchParameters.size();
+        final int[] matchCounts;
+        try {
+            matchCounts = this.jdbcTemplate.query(queryStr.toString(), parameters, new ResultSetExtractor<int[]>() {
+                @Override
+                public int[] extractData(ResultSet rs) throws SQLException {
+                    int[] counts = new int[searchParameterCount];
+                    while(rs.next()){
+                        counts[rs.getInt(Constants.SEARCH_PARAMETER_INDEX)] = rs.getInt(Constants.MATCH_COUNT);
+                    }
+                    return counts;
+                }
+            });
+        } catch (Exception e) {
+            LOGGER.error(Constants.ERROR_FINDING_LETTER + e);
+            throw new RollbackException(Constants.ERROR_FINDING_LETTER + e);
+        }
+
+        List<Integer> indexes = new ArrayList<Integer>();
+        for(int i = 0; i < matchCounts.length; i++){
+            if(matchCounts[i] == 0){
+                return null;
+            }
+            indexes.add(i);
+        }
+        Collections.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Integer.compare(matchCounts[first], matchCounts[second]);
+            }
+        });
+
+        List<SearchParameter> orderedSearchParameters = new ArrayList<SearchParameter>();
+        for(Integer index : indexes){
+            orderedSearchParameters.add(searchParameters.get(index));
+        }
+        return orderedSearchParameters;
+    }
+
+    /**
+     * Finds one keyset page of the IDs of the letters associated with the given search parameter key-value pair
+     *
+     * @param searchParameter
+     * @param limit - the maximum number of IDs returned
+     * @param afterEltrID - only IDs above this one are returned; null for the first page
+     * @return List<String> in ntfy_ltr_id order
+     * @throws RollbackException
+     */
+    @Override
+    public List<String> findLetterIDs(SearchParameter searchParameter, Set<String> validSearchParameters, int limit, String afterEltrID) throws RollbackException{
+        if(!validSearchParameters.contains(searchParameter.getKey())){
+            throw new InvalidSearchParameterException(Constants.ERROR_FINDING_LETTER + Constants.SEARCH_PARAMETER_DOES_NOT_EXIST + searchParameter.getKey());
+        }
+
+        Map parameters = getGetLetterIdsParameters(searchParameter);
+        parameters.put(Constants.PAGE_LIMIT, limit);
+        parameters.put(Constants.AFTER_ELTR_ID, afterEltrID != null ? Integer.parseInt(afterEltrID) : 0);
+
+        try {
+            return queryLetterIDs(Constants.GET_LETTER_IDS_PAGE_QUERY, parameters, searchParameter);
+        } catch(RollbackException ex){
+            throw new RollbackException(Constants.ERROR_FINDING_LETTER + ex);
+        }
+    }
+
+    /**
+     * Gets the letters (with recipients and search parameters) for the passed eltrIDs
+     *
+     * Runs one letter query and one search parameter query per batchFetchSize IDs, regardless of
+     * the number of recipients or parameters per letter. IDs that no longer exist are skipped.
+     * Letters found in the letters cache are not read again, and the letters read are put in it (unless they
+     * were read from a replica).
+     *
+     * @param eltrIDs
+     * @return List<Letter> in the order of the passed IDs
+     * @throws RollbackException
+     */
+    @Override
+    public List<Letter> getLetters(List<String> eltrIDs) throws RollbackException {
+        Cache letterCache = getCache(Constants.LETTERS_CACHE);
+        Map<Integer, Letter> cachedLetters = new HashMap<Integer, Letter>();
+        List<Integer> missingIDs = new ArrayList<Integer>();
+        for( String eltrID : eltrIDs ){
+            Integer id = Integer.parseInt(eltrID.trim());
+            Letter cachedLetter = letterCache != null ? letterCache.get(getLetterCacheKey(eltrID), Letter.class) : null;
+            if( cachedLetter != null ){
+                cachedLetters.put(id, cachedLetter);
+            } else {
+                missingIDs.add(id);
+            }
+        }
+
+        Map<Integer, Letter> readLetters = readLetters(missingIDs);
+        if( letterCache != null && !ReplicaRoutingDataSource.isReplicaRead() ){
+            for( Map.Entry<Integer, Letter> entry : readLetters.entrySet() ){
+                letterCache.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+        }
 
         List<Letter> letters = new ArrayList<Letter>();
+        for( String eltrID : eltrIDs ){
+            Integer id = Integer.parseInt(eltrID.trim());
+            Letter letter = cachedLetters.containsKey(id) ? cachedLetters.get(id) : readLetters.get(id);
+            if( letter != null ){
+                letters.add(letter);
+            }
+        }
+
+        return letters;
+    }
 
-        for(String eltrID : eltrIDs ){
-            try{
-                letters.add(getLetter(eltrID));
-            } catch( RollbackException ex){
-                throw new RollbackException(Constants.ERROR_FINDING_LETTER + ex);
+    /**
+     * Reads the letters (with recipients and search parameters) for the passed IDs from the DB in
+     * batches of batchFetchSize IDs
+     *
+     * @param ids
+     * @return Map<Integer, Letter> by ID, without the IDs that do not exist
+     * @throws RollbackException
+     */
+    private Map<Integer, Letter> readLetters(List<Integer> ids) throws RollbackException {
+        Map<Integer, Letter> letters = new HashMap<Integer, Letter>();
+
+        for( int from = 0; from < ids.size(); from += batchFetchSize ){
+            List<Integer> batchIDs = ids.subList(from, Math.min(from + batchFetchSize, ids.size()));
+            Map<String, List<Integer>> parameters = Collections.singletonMap(Constants.ELTR_IDS, batchIDs);
+
+            List<Letter> batchLetters = null;
+            Map<String, List<SearchParameter>> batchSearchParameters = null;
+            try {
+                batchLetters = this.jdbcTemplate.query(Constants.GET_LETTERS_BY_IDS_QUERY, parameters, new LetterListResultSetExtractor());
+                batchSearchParameters = this.jdbcTemplate.query(Constants.GET_SEARCH_PARAMETERS_BY_IDS_QUERY, parameters, new SearchParameterMapResultSetExtractor());
+            } catch (Exception e) {
+                LOGGER.error(Constants.ERROR_GETTING_LETTERS + e);
+                throw new RollbackException(Constants.ERROR_GETTING_LETTERS + e);
+            }
+
+            Map<String, Letter> lettersByID = new HashMap<String, Letter>();
+            for( Letter letter : batchLetters ){
+                List<SearchParameter> searchParameters = batchSearchParameters.get(letter.getEltrID());
+                letter.setSearchParameters(searchParameters != null ? searchParameters : new ArrayList<SearchParameter>());
+                lettersByID.put(letter.getEltrID(), letter);
+            }
+
+            for( Integer eltrID : batchIDs ){
+                Letter letter = lettersByID.remove(String.valueOf(eltrID));
+                if( letter != null ){
+                    letters.put(eltrID, letter);
+                }
             }
         }
 
@@ -144,10 +676,10 @@ public class EmailDaoImpl implements EmailDao {
 
     /**
      * Saves the letter into the ELTR DB
-     * - Inserts letter into eltr_eltr table
+     * - Inserts letter into eltr_eltr table, capturing the generated eltrID
      * - Inserts a row into eltr_eltr_mail_addr for the sender and each recipient (TO,CC,BCC)
-     * - Inserts 
-     * - Retrieves the recently inserted Letter
+     * - Retrieves the inserted Letter by its generated eltrID
+     * - Evicts the generated eltrID from the missingLetters cache
      *
      * @param letter
      * @return Letter
@@ -156,9 +688,10 @@ public class EmailDaoImpl implements EmailDao {
     @Override
     public Letter saveLetter(Letter letter, String templateID) throws RollbackException {
 
+        String eltrID = null;
         try {
-            insertEltr(letter,templateID);
-            insertMailRecipients(letter.getEmailInfo(), Constants.MAX_ID);
+            eltrID = insertEltr(letter,templateID);
+            insertMailRecipients(letter.getEmailInfo(), eltrID);
         } catch (Exception e) {
             LOGGER.error(Constants.ERROR_SAVING_LETTER + e);
             throw new RollbackException(Constants.ERROR_SAVING_LETTER + e);
@@ -167,7 +700,7 @@ public class EmailDaoImpl implements EmailDao {
         Letter storedLetter = null;
 
         try {
-            storedLetter = executeQuery(Constants.GET_LETTER_BY_LAST_INSERTED_QUERY, Collections.emptyMap());
+            storedLetter = executeQuery(Constants.GET_LETTER_BY_ID_QUERY, Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(eltrID)));
         } catch( RollbackException e){
             LOGGER.error(Constants.ERROR_SAVING_LETTER + Constants.ERROR_GETTING_UPDATED_LETTER + e);
             throw new RollbackException(Constants.ERROR_SAVING_LETTER + Constants.ERROR_GETTING_UPDATED_LETTER + e);
@@ -178,94 +711,192 @@ public class EmailDaoImpl implements EmailDao {
             throw new RollbackException(Constants.ERROR_SAVING_LETTER + Constants.ERROR_GETTING_SAVED_LETTER);
         }
 
+        Cache missingLetters = getCache(Constants.MISSING_LETTERS_CACHE);
+        if (missingLetters != null) {
+            missingLetters.evict(getLetterCacheKey(eltrID));
+        }
         return storedLetter;
 
     }
 
     /**
      * Updates the letter into the ELTR DB
-     * - Checks to see if the letter already exists
-     * - If it doesn't, throws an exception (ending the transaction)
-     * - Runs an update query
+     * - Runs an update query that only matches letters that have not been sent yet
+     * - Reads the stored letter (fields and current recipients) in a single query
+     * - If no row was updated, throws an exception for a missing or already sent letter (ending the transaction)
+     * - Applies the recipient differences
+     * - Returns the stored letter with the passed recipients and search parameters, without reading it again
      *
      * @param letter
      * @return letter
      * @throws RollbackException
      */
     @Override
+    @CacheEvict(value="letters", key="T(gov.nsf.emailservice.dao.EmailDaoImpl).getLetterCacheKey(#p0.eltrID)")
     public Letter updateLetter(Letter letter) throws RollbackException {
-        Letter storedLetter = null;
+        int updatedRows = 0;
         try {
-            storedLetter = getLetter(letter.getEltrID());
-        } catch (ResourceNotFoundException e) {
+            updatedRows = updateEltr(letter);
+        } catch (Exception e) {
             LOGGER.error(Constants.ERROR_UPDATING_LETTER + e);
-            throw new ResourceNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + letter.getEltrID());
-        } catch( Exception e ){
             throw new RollbackException(Constants.ERROR_UPDATING_LETTER + e);
         }
 
-        if (storedLetter.getEltrStatus() == LetterStatus.Sent) {
+        Letter storedLetter = null;
+        try {
+            storedLetter = executeQuery(Constants.GET_LETTER_BY_ID_QUERY, Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(letter.getEltrID())));
+        } catch( Exception e ){
+            LOGGER.error(Constants.ERROR_UPDATING_LETTER + Constants.ERROR_GETTING_UPDATED_LETTER + e);
+            throw new RollbackException(Constants.ERROR_UPDATING_LETTER + Constants.ERROR_GETTING_UPDATED_LETTER + e);
+        }
+
+        if (storedLetter == null) {
+            LOGGER.error(Constants.ERROR_UPDATING_LETTER + Constants.ERROR_LETTER_DOES_NOT_EXIST + letter.getEltrID());
+            throw new ResourceNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + letter.getEltrID());
+        }
+
+        if (updatedRows == 0) {
             LOGGER.error(Constants.ERROR_UPDATING_LETTER + Constants.ERROR_LETTER_ALREADY_SENT_UPDATE + letter.getEltrID());
             throw new LetterAlreadySentException(Constants.ERROR_LETTER_ALREADY_SENT_UPDATE + letter.getEltrID());
         }
 
-        boolean isNewStatus = letter.getEltrStatus() != storedLetter.getEltrStatus();
         try {
-            updateEltr(letter, isNewStatus);
-            deleteMailRecipients(letter.getEltrID());
-            insertMailRecipients(letter.getEmailInfo(), letter.getEltrID());
+            updateMailRecipients(storedLetter.getEmailInfo(), letter.getEmailInfo(), letter.getEltrID());
         } catch (Exception e) {
             LOGGER.error(Constants.ERROR_UPDATING_LETTER + e);
             throw new RollbackException(Constants.ERROR_UPDATING_LETTER + e);
         }
 
+        storedLetter.setEmailInfo(letter.getEmailInfo());
+        storedLetter.setSearchParameters(letter.getSearchParameters());
+
+        return storedLetter;
+    }
+
+    /**
+     * Marks the letter Sent and returns it
+     * - Runs an update query that only matches letters that have not been sent yet, so of several concurrent
+     *   callers exactly one updates the row; the others wait for its transaction and then match no row
+     * - Reads the letter (fields and recipients) in a single query
+     * - If no row was updated, throws an exception for a missing or already sent letter (ending the transaction)
+     *
+     * @param id
+     * @param eltrStatusUser
+     * @return the letter, with Sent status
+     * @throws RollbackException
+     */
+    @Override
+    @CacheEvict(value="letters", key="T(gov.nsf.emailservice.dao.EmailDaoImpl).getLetterCacheKey(#p0)")
+    public Letter markLetterSent(String id, String eltrStatusUser) throws RollbackException {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(Constants.ELTR_ID, Integer.parseInt(id));
+        parameters.put(Constants.ELTR_USER, eltrStatusUser);
+        parameters.put(Constants.LAST_UPT_PGM, Constants.EN_SVC);
+        parameters.put(Constants.LAST_UPT_USER, eltrStatusUser);
+
+        int updatedRows = 0;
+        try {
+            updatedRows = this.jdbcTemplate.update(Constants.MARK_LETTER_SENT_QUERY, parameters);
+        } catch (Exception e) {
+            LOGGER.error(Constants.ERROR_MARKING_LETTER_SENT + e);
+            throw new RollbackException(Constants.ERROR_MARKING_LETTER_SENT + e);
+        }
+
+        Letter storedLetter = null;
         try {
-            storedLetter = getLetter(letter.getEltrID());
+            storedLetter = executeQuery(Constants.GET_LETTER_BY_ID_QUERY, Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(id)));
         } catch( Exception e ){
-            LOGGER.error(Constants.ERROR_UPDATING_LETTER + Constants.ERROR_GETTING_UPDATED_LETTER + e);
-            throw new RollbackException(Constants.ERROR_UPDATING_LETTER + Constants.ERROR_GETTING_UPDATED_LETTER + e);
+            LOGGER.error(Constants.ERROR_MARKING_LETTER_SENT + Constants.ERROR_GETTING_UPDATED_LETTER + e);
+            throw new RollbackException(Constants.ERROR_MARKING_LETTER_SENT + Constants.ERROR_GETTING_UPDATED_LETTER + e);
+        }
+
+        if (storedLetter == null) {
+            LOGGER.error(Constants.ERROR_MARKING_LETTER_SENT + Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
+            throw new ResourceNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
+        }
+
+        if (updatedRows == 0) {
+            LOGGER.error(Constants.ERROR_MARKING_LETTER_SENT + Constants.ERROR_LETTER_ALREADY_SENT_SEND + ": " + id);
+            throw new LetterAlreadySentException(Constants.ERROR_LETTER_ALREADY_SENT_SEND + ": " + id);
         }
 
         return storedLetter;
     }
 
     /**
-     * Deletes the letter from the ltr DB
-     * - Checks to see if the letter with passed ID exists
-     * - Deletes rows from ntfy_ltr_addl_info (search parameters) with given eltrID
-     * - Deletes rows from ntfy_ltr_mail_rcpt (mail recipients) with given eltrID
-     * - Deletes row from ntfy_ltr (letter) with given eltrID
+     * Deletes the letter from the ltr DB and returns the deleted letter
      *
      * @param id
      * @return
      * @throws RollbackException
      */
     @Override
+    @CacheEvict(value="letters", key="T(gov.nsf.emailservice.dao.EmailDaoImpl).getLetterCacheKey(#p0)")
     public Letter deleteLetter(String id) throws RollbackException {
+        return deleteLetter(id, true);
+    }
+
+    /**
+     * Deletes the letter from the ltr DB
+     * - If returnDeleted is set, reads the letter (and checks that it exists and is not Sent) before deleting it
+     * - Deletes rows from ntfy_ltr_addl_info (search parameters), ntfy_ltr_recp (mail recipients) and
+     *   ntfy_ltr (letter) with given eltrID, each statement guarded on the letter not being Sent
+     * - Only looks the letter up again if nothing was deleted, to tell a missing letter from a Sent one
+     * - Evicts the cached letter IDs of each of the letter's search parameters and caches the ID as missing
+     *
+     * @param id
+     * @param returnDeleted - whether the deleted letter should be read and returned
+     * @return the deleted Letter, or null if returnDeleted is false
+     * @throws RollbackException
+     */
+    @Override
+    @CacheEvict(value="letters", key="T(gov.nsf.emailservice.dao.EmailDaoImpl).getLetterCacheKey(#p0)")
+    public Letter deleteLetter(String id, boolean returnDeleted) throws RollbackException {
         Letter storedLetter = null;
-        try {
-            storedLetter = getLetter(id);
-        } catch (ResourceNotFoundException e) {
-            LOGGER.error(Constants.ERROR_DELETING_LETTER + e);
-            throw new ResourceNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
-        } catch( Exception e ){
-            throw new RollbackException(Constants.ERROR_DELETING_LETTER + e);
+        if (returnDeleted) {
+            try {
+                storedLetter = getLetter(id);
+            } catch (ResourceNotFoundException e) {
+                LOGGER.error(Constants.ERROR_DELETING_LETTER + e);
+                throw new ResourceNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
+            } catch( Exception e ){
+                throw new RollbackException(Constants.ERROR_DELETING_LETTER + e);
+            }
+
+            if (storedLetter.getEltrStatus() == LetterStatus.Sent) {
+                LOGGER.error(Constants.ERROR_DELETING_LETTER + Constants.ERROR_LETTER_ALREADY_SENT_DELETE + id);
+                throw new LetterAlreadySentException(Constants.ERROR_LETTER_ALREADY_SENT_DELETE + id);
+            }
         }
 
-        if (storedLetter.getEltrStatus() == LetterStatus.Sent) {
-            LOGGER.error(Constants.ERROR_DELETING_LETTER + Constants.ERROR_LETTER_ALREADY_SENT_DELETE + id);
-            throw new LetterAlreadySentException(Constants.ERROR_LETTER_ALREADY_SENT_DELETE + id);
+        List<SearchParameter> deletedSearchParameters = null;
+        if (getCache(Constants.SEARCH_PARAMETER_LETTER_IDS_CACHE) != null) {
+            deletedSearchParameters = storedLetter != null ? storedLetter.getSearchParameters() : getSearchParameters(id);
         }
 
+        int deletedRows = 0;
         try {
-            deleteSearchParameters(id);
-            deleteMailRecipients(id);
-            deleteEltr(id);
+            deletedRows = deleteUnsentEltr(id);
         } catch(Exception ex){
             LOGGER.error(Constants.ERROR_DELETING_LETTER + ex);
             throw new RollbackException(Constants.ERROR_DELETING_LETTER + ex);
         }
 
+        if (deletedRows == 0) {
+            Letter currentLetter = executeQuery(Constants.GET_LETTER_BY_ID_QUERY, Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(id)));
+            if (currentLetter == null) {
+                LOGGER.error(Constants.ERROR_DELETING_LETTER + Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
+                throw new ResourceNotFoundException(Constants.ERROR_LETTER_DOES_NOT_EXIST + id);
+            }
+            LOGGER.error(Constants.ERROR_DELETING_LETTER + Constants.ERROR_LETTER_ALREADY_SENT_DELETE + id);
+            throw new LetterAlreadySentException(Constants.ERROR_LETTER_ALREADY_SENT_DELETE + id);
+        }
+
+        evictLetterIDs(deletedSearchParameters);
+        Cache missingLetters = getCache(Constants.MISSING_LETTERS_CACHE);
+        if (missingLetters != null) {
+            missingLetters.put(getLetterCacheKey(id), Boolean.TRUE);
+        }
         return storedLetter;
     }
 
@@ -293,60 +924,143 @@ public class EmailDaoImpl implements EmailDao {
     /**
      * Inserts the Letter's searchParameters into the DB
      *
+     * The ntfy_ltr_atr_id of each parameter is resolved from the passed map and all rows are written
+     * in a single JDBC batch. The cached letter IDs of both the replaced and the new key-value pairs are evicted.
+     *
      * @param letter
+     * @param searchParameterIDs
      * @throws RollbackException
      */
     @Override
-    public void storeSearchParameters(Letter letter, Set<String> validSearchParameters) throws RollbackException {
+    @CacheEvict(value="letters", key="T(gov.nsf.emailservice.dao.EmailDaoImpl).getLetterCacheKey(#p0.eltrID)")
+    public void storeSearchParameters(Letter letter, Map<String, Integer> searchParameterIDs) throws RollbackException {
+        List<SearchParameter> replacedSearchParameters = null;
+        if (getCache(Constants.SEARCH_PARAMETER_LETTER_IDS_CACHE) != null) {
+            replacedSearchParameters = getSearchParameters(letter.getEltrID());
+        }
         deleteSearchParameters(letter.getEltrID());
 
         Map<String, SearchParameter> insertedSearchParameters = new HashMap<String, SearchParameter>();
+        List<SqlParameterSource> batch = new ArrayList<SqlParameterSource>();
         for( int i = letter.getSearchParameters().size() - 1;  i >= 0; i --){
             SearchParameter searchParameter = letter.getSearchParameters().get(i);
             if(insertedSearchParameters.containsKey(searchParameter.getKey())){
                 continue;
             }
-            if(!validSearchParameters.contains(searchParameter.getKey())){
+            if(!searchParameterIDs.containsKey(searchParameter.getKey())){
                 throw new InvalidSearchParameterException(Constants.SEARCH_PARAMETER_DOES_NOT_EXIST + searchParameter.getKey());
             }
-            try{
-                executeUpdate(Constants.INSERT_SEARCH_PARAMETER_QUERY, getInsertSearchParameterParameters(letter, searchParameter));
-            } catch( RollbackException ex ){
-                throw new RollbackException(Constants.ERROR_INSERTING_SEARCH_PARAMETER + ex);
-            }
+            batch.add(new MapSqlParameterSource(getInsertSearchParameterParameters(letter, searchParameter, searchParameterIDs.get(searchParameter.getKey()))));
             searchParameter.setId(letter.getEltrID() + Constants.SEPARATOR + searchParameter.getKey());
             insertedSearchParameters.put(searchParameter.getKey(), searchParameter);
         }
 
+        try{
+            executeBatchUpdate(Constants.INSERT_SEARCH_PARAMETER_QUERY, batch);
+        } catch( RollbackException ex ){
+            throw new RollbackException(Constants.ERROR_INSERTING_SEARCH_PARAMETER + ex);
+        }
+
         letter.setSearchParameters(new ArrayList<SearchParameter>(insertedSearchParameters.values()));
+        evictLetterIDs(replacedSearchParameters);
+        evictLetterIDs(letter.getSearchParameters());
     }
 
     /**
-     * Returns Set of search parameter keys stored in lkup table
+     * Returns the names of the search parameters that are effective now in the lkup table
      *
-     * @return
+     * @return Set<String>
      * @throws RollbackException
      */
     @Override
-    @Cacheable(value="searchParameterNames")
     public Set<String> getSearchParameterNames() throws RollbackException {
-        Set<String> validSearchParameterNames = null;
+        try {
+            return searchParameterLookup.getSearchParameterNames();
+        } catch (RollbackException ex) {
+            throw new RollbackException(Constants.ERROR_LOOKING_UP_PARAMETER_NAMES + ex);
+        }
+    }
 
+    /**
+     * Returns the search parameters that are effective now in the lkup table, mapped to their ntfy_ltr_atr_id
+     *
+     * @return Map<String, Integer>
+     * @throws RollbackException
+     */
+    @Override
+    public Map<String, Integer> getSearchParameterIDs() throws RollbackException {
+        try {
+            return searchParameterLookup.getSearchParameterIDs();
+        } catch (RollbackException ex) {
+            throw new RollbackException(Constants.ERROR_LOOKING_UP_PARAMETER_IDS + ex);
+        }
+    }
+
+    /**
+     * Reloads the search parameters from the lkup table now, instead of waiting for the background refresh
+     *
+     * @throws RollbackException
+     */
+    public void reloadSearchParameters() throws RollbackException {
+        searchParameterLookup.reload();
+    }
+
+    /**
+     * Reads every row of the lkup table - rows that never got a real end_date carry one equal to their eff_date
+     * (or none), so an end_date that is null or not after the eff_date means the row has no end
+     *
+     * @return List<SearchParameterLookup.Definition>
+     * @throws RollbackException
+     */
+    private List<SearchParameterLookup.Definition> loadSearchParameterDefinitions() throws RollbackException {
         try{
-            validSearchParameterNames = (Set<String>)this.jdbcTemplate.query(Constants.SEARCH_PARAMETER_LOOKUP_QUERY, Collections.emptyMap(), new ResultSetExtractor<Set<String>>() {
+            return this.jdbcTemplate.query(Constants.SEARCH_PARAMETER_DEFINITIONS_QUERY, Collections.<String, Object>emptyMap(), new ResultSetExtractor<List<SearchParameterLookup.Definition>>() {
                 @Override
-                public Set<String> extractData(ResultSet resultSet) throws SQLException {
-                    Set<String> paramNames = new HashSet<String>();
+                public List<SearchParameterLookup.Definition> extractData(ResultSet resultSet) throws SQLException {
+                    List<SearchParameterLookup.Definition> definitions = new ArrayList<SearchParameterLookup.Definition>();
                     while(resultSet.next()){
-                        paramNames.add(resultSet.getString(Constants.ATR_NAME) != null ? resultSet.getString(Constants.ATR_NAME) : "");
+                        Timestamp effDate = resultSet.getTimestamp(Constants.SEARCH_PARAMETER_LOOKUP_EFF_DATE);
+                        Timestamp endDate = resultSet.getTimestamp(Constants.SEARCH_PARAMETER_LOOKUP_END_DATE);
+                        long effectiveFrom = effDate != null ? effDate.getTime() : Long.MIN_VALUE;
+                        long effectiveUntil = endDate != null && endDate.getTime() > effectiveFrom ? endDate.getTime() : Long.MAX_VALUE;
+                        definitions.add(new SearchParameterLookup.Definition(resultSet.getInt(Constants.SEARCH_PARAMETER_KEY),
+                                resultSet.getString(Constants.ATR_NAME) != null ? resultSet.getString(Constants.ATR_NAME) : "",
+                                effectiveFrom, effectiveUntil));
                     }
-                    return paramNames;
+                    return definitions;
                 }
             });
         } catch (Exception ex) {
-            throw new RollbackException(Constants.ERROR_LOOKING_UP_PARAMETER_NAMES + ex);
+            throw new RollbackException(Constants.ERROR_LOOKING_UP_PARAMETER_IDS + ex);
+        }
+    }
+
+    /**
+     * Creates the NamedParameterJdbcTemplate of the streaming findLetter queries, which reads streamFetchSize
+     * rows per fetch, and the refresh-ahead search parameter lookup
+     */
+    @Override
+    public void afterPropertiesSet() {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.setFetchSize(streamFetchSize);
+        streamingJdbcTemplate = new NamedParameterJdbcTemplate(template);
+
+        searchParameterLookup = new SearchParameterLookup(new SearchParameterLookup.Loader() {
+            @Override
+            public List<SearchParameterLookup.Definition> load() throws RollbackException {
+                return loadSearchParameterDefinitions();
+            }
+        }, searchParameterRefreshIntervalMillis, searchParameterRetryIntervalMillis);
+    }
+
+    /**
+     * Stops the background reload of the search parameters
+     */
+    @Override
+    public void destroy() {
+        if (searchParameterLookup != null) {
+            searchParameterLookup.shutdown();
         }
-        return validSearchParameterNames;
     }
 
     protected void deleteSearchParameters(String eltrID) throws RollbackException {
@@ -368,11 +1082,98 @@ public class EmailDaoImpl implements EmailDao {
      * @throws RollbackException
      */
     protected List<String> getLetterIDs(SearchParameter searchParameter) throws RollbackException{
+        return queryLetterIDs(Constants.GET_LETTER_IDS_QUERY, getGetLetterIdsParameters(searchParameter), searchParameter);
+    }
+
+    /**
+     * Returns the eltrIDs for a given search parameter from the searchParameterLetterIDs cache, reading and
+     * caching them on a miss (the IDs read from a replica are not cached)
+     *
+     * @param searchParameter
+     * @return List<String>
+     * @throws RollbackException
+     */
+    private List<String> getCachedLetterIDs(SearchParameter searchParameter) throws RollbackException{
+        Cache letterIDsCache = getCache(Constants.SEARCH_PARAMETER_LETTER_IDS_CACHE);
+        if (letterIDsCache == null) {
+            return getLetterIDs(searchParameter);
+        }
+
+        Object key = getLetterIDsCacheKey(searchParameter);
+        List<String> eltrIDs = letterIDsCache.get(key, List.class);
+        if (eltrIDs == null) {
+            eltrIDs = getLetterIDs(searchParameter);
+            if (!ReplicaRoutingDataSource.isReplicaRead()) {
+                letterIDsCache.put(key, new ArrayList<String>(eltrIDs));
+            }
+        }
+        return new ArrayList<String>(eltrIDs);
+    }
+
+    /**
+     * Evicts the cached eltrIDs of each of the passed search parameters
+     *
+     * @param searchParameters - may be null
+     */
+    private void evictLetterIDs(List<SearchParameter> searchParameters) {
+        Cache letterIDsCache = getCache(Constants.SEARCH_PARAMETER_LETTER_IDS_CACHE);
+        if (letterIDsCache == null || searchParameters == null) {
+            return;
+        }
+
+        for (SearchParameter searchParameter : searchParameters) {
+            letterIDsCache.evict(getLetterIDsCacheKey(searchParameter));
+        }
+    }
+
+    /**
+     * Key of the searchParameterLetterIDs cache - a List of Strings so cache invalidations can carry it
+     * between nodes. The value is trimmed and lower-cased, as the DB collation matches atr_val regardless
+     * of case, so every spelling of a value that finds the same letters shares one entry (and one eviction).
+     *
+     * @param searchParameter
+     * @return Object
+     */
+    private static Object getLetterIDsCacheKey(SearchParameter searchParameter) {
+        String value = searchParameter.getValue() == null ? null : searchParameter.getValue().trim().toLowerCase();
+        return Arrays.asList(searchParameter.getKey(), value);
+    }
+
+    /**
+     * Key of the letters and missingLetters caches - the eltrID without leading zeros or whitespace, so
+     * "42", "042" and " 42" share one entry
+     *
+     * @param eltrID
+     * @return String
+     */
+    public static String getLetterCacheKey(String eltrID) {
+        return String.valueOf(Integer.parseInt(eltrID.trim()));
+    }
+
+    /**
+     * Returns the named cache, or null if there is no cache manager or no such cache
+     *
+     * @param name
+     * @return Cache
+     */
+    private Cache getCache(String name) {
+        return cacheManager != null ? cacheManager.getCache(name) : null;
+    }
+
+    /**
+     * Helper method for running a letter ID query for the given search parameter
+     *
+     * @param queryStr - the query string to use
+     * @param parameters - the parameters to inject
+     * @param searchParameter
+     * @return List<String>
+     * @throws RollbackException
+     */
+    private List<String> queryLetterIDs(String queryStr, Map parameters, SearchParameter searchParameter) throws RollbackException{
 
         List<String> eltrIDs = null;
-        Map parameters = getGetLetterIdsParameters(searchParameter);
         try{
-            eltrIDs = this.jdbcTemplate.query(Constants.GET_LETTER_IDS_QUERY, parameters, new ResultSetExtractor<List<String>>(){
+            eltrIDs = this.jdbcTemplate.query(queryStr, parameters, new ResultSetExtractor<List<String>>(){
 
                 @Override
                 public List<String> extractData(ResultSet rs) throws SQLException {
@@ -393,55 +1194,175 @@ public class EmailDaoImpl implements EmailDao {
     /**
      * Inserts into eltr_eltr_mail_addr for sender and each recipient email addresss
      *
+     * Rows are sent to the DB as JDBC batches of at most batchInsertSize statements
+     *
      * @param emailInfo
      */
     protected void insertMailRecipients(EmailInfo emailInfo, String eltrID) throws RollbackException {
 
+        String queryStr = Constants.INSERT_MAIL_RECIPIENT_QUERY_WITH_ID;
+        List<SqlParameterSource> batch = new ArrayList<SqlParameterSource>();
+
+        batch.add(new MapSqlParameterSource(getInsertMailRecipientParameters(eltrID, emailInfo.getFromAddress(), Constants.FROM)));
+
+        for (String address : emailInfo.getToAddresses()) {
+            batch.add(new MapSqlParameterSource(getInsertMailRecipientParameters(eltrID, address, Constants.TO)));
+        }
+
+        for (String address : emailInfo.getCcAddresses()) {
+            batch.add(new MapSqlParameterSource(getInsertMailRecipientParameters(eltrID, address, Constants.CC)));
+        }
+
+        for (String address : emailInfo.getBccAddresses()) {
+            batch.add(new MapSqlParameterSource(getInsertMailRecipientParameters(eltrID, address, Constants.BCC)));
+        }
+
         try {
-            insertMailRecipient(eltrID, emailInfo.getFromAddress(), Constants.FROM);
+            executeBatchUpdate(queryStr, batch);
+        } catch (Exception e) {
+            throw new RollbackException(Constants.ERROR_INSERTING_MAIL_RECIPIENT + e);
+        }
 
-            for (String address : emailInfo.getToAddresses()) {
-                insertMailRecipient(eltrID, address, Constants.TO);
-            }
+        mailRecipientRowsInserted.addAndGet(batch.size());
+    }
 
-            for (String address : emailInfo.getCcAddresses()) {
-                insertMailRecipient(eltrID, address, Constants.CC);
+    /**
+     * Brings the eltr_eltr_mail_addr rows of a letter in line with the passed EmailInfo by applying only the differences
+     * against the currently stored EmailInfo
+     *
+     * Recipients are grouped by recipient type and (case and whitespace insensitive) address. Groups that are identical
+     * in both are left untouched; every other group is deleted and/or re-inserted. Deletes and inserts are each sent as
+     * JDBC batches
+     *
+     * @param storedEmailInfo - the EmailInfo currently stored for the letter
+     * @param emailInfo - the EmailInfo to store
+     * @param eltrID
+     * @throws RollbackException
+     */
+    protected void updateMailRecipients(EmailInfo storedEmailInfo, EmailInfo emailInfo, String eltrID) throws RollbackException {
+        Map<String, List<String>> storedRecipients = groupMailRecipients(storedEmailInfo);
+        Map<String, List<String>> recipients = groupMailRecipients(emailInfo);
+
+        List<SqlParameterSource> deletes = new ArrayList<SqlParameterSource>();
+        List<SqlParameterSource> inserts = new ArrayList<SqlParameterSource>();
+        int deletedRows = 0;
+        int unchangedRows = 0;
+
+        for (Map.Entry<String, List<String>> storedRecipient : storedRecipients.entrySet()) {
+            if (storedRecipient.getValue().equals(recipients.get(storedRecipient.getKey()))) {
+                unchangedRows += storedRecipient.getValue().size();
+            } else {
+                deletes.add(new MapSqlParameterSource(getDeleteMailRecipientParameters(eltrID, storedRecipient.getKey())));
+                deletedRows += storedRecipient.getValue().size();
             }
+        }
 
-            for (String address : emailInfo.getBccAddresses()) {
-                insertMailRecipient(eltrID, address, Constants.BCC);
+        for (Map.Entry<String, List<String>> recipient : recipients.entrySet()) {
+            if (!recipient.getValue().equals(storedRecipients.get(recipient.getKey()))) {
+                String recipientTypeCode = recipient.getKey().substring(0, recipient.getKey().indexOf(Constants.SEPARATOR));
+                for (String address : recipient.getValue()) {
+                    inserts.add(new MapSqlParameterSource(getInsertMailRecipientParameters(eltrID, address, recipientTypeCode)));
+                }
             }
+        }
+
+        try {
+            executeBatchUpdate(Constants.DELETE_MAIL_RECIPIENT_QUERY, deletes);
+        } catch (Exception e) {
+            LOGGER.error(Constants.ERROR_DELETING_MAIL_RECIPIENTS + eltrID + e);
+            throw new RollbackException(Constants.ERROR_DELETING_MAIL_RECIPIENTS + eltrID + e);
+        }
+
+        try {
+            executeBatchUpdate(Constants.INSERT_MAIL_RECIPIENT_QUERY_WITH_ID, inserts);
         } catch (Exception e) {
             throw new RollbackException(Constants.ERROR_INSERTING_MAIL_RECIPIENT + e);
         }
 
+        mailRecipientRowsDeleted.addAndGet(deletedRows);
+        mailRecipientRowsInserted.addAndGet(inserts.size());
+        mailRecipientRowsUnchanged.addAndGet(unchangedRows);
+    }
+
+    /**
+     * Groups the sender and recipients of the EmailInfo by recipient type code and normalized address
+     *
+     * @param emailInfo
+     * @return Map of recipientTypeCode-normalizedAddress to the sorted list of addresses as given
+     */
+    private static Map<String, List<String>> groupMailRecipients(EmailInfo emailInfo) {
+        Map<String, List<String>> recipients = new LinkedHashMap<String, List<String>>();
+
+        addMailRecipient(recipients, Constants.FROM, emailInfo.getFromAddress());
+        for (String address : emailInfo.getToAddresses()) {
+            addMailRecipient(recipients, Constants.TO, address);
+        }
+        for (String address : emailInfo.getCcAddresses()) {
+            addMailRecipient(recipients, Constants.CC, address);
+        }
+        for (String address : emailInfo.getBccAddresses()) {
+            addMailRecipient(recipients, Constants.BCC, address);
+        }
+
+        for (List<String> addresses : recipients.values()) {
+            Collections.sort(addresses);
+        }
+        return recipients;
+    }
+
+    private static void addMailRecipient(Map<String, List<String>> recipients, String recipientTypeCode, String address) {
+        String key = recipientTypeCode + Constants.SEPARATOR + normalizeMailAddress(address);
+        if (!recipients.containsKey(key)) {
+            recipients.put(key, new ArrayList<String>());
+        }
+        recipients.get(key).add(address == null ? "" : address);
+    }
+
+    private static String normalizeMailAddress(String address) {
+        return address == null ? "" : address.trim().toLowerCase();
     }
 
     /**
      * Inserts letter into ntfy_ltr table
      *
+     * The identity generated for the new row is read back from the insert statement itself,
+     * so concurrent creates never pick up each other's eltrID
+     *
      * @param letter Letter object
+     * @return the generated eltrID
      * @throws Exception - will be a Runtime Exception from DB
      */
-    protected void insertEltr(Letter letter, String templateID) throws RollbackException{
+    protected String insertEltr(Letter letter, String templateID) throws RollbackException{
 
         Map parameters = getInsertEltrParameters(letter, templateID);
+        KeyHolder keyHolder = new GeneratedKeyHolder();
         try{
-            executeUpdate(Constants.INSERT_ELTR_QUERY, parameters);
+            this.jdbcTemplate.update(Constants.INSERT_ELTR_QUERY, new MapSqlParameterSource(parameters), keyHolder, new String[]{Constants.ELTR_ID});
         } catch( Exception e ){
             throw new RollbackException(Constants.ERROR_UPDATING_ELTR_ELTR_TABLE + e);
         }
+
+        if( keyHolder.getKey() == null ){
+            throw new RollbackException(Constants.ERROR_UPDATING_ELTR_ELTR_TABLE + Constants.ERROR_GETTING_GENERATED_ELTR_ID);
+        }
+
+        return String.valueOf(keyHolder.getKey().intValue());
     }
 
     /**
-     * Deletes letter from the ntfy_ltr table
+     * Deletes the search parameters, mail recipients and row of the letter from the ntfy_ltr tables
+     * if the stored letter has not been sent yet
+     *
      * @param id
+     * @return the number of deleted ntfy_ltr rows - 0 if the letter does not exist or has already been sent
      * @throws RollbackException
      */
-    private void deleteEltr(String id) throws RollbackException{
+    private int deleteUnsentEltr(String id) throws RollbackException{
         Map parameters = Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(id));
         try{
-            executeUpdate(Constants.DELETE_ELTR_QUERY, parameters);
+            this.jdbcTemplate.update(Constants.DELETE_UNSENT_SEARCH_PARAMETERS_QUERY, parameters);
+            this.jdbcTemplate.update(Constants.DELETE_UNSENT_MAIL_RECIPIENTS_QUERY, parameters);
+            return this.jdbcTemplate.update(Constants.DELETE_UNSENT_ELTR_QUERY, parameters);
         } catch( Exception e ){
             throw new RollbackException(Constants.ERROR_DELETING_ELTR + id +": " + e);
         }
@@ -449,22 +1370,18 @@ public class EmailDaoImpl implements EmailDao {
 
 
     /**
-     * Updates the ntfy_ltr table
+     * Updates the ntfy_ltr table if the stored letter has not been sent yet
      *
      * @param letter
+     * @return the number of updated rows - 0 if the letter does not exist or has already been sent
      */
-    protected void updateEltr(Letter letter, boolean isNewStatus) throws RollbackException{
-        String queryStr = Constants.UPDATE_LETTER_WITH_SAME_STATUS_QUERY;
-        Map<String, String> parameters = getUpdateLetterParameters(letter);
-
-        if( isNewStatus ){
-            queryStr = Constants.UPDATE_LETTER_WITH_NEW_STATUS_QUERY;
-            parameters.put(Constants.ELTR_STATUS, letter.getEltrStatus().getCode());
-            parameters.put(Constants.ELTR_USER, letter.getEltrStatusUser());
-        }
+    protected int updateEltr(Letter letter) throws RollbackException{
+        Map parameters = getUpdateLetterParameters(letter);
+        parameters.put(Constants.ELTR_STATUS, letter.getEltrStatus().getCode());
+        parameters.put(Constants.ELTR_USER, letter.getEltrStatusUser());
 
         try {
-            executeUpdate(queryStr, parameters);
+            return this.jdbcTemplate.update(Constants.UPDATE_UNSENT_LETTER_QUERY, parameters);
         } catch( Exception e ){
             throw new RollbackException(Constants.ERROR_UPDATING_ELTR_ELTR_TABLE + e);
         }
@@ -480,36 +1397,11 @@ public class EmailDaoImpl implements EmailDao {
      */
     protected void insertMailRecipient(String eltrID, String mailAddress, String recipientTypeCode) throws RollbackException{
 
-        String queryStr = null;
-        Map parameters = getInsertMailRecipientParameters(mailAddress, recipientTypeCode);
-        if (eltrID.equals(Constants.MAX_ID)) {
-            queryStr = Constants.INSERT_MAIL_RECIPIENT_QUERY_WITHOUT_ID;
-        } else {
-            queryStr = Constants.INSERT_MAIL_RECIPIENT_QUERY_WITH_ID;
-            parameters.put(Constants.ELTR_ID, Integer.parseInt(eltrID));
-        }
-
-        executeUpdate(queryStr, parameters);
-    }
-
-    /**
-     * Removes all rows with the given eltrID in the ntfy_ltr_mail_rcpt table
-     *
-     * @param eltrID
-     */
-    private void deleteMailRecipients(String eltrID) throws RollbackException {
-        Map parameters = Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(eltrID));
-
-        try {
-            executeUpdate(Constants.DELETE_MAIL_RECIPIENTS_QUERY, parameters);
-        } catch (Exception e) {
-            LOGGER.error(Constants.ERROR_DELETING_MAIL_RECIPIENTS + eltrID + e);
-            throw new RollbackException(Constants.ERROR_DELETING_MAIL_RECIPIENTS + eltrID + e);
-        }
+        Map parameters = getInsertMailRecipientParameters(eltrID, mailAddress, recipientTypeCode);
 
+        executeUpdate(Constants.INSERT_MAIL_RECIPIENT_QUERY_WITH_ID, parameters);
     }
 
-
     /**
      * Helper method for executing jdbcTemplate.query(queryString,parameters,rowmapper/extractor) calls
      *
@@ -543,6 +1435,24 @@ public class EmailDaoImpl implements EmailDao {
         }
     }
 
+    /**
+     * Helper method for executing jdbcTemplate.batchUpdate(queryString,batch) calls in chunks of batchInsertSize
+     *
+     * @param queryStr - the query string to use
+     * @param batch - the parameters to inject, one entry per statement
+     * @throws RollbackException
+     */
+    private void executeBatchUpdate(String queryStr, List<SqlParameterSource> batch) throws RollbackException {
+        try {
+            for (int from = 0; from < batch.size(); from += batchInsertSize) {
+                List<SqlParameterSource> chunk = batch.subList(from, Math.min(from + batchInsertSize, batch.size()));
+                this.jdbcTemplate.batchUpdate(queryStr, chunk.toArray(new SqlParameterSource[chunk.size()]));
+            }
+        } catch (Exception e) {
+            throw new RollbackException(Constants.ERROR_EXECUTING_QUERY + queryStr + e);
+        }
+    }
+
     /**
      * Returns the parameters necessary for the exec_request_table insert
      *
@@ -567,16 +1477,35 @@ public class EmailDaoImpl implements EmailDao {
     /**
      * Returns the parameters necessary for the eltr_eltr_mail_addr insert
      *
+     * @param eltrID
      * @param mailAddress
      * @param recipientTypeCode
      * @return
      */
-    private static Map getInsertMailRecipientParameters(String mailAddress, String recipientTypeCode) {
+    private static Map getInsertMailRecipientParameters(String eltrID, String mailAddress, String recipientTypeCode) {
         Map parameters = new HashMap();
         parameters.put(Constants.RECIPIENT_TYPE_CODE, recipientTypeCode);
         parameters.put(Constants.MAIL_ADDRESS, mailAddress);
         parameters.put(Constants.LAST_UPT_PGM, Constants.EN_SVC);
         parameters.put(Constants.LAST_UPT_USER, Constants.EN_SVC);
+        parameters.put(Constants.ELTR_ID, Integer.parseInt(eltrID));
+
+        return parameters;
+    }
+
+    /**
+     * Returns the parameters necessary for the delete of one recipient group from eltr_eltr_mail_addr
+     *
+     * @param eltrID
+     * @param recipientKey - recipientTypeCode-normalizedAddress, see groupMailRecipients
+     * @return
+     */
+    private static Map getDeleteMailRecipientParameters(String eltrID, String recipientKey) {
+        int separatorIndex = recipientKey.indexOf(Constants.SEPARATOR);
+        Map parameters = new HashMap();
+        parameters.put(Constants.ELTR_ID, Integer.parseInt(eltrID));
+        parameters.put(Constants.RECIPIENT_TYPE_CODE, recipientKey.substring(0, separatorIndex));
+        parameters.put(Constants.MAIL_ADDRESS, recipientKey.substring(separatorIndex + 1));
 
         return parameters;
     }
@@ -603,12 +1532,13 @@ public class EmailDaoImpl implements EmailDao {
      *
      * @param letter
      * @param parameter
+     * @param searchParameterID - the ntfy_ltr_atr_id of the parameter's key
      * @return
      */
-    private static Map getInsertSearchParameterParameters(Letter letter, SearchParameter parameter){
+    private static Map getInsertSearchParameterParameters(Letter letter, SearchParameter parameter, Integer searchParameterID){
         Map parameters = new HashMap();
         parameters.put(Constants.ELTR_ID, Integer.parseInt(letter.getEltrID()));
-        parameters.put(Constants.SEARCH_PARAMETER_KEY, parameter.getKey());
+        parameters.put(Constants.SEARCH_PARAMETER_KEY, searchParameterID);
         parameters.put(Constants.SEARCH_PARAMETER_VALUE, parameter.getValue());
         parameters.put(Constants.LAST_UPT_USER, letter.getEltrStatusUser());
         parameters.put(Constants.LAST_UPT_PGM, Constants.EN_SVC);
@@ -0,0 +1,365 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.emailservice.api.model.EmailInfo;
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.LetterStatus;
+import gov.nsf.emailservice.api.model.SearchParameter;
+import gov.nsf.emailservice.common.util.Constants;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.constructs.CacheDecoratorFactory;
+import net.sf.ehcache.constructs.EhcacheDecoratorAdapter;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * LetterCacheDecoratorFactory decorates the letters cache (see ehcache.xml)
+ *
+ * - The expiry of each entry depends on the cached letter's status: Sent letters can no longer change, so
+ *   they never expire (they are only removed by LRU eviction); any other letter lives for
+ *   draftTimeToLiveSeconds
+ * - Letters are copied when they are put and on every read, so callers are free to change the letters they
+ *   get back
+ * - When offHeapContentBytes is set, eltrContent of at least offHeapMinContentBytes is kept in an
+ *   OffHeapContentStore, so only the letter metadata stays on the heap. The content is only copied back
+ *   on the heap when getEltrContent is first called on a letter read from the cache. A letter whose content
+ *   was evicted from the store is a cache miss, and is counted as one in the cache statistics.
+ */
+public class LetterCacheDecoratorFactory extends CacheDecoratorFactory {
+
+    public static final String DRAFT_TIME_TO_LIVE_SECONDS = "draftTimeToLiveSeconds";
+    public static final String OFF_HEAP_CONTENT_BYTES = "offHeapContentBytes";
+    public static final String OFF_HEAP_PAGE_SIZE = "offHeapPageSize";
+    public static final String OFF_HEAP_MIN_CONTENT_BYTES = "offHeapMinContentBytes";
+
+    @Override
+    public Ehcache createDecoratedEhcache(Ehcache cache, Properties properties) {
+        return createLetterCache(cache, properties);
+    }
+
+    @Override
+    public Ehcache createDefaultDecoratedEhcache(Ehcache cache, Properties properties) {
+        return createLetterCache(cache, properties);
+    }
+
+    private static LetterCache createLetterCache(Ehcache cache, Properties properties) {
+        long offHeapContentBytes = getLong(properties, OFF_HEAP_CONTENT_BYTES, 0);
+        OffHeapContentStore contentStore = null;
+        if (offHeapContentBytes > 0) {
+            contentStore = new OffHeapContentStore(offHeapContentBytes, (int) getLong(properties, OFF_HEAP_PAGE_SIZE, Constants.DEFAULT_OFF_HEAP_PAGE_SIZE));
+        }
+        return new LetterCache(cache, (int) getLong(properties, DRAFT_TIME_TO_LIVE_SECONDS, Constants.DEFAULT_DRAFT_LETTER_TIME_TO_LIVE_SECONDS),
+                contentStore, (int) getLong(properties, OFF_HEAP_MIN_CONTENT_BYTES, Constants.DEFAULT_OFF_HEAP_MIN_CONTENT_BYTES));
+    }
+
+    private static long getLong(Properties properties, String name, long defaultValue) {
+        if (properties == null || properties.getProperty(name) == null) {
+            return defaultValue;
+        }
+        return Long.parseLong(properties.getProperty(name).trim());
+    }
+
+    /**
+     * Ehcache decorator that sets the time to live of every letter put in the cache and stores it compactly
+     *
+     * Only get, getQuiet, put and putIfAbsent convert between Letter and the stored form.
+     */
+    public static class LetterCache extends EhcacheDecoratorAdapter {
+
+        private final int draftTimeToLiveSeconds;
+        private final OffHeapContentStore contentStore;
+        private final int offHeapMinContentBytes;
+
+        public LetterCache(Ehcache underlyingCache, int draftTimeToLiveSeconds) {
+            this(underlyingCache, draftTimeToLiveSeconds, null, 0);
+        }
+
+        public LetterCache(Ehcache underlyingCache, int draftTimeToLiveSeconds, OffHeapContentStore contentStore, int offHeapMinContentBytes) {
+            super(underlyingCache);
+            this.draftTimeToLiveSeconds = draftTimeToLiveSeconds;
+            this.contentStore = contentStore;
+            this.offHeapMinContentBytes = offHeapMinContentBytes;
+            if (contentStore != null) {
+                underlyingCache.getCacheEventNotificationService().registerListener(new ContentReleasingListener());
+            }
+        }
+
+        @Override
+        public void put(Element element) {
+            super.put(toStoredElement(element));
+        }
+
+        @Override
+        public void put(Element element, boolean doNotNotifyCacheReplicators) {
+            super.put(toStoredElement(element), doNotNotifyCacheReplicators);
+        }
+
+        @Override
+        public Element putIfAbsent(Element element) {
+            return toLetterElement(super.putIfAbsent(toStoredElement(element)));
+        }
+
+        @Override
+        public Element putIfAbsent(Element element, boolean doNotNotifyCacheReplicators) {
+            return toLetterElement(super.putIfAbsent(toStoredElement(element), doNotNotifyCacheReplicators));
+        }
+
+        @Override
+        public Element get(Object key) {
+            removeIfContentEvicted(key);
+            return toLetterElement(super.get(key));
+        }
+
+        @Override
+        public Element get(Serializable key) {
+            removeIfContentEvicted(key);
+            return toLetterElement(super.get(key));
+        }
+
+        @Override
+        public Element getQuiet(Object key) {
+            return toLetterElement(super.getQuiet(key));
+        }
+
+        @Override
+        public Element getQuiet(Serializable key) {
+            return toLetterElement(super.getQuiet(key));
+        }
+
+        /**
+         * Removes the letter stored under the key if its content was evicted from the content store, so the
+         * following get is counted as a miss instead of a hit
+         *
+         * @param key
+         */
+        private void removeIfContentEvicted(Object key) {
+            if (contentStore == null) {
+                return;
+            }
+
+            Element storedElement = underlyingCache.getQuiet(key);
+            if (storedElement != null && storedElement.getObjectValue() instanceof StoredLetter) {
+                long contentStamp = ((StoredLetter) storedElement.getObjectValue()).contentStamp;
+                if (contentStamp != 0 && !contentStore.contains(key, contentStamp)) {
+                    underlyingCache.remove(key);
+                }
+            }
+        }
+
+        /**
+         * Returns the element to store for the passed element, with its time to live set
+         *
+         * @param element
+         * @return Element
+         */
+        private Element toStoredElement(Element element) {
+            if (element == null) {
+                return null;
+            }
+
+            Object value = element.getObjectValue();
+            Element storedElement = element;
+            if (value instanceof Letter) {
+                storedElement = new Element(element.getObjectKey(), toStoredLetter(element.getObjectKey(), (Letter) value));
+            }
+
+            if (value instanceof Letter && ((Letter) value).getEltrStatus() == LetterStatus.Sent) {
+                storedElement.setEternal(true);
+            } else {
+                storedElement.setTimeToLive(draftTimeToLiveSeconds);
+            }
+            return storedElement;
+        }
+
+        private StoredLetter toStoredLetter(Object key, Letter letter) {
+            byte[] content = contentStore != null && letter.getEltrContent() != null ? letter.getEltrContent().getBytes(StandardCharsets.UTF_8) : null;
+            if (content != null && content.length >= offHeapMinContentBytes) {
+                long contentStamp = contentStore.put(key, content);
+                if (contentStamp != 0) {
+                    return new StoredLetter(copyMetadata(letter, new Letter()), contentStamp);
+                }
+            }
+            Letter storedLetter = copyMetadata(letter, new Letter());
+            storedLetter.setEltrContent(letter.getEltrContent());
+            return new StoredLetter(storedLetter, 0);
+        }
+
+        /**
+         * Returns a copy of the stored element holding a new Letter, or null if the letter's content is no
+         * longer in the content store (the stale entry is then removed)
+         *
+         * The content itself is not read here: a letter whose content is in the content store reads it the
+         * first time its getEltrContent is called.
+         *
+         * @param storedElement
+         * @return Element
+         */
+        private Element toLetterElement(Element storedElement) {
+            if (storedElement == null || !(storedElement.getObjectValue() instanceof StoredLetter)) {
+                return storedElement;
+            }
+
+            StoredLetter storedLetter = (StoredLetter) storedElement.getObjectValue();
+            Letter letter;
+            if (storedLetter.contentStamp == 0) {
+                letter = copyMetadata(storedLetter.letter, new Letter());
+                letter.setEltrContent(storedLetter.letter.getEltrContent());
+            } else if (contentStore.contains(storedElement.getObjectKey(), storedLetter.contentStamp)) {
+                letter = copyMetadata(storedLetter.letter, new OffHeapContentLetter(storedElement.getObjectKey(), storedLetter.contentStamp));
+            } else {
+                underlyingCache.remove(storedElement.getObjectKey());
+                return null;
+            }
+
+            return new Element(storedElement.getObjectKey(), letter, storedElement.getVersion(), storedElement.getCreationTime(),
+                    storedElement.getLastAccessTime(), storedElement.getHitCount(), storedElement.usesCacheDefaultLifespan(),
+                    storedElement.getTimeToLive(), storedElement.getTimeToIdle(), storedElement.getLastUpdateTime());
+        }
+
+        /**
+         * Copies every field of the letter but eltrContent into the passed copy, with new EmailInfo and
+         * searchParameters
+         *
+         * @param letter
+         * @param copy
+         * @return the copy
+         */
+        private static Letter copyMetadata(Letter letter, Letter copy) {
+            copy.setEltrID(letter.getEltrID());
+            copy.setEltrStatus(letter.getEltrStatus());
+            copy.setEltrStatusUser(letter.getEltrStatusUser());
+            copy.setEltrStatusDate(letter.getEltrStatusDate());
+            copy.setPlainText(letter.isPlainText());
+            copy.setTmplID(letter.getTmplID());
+            copy.setApplID(letter.getApplID());
+            copy.setLastUpdated(letter.getLastUpdated());
+
+            EmailInfo emailInfo = letter.getEmailInfo();
+            if (emailInfo != null) {
+                EmailInfo emailInfoCopy = new EmailInfo();
+                emailInfoCopy.setMailSubject(emailInfo.getMailSubject());
+                emailInfoCopy.setFromAddress(emailInfo.getFromAddress());
+                emailInfoCopy.setToAddresses(copyList(emailInfo.getToAddresses()));
+                emailInfoCopy.setCcAddresses(copyList(emailInfo.getCcAddresses()));
+                emailInfoCopy.setBccAddresses(copyList(emailInfo.getBccAddresses()));
+                copy.setEmailInfo(emailInfoCopy);
+            }
+
+            if (letter.getSearchParameters() != null) {
+                List<SearchParameter> searchParameters = new ArrayList<SearchParameter>(letter.getSearchParameters().size());
+                for (SearchParameter searchParameter : letter.getSearchParameters()) {
+                    SearchParameter searchParameterCopy = null;
+                    if (searchParameter != null) {
+                        searchParameterCopy = new SearchParameter(searchParameter.getKey(), searchParameter.getValue());
+                        searchParameterCopy.setId(searchParameter.getId());
+                    }
+                    searchParameters.add(searchParameterCopy);
+                }
+                copy.setSearchParameters(searchParameters);
+            }
+            return copy;
+        }
+
+        private static List<String> copyList(List<String> list) {
+            return list == null ? null : new ArrayList<String>(list);
+        }
+
+        public int getDraftTimeToLiveSeconds() {
+            return draftTimeToLiveSeconds;
+        }
+
+        /**
+         * Returns the store holding the letter content off the heap, or null if the tier is disabled
+         *
+         * @return OffHeapContentStore
+         */
+        public OffHeapContentStore getContentStore() {
+            return contentStore;
+        }
+
+        /**
+         * Letter read from the cache whose eltrContent is still in the content store - the content is copied
+         * on the heap the first time it is read, unless it was set before
+         */
+        private class OffHeapContentLetter extends Letter {
+            private final Object key;
+            private final long contentStamp;
+            private boolean contentRead;
+
+            OffHeapContentLetter(Object key, long contentStamp) {
+                this.key = key;
+                this.contentStamp = contentStamp;
+            }
+
+            @Override
+            public String getEltrContent() {
+                if (!contentRead) {
+                    byte[] content = contentStore.get(key, contentStamp);
+                    if (content == null) {
+                        throw new CacheException(Constants.CACHED_LETTER_CONTENT_EVICTED + key);
+                    }
+                    setEltrContent(new String(content, StandardCharsets.UTF_8));
+                }
+                return super.getEltrContent();
+            }
+
+            @Override
+            public void setEltrContent(String eltrContent) {
+                contentRead = true;
+                super.setEltrContent(eltrContent);
+            }
+        }
+
+        /**
+         * Frees the content of the letters removed, evicted or expired from the underlying cache
+         */
+        private class ContentReleasingListener extends CacheEventListenerAdapter {
+
+            @Override
+            public void notifyElementRemoved(Ehcache cache, Element element) {
+                release(element);
+            }
+
+            @Override
+            public void notifyElementExpired(Ehcache cache, Element element) {
+                release(element);
+            }
+
+            @Override
+            public void notifyElementEvicted(Ehcache cache, Element element) {
+                release(element);
+            }
+
+            @Override
+            public void notifyRemoveAll(Ehcache cache) {
+                contentStore.clear();
+            }
+
+            private void release(Element element) {
+                if (element != null && element.getObjectValue() instanceof StoredLetter) {
+                    contentStore.remove(element.getObjectKey(), ((StoredLetter) element.getObjectValue()).contentStamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stored form of a cached letter - a private copy of it, without eltrContent when the content is in the
+     * content store
+     */
+    static class StoredLetter {
+        private final Letter letter;
+        private final long contentStamp;
+
+        StoredLetter(Letter letter, long contentStamp) {
+            this.letter = letter;
+            this.contentStamp = contentStamp;
+        }
+    }
+}
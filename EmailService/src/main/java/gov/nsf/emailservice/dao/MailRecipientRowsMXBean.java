@@ -0,0 +1,30 @@
+package gov.nsf.emailservice.dao;
+
+/**
+ * MailRecipientRowsMXBean publishes the ntfy_ltr_recp row counters of the EmailDao over JMX (see the
+ * mbeanExporter bean in emailservice-context.xml)
+ *
+ */
+public interface MailRecipientRowsMXBean {
+
+    /**
+     * Returns the number of ntfy_ltr_recp rows inserted by saveLetter and updateLetter since startup
+     *
+     * @return long
+     */
+    long getMailRecipientRowsInserted();
+
+    /**
+     * Returns the number of ntfy_ltr_recp rows deleted by updateLetter since startup
+     *
+     * @return long
+     */
+    long getMailRecipientRowsDeleted();
+
+    /**
+     * Returns the number of unchanged ntfy_ltr_recp rows updateLetter left in place since startup
+     *
+     * @return long
+     */
+    long getMailRecipientRowsUnchanged();
+}
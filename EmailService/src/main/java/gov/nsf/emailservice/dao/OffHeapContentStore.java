@@ -0,0 +1,206 @@
+package gov.nsf.emailservice.dao;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * OffHeapContentStore keeps byte arrays outside the Java heap, in a single direct ByteBuffer allocated once
+ * and cut into fixed-size pages
+ *
+ * - Each value takes ceil(length / pageSize) pages, which need not be contiguous
+ * - When there are not enough free pages, the least recently read values are evicted until there are
+ * - Every put returns a stamp; reads and removes only succeed with the stamp of the value currently stored,
+ *   so a caller holding an older stamp never gets newer (or older) bytes than it expects
+ *
+ * Access is synchronized: copying a few pages is cheap compared to the DB read it saves.
+ */
+public class OffHeapContentStore {
+
+    private final ByteBuffer slab;
+    private final int pageSize;
+    private final int pageCount;
+    private final Deque<Integer> freePages;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+    private long nextStamp = 1;
+    private long evictions;
+    private long usedBytes;
+
+    /**
+     * @param capacityBytes - size of the direct buffer, at most Integer.MAX_VALUE
+     * @param pageSize - size of a page in bytes
+     */
+    public OffHeapContentStore(long capacityBytes, int pageSize) {
+        if (pageSize <= 0 || capacityBytes < pageSize || capacityBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacityBytes must be between pageSize and " + Integer.MAX_VALUE + ": " + capacityBytes);
+        }
+        this.pageSize = pageSize;
+        this.pageCount = (int) (capacityBytes / pageSize);
+        this.slab = ByteBuffer.allocateDirect(pageCount * pageSize);
+        this.freePages = new ArrayDeque<Integer>(pageCount);
+        for (int page = 0; page < pageCount; page++) {
+            freePages.push(page);
+        }
+    }
+
+    /**
+     * Stores the value under the key, replacing any value stored for it
+     *
+     * @param key
+     * @param value
+     * @return the stamp of the stored value, or 0 if the value is larger than the store
+     */
+    public synchronized long put(Object key, byte[] value) {
+        release(entries.remove(key));
+
+        int pagesNeeded = (value.length + pageSize - 1) / pageSize;
+        if (pagesNeeded > pageCount) {
+            return 0;
+        }
+        Iterator<Map.Entry<Object, Entry>> eldest = entries.entrySet().iterator();
+        while (freePages.size() < pagesNeeded) {
+            release(eldest.next().getValue());
+            eldest.remove();
+            evictions++;
+        }
+
+        int[] pages = new int[pagesNeeded];
+        for (int i = 0; i < pagesNeeded; i++) {
+            pages[i] = freePages.pop();
+            int offset = i * pageSize;
+            ByteBuffer page = pageBuffer(pages[i]);
+            page.put(value, offset, Math.min(pageSize, value.length - offset));
+        }
+
+        Entry entry = new Entry(nextStamp++, pages, value.length);
+        entries.put(key, entry);
+        usedBytes += value.length;
+        return entry.stamp;
+    }
+
+    /**
+     * Returns a copy of the value stored under the key, or null if it was evicted, removed or replaced
+     *
+     * @param key
+     * @param stamp - the stamp returned when the value was stored
+     * @return byte[]
+     */
+    public synchronized byte[] get(Object key, long stamp) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.stamp != stamp) {
+            return null;
+        }
+
+        byte[] value = new byte[entry.length];
+        for (int i = 0; i < entry.pages.length; i++) {
+            int offset = i * pageSize;
+            ByteBuffer page = pageBuffer(entry.pages[i]);
+            page.get(value, offset, Math.min(pageSize, entry.length - offset));
+        }
+        return value;
+    }
+
+    /**
+     * Returns true if the value stored under the key still has the given stamp, without copying it
+     *
+     * @param key
+     * @param stamp
+     * @return boolean
+     */
+    public synchronized boolean contains(Object key, long stamp) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.stamp == stamp;
+    }
+
+    /**
+     * Removes the value stored under the key if it still has the given stamp
+     *
+     * @param key
+     * @param stamp
+     */
+    public synchronized void remove(Object key, long stamp) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.stamp == stamp) {
+            release(entries.remove(key));
+        }
+    }
+
+    /**
+     * Removes every value
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+    }
+
+    private ByteBuffer pageBuffer(int page) {
+        ByteBuffer buffer = slab.duplicate();
+        buffer.position(page * pageSize);
+        buffer.limit(page * pageSize + pageSize);
+        return buffer;
+    }
+
+    private void release(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        for (int page : entry.pages) {
+            freePages.push(page);
+        }
+        usedBytes -= entry.length;
+    }
+
+    /**
+     * Returns the size of the direct buffer in bytes
+     *
+     * @return long
+     */
+    public long getCapacityBytes() {
+        return (long) pageCount * pageSize;
+    }
+
+    /**
+     * Returns the number of bytes of the values currently stored
+     *
+     * @return long
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the number of values currently stored
+     *
+     * @return int
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of values evicted to make room since startup
+     *
+     * @return long
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static class Entry {
+        private final long stamp;
+        private final int[] pages;
+        private final int length;
+
+        private Entry(long stamp, int[] pages, int length) {
+            this.stamp = stamp;
+            this.pages = pages;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.emailservice.common.util.Constants;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReplicaRoutingDataSource hands out connections of the primary DataSource, except inside read-only
+ * transactions, which get a connection of one of the replica DataSources (round robin)
+ *
+ * A replica is skipped while its replication lag is above maxReplicationLagSeconds or while it cannot be
+ * reached - a background thread reads the lag of every replica with replicationLagQuery every
+ * lagCheckIntervalMillis, so requests never wait for the check. When no replica is usable the read-only
+ * transaction falls back to the primary.
+ *
+ * A replica can be up to maxReplicationLagSeconds behind the primary, so callers must not cache what a
+ * replica returned - isReplicaRead() tells whether the current transaction reads from a replica.
+ *
+ * Wrap this DataSource in a LazyConnectionDataSourceProxy so the transaction's read-only flag is set before
+ * the connection is fetched.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = Logger.getLogger(ReplicaRoutingDataSource.class);
+    private static final Object REPLICA_READ = new Object();
+
+    private DataSource primaryDataSource;
+    private List<DataSource> replicaDataSources = Collections.emptyList();
+    private String replicationLagQuery = Constants.REPLICATION_LAG_QUERY;
+    private int maxReplicationLagSeconds = Constants.DEFAULT_MAX_REPLICATION_LAG_SECONDS;
+    private long lagCheckIntervalMillis = Constants.DEFAULT_LAG_CHECK_INTERVAL_MILLIS;
+
+    private List<Replica> replicas = Collections.emptyList();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final AtomicLong replicaConnections = new AtomicLong();
+    private final AtomicLong primaryFallbacks = new AtomicLong();
+    private ScheduledExecutorService lagCheckExecutor;
+
+    /**
+     * Checks the replication lag of every replica once and starts the background check
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (primaryDataSource == null) {
+            throw new IllegalArgumentException("Property 'primaryDataSource' is required");
+        }
+
+        List<Replica> configuredReplicas = new ArrayList<Replica>();
+        for (DataSource replicaDataSource : replicaDataSources) {
+            configuredReplicas.add(new Replica(replicaDataSource));
+        }
+        this.replicas = configuredReplicas;
+
+        destroy();
+        checkReplicationLag();
+        if (!replicas.isEmpty()) {
+            lagCheckExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "replica-lag-check");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            lagCheckExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkReplicationLag();
+                }
+            }, lagCheckIntervalMillis, lagCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background check of the replication lag
+     */
+    @Override
+    public void destroy() {
+        if (lagCheckExecutor != null) {
+            lagCheckExecutor.shutdownNow();
+            lagCheckExecutor = null;
+        }
+    }
+
+    /**
+     * Returns true if the current transaction got its connection from a replica
+     *
+     * @return boolean
+     */
+    public static boolean isReplicaRead() {
+        return TransactionSynchronizationManager.hasResource(REPLICA_READ);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            Connection connection = getReplicaConnection(null, null);
+            if (connection != null) {
+                return connection;
+            }
+        }
+        return primaryDataSource.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            Connection connection = getReplicaConnection(username, password);
+            if (connection != null) {
+                return connection;
+            }
+        }
+        return primaryDataSource.getConnection(username, password);
+    }
+
+    /**
+     * Returns a connection of the next usable replica, or null if none is usable
+     *
+     * @param username - null for the replica's default credentials
+     * @param password
+     * @return Connection
+     */
+    private Connection getReplicaConnection(String username, String password) {
+        int replicaCount = replicas.size();
+        if (replicaCount == 0) {
+            return null;
+        }
+
+        int start = Math.abs(nextReplica.getAndIncrement() % replicaCount);
+        for (int i = 0; i < replicaCount; i++) {
+            Replica replica = replicas.get((start + i) % replicaCount);
+            if (!replica.usable) {
+                continue;
+            }
+            try {
+                Connection connection = username == null ? replica.dataSource.getConnection() : replica.dataSource.getConnection(username, password);
+                replicaConnections.incrementAndGet();
+                markReplicaRead();
+                return connection;
+            } catch (SQLException e) {
+                LOGGER.warn(Constants.ERROR_CONNECTING_TO_REPLICA + e);
+                replica.usable = false;
+            }
+        }
+
+        primaryFallbacks.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Flags the current transaction as a replica read until it completes
+     */
+    private void markReplicaRead() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive() || isReplicaRead()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.bindResource(REPLICA_READ, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(REPLICA_READ);
+            }
+        });
+    }
+
+    /**
+     * Reads the replication lag of every replica and marks the ones above maxReplicationLagSeconds or that
+     * cannot be reached as unusable until the next check - a replica whose connection failed is retried
+     * after the next check
+     */
+    void checkReplicationLag() {
+        for (Replica replica : replicas) {
+            replica.usable = isWithinMaxReplicationLag(replica);
+        }
+    }
+
+    private boolean isWithinMaxReplicationLag(Replica replica) {
+        if (replicationLagQuery == null) {
+            return true;
+        }
+
+        try {
+            Integer lagSeconds = replica.jdbcTemplate.queryForObject(replicationLagQuery, Integer.class);
+            if (lagSeconds == null || lagSeconds > maxReplicationLagSeconds) {
+                LOGGER.warn(Constants.REPLICA_LAGGING + lagSeconds);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn(Constants.ERROR_CHECKING_REPLICATION_LAG + e);
+            return false;
+        }
+    }
+
+    public DataSource getPrimaryDataSource() {
+        return primaryDataSource;
+    }
+
+    public void setPrimaryDataSource(DataSource primaryDataSource) {
+        this.primaryDataSource = primaryDataSource;
+    }
+
+    public List<DataSource> getReplicaDataSources() {
+        return replicaDataSources;
+    }
+
+    public void setReplicaDataSources(List<DataSource> replicaDataSources) {
+        this.replicaDataSources = replicaDataSources;
+    }
+
+    public String getReplicationLagQuery() {
+        return replicationLagQuery;
+    }
+
+    /**
+     * Query run on a replica that returns its replication lag in seconds - null disables the lag check
+     *
+     * @param replicationLagQuery
+     */
+    public void setReplicationLagQuery(String replicationLagQuery) {
+        this.replicationLagQuery = replicationLagQuery;
+    }
+
+    public int getMaxReplicationLagSeconds() {
+        return maxReplicationLagSeconds;
+    }
+
+    public void setMaxReplicationLagSeconds(int maxReplicationLagSeconds) {
+        this.maxReplicationLagSeconds = maxReplicationLagSeconds;
+    }
+
+    public long getLagCheckIntervalMillis() {
+        return lagCheckIntervalMillis;
+    }
+
+    public void setLagCheckIntervalMillis(long lagCheckIntervalMillis) {
+        this.lagCheckIntervalMillis = lagCheckIntervalMillis;
+    }
+
+    /**
+     * Returns the number of connections handed out by replicas since startup
+     *
+     * @return long
+     */
+    public long getReplicaConnections() {
+        return replicaConnections.get();
+    }
+
+    /**
+     * Returns the number of read-only connections that fell back to the primary because no replica was usable
+     *
+     * @return long
+     */
+    public long getPrimaryFallbacks() {
+        return primaryFallbacks.get();
+    }
+
+    private static class Replica {
+        private final DataSource dataSource;
+        private final JdbcTemplate jdbcTemplate;
+        private volatile boolean usable = true;
+
+        private Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.common.exception.RollbackException;
+import gov.nsf.emailservice.common.util.Constants;
+import org.apache.log4j.Logger;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * SearchParameterLookup holds the rows of ntfy_ltr_atr_lkup and serves the search parameters that are
+ * effective now (eff_date <= now < end_date) as a name to ntfy_ltr_atr_id map - a row whose end_date is
+ * not after its eff_date has no end
+ *
+ * - The rows are loaded on first use; every later read is served from memory
+ * - Once refreshIntervalMillis has passed since the last load, the next read starts a reload in the
+ *   background and keeps serving the current rows until it completes (only one reload runs at a time).
+ *   A failed reload is retried after retryIntervalMillis.
+ * - The effective search parameters are recomputed from the loaded rows whenever an eff_date or end_date
+ *   passes, so a parameter starts and stops being valid on time even between reloads; a recomputed
+ *   snapshot never replaces one that a reload stored in the meantime
+ */
+public class SearchParameterLookup {
+
+    private static final Logger LOGGER = Logger.getLogger(SearchParameterLookup.class);
+
+    private final Loader loader;
+    private final long refreshIntervalMillis;
+    private final long retryIntervalMillis;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+    private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "search-parameter-lookup-reload");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>();
+    private volatile long nextReloadAt;
+
+    public SearchParameterLookup(Loader loader, long refreshIntervalMillis, long retryIntervalMillis) {
+        this.loader = loader;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.retryIntervalMillis = retryIntervalMillis;
+    }
+
+    /**
+     * Returns the effective search parameter names mapped to their ntfy_ltr_atr_id
+     *
+     * @return Map<String, Integer> (unmodifiable)
+     * @throws RollbackException if the rows were never loaded and cannot be loaded
+     */
+    public Map<String, Integer> getSearchParameterIDs() throws RollbackException {
+        return getSnapshot().searchParameterIDs;
+    }
+
+    /**
+     * Returns the effective search parameter names
+     *
+     * @return Set<String> (unmodifiable)
+     * @throws RollbackException if the rows were never loaded and cannot be loaded
+     */
+    public Set<String> getSearchParameterNames() throws RollbackException {
+        return getSnapshot().searchParameterIDs.keySet();
+    }
+
+    /**
+     * Loads the rows now, waiting for the load
+     *
+     * @throws RollbackException
+     */
+    public synchronized void reload() throws RollbackException {
+        List<Definition> definitions = loader.load();
+        snapshot.set(new Snapshot(definitions, currentTimeMillis()));
+        nextReloadAt = currentTimeMillis() + refreshIntervalMillis;
+    }
+
+    /**
+     * Stops the background reload thread
+     */
+    public void shutdown() {
+        reloadExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the current time in epoch milliseconds
+     *
+     * @return long
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Snapshot getSnapshot() throws RollbackException {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot.get() == null) {
+                    reload();
+                }
+                current = snapshot.get();
+            }
+        }
+
+        long now = currentTimeMillis();
+        if (now >= current.validUntil) {
+            Snapshot recomputed = new Snapshot(current.definitions, now);
+            current = snapshot.compareAndSet(current, recomputed) ? recomputed : snapshot.get();
+        }
+        if (now >= nextReloadAt && reloading.compareAndSet(false, true)) {
+            reloadInBackground();
+        }
+        return current;
+    }
+
+    private void reloadInBackground() {
+        try {
+            reloadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        reload();
+                    } catch (Exception e) {
+                        LOGGER.error(Constants.ERROR_RELOADING_SEARCH_PARAMETERS + e);
+                        nextReloadAt = currentTimeMillis() + retryIntervalMillis;
+                    } finally {
+                        reloading.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            reloading.set(false);
+            LOGGER.error(Constants.ERROR_RELOADING_SEARCH_PARAMETERS + e);
+        }
+    }
+
+    /**
+     * Reads every row of ntfy_ltr_atr_lkup
+     */
+    public interface Loader {
+        List<Definition> load() throws RollbackException;
+    }
+
+    /**
+     * A row of ntfy_ltr_atr_lkup
+     */
+    public static class Definition {
+        private final int id;
+        private final String name;
+        private final long effectiveFrom;
+        private final long effectiveUntil;
+
+        /**
+         * @param id - ntfy_ltr_atr_id
+         * @param name - atr_name
+         * @param effectiveFrom - eff_date in epoch milliseconds
+         * @param effectiveUntil - end_date in epoch milliseconds (exclusive) - Long.MAX_VALUE for no end
+         */
+        public Definition(int id, String name, long effectiveFrom, long effectiveUntil) {
+            this.id = id;
+            this.name = name;
+            this.effectiveFrom = effectiveFrom;
+            this.effectiveUntil = effectiveUntil;
+        }
+    }
+
+    /**
+     * The loaded rows with the search parameters effective at a point in time, valid until the next
+     * eff_date or end_date after that point
+     */
+    private static class Snapshot {
+        private final List<Definition> definitions;
+        private final Map<String, Integer> searchParameterIDs;
+        private final long validUntil;
+
+        private Snapshot(List<Definition> definitions, long now) {
+            Map<String, Integer> effectiveIDs = new HashMap<String, Integer>();
+            long nextChange = Long.MAX_VALUE;
+            for (Definition definition : definitions) {
+                if (definition.effectiveFrom <= now && now < definition.effectiveUntil) {
+                    effectiveIDs.put(definition.name, definition.id);
+                }
+                if (definition.effectiveFrom > now) {
+                    nextChange = Math.min(nextChange, definition.effectiveFrom);
+                }
+                if (definition.effectiveUntil > now) {
+                    nextChange = Math.min(nextChange, definition.effectiveUntil);
+                }
+            }
+            this.definitions = definitions;
+            this.searchParameterIDs = Collections.unmodifiableMap(effectiveIDs);
+            this.validUntil = nextChange;
+        }
+    }
+}
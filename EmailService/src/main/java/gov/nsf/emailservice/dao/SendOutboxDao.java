@@ -0,0 +1,70 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.common.exception.RollbackException;
+import gov.nsf.emailservice.api.model.SendStatus;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * SendOutboxDao interface for the send outbox (ntfy_ltr_send_otbx), where /sendletter requests wait
+ * until a SendOutbox worker sends them
+ *
+ */
+public interface SendOutboxDao {
+
+    /**
+     * Queues a send request, due now
+     *
+     * @param sendRequest - the SendLetterRequest JSON
+     * @param now
+     * @return the generated tracking ID
+     * @throws RollbackException
+     */
+    public String insertSendRequest(String sendRequest, Date now) throws RollbackException;
+
+    /**
+     * Returns the status of the send request with the passed tracking ID, without its request JSON
+     *
+     * @param trackingID
+     * @return SendOutboxEntry or null if there is no send request with the tracking ID
+     * @throws RollbackException
+     */
+    public SendOutboxEntry getSendRequestStatus(String trackingID) throws RollbackException;
+
+    /**
+     * Returns up to limit send requests that can be claimed: queued requests due at now, and requests
+     * claimed before staleBefore that were never completed - oldest first
+     *
+     * @param now
+     * @param staleBefore
+     * @param limit
+     * @return List<SendOutboxEntry>
+     * @throws RollbackException
+     */
+    public List<SendOutboxEntry> findDueSendRequests(Date now, Date staleBefore, int limit) throws RollbackException;
+
+    /**
+     * Claims the send request for sending if it is still in the state it was read in. On success the
+     * entry is updated to SendStatus.Sending with one more attempt.
+     *
+     * @param entry
+     * @param now
+     * @return true if this caller claimed the request, false if another caller changed it first
+     * @throws RollbackException
+     */
+    public boolean claimSendRequest(SendOutboxEntry entry, Date now) throws RollbackException;
+
+    /**
+     * Records the outcome of a claimed send request
+     *
+     * @param entry - a claimed entry
+     * @param sendStatus - SendStatus.Sent, SendStatus.Failed, or SendStatus.Queued to retry at nextAttemptAt
+     * @param nextAttemptAt
+     * @param lastError - may be null
+     * @param now
+     * @return false if another caller has claimed the request since
+     * @throws RollbackException
+     */
+    public boolean completeSendRequest(SendOutboxEntry entry, SendStatus sendStatus, Date nextAttemptAt, String lastError, Date now) throws RollbackException;
+}
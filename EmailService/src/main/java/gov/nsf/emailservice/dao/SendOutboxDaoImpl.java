@@ -0,0 +1,157 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.common.exception.RollbackException;
+import gov.nsf.emailservice.api.model.SendStatus;
+import gov.nsf.emailservice.common.util.Constants;
+import gov.nsf.emailservice.dao.rowmapper.SendOutboxEntryRowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SendOutboxDaoImpl implements the SendOutboxDao methods against the ntfy_ltr_send_otbx table:
+ *
+ *     send_rqst_id NUMERIC(10,0) NOT NULL IDENTITY,
+ *     send_rqst_txt TEXT NOT NULL,
+ *     send_stts_code CHAR(1) NOT NULL,
+ *     atmp_cnt NUMERIC(3,0) NOT NULL,
+ *     next_atmp_tmsp DATETIME NOT NULL,
+ *     last_err_txt VARCHAR(512) NULL,
+ *     last_updt_pgm CHAR(8) NOT NULL,
+ *     last_updt_user CHAR(8) NOT NULL,
+ *     last_updt_tmsp DATETIME NOT NULL
+ *
+ * with an index on (send_stts_code, next_atmp_tmsp) for findDueSendRequests.
+ *
+ * All timestamps are passed in by the caller, so the due and stale checks use a single clock.
+ */
+public class SendOutboxDaoImpl implements SendOutboxDao {
+
+    private DataSource dataSource;
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * DataSource getter
+     *
+     * @return DataSource
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * DataSource setter
+     *
+     * @param dataSource
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @Override
+    public String insertSendRequest(String sendRequest, Date now) throws RollbackException {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        parameters.addValue(Constants.SEND_REQUEST_TEXT, sendRequest);
+        parameters.addValue(Constants.NOW, new Timestamp(now.getTime()));
+        parameters.addValue(Constants.LAST_UPT_PGM, Constants.EN_SVC);
+        parameters.addValue(Constants.LAST_UPT_USER, Constants.EN_SVC);
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        try {
+            this.jdbcTemplate.update(Constants.INSERT_SEND_REQUEST_QUERY, parameters, keyHolder, new String[]{Constants.SEND_REQUEST_ID});
+        } catch (Exception e) {
+            throw new RollbackException(Constants.ERROR_INSERTING_SEND_REQUEST + e);
+        }
+
+        if (keyHolder.getKey() == null) {
+            throw new RollbackException(Constants.ERROR_INSERTING_SEND_REQUEST + Constants.ERROR_GETTING_GENERATED_SEND_REQUEST_ID);
+        }
+        return String.valueOf(keyHolder.getKey().longValue());
+    }
+
+    @Override
+    public SendOutboxEntry getSendRequestStatus(String trackingID) throws RollbackException {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(Constants.SEND_REQUEST_ID, Long.parseLong(trackingID));
+
+        List<SendOutboxEntry> entries;
+        try {
+            entries = this.jdbcTemplate.query(Constants.GET_SEND_REQUEST_STATUS_QUERY, parameters, new SendOutboxEntryRowMapper(false));
+        } catch (Exception e) {
+            throw new RollbackException(Constants.ERROR_READING_SEND_OUTBOX + e);
+        }
+        return entries.isEmpty() ? null : entries.get(0);
+    }
+
+    @Override
+    public List<SendOutboxEntry> findDueSendRequests(Date now, Date staleBefore, int limit) throws RollbackException {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(Constants.PAGE_LIMIT, limit);
+        parameters.put(Constants.NOW, new Timestamp(now.getTime()));
+        parameters.put(Constants.STALE_BEFORE, new Timestamp(staleBefore.getTime()));
+
+        try {
+            return this.jdbcTemplate.query(Constants.FIND_DUE_SEND_REQUESTS_QUERY, parameters, new SendOutboxEntryRowMapper(true));
+        } catch (Exception e) {
+            throw new RollbackException(Constants.ERROR_READING_SEND_OUTBOX + e);
+        }
+    }
+
+    @Override
+    public boolean claimSendRequest(SendOutboxEntry entry, Date now) throws RollbackException {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(Constants.SEND_REQUEST_ID, Long.parseLong(entry.getTrackingID()));
+        parameters.put(Constants.SEND_STATUS, entry.getSendStatus().getCode());
+        parameters.put(Constants.SEND_ATTEMPTS, entry.getAttempts());
+        parameters.put(Constants.NOW, new Timestamp(now.getTime()));
+
+        if (executeUpdate(Constants.CLAIM_SEND_REQUEST_QUERY, parameters) == 0) {
+            return false;
+        }
+        entry.setSendStatus(SendStatus.Sending);
+        entry.setAttempts(entry.getAttempts() + 1);
+        return true;
+    }
+
+    @Override
+    public boolean completeSendRequest(SendOutboxEntry entry, SendStatus sendStatus, Date nextAttemptAt, String lastError, Date now) throws RollbackException {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(Constants.SEND_REQUEST_ID, Long.parseLong(entry.getTrackingID()));
+        parameters.put(Constants.SEND_STATUS, sendStatus.getCode());
+        parameters.put(Constants.SEND_ATTEMPTS, entry.getAttempts());
+        parameters.put(Constants.NEXT_ATTEMPT_TMSP, new Timestamp(nextAttemptAt.getTime()));
+        parameters.put(Constants.LAST_ERROR, truncate(lastError));
+        parameters.put(Constants.NOW, new Timestamp(now.getTime()));
+
+        if (executeUpdate(Constants.COMPLETE_SEND_REQUEST_QUERY, parameters) == 0) {
+            return false;
+        }
+        entry.setSendStatus(sendStatus);
+        entry.setLastError(lastError);
+        return true;
+    }
+
+    private int executeUpdate(String queryStr, Map<String, Object> parameters) throws RollbackException {
+        try {
+            return this.jdbcTemplate.update(queryStr, parameters);
+        } catch (Exception e) {
+            throw new RollbackException(Constants.ERROR_UPDATING_SEND_OUTBOX + e);
+        }
+    }
+
+    private static String truncate(String lastError) {
+        if (lastError == null || lastError.length() <= Constants.MAX_LAST_ERROR_LENGTH) {
+            return lastError;
+        }
+        return lastError.substring(0, Constants.MAX_LAST_ERROR_LENGTH);
+    }
+}
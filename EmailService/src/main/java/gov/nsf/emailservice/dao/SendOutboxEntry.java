@@ -0,0 +1,62 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.emailservice.api.model.SendStatus;
+
+/**
+ * A row of ntfy_ltr_send_otbx - a /sendletter request waiting in the send outbox, or its outcome
+ */
+public class SendOutboxEntry {
+
+    private String trackingID;
+    private String sendRequest;
+    private SendStatus sendStatus;
+    private int attempts;
+    private String lastError;
+
+    /**
+     * @param trackingID - send_rqst_id
+     * @param sendRequest - send_rqst_txt, the SendLetterRequest JSON (null when only the status was read)
+     * @param sendStatus - send_stts_code
+     * @param attempts - atmp_cnt, the number of times the request was claimed for sending
+     * @param lastError - last_err_txt
+     */
+    public SendOutboxEntry(String trackingID, String sendRequest, SendStatus sendStatus, int attempts, String lastError) {
+        this.trackingID = trackingID;
+        this.sendRequest = sendRequest;
+        this.sendStatus = sendStatus;
+        this.attempts = attempts;
+        this.lastError = lastError;
+    }
+
+    public String getTrackingID() {
+        return trackingID;
+    }
+
+    public String getSendRequest() {
+        return sendRequest;
+    }
+
+    public SendStatus getSendStatus() {
+        return sendStatus;
+    }
+
+    public void setSendStatus(SendStatus sendStatus) {
+        this.sendStatus = sendStatus;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+}
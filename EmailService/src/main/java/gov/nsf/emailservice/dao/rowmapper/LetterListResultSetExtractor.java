@@ -0,0 +1,45 @@
+package gov.nsf.emailservice.dao.rowmapper;
+
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.common.util.Constants;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * ResultSetExtractor for extracting several Letter objects from a single letter/recipient result set
+ *
+ * Rows are grouped by ntfy_ltr_id, so the rows for one letter do not need to be contiguous
+ */
+public class LetterListResultSetExtractor implements ResultSetExtractor<List<Letter>> {
+
+    /**
+     * Returns a List<Letter> instantiated from the SQL results set, in the order each letter first appears
+     *
+     * @param rs
+     * @return List<Letter>
+     * @throws SQLException
+     */
+    @Override
+    public List<Letter> extractData(ResultSet rs) throws SQLException {
+
+        Map<String, Letter> letters = new LinkedHashMap<String, Letter>();
+
+        while(rs.next() ){
+            String eltrID = rs.getString(Constants.ELTR_ID) != null ? rs.getString(Constants.ELTR_ID).trim() : "";
+            Letter letter = letters.get(eltrID);
+            if (letter == null) {
+                letter = LetterResultsSetExtractor.mapLetter(rs);
+                letters.put(eltrID, letter);
+            }
+            LetterResultsSetExtractor.mapMailRecipient(rs, letter.getEmailInfo());
+        }
+        return new ArrayList<Letter>(letters.values());
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.jdbc.core.ResultSetExtractor;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 
 
@@ -35,32 +36,58 @@ public class LetterResultsSetExtractor implements ResultSetExtractor<Letter> {
 
         while(rs.next() ){
             if (letter == null) {
-                letter = new Letter();
-
-                letter.setEltrID(rs.getString(Constants.ELTR_ID) != null ? rs.getString(Constants.ELTR_ID).trim() : "");
-                letter.setEltrContent(rs.getString(Constants.ELTR_CONTENT)!= null ? rs.getString(Constants.ELTR_CONTENT).trim() : "");
-                letter.setEltrStatus(LetterStatus.getStatusFromCode(rs.getString(Constants.ELTR_STATUS).trim()));
-                letter.setEltrStatusUser(rs.getString(Constants.ELTR_USER) != null ? rs.getString(Constants.ELTR_USER).trim() : "");
-                letter.setEltrStatusDate(rs.getString(Constants.ELTR_DATE)!= null ? rs.getString(Constants.ELTR_DATE).trim() : "");
-                letter.setPlainText(Utils.convertStringToBoolean(rs.getString(Constants.PLAIN_TEXT)));
-                letter.setApplID(rs.getString(Constants.APPL_ID)!= null ? rs.getString(Constants.APPL_ID) : "");
-                letter.setTmplID(rs.getString(Constants.TMPL_ID)!= null ? rs.getString(Constants.TMPL_ID) : null);
-                emailInfo = new EmailInfo();
-                emailInfo.setMailSubject(rs.getString(Constants.MAIL_SUBJECT)!= null ? rs.getString(Constants.MAIL_SUBJECT).trim() : "");
-                emailInfo.setToAddresses(new ArrayList<String>());
-                emailInfo.setCcAddresses(new ArrayList<String>());
-                emailInfo.setBccAddresses(new ArrayList<String>());
-                letter.setEmailInfo(emailInfo);
+                letter = mapLetter(rs);
+                emailInfo = letter.getEmailInfo();
             }
-            String recipientTypeCode = rs.getString(Constants.RECIPIENT_TYPE_CODE) != null ? rs.getString(Constants.RECIPIENT_TYPE_CODE).trim() : "";
-            String mailAddress = rs.getString(Constants.MAIL_ADDRESS)!= null ? rs.getString(Constants.MAIL_ADDRESS).trim() : "";
+            mapMailRecipient(rs, emailInfo);
+        }
+        return letter;
+    }
+
+    /**
+     * Returns a Letter object (without recipients) instantiated from the current row of the SQL results set
+     *
+     * @param rs
+     * @return Letter
+     * @throws SQLException
+     */
+    static Letter mapLetter(ResultSet rs) throws SQLException {
+        Letter letter = new Letter();
 
-            setMailRecipient(emailInfo,recipientTypeCode,mailAddress);
+        letter.setEltrID(rs.getString(Constants.ELTR_ID) != null ? rs.getString(Constants.ELTR_ID).trim() : "");
+        letter.setEltrContent(rs.getString(Constants.ELTR_CONTENT)!= null ? rs.getString(Constants.ELTR_CONTENT).trim() : "");
+        letter.setEltrStatus(LetterStatus.getStatusFromCode(rs.getString(Constants.ELTR_STATUS).trim()));
+        letter.setEltrStatusUser(rs.getString(Constants.ELTR_USER) != null ? rs.getString(Constants.ELTR_USER).trim() : "");
+        letter.setEltrStatusDate(rs.getString(Constants.ELTR_DATE)!= null ? rs.getString(Constants.ELTR_DATE).trim() : "");
+        letter.setPlainText(Utils.convertStringToBoolean(rs.getString(Constants.PLAIN_TEXT)));
+        letter.setApplID(rs.getString(Constants.APPL_ID)!= null ? rs.getString(Constants.APPL_ID) : "");
+        letter.setTmplID(rs.getString(Constants.TMPL_ID)!= null ? rs.getString(Constants.TMPL_ID) : null);
+        Timestamp lastUpdated = rs.getTimestamp(Constants.LAST_UPT_TMSP);
+        letter.setLastUpdated(lastUpdated != null ? lastUpdated.getTime() : null);
+        EmailInfo emailInfo = new EmailInfo();
+        emailInfo.setMailSubject(rs.getString(Constants.MAIL_SUBJECT)!= null ? rs.getString(Constants.MAIL_SUBJECT).trim() : "");
+        emailInfo.setToAddresses(new ArrayList<String>());
+        emailInfo.setCcAddresses(new ArrayList<String>());
+        emailInfo.setBccAddresses(new ArrayList<String>());
+        letter.setEmailInfo(emailInfo);
 
-        }
         return letter;
     }
 
+    /**
+     * Adds the recipient on the current row of the SQL results set to the passed EmailInfo
+     *
+     * @param rs
+     * @param emailInfo
+     * @throws SQLException
+     */
+    static void mapMailRecipient(ResultSet rs, EmailInfo emailInfo) throws SQLException {
+        String recipientTypeCode = rs.getString(Constants.RECIPIENT_TYPE_CODE) != null ? rs.getString(Constants.RECIPIENT_TYPE_CODE).trim() : "";
+        String mailAddress = rs.getString(Constants.MAIL_ADDRESS)!= null ? rs.getString(Constants.MAIL_ADDRESS).trim() : "";
+
+        setMailRecipient(emailInfo,recipientTypeCode,mailAddress);
+    }
+
     private static void setMailRecipient(EmailInfo emailInfo, String recipientTypeCode, String mailAddress){
         if(recipientTypeCode.equals(Constants.TO)){
             emailInfo.getToAddresses().add(mailAddress);
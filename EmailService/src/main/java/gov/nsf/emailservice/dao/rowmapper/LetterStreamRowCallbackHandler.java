@@ -0,0 +1,86 @@
+package gov.nsf.emailservice.dao.rowmapper;
+
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.SearchParameter;
+import gov.nsf.emailservice.api.service.LetterHandler;
+import gov.nsf.emailservice.common.util.Constants;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * RowCallbackHandler for streaming Letter objects (with recipients and search parameters) to a LetterHandler
+ *
+ * Rows must be ordered by ntfy_ltr_id and tagged by row_type (see LetterWithSearchParametersResultSetExtractor),
+ * so only the letter currently being read is held in memory. Call finish() after the query to pass on the
+ * last letter. IOExceptions from the LetterHandler are rethrown as UncheckedIOExceptions.
+ */
+public class LetterStreamRowCallbackHandler implements RowCallbackHandler {
+
+    private final LetterHandler letterHandler;
+
+    private String eltrID;
+    private Letter letter;
+    private List<SearchParameter> searchParameters = new ArrayList<SearchParameter>();
+    private int letterCount;
+
+    public LetterStreamRowCallbackHandler(LetterHandler letterHandler) {
+        this.letterHandler = letterHandler;
+    }
+
+    /**
+     * Adds the current row to the letter being read, passing on the previous letter when the ntfy_ltr_id changes
+     *
+     * @param rs
+     * @throws SQLException
+     */
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+        String rowEltrID = rs.getString(Constants.ELTR_ID) != null ? rs.getString(Constants.ELTR_ID).trim() : "";
+        if (!rowEltrID.equals(eltrID)) {
+            finish();
+            eltrID = rowEltrID;
+        }
+
+        if (Constants.ROW_TYPE_SEARCH_PARAMETER.equals(rs.getString(Constants.ROW_TYPE))) {
+            searchParameters.add(SearchParameterResultSetExtractor.mapSearchParameter(rs));
+            return;
+        }
+        if (letter == null) {
+            letter = LetterResultsSetExtractor.mapLetter(rs);
+        }
+        LetterResultsSetExtractor.mapMailRecipient(rs, letter.getEmailInfo());
+    }
+
+    /**
+     * Passes on the letter being read, if any - letters without recipients are skipped like in findLetter
+     */
+    public void finish() {
+        if (letter != null) {
+            letter.setSearchParameters(searchParameters);
+            try {
+                letterHandler.handleLetter(letter);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            letterCount++;
+        }
+        letter = null;
+        searchParameters = new ArrayList<SearchParameter>();
+    }
+
+    /**
+     * Returns the number of letters passed on so far
+     *
+     * @return int
+     */
+    public int getLetterCount() {
+        return letterCount;
+    }
+}
@@ -0,0 +1,52 @@
+package gov.nsf.emailservice.dao.rowmapper;
+
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.SearchParameter;
+import gov.nsf.emailservice.common.util.Constants;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * LetterResultsSetExtractor for extracting a Letter object together with its search parameters from a
+ * single result set, where each row is tagged by its row_type:
+ * - R rows hold the letter columns and one mail recipient
+ * - P rows hold one search parameter
+ *
+ */
+public class LetterWithSearchParametersResultSetExtractor extends LetterResultsSetExtractor {
+
+    /**
+     * Returns a Letter object with its search parameters instantiated from the SQL results set,
+     * or null if the result set holds no letter rows
+     *
+     * @param rs
+     * @return Letter
+     * @throws SQLException
+     */
+    @Override
+    public Letter extractData(ResultSet rs) throws SQLException {
+
+        Letter letter = null;
+        List<SearchParameter> searchParameters = new ArrayList<SearchParameter>();
+
+        while(rs.next() ){
+            if (Constants.ROW_TYPE_SEARCH_PARAMETER.equals(rs.getString(Constants.ROW_TYPE))) {
+                searchParameters.add(SearchParameterResultSetExtractor.mapSearchParameter(rs));
+                continue;
+            }
+            if (letter == null) {
+                letter = mapLetter(rs);
+            }
+            mapMailRecipient(rs, letter.getEmailInfo());
+        }
+
+        if (letter != null) {
+            letter.setSearchParameters(searchParameters);
+        }
+        return letter;
+    }
+}
@@ -0,0 +1,44 @@
+package gov.nsf.emailservice.dao.rowmapper;
+
+import gov.nsf.emailservice.api.model.SearchParameter;
+import gov.nsf.emailservice.common.util.Constants;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ResultSetExtractor for the search parameters of several letters, keyed by eltrID
+ */
+public class SearchParameterMapResultSetExtractor implements ResultSetExtractor<Map<String, List<SearchParameter>>> {
+
+    /**
+     * Returns a Map of eltrID to List<SearchParameter> instantiated from the SQL results set
+     *
+     * @param rs
+     * @return Map<String, List<SearchParameter>>
+     * @throws SQLException
+     */
+    @Override
+    public Map<String, List<SearchParameter>> extractData(ResultSet rs) throws SQLException {
+
+        Map<String, List<SearchParameter>> searchParameters = new HashMap<String, List<SearchParameter>>();
+
+        while(rs.next() ){
+            String eltrID = rs.getString(Constants.ELTR_ID) != null ? rs.getString(Constants.ELTR_ID).trim() : "";
+            SearchParameter searchParameter = SearchParameterResultSetExtractor.mapSearchParameter(rs);
+
+            List<SearchParameter> letterParameters = searchParameters.get(eltrID);
+            if (letterParameters == null) {
+                letterParameters = new ArrayList<SearchParameter>();
+                searchParameters.put(eltrID, letterParameters);
+            }
+            letterParameters.add(searchParameter);
+        }
+        return searchParameters;
+    }
+}
@@ -27,17 +27,28 @@ public class SearchParameterResultSetExtractor implements ResultSetExtractor<Lis
         List<SearchParameter> searchParameters = new ArrayList<SearchParameter>();
 
         while(rs.next() ){
-            String eltrID = rs.getString(Constants.ELTR_ID) != null ? rs.getString(Constants.ELTR_ID).trim() : "";
-            String key = rs.getString(Constants.ATR_NAME) != null ? rs.getString(Constants.ATR_NAME).trim() : "";
-            String value = rs.getString(Constants.SEARCH_PARAMETER_VALUE) != null ? rs.getString(Constants.SEARCH_PARAMETER_VALUE).trim() : "";
-
-            SearchParameter searchParameter = new SearchParameter();
-            searchParameter.setKey(key);
-            searchParameter.setValue(value);
-            searchParameter.setId(eltrID + Constants.SEPARATOR + key);
-
-            searchParameters.add(searchParameter);
+            searchParameters.add(mapSearchParameter(rs));
         }
         return searchParameters;
     }
+
+    /**
+     * Returns a SearchParameter instantiated from the current row of the SQL results set
+     *
+     * @param rs
+     * @return SearchParameter
+     * @throws SQLException
+     */
+    static SearchParameter mapSearchParameter(ResultSet rs) throws SQLException {
+        String eltrID = rs.getString(Constants.ELTR_ID) != null ? rs.getString(Constants.ELTR_ID).trim() : "";
+        String key = rs.getString(Constants.ATR_NAME) != null ? rs.getString(Constants.ATR_NAME).trim() : "";
+        String value = rs.getString(Constants.SEARCH_PARAMETER_VALUE) != null ? rs.getString(Constants.SEARCH_PARAMETER_VALUE).trim() : "";
+
+        SearchParameter searchParameter = new SearchParameter();
+        searchParameter.setKey(key);
+        searchParameter.setValue(value);
+        searchParameter.setId(eltrID + Constants.SEPARATOR + key);
+
+        return searchParameter;
+    }
 }
@@ -0,0 +1,41 @@
+package gov.nsf.emailservice.dao.rowmapper;
+
+import gov.nsf.emailservice.api.model.SendStatus;
+import gov.nsf.emailservice.common.util.Constants;
+import gov.nsf.emailservice.dao.SendOutboxEntry;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * RowMapper for SendOutboxEntry
+ */
+public class SendOutboxEntryRowMapper implements RowMapper<SendOutboxEntry> {
+
+    private final boolean withSendRequest;
+
+    /**
+     * @param withSendRequest - true if the query selects send_rqst_txt
+     */
+    public SendOutboxEntryRowMapper(boolean withSendRequest) {
+        this.withSendRequest = withSendRequest;
+    }
+
+    /**
+     * Returns a SendOutboxEntry instantiated from the current row of the SQL results set
+     *
+     * @param rs
+     * @param rowNum
+     * @return SendOutboxEntry
+     * @throws SQLException
+     */
+    @Override
+    public SendOutboxEntry mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new SendOutboxEntry(String.valueOf(rs.getLong(Constants.SEND_REQUEST_ID)),
+                withSendRequest ? rs.getString(Constants.SEND_REQUEST_TEXT) : null,
+                SendStatus.getStatusFromCode(rs.getString(Constants.SEND_STATUS).trim()),
+                rs.getInt(Constants.SEND_ATTEMPTS),
+                rs.getString(Constants.LAST_ERROR));
+    }
+}
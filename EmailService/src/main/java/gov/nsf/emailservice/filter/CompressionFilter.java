@@ -0,0 +1,651 @@
+package gov.nsf.emailservice.filter;
+
+import gov.nsf.emailservice.common.util.Constants;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * CompressionFilter compresses responses and decompresses request bodies (see web.xml)
+ *
+ * - Responses are gzip or deflate encoded, as negotiated by Accept-Encoding (gzip is preferred on equal
+ *   q-values), once at least minCompressSize bytes of a compressible content type are written. Smaller
+ *   responses are sent as they are, so a letter that fits in a packet is not worth the CPU.
+ * - Compressed streams are sync-flushed, so streamed (NDJSON) responses still reach the client as they are flushed
+ * - Request bodies sent with Content-Encoding gzip or deflate are decompressed before they reach the controllers,
+ *   up to maxInflatedRequestBytes; any other Content-Encoding is rejected with 415
+ *
+ * Every property can be set as an init-param of the filter.
+ */
+public class CompressionFilter extends OncePerRequestFilter {
+
+    private int minCompressSize = Constants.DEFAULT_COMPRESSION_MIN_SIZE_BYTES;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private long maxInflatedRequestBytes = Constants.DEFAULT_MAX_INFLATED_REQUEST_BYTES;
+    private String[] compressibleContentTypes = Constants.DEFAULT_COMPRESSIBLE_CONTENT_TYPES.split(",");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        HttpServletRequest filteredRequest = request;
+        String requestEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (requestEncoding != null && !Constants.IDENTITY_ENCODING.equalsIgnoreCase(requestEncoding.trim())) {
+            String coding = getCoding(requestEncoding);
+            if (coding == null) {
+                response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, Constants.UNSUPPORTED_CONTENT_ENCODING + requestEncoding);
+                return;
+            }
+            filteredRequest = new DecompressingRequest(request, coding);
+        }
+
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String responseEncoding = negotiateEncoding(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        if (responseEncoding == null) {
+            filterChain.doFilter(filteredRequest, response);
+            return;
+        }
+
+        CompressingResponse compressingResponse = new CompressingResponse(response, responseEncoding);
+        try {
+            filterChain.doFilter(filteredRequest, compressingResponse);
+        } finally {
+            compressingResponse.finish();
+        }
+    }
+
+    /**
+     * Returns the encoding to compress the response with for the passed Accept-Encoding - gzip, deflate or
+     * null if neither is acceptable
+     *
+     * @param acceptEncoding - may be null
+     * @return String
+     */
+    static String negotiateEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        float gzipQuality = -1;
+        float deflateQuality = -1;
+        float anyQuality = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String coding = parameters[0].trim().toLowerCase(Locale.ENGLISH);
+            float quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if (Constants.GZIP_ENCODING.equals(coding) || Constants.X_GZIP_ENCODING.equals(coding)) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (Constants.DEFLATE_ENCODING.equals(coding)) {
+                deflateQuality = quality;
+            } else if ("*".equals(coding)) {
+                anyQuality = quality;
+            }
+        }
+
+        gzipQuality = gzipQuality < 0 ? anyQuality : gzipQuality;
+        deflateQuality = deflateQuality < 0 ? anyQuality : deflateQuality;
+        if (gzipQuality <= 0 && deflateQuality <= 0) {
+            return null;
+        }
+        return gzipQuality >= deflateQuality ? Constants.GZIP_ENCODING : Constants.DEFLATE_ENCODING;
+    }
+
+    /**
+     * Returns gzip or deflate for the passed Content-Encoding, or null if it is neither
+     *
+     * @param contentEncoding
+     * @return String
+     */
+    private static String getCoding(String contentEncoding) {
+        String coding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+        if (Constants.GZIP_ENCODING.equals(coding) || Constants.X_GZIP_ENCODING.equals(coding)) {
+            return Constants.GZIP_ENCODING;
+        }
+        return Constants.DEFLATE_ENCODING.equals(coding) ? Constants.DEFLATE_ENCODING : null;
+    }
+
+    private boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String mimeType = contentType.toLowerCase(Locale.ENGLISH);
+        for (String compressibleContentType : compressibleContentTypes) {
+            if (mimeType.startsWith(compressibleContentType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getMinCompressSize() {
+        return minCompressSize;
+    }
+
+    /**
+     * Sets the number of bytes a response must reach before it is compressed
+     *
+     * @param minCompressSize
+     */
+    public void setMinCompressSize(int minCompressSize) {
+        this.minCompressSize = minCompressSize;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the compression level, 1 (fastest) to 9 (smallest), or -1 for the default
+     *
+     * @param compressionLevel
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public long getMaxInflatedRequestBytes() {
+        return maxInflatedRequestBytes;
+    }
+
+    /**
+     * Sets the largest decompressed request body accepted, guarding against compression bombs
+     *
+     * @param maxInflatedRequestBytes
+     */
+    public void setMaxInflatedRequestBytes(long maxInflatedRequestBytes) {
+        this.maxInflatedRequestBytes = maxInflatedRequestBytes;
+    }
+
+    public String getCompressibleContentTypes() {
+        return StringUtils.arrayToCommaDelimitedString(compressibleContentTypes);
+    }
+
+    /**
+     * Sets the content types that are compressed, comma separated - each one matches the content types it
+     * is a prefix of (e.g. text/)
+     *
+     * @param compressibleContentTypes
+     */
+    public void setCompressibleContentTypes(String compressibleContentTypes) {
+        this.compressibleContentTypes = StringUtils.tokenizeToStringArray(compressibleContentTypes.toLowerCase(Locale.ENGLISH), ",");
+    }
+
+    /**
+     * Request wrapper that hands out the decompressed body and hides the Content-Encoding and Content-Length
+     * of the compressed one
+     */
+    private class DecompressingRequest extends HttpServletRequestWrapper {
+
+        private final String coding;
+        private ServletInputStream inputStream;
+        private BufferedReader reader;
+
+        private DecompressingRequest(HttpServletRequest request, String coding) {
+            super(request);
+            this.coding = coding;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (reader != null) {
+                throw new IllegalStateException("getReader() has already been called for this request");
+            }
+            return getDecompressedStream();
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                if (inputStream != null) {
+                    throw new IllegalStateException("getInputStream() has already been called for this request");
+                }
+                String characterEncoding = getCharacterEncoding() != null ? getCharacterEncoding() : Constants.UTF_8_ENCODING;
+                reader = new BufferedReader(new InputStreamReader(getDecompressedStream(), characterEncoding));
+            }
+            return reader;
+        }
+
+        private ServletInputStream getDecompressedStream() throws IOException {
+            if (inputStream == null) {
+                final ServletInputStream compressed = super.getInputStream();
+                InputStream inflating = Constants.GZIP_ENCODING.equals(coding) ? new GZIPInputStream(compressed) : new InflaterInputStream(compressed);
+                final InputStream limited = new LimitedInputStream(inflating, maxInflatedRequestBytes);
+                inputStream = new ServletInputStream() {
+                    private boolean finished;
+
+                    @Override
+                    public int read() throws IOException {
+                        int read = limited.read();
+                        finished = read < 0;
+                        return read;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int read = limited.read(buffer, offset, length);
+                        finished = read < 0;
+                        return read;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        limited.close();
+                    }
+
+                    @Override
+                    public boolean isFinished() {
+                        return finished;
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setReadListener(ReadListener readListener) {
+                        compressed.setReadListener(readListener);
+                    }
+                };
+            }
+            return inputStream;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isCompressedBodyHeader(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isCompressedBodyHeader(name) ? Collections.<String>emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public int getIntHeader(String name) {
+            return isCompressedBodyHeader(name) ? -1 : super.getIntHeader(name);
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        private boolean isCompressedBodyHeader(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    /**
+     * Response wrapper that holds back the first minCompressSize bytes of the body, then either compresses
+     * the body or, if the response ends first or is not compressible, sends it as it is
+     */
+    private class CompressingResponse extends HttpServletResponseWrapper {
+
+        private final String coding;
+        private CompressingOutputStream outputStream;
+        private PrintWriter writer;
+        private boolean usingOutputStream;
+
+        private CompressingResponse(HttpServletResponse response, String coding) {
+            super(response);
+            this.coding = coding;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called for this response");
+            }
+            usingOutputStream = true;
+            return getCompressingStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (usingOutputStream) {
+                    throw new IllegalStateException("getOutputStream() has already been called for this response");
+                }
+                writer = new PrintWriter(new OutputStreamWriter(getCompressingStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        private CompressingOutputStream getCompressingStream() {
+            if (outputStream == null) {
+                outputStream = new CompressingOutputStream(this);
+            }
+            return outputStream;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            setContentLengthLong(length);
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+            if (length < minCompressSize) {
+                getCompressingStream().sendUncompressed();
+                super.setContentLengthLong(length);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!interceptHeader(name, value)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!interceptHeader(name, value)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (!interceptHeader(name, String.valueOf(value))) {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (!interceptHeader(name, String.valueOf(value))) {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        /**
+         * Routes Content-Length to setContentLengthLong, and sends the body as it is if the application sets its
+         * own Content-Encoding
+         *
+         * @return whether the header was handled
+         */
+        private boolean interceptHeader(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && value != null) {
+                setContentLengthLong(Long.parseLong(value.trim()));
+                return true;
+            }
+            if (HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                getCompressingStream().sendUncompressed();
+            }
+            return false;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (outputStream == null || outputStream.isStarted()) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            if (outputStream != null) {
+                outputStream.resetBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (outputStream != null) {
+                outputStream.resetBuffer();
+            }
+        }
+
+        /**
+         * Writes out whatever is still held back and ends the compressed stream
+         *
+         * @throws IOException
+         */
+        private void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (outputStream != null) {
+                outputStream.finish();
+            }
+        }
+
+        private void startCompression() {
+            super.setHeader(HttpHeaders.CONTENT_ENCODING, coding);
+        }
+    }
+
+    /**
+     * Output stream of a CompressingResponse
+     */
+    private class CompressingOutputStream extends ServletOutputStream {
+
+        private final CompressingResponse response;
+        private ByteArrayOutputStream heldBack = new ByteArrayOutputStream();
+        private OutputStream target;
+        private Deflater deflater;
+
+        private CompressingOutputStream(CompressingResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (target == null) {
+                heldBack.write(b);
+                startIfFull();
+            } else {
+                target.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            if (target == null) {
+                heldBack.write(buffer, offset, length);
+                startIfFull();
+            } else {
+                target.write(buffer, offset, length);
+            }
+        }
+
+        /**
+         * Only flushes once the encoding is decided - until then the bytes are held back
+         */
+        @Override
+        public void flush() throws IOException {
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            try {
+                return response.getResponse().getOutputStream().isReady();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            try {
+                response.getResponse().getOutputStream().setWriteListener(writeListener);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private boolean isStarted() {
+            return target != null;
+        }
+
+        private void startIfFull() throws IOException {
+            if (heldBack.size() >= minCompressSize) {
+                if (isCompressible(response.getContentType())) {
+                    startCompressed();
+                } else {
+                    startUncompressed();
+                }
+            }
+        }
+
+        private void startCompressed() throws IOException {
+            response.startCompression();
+            deflater = new Deflater(compressionLevel, Constants.GZIP_ENCODING.equals(response.coding));
+            OutputStream out = response.getResponse().getOutputStream();
+            target = Constants.GZIP_ENCODING.equals(response.coding) ? new GzipOutputStream(out, deflater) : new DeflaterOutputStream(out, deflater, Constants.COMPRESSION_BUFFER_SIZE, true);
+            writeHeldBack();
+        }
+
+        private void startUncompressed() throws IOException {
+            target = response.getResponse().getOutputStream();
+            writeHeldBack();
+        }
+
+        private void writeHeldBack() throws IOException {
+            heldBack.writeTo(target);
+            heldBack = null;
+        }
+
+        /**
+         * Decides to send the body as it is, before anything was written out
+         */
+        private void sendUncompressed() {
+            if (target == null) {
+                try {
+                    startUncompressed();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        private void resetBuffer() {
+            if (target == null) {
+                heldBack.reset();
+            }
+        }
+
+        /**
+         * Ends the body - a body that never reached minCompressSize gets its Content-Length, unless the status
+         * is one that has no body (304 Not Modified, 204 No Content)
+         */
+        private void finish() throws IOException {
+            if (target == null) {
+                int status = response.getStatus();
+                if (!response.isCommitted() && status != HttpServletResponse.SC_NOT_MODIFIED && status != HttpServletResponse.SC_NO_CONTENT) {
+                    response.getResponse().setContentLength(heldBack.size());
+                }
+                startUncompressed();
+            }
+            if (target instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) target).finish();
+                deflater.end();
+            }
+            target.flush();
+        }
+    }
+
+    /**
+     * GZIPOutputStream with the passed deflater (GZIPOutputStream only offers the default compression level)
+     * and sync flushing
+     */
+    private static class GzipOutputStream extends GZIPOutputStream {
+
+        private GzipOutputStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, Constants.COMPRESSION_BUFFER_SIZE, true);
+            this.def.end();
+            this.def = deflater;
+        }
+    }
+
+    /**
+     * Fails once more than maxBytes have been read
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long maxBytes;
+        private long readBytes;
+
+        private LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int bytes) throws IOException {
+            readBytes += bytes;
+            if (readBytes > maxBytes) {
+                throw new IOException(Constants.INFLATED_REQUEST_TOO_LARGE + maxBytes);
+            }
+        }
+    }
+}
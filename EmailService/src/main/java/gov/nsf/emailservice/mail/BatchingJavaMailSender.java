@@ -0,0 +1,202 @@
+package gov.nsf.emailservice.mail;
+
+import gov.nsf.emailservice.common.util.Constants;
+import org.apache.log4j.Logger;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMailMessage;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JavaMailSender that can send the messages of many items (e.g. letters) together over one connection
+ *
+ * - Outside sendBatch every call is passed straight to the wrapped javaMailSender
+ * - sendBatch hands each item to an ItemSender, e.g. NsfEmailUtil.sendEmail, on the calling thread. The messages
+ *   it sends through this sender are collected instead of sent, and are then all sent with one
+ *   JavaMailSender.send(MimeMessage...) call, which PooledJavaMailSender sends over one pooled connection.
+ *   The messages are still built by the ItemSender, so the NsfEmailUtil send level and debug recipients apply.
+ * - A failed item fails on its own: sendBatch returns the exception of every item whose ItemSender threw or
+ *   whose message was rejected, and the other items are sent
+ */
+public class BatchingJavaMailSender implements JavaMailSender {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchingJavaMailSender.class);
+
+    /**
+     * Sends one item through the BatchingJavaMailSender
+     *
+     * @param <T>
+     */
+    public interface ItemSender<T> {
+        void send(T item);
+    }
+
+    private final ThreadLocal<List<MimeMessage>> collectedMessages = new ThreadLocal<List<MimeMessage>>();
+    private JavaMailSender javaMailSender;
+
+    public BatchingJavaMailSender() {
+    }
+
+    public BatchingJavaMailSender(JavaMailSender javaMailSender) {
+        this.javaMailSender = javaMailSender;
+    }
+
+    /**
+     * Sends every item with the itemSender and then all of their messages with one send call
+     *
+     * @param items
+     * @param itemSender
+     * @param <T>
+     * @return the exception each item failed with, or null for each item that was sent, in the order of items
+     */
+    public <T> List<Exception> sendBatch(List<T> items, ItemSender<T> itemSender) {
+        List<Exception> failures = new ArrayList<Exception>(Collections.<Exception>nCopies(items.size(), null));
+        List<MimeMessage> messages = new ArrayList<MimeMessage>();
+        List<Integer> messageItems = new ArrayList<Integer>();
+
+        for (int i = 0; i < items.size(); i++) {
+            List<MimeMessage> itemMessages = new ArrayList<MimeMessage>();
+            collectedMessages.set(itemMessages);
+            try {
+                itemSender.send(items.get(i));
+            } catch (RuntimeException e) {
+                failures.set(i, e);
+                continue;
+            } finally {
+                collectedMessages.remove();
+            }
+            for (MimeMessage message : itemMessages) {
+                messages.add(message);
+                messageItems.add(i);
+            }
+        }
+
+        if (messages.isEmpty()) {
+            return failures;
+        }
+
+        try {
+            javaMailSender.send(messages.toArray(new MimeMessage[messages.size()]));
+        } catch (MailSendException e) {
+            // an empty map means every message was sent, e.g. the connection failed to close afterwards
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            if (failedMessages.isEmpty()) {
+                LOGGER.warn(Constants.ERROR_SENDING_MESSAGE_BATCH + e);
+            }
+            for (int j = 0; j < messages.size(); j++) {
+                Exception failure = failedMessages.get(messages.get(j));
+                if (failure != null && failures.get(messageItems.get(j)) == null) {
+                    failures.set(messageItems.get(j), failure);
+                }
+            }
+        } catch (MailException e) {
+            LOGGER.error(Constants.ERROR_SENDING_MESSAGE_BATCH + e);
+            for (Integer item : messageItems) {
+                if (failures.get(item) == null) {
+                    failures.set(item, e);
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return whether sends on the current thread are collected for a batch
+     */
+    private boolean collect(MimeMessage... mimeMessages) {
+        List<MimeMessage> messages = collectedMessages.get();
+        if (messages == null) {
+            return false;
+        }
+        Collections.addAll(messages, mimeMessages);
+        return true;
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return javaMailSender.createMimeMessage();
+    }
+
+    @Override
+    public MimeMessage createMimeMessage(InputStream contentStream) throws MailException {
+        return javaMailSender.createMimeMessage(contentStream);
+    }
+
+    @Override
+    public void send(MimeMessage mimeMessage) throws MailException {
+        if (!collect(mimeMessage)) {
+            javaMailSender.send(mimeMessage);
+        }
+    }
+
+    @Override
+    public void send(MimeMessage... mimeMessages) throws MailException {
+        if (!collect(mimeMessages)) {
+            javaMailSender.send(mimeMessages);
+        }
+    }
+
+    @Override
+    public void send(MimeMessagePreparator mimeMessagePreparator) throws MailException {
+        send(new MimeMessagePreparator[]{mimeMessagePreparator});
+    }
+
+    @Override
+    public void send(MimeMessagePreparator... mimeMessagePreparators) throws MailException {
+        if (collectedMessages.get() == null) {
+            javaMailSender.send(mimeMessagePreparators);
+            return;
+        }
+        for (MimeMessagePreparator preparator : mimeMessagePreparators) {
+            MimeMessage mimeMessage = createMimeMessage();
+            try {
+                preparator.prepare(mimeMessage);
+            } catch (MailException e) {
+                throw e;
+            } catch (MessagingException e) {
+                throw new MailParseException(e);
+            } catch (Exception e) {
+                throw new MailPreparationException(Constants.ERROR_PREPARING_MESSAGE + e, e);
+            }
+            collect(mimeMessage);
+        }
+    }
+
+    @Override
+    public void send(SimpleMailMessage simpleMessage) throws MailException {
+        send(new SimpleMailMessage[]{simpleMessage});
+    }
+
+    @Override
+    public void send(SimpleMailMessage... simpleMessages) throws MailException {
+        if (collectedMessages.get() == null) {
+            javaMailSender.send(simpleMessages);
+            return;
+        }
+        for (SimpleMailMessage simpleMessage : simpleMessages) {
+            MimeMailMessage message = new MimeMailMessage(createMimeMessage());
+            simpleMessage.copyTo(message);
+            collect(message.getMimeMessage());
+        }
+    }
+
+    public JavaMailSender getJavaMailSender() {
+        return javaMailSender;
+    }
+
+    public void setJavaMailSender(JavaMailSender javaMailSender) {
+        this.javaMailSender = javaMailSender;
+    }
+}
@@ -0,0 +1,226 @@
+package gov.nsf.emailservice.mail;
+
+import gov.nsf.emailservice.common.util.Constants;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JavaMailSender that sends over pooled SMTP connections instead of connecting, authenticating and
+ * disconnecting for every send
+ *
+ * - Configured like JavaMailSenderImpl, plus the SmtpTransportPool settings
+ * - A message rejected by the server (SendFailedException) fails on its own and the connection is reused;
+ *   any other send failure closes the connection
+ * - Idle connections are evicted every evictionIntervalMillis, which also logs the pool metrics at debug level
+ * - The pool metrics are published over JMX as an SmtpTransportPoolMXBean
+ */
+public class PooledJavaMailSender extends JavaMailSenderImpl implements SmtpTransportPoolMXBean, InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = Logger.getLogger(PooledJavaMailSender.class);
+
+    private final SmtpTransportPool transportPool = new SmtpTransportPool(new SmtpTransportPool.TransportConnector() {
+        @Override
+        public Transport connect() throws MessagingException {
+            return connectTransport();
+        }
+    });
+    private long evictionIntervalMillis = Constants.DEFAULT_SMTP_POOL_EVICTION_INTERVAL_MILLIS;
+    private ScheduledExecutorService evictor;
+
+    @Override
+    public synchronized void afterPropertiesSet() {
+        if (evictor != null) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "smtp-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    transportPool.evictIdle();
+                    LOGGER.debug(transportPool.getMetrics());
+                } catch (Exception e) {
+                    LOGGER.error(Constants.ERROR_EVICTING_SMTP_CONNECTIONS + e);
+                }
+            }
+        }, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        transportPool.close();
+    }
+
+    /**
+     * Sends the messages over one pooled connection, borrowing another one if it is closed part way through
+     *
+     * @param mimeMessages
+     * @param originalMessages
+     * @throws MailException - a MailSendException carries every failed message with its exception
+     */
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<Object, Exception>();
+        SmtpTransportPool.PooledTransport pooled = null;
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                if (pooled == null) {
+                    try {
+                        pooled = transportPool.borrow();
+                    } catch (AuthenticationFailedException e) {
+                        throw new MailAuthenticationException(e);
+                    } catch (Exception e) {
+                        // all remaining messages failed
+                        for (int j = i; j < mimeMessages.length; j++) {
+                            failedMessages.put(originalMessages != null ? originalMessages[j] : mimeMessages[j], e);
+                        }
+                        throw new MailSendException(Constants.ERROR_SMTP_CONNECTION_FAILED, e, failedMessages);
+                    }
+                }
+
+                MimeMessage mimeMessage = mimeMessages[i];
+                try {
+                    send(pooled.getTransport(), mimeMessage);
+                    transportPool.messageSent(pooled);
+                } catch (SendFailedException e) {
+                    failedMessages.put(originalMessages != null ? originalMessages[i] : mimeMessage, e);
+                } catch (Exception e) {
+                    failedMessages.put(originalMessages != null ? originalMessages[i] : mimeMessage, e);
+                    transportPool.release(pooled, false);
+                    pooled = null;
+                    continue;
+                }
+
+                if (pooled.getMessageCount() >= transportPool.getMaxMessagesPerConnection()) {
+                    transportPool.release(pooled, true);
+                    pooled = null;
+                }
+            }
+        } finally {
+            if (pooled != null) {
+                transportPool.release(pooled, true);
+            }
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    /**
+     * Sends the message as JavaMailSenderImpl does, keeping an explicitly set Message-ID
+     *
+     * @param transport
+     * @param mimeMessage
+     * @throws MessagingException
+     */
+    private static void send(Transport transport, MimeMessage mimeMessage) throws MessagingException {
+        if (mimeMessage.getSentDate() == null) {
+            mimeMessage.setSentDate(new Date());
+        }
+        String messageId = mimeMessage.getMessageID();
+        mimeMessage.saveChanges();
+        if (messageId != null) {
+            mimeMessage.setHeader(Constants.MESSAGE_ID_HEADER, messageId);
+        }
+        Address[] addresses = mimeMessage.getAllRecipients();
+        transport.sendMessage(mimeMessage, addresses != null ? addresses : new Address[0]);
+    }
+
+    /**
+     * Returns a snapshot of the connection pool size and counters
+     *
+     * @return SmtpTransportPoolMetrics
+     */
+    @Override
+    public SmtpTransportPoolMetrics getPoolMetrics() {
+        return transportPool.getMetrics();
+    }
+
+    SmtpTransportPool getTransportPool() {
+        return transportPool;
+    }
+
+    public int getMaxTotal() {
+        return transportPool.getMaxTotal();
+    }
+
+    /**
+     * Maximum number of open SMTP connections
+     *
+     * @param maxTotal
+     */
+    public void setMaxTotal(int maxTotal) {
+        transportPool.setMaxTotal(maxTotal);
+    }
+
+    public long getMaxIdleMillis() {
+        return transportPool.getMaxIdleMillis();
+    }
+
+    public void setMaxIdleMillis(long maxIdleMillis) {
+        transportPool.setMaxIdleMillis(maxIdleMillis);
+    }
+
+    public long getValidateAfterIdleMillis() {
+        return transportPool.getValidateAfterIdleMillis();
+    }
+
+    public void setValidateAfterIdleMillis(long validateAfterIdleMillis) {
+        transportPool.setValidateAfterIdleMillis(validateAfterIdleMillis);
+    }
+
+    public int getMaxMessagesPerConnection() {
+        return transportPool.getMaxMessagesPerConnection();
+    }
+
+    public void setMaxMessagesPerConnection(int maxMessagesPerConnection) {
+        transportPool.setMaxMessagesPerConnection(maxMessagesPerConnection);
+    }
+
+    public long getBorrowTimeoutMillis() {
+        return transportPool.getBorrowTimeoutMillis();
+    }
+
+    public void setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+        transportPool.setBorrowTimeoutMillis(borrowTimeoutMillis);
+    }
+
+    public long getEvictionIntervalMillis() {
+        return evictionIntervalMillis;
+    }
+
+    public void setEvictionIntervalMillis(long evictionIntervalMillis) {
+        this.evictionIntervalMillis = evictionIntervalMillis;
+    }
+}
@@ -0,0 +1,315 @@
+package gov.nsf.emailservice.mail;
+
+import gov.nsf.emailservice.common.util.Constants;
+import org.apache.log4j.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * SmtpTransportPool keeps connected, authenticated SMTP Transports open between sends
+ *
+ * - At most maxTotal connections are open at a time; borrow waits up to borrowTimeoutMillis for one
+ * - Idle connections are reused most recently used first, so the pool shrinks back when the load drops:
+ *   evictIdle closes connections idle for longer than maxIdleMillis
+ * - A connection idle for longer than validateAfterIdleMillis is checked before it is reused - for SMTP,
+ *   Transport.isConnected sends a NOOP - and replaced if the server no longer answers
+ * - A connection is closed once maxMessagesPerConnection messages have been sent over it, as mail servers
+ *   limit the messages per session
+ */
+public class SmtpTransportPool {
+
+    private static final Logger LOGGER = Logger.getLogger(SmtpTransportPool.class);
+
+    /**
+     * Opens a connected (and authenticated) Transport
+     */
+    public interface TransportConnector {
+        Transport connect() throws MessagingException;
+    }
+
+    private final TransportConnector connector;
+    private int maxTotal = Constants.DEFAULT_SMTP_POOL_MAX_TOTAL;
+    private long maxIdleMillis = Constants.DEFAULT_SMTP_POOL_MAX_IDLE_MILLIS;
+    private long validateAfterIdleMillis = Constants.DEFAULT_SMTP_POOL_VALIDATE_AFTER_IDLE_MILLIS;
+    private int maxMessagesPerConnection = Constants.DEFAULT_SMTP_POOL_MAX_MESSAGES_PER_CONNECTION;
+    private long borrowTimeoutMillis = Constants.DEFAULT_SMTP_POOL_BORROW_TIMEOUT_MILLIS;
+
+    // guarded by this
+    private final Deque<PooledTransport> idleTransports = new ArrayDeque<PooledTransport>();
+    private int openCount;
+    private boolean closed;
+    private long createdCount;
+    private long closedCount;
+    private long evictedCount;
+    private long retiredCount;
+    private long validationFailureCount;
+    private long borrowedCount;
+    private long reusedCount;
+    private long borrowTimeoutCount;
+    private long messagesSentCount;
+
+    public SmtpTransportPool(TransportConnector connector) {
+        this.connector = connector;
+    }
+
+    /**
+     * Returns an idle connection, or opens a new one if fewer than maxTotal are open
+     *
+     * @return PooledTransport - must be passed back to release
+     * @throws MessagingException if no connection could be opened, or none was released within borrowTimeoutMillis
+     */
+    public PooledTransport borrow() throws MessagingException {
+        long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+        while (true) {
+            PooledTransport pooled = null;
+            synchronized (this) {
+                while (true) {
+                    if (closed) {
+                        throw new MessagingException(Constants.SMTP_POOL_CLOSED);
+                    }
+                    pooled = idleTransports.pollFirst();
+                    if (pooled != null || openCount < maxTotal) {
+                        break;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        borrowTimeoutCount++;
+                        throw new MessagingException(Constants.ERROR_SMTP_POOL_EXHAUSTED + borrowTimeoutMillis);
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new MessagingException(Constants.ERROR_SMTP_POOL_EXHAUSTED + borrowTimeoutMillis, e);
+                    }
+                }
+                if (pooled == null) {
+                    openCount++;
+                }
+            }
+
+            if (pooled == null) {
+                return open();
+            }
+            if (isValid(pooled)) {
+                synchronized (this) {
+                    borrowedCount++;
+                    reusedCount++;
+                }
+                return pooled;
+            }
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Returns the connection to the pool, or closes it if it is broken or has sent maxMessagesPerConnection messages
+     *
+     * @param pooled
+     * @param reusable - false if the connection failed in a way that leaves it unusable
+     */
+    public void release(PooledTransport pooled, boolean reusable) {
+        if (reusable && pooled.getMessageCount() >= maxMessagesPerConnection) {
+            synchronized (this) {
+                retiredCount++;
+            }
+            reusable = false;
+        }
+        if (reusable) {
+            synchronized (this) {
+                if (!closed) {
+                    pooled.lastUsedAt = System.currentTimeMillis();
+                    idleTransports.addFirst(pooled);
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+        destroy(pooled);
+    }
+
+    /**
+     * Records a message sent over the connection
+     *
+     * @param pooled
+     */
+    public void messageSent(PooledTransport pooled) {
+        pooled.messageCount++;
+        synchronized (this) {
+            messagesSentCount++;
+        }
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than maxIdleMillis
+     *
+     * @return the number of connections closed
+     */
+    public int evictIdle() {
+        long idleBefore = System.currentTimeMillis() - maxIdleMillis;
+        List<PooledTransport> evicted = new ArrayList<PooledTransport>();
+        synchronized (this) {
+            // the least recently used connections are at the end of the deque
+            Iterator<PooledTransport> iterator = idleTransports.descendingIterator();
+            while (iterator.hasNext()) {
+                PooledTransport pooled = iterator.next();
+                if (pooled.lastUsedAt > idleBefore) {
+                    break;
+                }
+                iterator.remove();
+                evicted.add(pooled);
+            }
+            evictedCount += evicted.size();
+        }
+        for (PooledTransport pooled : evicted) {
+            destroy(pooled);
+        }
+        return evicted.size();
+    }
+
+    /**
+     * Closes the idle connections and every connection released from now on
+     */
+    public void close() {
+        List<PooledTransport> idle;
+        synchronized (this) {
+            closed = true;
+            idle = new ArrayList<PooledTransport>(idleTransports);
+            idleTransports.clear();
+            notifyAll();
+        }
+        for (PooledTransport pooled : idle) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the pool size and counters
+     *
+     * @return SmtpTransportPoolMetrics
+     */
+    public synchronized SmtpTransportPoolMetrics getMetrics() {
+        return new SmtpTransportPoolMetrics(openCount, idleTransports.size(), createdCount, closedCount, evictedCount,
+                retiredCount, validationFailureCount, borrowedCount, reusedCount, borrowTimeoutCount, messagesSentCount);
+    }
+
+    private PooledTransport open() throws MessagingException {
+        Transport transport;
+        try {
+            transport = connector.connect();
+        } catch (MessagingException | RuntimeException e) {
+            synchronized (this) {
+                openCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            createdCount++;
+            borrowedCount++;
+        }
+        return new PooledTransport(transport);
+    }
+
+    private boolean isValid(PooledTransport pooled) {
+        long idleMillis = System.currentTimeMillis() - pooled.lastUsedAt;
+        if (idleMillis > maxIdleMillis) {
+            synchronized (this) {
+                evictedCount++;
+            }
+            return false;
+        }
+        if (idleMillis > validateAfterIdleMillis && !pooled.getTransport().isConnected()) {
+            synchronized (this) {
+                validationFailureCount++;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void destroy(PooledTransport pooled) {
+        try {
+            pooled.getTransport().close();
+        } catch (Exception e) {
+            LOGGER.debug(Constants.ERROR_CLOSING_SMTP_CONNECTION + e);
+        }
+        synchronized (this) {
+            openCount--;
+            closedCount++;
+            notifyAll();
+        }
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    public void setMaxIdleMillis(long maxIdleMillis) {
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    public long getValidateAfterIdleMillis() {
+        return validateAfterIdleMillis;
+    }
+
+    public void setValidateAfterIdleMillis(long validateAfterIdleMillis) {
+        this.validateAfterIdleMillis = validateAfterIdleMillis;
+    }
+
+    public int getMaxMessagesPerConnection() {
+        return maxMessagesPerConnection;
+    }
+
+    public void setMaxMessagesPerConnection(int maxMessagesPerConnection) {
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+    }
+
+    public long getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    public void setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    /**
+     * A pooled connection and its usage
+     */
+    public static class PooledTransport {
+
+        private final Transport transport;
+        private int messageCount;
+        private long lastUsedAt;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+            this.lastUsedAt = System.currentTimeMillis();
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * @return the number of messages sent over the connection
+         */
+        public int getMessageCount() {
+            return messageCount;
+        }
+    }
+}
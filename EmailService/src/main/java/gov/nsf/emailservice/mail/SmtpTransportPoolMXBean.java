@@ -0,0 +1,17 @@
+package gov.nsf.emailservice.mail;
+
+/**
+ * SmtpTransportPoolMXBean publishes the SMTP connection pool metrics of a PooledJavaMailSender over JMX (see the
+ * mbeanExporter bean in emailservice-context.xml) - PoolMetrics is a composite attribute with one item per
+ * SmtpTransportPoolMetrics getter
+ *
+ */
+public interface SmtpTransportPoolMXBean {
+
+    /**
+     * Returns a snapshot of the connection pool size and counters
+     *
+     * @return SmtpTransportPoolMetrics
+     */
+    SmtpTransportPoolMetrics getPoolMetrics();
+}
@@ -0,0 +1,117 @@
+package gov.nsf.emailservice.mail;
+
+/**
+ * Snapshot of the size and counters of an SmtpTransportPool. The counters are totals since the pool was created.
+ */
+public class SmtpTransportPoolMetrics {
+
+    private final int open;
+    private final int idle;
+    private final long created;
+    private final long closed;
+    private final long evicted;
+    private final long retired;
+    private final long validationFailures;
+    private final long borrowed;
+    private final long reused;
+    private final long borrowTimeouts;
+    private final long messagesSent;
+
+    public SmtpTransportPoolMetrics(int open, int idle, long created, long closed, long evicted, long retired,
+                                    long validationFailures, long borrowed, long reused, long borrowTimeouts, long messagesSent) {
+        this.open = open;
+        this.idle = idle;
+        this.created = created;
+        this.closed = closed;
+        this.evicted = evicted;
+        this.retired = retired;
+        this.validationFailures = validationFailures;
+        this.borrowed = borrowed;
+        this.reused = reused;
+        this.borrowTimeouts = borrowTimeouts;
+        this.messagesSent = messagesSent;
+    }
+
+    /**
+     * @return connections open, idle or in use
+     */
+    public int getOpen() {
+        return open;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getActive() {
+        return open - idle;
+    }
+
+    /**
+     * @return connections opened (each one an SMTP connect and AUTH handshake)
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public long getClosed() {
+        return closed;
+    }
+
+    /**
+     * @return connections closed for having been idle for longer than maxIdleMillis
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return connections closed for having sent maxMessagesPerConnection messages
+     */
+    public long getRetired() {
+        return retired;
+    }
+
+    /**
+     * @return idle connections found broken by a NOOP before reuse
+     */
+    public long getValidationFailures() {
+        return validationFailures;
+    }
+
+    public long getBorrowed() {
+        return borrowed;
+    }
+
+    /**
+     * @return borrows answered with an already open connection
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    public long getBorrowTimeouts() {
+        return borrowTimeouts;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    @Override
+    public String toString() {
+        return "SmtpTransportPoolMetrics{" +
+                "open=" + open +
+                ", idle=" + idle +
+                ", created=" + created +
+                ", closed=" + closed +
+                ", evicted=" + evicted +
+                ", retired=" + retired +
+                ", validationFailures=" + validationFailures +
+                ", borrowed=" + borrowed +
+                ", reused=" + reused +
+                ", borrowTimeouts=" + borrowTimeouts +
+                ", messagesSent=" + messagesSent +
+                '}';
+    }
+}
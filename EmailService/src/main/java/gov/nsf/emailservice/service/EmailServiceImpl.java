@@ -4,30 +4,64 @@ import gov.mynsf.common.email.model.EmailRequest;
 import gov.mynsf.common.email.model.SendLevelEnum;
 import gov.mynsf.common.email.model.SendMetaData;
 import gov.mynsf.common.email.util.NsfEmailUtil;
+import gov.nsf.common.exception.FormValidationException;
 import gov.nsf.common.exception.RollbackException;
+import gov.nsf.common.model.BaseError;
 import gov.nsf.common.model.BaseResponseWrapper;
 import gov.nsf.common.util.NsfValidationUtils;
 import gov.nsf.emailservice.api.model.*;
+import gov.nsf.emailservice.api.model.request.BulkSendRow;
+import gov.nsf.emailservice.api.model.request.SendLetterRequest;
+import gov.nsf.emailservice.api.service.BulkSendHandler;
 import gov.nsf.emailservice.api.service.EmailService;
+import gov.nsf.emailservice.api.service.LetterHandler;
+import gov.nsf.emailservice.common.util.Constants;
+import gov.nsf.emailservice.common.util.MailMergeTemplate;
 import gov.nsf.emailservice.common.util.Utils;
 import gov.nsf.emailservice.dao.EmailDao;
+import gov.nsf.emailservice.dao.SendOutboxEntry;
+import gov.nsf.emailservice.validator.SendLetterValidator;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.MailSendException;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * EmailServiceImpl implements the EmailService interface and is responsible for
  * calling the DAO
  *
  */
-public class EmailServiceImpl implements EmailService {
+public class EmailServiceImpl implements EmailService, DisposableBean {
+
+    private static final Logger LOGGER = Logger.getLogger(EmailServiceImpl.class);
 
     @Autowired
     private EmailDao emailDao;
     @Autowired
     private NsfEmailUtil nsfEmailUtil;
+    private SendOutbox sendOutbox;
+    private int mailMergeConcurrency = Constants.DEFAULT_MAIL_MERGE_CONCURRENCY;
+    private ExecutorService mailMergeExecutor;
 
 
     /**
@@ -56,10 +90,13 @@ public class EmailServiceImpl implements EmailService {
      *      - contains three Lists of errors, warnings, and informationals with BaseError objects
      *          - errors list will be populated if any validations fail or any exceptions are thrown
      *
+     * A LetterNotFoundException commits the read-only transaction instead of rolling it back, so the miss the
+     * DAO put in the transaction-aware missingLetters cache is kept
+     *
      * @throws RollbackException
      */
     @Override
-    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class})
+    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class}, noRollbackFor = LetterNotFoundException.class)
     public LetterResponseWrapper getLetter(String id) throws RollbackException {
         Letter returnedLetter = emailDao.getLetter(id);
         return new LetterResponseWrapper(returnedLetter);
@@ -86,6 +123,132 @@ public class EmailServiceImpl implements EmailService {
         return new LetterListResponseWrapper(letters);
     }
 
+    /**
+     * Streams all Letters stored in the ltr database that are mapped to the passed search parameter to the
+     * passed LetterHandler, one Letter at a time
+     *
+     * @param searchParameter
+     * @param letterHandler
+     *
+     * @throws RollbackException
+     */
+    @Override
+    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class})
+    public void findLetter(SearchParameter searchParameter, LetterHandler letterHandler) throws RollbackException {
+        emailDao.findLetter(searchParameter, emailDao.getSearchParameterNames(), letterHandler);
+    }
+
+    /**
+     * Returns one page of the Letters stored in the ltr database that are mapped to the passed search parameter
+     *
+     * One extra ID is read to tell whether another page follows, in which case the nextCursor points after
+     * the last ID of this page
+     *
+     * @param searchParameter
+     * @param limit
+     *      - the maximum number of Letters in the page
+     * @param after
+     *      - the nextCursor of the previous page, or null for the first page
+     * @return LetterListResponseWrapper
+     *      - contains a List of at most limit Letter objects and the nextCursor (null on the last page)
+     *
+     * @throws RollbackException
+     */
+    @Override
+    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class})
+    public LetterListResponseWrapper findLetter(SearchParameter searchParameter, int limit, String after) throws RollbackException {
+        List<String> eltrIDs = emailDao.findLetterIDs(searchParameter, emailDao.getSearchParameterNames(), limit + 1, decodePageCursor(after));
+        return getLetterPage(eltrIDs, limit);
+    }
+
+    /**
+     * Returns all Letters stored in the ltr database that match every search parameter and filter of the
+     * passed criteria
+     *
+     * @param criteria
+     * @return LetterListResponseWrapper
+     *
+     * @throws RollbackException
+     */
+    @Override
+    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class})
+    public LetterListResponseWrapper findLetter(LetterSearchCriteria criteria) throws RollbackException {
+        List<Letter> letters = emailDao.findLetter(criteria, emailDao.getSearchParameterIDs());
+        return new LetterListResponseWrapper(letters);
+    }
+
+    /**
+     * Returns one page of the Letters stored in the ltr database that match every search parameter and filter
+     * of the passed criteria
+     *
+     * @param criteria
+     * @param limit
+     *      - the maximum number of Letters in the page
+     * @param after
+     *      - the nextCursor of the previous page, or null for the first page
+     * @return LetterListResponseWrapper
+     *
+     * @throws RollbackException
+     */
+    @Override
+    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class})
+    public LetterListResponseWrapper findLetter(LetterSearchCriteria criteria, int limit, String after) throws RollbackException {
+        List<String> eltrIDs = emailDao.findLetterIDs(criteria, emailDao.getSearchParameterIDs(), limit + 1, decodePageCursor(after));
+        return getLetterPage(eltrIDs, limit);
+    }
+
+    /**
+     * Streams all Letters stored in the ltr database that match every search parameter and filter of the
+     * passed criteria to the passed LetterHandler, one Letter at a time
+     *
+     * @param criteria
+     * @param letterHandler
+     *
+     * @throws RollbackException
+     */
+    @Override
+    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class})
+    public void findLetter(LetterSearchCriteria criteria, LetterHandler letterHandler) throws RollbackException {
+        emailDao.findLetter(criteria, emailDao.getSearchParameterIDs(), letterHandler);
+    }
+
+    /**
+     * Returns the eltrID the passed page cursor points after, or null for the first page
+     *
+     * @param after
+     * @return String
+     * @throws RollbackException
+     */
+    private String decodePageCursor(String after) throws RollbackException {
+        String afterEltrID = null;
+        if (after != null) {
+            afterEltrID = Utils.decodeLetterCursor(after);
+            if (afterEltrID == null) {
+                throw new RollbackException(Constants.ERROR_FINDING_LETTER + Constants.INVALID_PAGE_CURSOR);
+            }
+        }
+        return afterEltrID;
+    }
+
+    /**
+     * Reads the letters of one page from the (limit + 1) IDs read for it - if the extra ID was found, the
+     * nextCursor points after the last ID of this page
+     *
+     * @param eltrIDs
+     * @param limit
+     * @return LetterListResponseWrapper
+     * @throws RollbackException
+     */
+    private LetterListResponseWrapper getLetterPage(List<String> eltrIDs, int limit) throws RollbackException {
+        String nextCursor = null;
+        if (eltrIDs.size() > limit) {
+            eltrIDs = eltrIDs.subList(0, limit);
+            nextCursor = Utils.encodeLetterCursor(eltrIDs.get(limit - 1).trim());
+        }
+
+        return new LetterListResponseWrapper(emailDao.getLetters(eltrIDs), nextCursor);
+    }
+
     /**
      *  Saves the passed Letter object into the ltr database and returns the stored Letter object
      *
@@ -175,7 +338,7 @@ public class EmailServiceImpl implements EmailService {
     public LetterResponseWrapper saveLetter(Letter letter, String templateID) throws RollbackException {
         Letter returnedLetter = emailDao.saveLetter(letter,templateID);
         returnedLetter.setSearchParameters(letter.getSearchParameters());
-        emailDao.storeSearchParameters(returnedLetter, emailDao.getSearchParameterNames());
+        emailDao.storeSearchParameters(returnedLetter, emailDao.getSearchParameterIDs());
         return new LetterResponseWrapper(returnedLetter);
     }
 
@@ -218,7 +381,7 @@ public class EmailServiceImpl implements EmailService {
     public LetterResponseWrapper updateLetter(Letter letter) throws RollbackException {
         Letter returnedLetter = emailDao.updateLetter(letter);
         returnedLetter.setSearchParameters(letter.getSearchParameters());
-        emailDao.storeSearchParameters(returnedLetter, emailDao.getSearchParameterNames());
+        emailDao.storeSearchParameters(returnedLetter, emailDao.getSearchParameterIDs());
         return new LetterResponseWrapper(returnedLetter);
     }
 
@@ -238,7 +401,28 @@ public class EmailServiceImpl implements EmailService {
     @Override
     @Transactional(value = "flp", readOnly = false, propagation = Propagation.REQUIRES_NEW, rollbackFor = {InvalidSearchParameterException.class, RuntimeException.class, RollbackException.class})
     public LetterResponseWrapper deleteLetter(String id) throws RollbackException {
-        Letter deletedLetter = emailDao.deleteLetter(id);
+        return deleteLetter(id, true);
+    }
+
+    /**
+     * Deletes the Letter stored in the ltr database with the passed id
+     *
+     * @param id
+     *      - id must be non-null/non-empty and must be an integer string
+     *      - id must be a valid letter ID in the database
+     * @param returnDeleted
+     *      - if true, the deleted Letter is read before deleting it and returned
+     * @return LetterResponseWrapper
+     *      - contains the deleted Letter object if returnDeleted is true
+     *      - contains three Lists of errors, warnings, and informationals with BaseError objects
+     *          - errors list will be populated if any validations fail or any exceptions are thrown
+     *
+     * @throws RollbackException
+     */
+    @Override
+    @Transactional(value = "flp", readOnly = false, propagation = Propagation.REQUIRES_NEW, rollbackFor = {InvalidSearchParameterException.class, RuntimeException.class, RollbackException.class})
+    public LetterResponseWrapper deleteLetter(String id, boolean returnDeleted) throws RollbackException {
+        Letter deletedLetter = emailDao.deleteLetter(id, returnDeleted);
         return new LetterResponseWrapper(deletedLetter);
     }
 
@@ -256,7 +440,7 @@ public class EmailServiceImpl implements EmailService {
      * @throws RollbackException
      */
     @Override
-    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class})
+    @Transactional(value = "flp", readOnly = true, propagation = Propagation.REQUIRES_NEW, rollbackFor = {RuntimeException.class, RollbackException.class}, noRollbackFor = LetterNotFoundException.class)
     public SearchParameterResponseWrapper getSearchParameters(String id) throws RollbackException {
         Letter letter = emailDao.getLetter(id);
         return new SearchParameterResponseWrapper(letter.getSearchParameters());
@@ -289,19 +473,292 @@ public class EmailServiceImpl implements EmailService {
      * @return BaseResponseWrapper
      *      - contains three Lists of errors, warnings, and informationals with BaseError objects
      *          - errors list will be populated if any validations fail or any exceptions are thrown
+     *      - if a sendOutbox is set, the letter is queued in the send outbox instead of being sent, and a
+     *        SendLetterResponseWrapper with the tracking ID of the send request is returned
      */
     @Override
     public BaseResponseWrapper sendLetter(Letter letter, SendMetaData metaData) {
         EmailRequest emailRequest = Utils.convertLetterToEmailRequest(letter,metaData);
 
         if (!isValidDebugRecipients(emailRequest)) {
-            throw new IllegalArgumentException("Debug Recipient invalid. SendMetaData must contain a valid debugRecipient(s) when sendLevel==[DebugLevel].");
+            throw new IllegalArgumentException(Constants.INVALID_DEBUG_RECIPIENTS);
+        }
+
+        if (sendOutbox != null) {
+            try {
+                return new SendLetterResponseWrapper(sendOutbox.enqueue(letter, metaData), SendStatus.Queued);
+            } catch (RollbackException e) {
+                throw new IllegalStateException(Constants.ERROR_QUEUEING_SEND_REQUEST + e.getErrMsg(), e);
+            }
         }
         nsfEmailUtil.sendEmail(emailRequest);
 
         return new BaseResponseWrapper();
     }
 
+    /**
+     * Returns the status of a send request queued in the send outbox
+     *
+     * @param trackingID
+     *      - trackingID must be the tracking ID returned by sendLetter
+     * @return SendLetterResponseWrapper
+     *      - contains the tracking ID, the send status, the number of send attempts and the last send error
+     *
+     * @throws RollbackException
+     *      - SendRequestNotFoundException if there is no send request with the tracking ID
+     */
+    @Override
+    public SendLetterResponseWrapper getSendStatus(String trackingID) throws RollbackException {
+        SendOutboxEntry entry = null;
+        if (sendOutbox != null && StringUtils.isNumeric(trackingID) && !trackingID.isEmpty() && trackingID.length() <= 18) {
+            entry = sendOutbox.getSendStatus(trackingID);
+        }
+        if (entry == null) {
+            throw new SendRequestNotFoundException(Constants.SEND_REQUEST_DOES_NOT_EXIST + trackingID);
+        }
+
+        SendLetterResponseWrapper wrapper = new SendLetterResponseWrapper(entry.getTrackingID(), entry.getSendStatus());
+        wrapper.setAttempts(entry.getAttempts());
+        wrapper.setLastError(entry.getLastError());
+        return wrapper;
+    }
+
+    /**
+     * Marks a letter stored in the ltr database Sent and sends it
+     * - Marks the letter Sent with a compare-and-set update, which only one of several concurrent callers
+     *   wins; the others get a LetterAlreadySentException
+     * - Validates the stored letter as /sendletter would; if it is invalid, the transaction rolls back and
+     *   the letter stays unsent
+     * - If a sendOutbox is set, queues the letter in the send outbox in the same transaction
+     * - Otherwise sends the letter once the transaction has committed, so the row lock is not held while the
+     *   mail server is waited on
+     * - Once the Sent status has committed, the letter is never put back to Draft: the mail server may have
+     *   accepted a message whose send still failed, and Sent letters are served as immutable. A failed send is
+     *   logged and reported with a MailSendException; with a sendOutbox set, failed sends are retried instead.
+     *
+     * @param id
+     *      - id must be a valid letter ID in the database of a letter that has not been sent
+     * @param metaData
+     * @param eltrStatusUser
+     * @return BaseResponseWrapper
+     *      - a SendLetterResponseWrapper with the tracking ID of the send request if the letter was queued
+     *
+     * @throws RollbackException
+     * @throws FormValidationException
+     */
+    @Override
+    @Transactional(value = "flp", readOnly = false, propagation = Propagation.REQUIRES_NEW, rollbackFor = {FormValidationException.class, RuntimeException.class, RollbackException.class})
+    public BaseResponseWrapper sendStoredLetter(String id, SendMetaData metaData, String eltrStatusUser) throws RollbackException, FormValidationException {
+        Letter letter = emailDao.markLetterSent(id, eltrStatusUser);
+
+        SendLetterRequest sendLetterRequest = new SendLetterRequest(metaData);
+        sendLetterRequest.setLetter(letter);
+        new SendLetterValidator().validateRequest(sendLetterRequest);
+
+        EmailRequest emailRequest = Utils.convertLetterToEmailRequest(letter, metaData);
+        if (!isValidDebugRecipients(emailRequest)) {
+            throw new IllegalArgumentException(Constants.INVALID_DEBUG_RECIPIENTS);
+        }
+
+        if (sendOutbox != null) {
+            return new SendLetterResponseWrapper(sendOutbox.enqueue(letter, metaData), SendStatus.Queued);
+        }
+        sendStoredLetterAfterCommit(id, emailRequest);
+
+        return new BaseResponseWrapper();
+    }
+
+    /**
+     * Sends the stored letter once the current transaction has committed; sends it now if there is no
+     * transaction
+     */
+    private void sendStoredLetterAfterCommit(final String id, final EmailRequest emailRequest) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            sendStoredLetter(id, emailRequest);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                sendStoredLetter(id, emailRequest);
+            }
+        });
+    }
+
+    /**
+     * Sends a stored letter that has been marked Sent - the letter stays Sent if the send fails
+     *
+     * @throws MailSendException if the send fails
+     */
+    private void sendStoredLetter(String id, EmailRequest emailRequest) {
+        try {
+            nsfEmailUtil.sendEmail(emailRequest);
+        } catch (RuntimeException e) {
+            LOGGER.error(Constants.ERROR_SENDING_STORED_LETTER + id + Constants.STORED_LETTER_STAYS_SENT + e);
+            throw new MailSendException(Constants.ERROR_SENDING_STORED_LETTER + id + Constants.STORED_LETTER_STAYS_SENT + e, e);
+        }
+    }
+
+    /**
+     * Sends one letter per row with the row's variables merged into the letter
+     * - The letter content and subject are parsed once; the rows are merged, validated and sent (or queued)
+     *   on mailMergeConcurrency shared threads
+     * - At most MAIL_MERGE_ROWS_IN_FLIGHT_PER_THREAD rows per thread are in progress at once, so rows are only
+     *   read from the iterator as fast as they are sent
+     * - The results are handed to the bulkSendHandler on the calling thread as the rows finish; an IOException
+     *   from the handler stops reading rows and is rethrown as an UncheckedIOException
+     * - If reading a row fails, the rows already read are still finished and reported before the exception
+     *   is rethrown
+     * - Invalid debug recipients fail the whole bulk send before any row is read, as they would fail every row
+     *
+     * @param letter
+     * @param metaData
+     * @param rows
+     * @param bulkSendHandler
+     */
+    @Override
+    public void sendBulkLetter(final Letter letter, final SendMetaData metaData, Iterator<BulkSendRow> rows, BulkSendHandler bulkSendHandler) {
+        if (!isValidDebugRecipients(Utils.convertLetterToEmailRequest(letter, metaData))) {
+            throw new IllegalArgumentException(Constants.INVALID_DEBUG_RECIPIENTS);
+        }
+
+        final MailMergeTemplate content = MailMergeTemplate.compile(letter.getEltrContent());
+        final MailMergeTemplate subject = MailMergeTemplate.compile(letter.getEmailInfo().getMailSubject());
+        CompletionService<BulkSendResult> completionService = new ExecutorCompletionService<BulkSendResult>(getMailMergeExecutor());
+        int maxInFlight = mailMergeConcurrency * Constants.MAIL_MERGE_ROWS_IN_FLIGHT_PER_THREAD;
+
+        BulkSendProgress progress = new BulkSendProgress(bulkSendHandler);
+        RuntimeException readFailure = null;
+        int inFlight = 0;
+        int rowNumber = 0;
+        try {
+            while (true) {
+                if (inFlight == maxInFlight) {
+                    progress.report(completionService.take());
+                    inFlight--;
+                }
+
+                final BulkSendRow row;
+                try {
+                    if (!rows.hasNext()) {
+                        break;
+                    }
+                    row = rows.next();
+                } catch (RuntimeException e) {
+                    readFailure = e;
+                    break;
+                }
+                final int currentRow = ++rowNumber;
+                completionService.submit(new Callable<BulkSendResult>() {
+                    @Override
+                    public BulkSendResult call() {
+                        return sendMergedLetter(currentRow, letter, content, subject, row, metaData);
+                    }
+                });
+                inFlight++;
+
+                for (Future<BulkSendResult> done = completionService.poll(); done != null; done = completionService.poll()) {
+                    progress.report(done);
+                    inFlight--;
+                }
+            }
+            for (; inFlight > 0; inFlight--) {
+                progress.report(completionService.take());
+            }
+            if (readFailure != null) {
+                throw readFailure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(Constants.ERROR_SENDING_BULK_ROW + e, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Merges the row into the letter, then validates and sends the merged letter
+     *
+     * @return BulkSendResult with the errors of the row, if any
+     */
+    private BulkSendResult sendMergedLetter(int rowNumber, Letter letter, MailMergeTemplate content, MailMergeTemplate subject, BulkSendRow row, SendMetaData metaData) {
+        BulkSendResult result = new BulkSendResult(rowNumber);
+        Letter mergedLetter;
+        try {
+            mergedLetter = mergeLetter(letter, content, subject, row);
+        } catch (IllegalArgumentException e) {
+            result.addError(new BaseError(Constants.MERGE_VARIABLES_FIELD, e.getMessage()));
+            return result;
+        }
+
+        try {
+            SendLetterRequest sendLetterRequest = new SendLetterRequest(metaData);
+            sendLetterRequest.setLetter(mergedLetter);
+            new SendLetterValidator().validateRequest(sendLetterRequest);
+
+            BaseResponseWrapper wrapper = sendLetter(mergedLetter, metaData);
+            if (wrapper instanceof SendLetterResponseWrapper) {
+                result.setTrackingID(((SendLetterResponseWrapper) wrapper).getTrackingID());
+                result.setSendStatus(((SendLetterResponseWrapper) wrapper).getSendStatus());
+            } else {
+                result.setSendStatus(SendStatus.Sent);
+            }
+        } catch (FormValidationException e) {
+            result.setErrors(new ArrayList<BaseError>(e.getValidationErrors()));
+        } catch (RuntimeException e) {
+            result.addError(new BaseError(Constants.BULK_SEND_ROW_FIELD, Constants.ERROR_SENDING_BULK_ROW + e));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of the letter with the row's recipients and variables merged in
+     *
+     * @throws IllegalArgumentException if a variable of the content or subject has no value in the row
+     */
+    private static Letter mergeLetter(Letter letter, MailMergeTemplate content, MailMergeTemplate subject, BulkSendRow row) {
+        EmailInfo emailInfo = new EmailInfo();
+        emailInfo.setMailSubject(subject != null ? subject.render(row.getVariables(), false) : null);
+        emailInfo.setFromAddress(letter.getEmailInfo().getFromAddress());
+        emailInfo.setToAddresses(row.getToAddresses() != null ? row.getToAddresses() : new ArrayList<String>());
+        emailInfo.setCcAddresses(row.getCcAddresses() != null ? row.getCcAddresses() : letter.getEmailInfo().getCcAddresses());
+        emailInfo.setBccAddresses(letter.getEmailInfo().getBccAddresses());
+
+        Letter mergedLetter = new Letter();
+        mergedLetter.setEltrContent(content != null ? content.render(row.getVariables(), !letter.isPlainText()) : null);
+        mergedLetter.setPlainText(letter.isPlainText());
+        mergedLetter.setTmplID(letter.getTmplID());
+        mergedLetter.setApplID(letter.getApplID());
+        mergedLetter.setEltrStatusUser(letter.getEltrStatusUser());
+        mergedLetter.setSearchParameters(letter.getSearchParameters());
+        mergedLetter.setEmailInfo(emailInfo);
+        return mergedLetter;
+    }
+
+    private synchronized ExecutorService getMailMergeExecutor() {
+        if (mailMergeExecutor == null) {
+            mailMergeExecutor = Executors.newFixedThreadPool(mailMergeConcurrency, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mail-merge-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mailMergeExecutor;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (mailMergeExecutor != null) {
+            mailMergeExecutor.shutdown();
+            mailMergeExecutor = null;
+        }
+    }
+
     /**
      * Helper method to determine if the debug recipient list is valid when SendLevel==Debug
      * @param emailRequest
@@ -329,4 +786,61 @@ public class EmailServiceImpl implements EmailService {
     public void setNsfEmailUtil(NsfEmailUtil nsfEmailUtil) {
         this.nsfEmailUtil = nsfEmailUtil;
     }
+
+    public SendOutbox getSendOutbox() {
+        return sendOutbox;
+    }
+
+    /**
+     * SendOutbox setter - when set, sendLetter queues letters in the send outbox instead of sending them
+     *
+     * @param sendOutbox
+     */
+    public void setSendOutbox(SendOutbox sendOutbox) {
+        this.sendOutbox = sendOutbox;
+    }
+
+    public int getMailMergeConcurrency() {
+        return mailMergeConcurrency;
+    }
+
+    /**
+     * Number of threads shared by all bulk sends to merge and send their rows
+     *
+     * @param mailMergeConcurrency
+     */
+    public void setMailMergeConcurrency(int mailMergeConcurrency) {
+        this.mailMergeConcurrency = mailMergeConcurrency;
+    }
+
+    /**
+     * Counts the finished rows of a bulk send and hands their results to the BulkSendHandler
+     */
+    private static final class BulkSendProgress {
+
+        private final BulkSendHandler bulkSendHandler;
+        private int processed;
+        private int failed;
+
+        BulkSendProgress(BulkSendHandler bulkSendHandler) {
+            this.bulkSendHandler = bulkSendHandler;
+        }
+
+        void report(Future<BulkSendResult> done) throws IOException {
+            BulkSendResult result;
+            try {
+                result = done.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // sendMergedLetter catches its exceptions, and a finished Future does not block
+                throw new IllegalStateException(Constants.ERROR_SENDING_BULK_ROW + e, e);
+            }
+            processed++;
+            if (result.getErrors() != null && !result.getErrors().isEmpty()) {
+                failed++;
+            }
+            result.setProcessed(processed);
+            result.setFailed(failed);
+            bulkSendHandler.handleResult(result);
+        }
+    }
 }
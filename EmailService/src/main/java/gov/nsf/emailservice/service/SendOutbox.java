@@ -0,0 +1,460 @@
+package gov.nsf.emailservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.mynsf.common.email.model.EmailRequest;
+import gov.mynsf.common.email.model.SendMetaData;
+import gov.mynsf.common.email.util.NsfEmailUtil;
+import gov.nsf.common.exception.RollbackException;
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.SendStatus;
+import gov.nsf.emailservice.api.model.request.SendLetterRequest;
+import gov.nsf.emailservice.common.util.Constants;
+import gov.nsf.emailservice.common.util.Utils;
+import gov.nsf.emailservice.dao.SendOutboxDao;
+import gov.nsf.emailservice.dao.SendOutboxEntry;
+import gov.nsf.emailservice.mail.BatchingJavaMailSender;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SendOutbox queues /sendletter requests in the send outbox table and sends them in the background
+ *
+ * - enqueue stores the request and returns its tracking ID, so the caller never waits for the mail server.
+ *   Called in a transaction, the request is only stored (and sent) if that transaction commits.
+ * - A poller thread claims the due requests and hands them to a pool of concurrency sender threads. It never
+ *   claims more requests than there are idle senders, so a backlog stays in the table (where every node can
+ *   pick it up) instead of in memory. The poller runs every pollIntervalMillis, after every enqueue, and
+ *   whenever a sender becomes idle while requests are still waiting.
+ * - With a batchingJavaMailSender (the JavaMailSender of the nsfEmailUtil), each sender takes up to batchSize
+ *   requests at once and sends their letters together over one connection. Each request still succeeds or
+ *   fails on its own.
+ * - A failed send is retried after retryDelayMillis, doubled on every further attempt, until maxAttempts
+ *   attempts have failed; the request is then Failed
+ * - A request is claimed with a compare-and-set on its attempt count, so several nodes can drain the same
+ *   table. Requests are sent at least once: one whose node stopped while sending it is claimed again once
+ *   claimTimeoutMillis has passed.
+ */
+public class SendOutbox implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = Logger.getLogger(SendOutbox.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private SendOutboxDao sendOutboxDao;
+    private NsfEmailUtil nsfEmailUtil;
+    private int concurrency = Constants.DEFAULT_SEND_OUTBOX_CONCURRENCY;
+    private long pollIntervalMillis = Constants.DEFAULT_SEND_OUTBOX_POLL_INTERVAL_MILLIS;
+    private int maxAttempts = Constants.DEFAULT_SEND_OUTBOX_MAX_ATTEMPTS;
+    private long retryDelayMillis = Constants.DEFAULT_SEND_OUTBOX_RETRY_DELAY_MILLIS;
+    private long claimTimeoutMillis = Constants.DEFAULT_SEND_OUTBOX_CLAIM_TIMEOUT_MILLIS;
+    private BatchingJavaMailSender batchingJavaMailSender;
+    private int batchSize = Constants.DEFAULT_SEND_OUTBOX_BATCH_SIZE;
+
+    private ScheduledExecutorService poller;
+    private ExecutorService senders;
+    private Semaphore idleSenders;
+    private volatile boolean backlogged;
+
+    private final BatchingJavaMailSender.ItemSender<EmailRequest> emailSender = new BatchingJavaMailSender.ItemSender<EmailRequest>() {
+        @Override
+        public void send(EmailRequest emailRequest) {
+            nsfEmailUtil.sendEmail(emailRequest);
+        }
+    };
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Queues the letter for sending
+     *
+     * @param letter
+     * @param metaData
+     * @return the tracking ID of the send request
+     * @throws RollbackException
+     */
+    public String enqueue(Letter letter, SendMetaData metaData) throws RollbackException {
+        SendLetterRequest sendLetterRequest = new SendLetterRequest(metaData);
+        sendLetterRequest.setLetter(letter);
+
+        String sendRequest;
+        try {
+            sendRequest = MAPPER.writeValueAsString(sendLetterRequest);
+        } catch (IOException e) {
+            throw new RollbackException(Constants.ERROR_QUEUEING_SEND_REQUEST + e);
+        }
+
+        String trackingID = sendOutboxDao.insertSendRequest(sendRequest, new Date());
+        wakeUpAfterCommit();
+        return trackingID;
+    }
+
+    /**
+     * Returns the status of the send request with the passed tracking ID
+     *
+     * @param trackingID
+     * @return SendOutboxEntry or null if there is no send request with the tracking ID
+     * @throws RollbackException
+     */
+    public SendOutboxEntry getSendStatus(String trackingID) throws RollbackException {
+        return sendOutboxDao.getSendRequestStatus(trackingID);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        start();
+    }
+
+    /**
+     * Starts the poller and the sender threads
+     */
+    public synchronized void start() {
+        if (poller != null) {
+            return;
+        }
+        idleSenders = new Semaphore(concurrency);
+        senders = Executors.newFixedThreadPool(concurrency, daemonThreadFactory("send-outbox-sender-"));
+        poller = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("send-outbox-poller-"));
+        poller.scheduleWithFixedDelay(drainTask, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * Stops polling; the requests being sent are finished, the others stay in the table
+     */
+    public synchronized void stop() {
+        if (poller == null) {
+            return;
+        }
+        poller.shutdownNow();
+        senders.shutdown();
+        poller = null;
+        senders = null;
+    }
+
+    /**
+     * Drains the send outbox on the poller thread now
+     */
+    public void wakeUp() {
+        ScheduledExecutorService currentPoller = poller;
+        if (currentPoller == null) {
+            return;
+        }
+        try {
+            currentPoller.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug(Constants.SEND_OUTBOX_STOPPED);
+        }
+    }
+
+    /**
+     * Drains the send outbox once the current transaction has committed, as the poller cannot see a send
+     * request inserted in it before that; drains it now if there is no transaction
+     */
+    private void wakeUpAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            wakeUp();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                wakeUp();
+            }
+        });
+    }
+
+    /**
+     * Claims due requests and hands them to the idle senders, up to batchSize requests each, until there are
+     * no idle senders or no due requests
+     */
+    void drain() {
+        try {
+            int perSender = batchingJavaMailSender != null ? Math.max(batchSize, 1) : 1;
+            while (true) {
+                int idle = idleSenders.availablePermits();
+                if (idle == 0) {
+                    backlogged = true;
+                    return;
+                }
+
+                Date now = new Date();
+                List<SendOutboxEntry> entries = sendOutboxDao.findDueSendRequests(now, new Date(now.getTime() - claimTimeoutMillis), idle * perSender);
+                List<SendOutboxEntry> batch = new ArrayList<SendOutboxEntry>(perSender);
+                int claimed = 0;
+                for (SendOutboxEntry entry : entries) {
+                    if (batch.isEmpty() && !idleSenders.tryAcquire()) {
+                        backlogged = true;
+                        return;
+                    }
+                    if (!sendOutboxDao.claimSendRequest(entry, new Date())) {
+                        if (batch.isEmpty()) {
+                            idleSenders.release();
+                        }
+                        continue;
+                    }
+                    batch.add(entry);
+                    claimed++;
+                    if (batch.size() == perSender) {
+                        if (!submit(batch)) {
+                            return;
+                        }
+                        batch = new ArrayList<SendOutboxEntry>(perSender);
+                    }
+                }
+                if (!batch.isEmpty() && !submit(batch)) {
+                    return;
+                }
+
+                if (entries.size() < idle * perSender || claimed == 0) {
+                    backlogged = false;
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error(Constants.ERROR_DRAINING_SEND_OUTBOX + e);
+        }
+    }
+
+    private boolean submit(final List<SendOutboxEntry> batch) {
+        try {
+            senders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (batch.size() == 1) {
+                            send(batch.get(0));
+                        } else {
+                            sendBatch(batch);
+                        }
+                    } finally {
+                        idleSenders.release();
+                        if (backlogged) {
+                            wakeUp();
+                        }
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // stopped - the request is claimed again once claimTimeoutMillis has passed
+            idleSenders.release();
+            LOGGER.debug(Constants.SEND_OUTBOX_STOPPED);
+            return false;
+        }
+    }
+
+    /**
+     * Sends a claimed request and records the outcome
+     *
+     * @param entry
+     */
+    void send(SendOutboxEntry entry) {
+        EmailRequest emailRequest = readEmailRequest(entry);
+        if (emailRequest == null) {
+            return;
+        }
+
+        try {
+            nsfEmailUtil.sendEmail(emailRequest);
+        } catch (RuntimeException e) {
+            sendFailed(entry, e);
+            return;
+        }
+
+        complete(entry, SendStatus.Sent, new Date(), null);
+    }
+
+    /**
+     * Sends claimed requests together over one connection and records the outcome of each
+     *
+     * @param entries
+     */
+    void sendBatch(List<SendOutboxEntry> entries) {
+        List<SendOutboxEntry> sendable = new ArrayList<SendOutboxEntry>(entries.size());
+        List<EmailRequest> emailRequests = new ArrayList<EmailRequest>(entries.size());
+        for (SendOutboxEntry entry : entries) {
+            EmailRequest emailRequest = readEmailRequest(entry);
+            if (emailRequest != null) {
+                sendable.add(entry);
+                emailRequests.add(emailRequest);
+            }
+        }
+
+        List<Exception> failures = batchingJavaMailSender.sendBatch(emailRequests, emailSender);
+        for (int i = 0; i < sendable.size(); i++) {
+            if (failures.get(i) == null) {
+                complete(sendable.get(i), SendStatus.Sent, new Date(), null);
+            } else {
+                sendFailed(sendable.get(i), failures.get(i));
+            }
+        }
+    }
+
+    /**
+     * Reads the letter of a claimed request; a request that cannot be read is Failed
+     *
+     * @param entry
+     * @return EmailRequest or null if the request cannot be read
+     */
+    private EmailRequest readEmailRequest(SendOutboxEntry entry) {
+        try {
+            SendLetterRequest sendLetterRequest = MAPPER.readValue(entry.getSendRequest(), SendLetterRequest.class);
+            return Utils.convertLetterToEmailRequest(sendLetterRequest.getLetter(), sendLetterRequest.getSendMetaData());
+        } catch (IOException e) {
+            LOGGER.error(Constants.ERROR_SENDING_QUEUED_LETTER + entry.getTrackingID() + ": " + e);
+            complete(entry, SendStatus.Failed, new Date(), e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Queues a request whose send failed to be retried, or fails it once it has been tried maxAttempts times
+     *
+     * @param entry
+     * @param e
+     */
+    private void sendFailed(SendOutboxEntry entry, Exception e) {
+        LOGGER.error(Constants.ERROR_SENDING_QUEUED_LETTER + entry.getTrackingID() + ": " + e);
+        if (entry.getAttempts() >= maxAttempts) {
+            complete(entry, SendStatus.Failed, new Date(), e.toString());
+        } else {
+            long retryDelay = retryDelayMillis << Math.min(entry.getAttempts() - 1, 20);
+            complete(entry, SendStatus.Queued, new Date(System.currentTimeMillis() + retryDelay), e.toString());
+        }
+    }
+
+    private void complete(SendOutboxEntry entry, SendStatus sendStatus, Date nextAttemptAt, String lastError) {
+        try {
+            if (!sendOutboxDao.completeSendRequest(entry, sendStatus, nextAttemptAt, lastError, new Date())) {
+                LOGGER.warn(Constants.ERROR_UPDATING_SEND_OUTBOX + entry.getTrackingID() + " was claimed again while it was being sent");
+            }
+        } catch (RollbackException e) {
+            LOGGER.error(Constants.ERROR_UPDATING_SEND_OUTBOX + entry.getTrackingID() + ": " + e.getErrMsg());
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    public SendOutboxDao getSendOutboxDao() {
+        return sendOutboxDao;
+    }
+
+    public void setSendOutboxDao(SendOutboxDao sendOutboxDao) {
+        this.sendOutboxDao = sendOutboxDao;
+    }
+
+    public NsfEmailUtil getNsfEmailUtil() {
+        return nsfEmailUtil;
+    }
+
+    public void setNsfEmailUtil(NsfEmailUtil nsfEmailUtil) {
+        this.nsfEmailUtil = nsfEmailUtil;
+    }
+
+    public BatchingJavaMailSender getBatchingJavaMailSender() {
+        return batchingJavaMailSender;
+    }
+
+    /**
+     * The JavaMailSender of the nsfEmailUtil, if it is a BatchingJavaMailSender; without it every letter is sent
+     * on its own
+     *
+     * @param batchingJavaMailSender
+     */
+    public void setBatchingJavaMailSender(BatchingJavaMailSender batchingJavaMailSender) {
+        this.batchingJavaMailSender = batchingJavaMailSender;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Most requests a sender sends together over one connection
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Number of sender threads, i.e. the most letters sent at the same time by this node
+     *
+     * @param concurrency
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    public long getClaimTimeoutMillis() {
+        return claimTimeoutMillis;
+    }
+
+    public void setClaimTimeoutMillis(long claimTimeoutMillis) {
+        this.claimTimeoutMillis = claimTimeoutMillis;
+    }
+}
@@ -6,6 +6,7 @@ import gov.nsf.common.util.NsfValidationUtils;
 import gov.nsf.emailservice.api.model.SearchParameter;
 import gov.nsf.emailservice.common.util.Constants;
 import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.LetterStatus;
 import gov.nsf.emailservice.common.util.Utils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -16,7 +17,11 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -27,6 +32,11 @@ import java.util.List;
 public abstract class EmailServiceValidator {
     private static final Logger LOGGER = Logger.getLogger(EmailServiceValidator.class);
 
+    // GET /letter takes these query parameters as filters and page parameters, so a search parameter named
+    // like one of them could never be searched for
+    private static final List<String> RESERVED_SEARCH_PARAMETER_NAMES = Arrays.asList(Constants.APPL_ID_FIELD,
+            Constants.STATUS_FIELD, Constants.FROM_DATE_FIELD, Constants.TO_DATE_FIELD, Constants.LIMIT, Constants.AFTER);
+
     /**
      * Validate Request method to be implemented by subclasses
      *
@@ -55,6 +65,101 @@ public abstract class EmailServiceValidator {
         }
 
     }
+
+    /**
+     * Validates the findLetter page parameters - either may be null
+     *
+     * @param limit - must be an integer between 1 and Constants.MAX_PAGE_LIMIT
+     * @param after - must be a cursor returned by a previous findLetter page
+     * @throws FormValidationException
+     */
+    public void validatePageRequest(String limit, String after) throws FormValidationException {
+        List<BaseError> errors = new ArrayList<BaseError>();
+
+        Integer pageLimit = limit != null ? parseNonNegativeInt(limit) : null;
+        if( limit != null && (pageLimit == null || pageLimit < 1 || pageLimit > Constants.MAX_PAGE_LIMIT) ){
+            errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_PAGE_LIMIT));
+        }
+        if( after != null && Utils.decodeLetterCursor(after) == null ){
+            errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_PAGE_CURSOR));
+        }
+
+        if (errorOccurred(errors)) {
+            throw new FormValidationException(Constants.INVALID_FORM_DATA, errors);
+        }
+    }
+
+    /**
+     * Validates the findLetter filter parameters - any of them may be null
+     *
+     * @param applID - must be a non-negative integer
+     * @param status - must be Sent or Draft
+     * @param fromDate - must be a yyyy-MM-dd date, not after toDate
+     * @param toDate - must be a yyyy-MM-dd date
+     * @throws FormValidationException
+     */
+    public void validateFilterRequest(String applID, String status, String fromDate, String toDate) throws FormValidationException {
+        List<BaseError> errors = new ArrayList<BaseError>();
+
+        if( applID != null && parseNonNegativeInt(applID) == null ){
+            errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_APPL_ID_FILTER));
+        }
+        if( status != null && LetterStatus.forValue(status) == LetterStatus.Invalid ){
+            errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_STATUS_FILTER));
+        }
+
+        LocalDate from = parseSearchDate(fromDate);
+        if( fromDate != null && from == null ){
+            errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_DATE_FILTER + Constants.FROM_DATE_FIELD));
+        }
+        LocalDate to = parseSearchDate(toDate);
+        if( toDate != null && to == null ){
+            errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_DATE_FILTER + Constants.TO_DATE_FIELD));
+        }
+        if( from != null && to != null && from.isAfter(to) ){
+            errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_DATE_RANGE));
+        }
+
+        if (errorOccurred(errors)) {
+            throw new FormValidationException(Constants.INVALID_FORM_DATA, errors);
+        }
+    }
+
+    /**
+     * Returns the passed string of digits as an int, or null if it is not only digits or does not fit in an int
+     *
+     * @param value
+     * @return Integer
+     */
+    protected static Integer parseNonNegativeInt(String value){
+        if( !StringUtils.isNumeric(value) || value.isEmpty() ){
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the passed yyyy-MM-dd date, or null if it is null or not a valid date
+     *
+     * @param date
+     * @return LocalDate
+     */
+    private LocalDate parseSearchDate(String date){
+        if( date == null ){
+            return null;
+        }
+        try {
+            return LocalDate.parse(date, DateTimeFormatter.ofPattern(Constants.SEARCH_DATE_FORMAT));
+        } catch (DateTimeParseException e) {
+            LOGGER.error(e);
+            return null;
+        }
+    }
+
     /**
      * Check if the passed string is null or empty (i.e. "") or contains illegal characters
      *
@@ -170,6 +275,13 @@ public abstract class EmailServiceValidator {
                 break;
             }
         }
+
+        //SearchParameters must not be named like a findLetter filter or page parameter
+        for (SearchParameter parameter : searchParameters) {
+            if (RESERVED_SEARCH_PARAMETER_NAMES.contains(parameter.getKey())) {
+                errors.add(new BaseError(Constants.SEARCH_PARAMETERS_FIELD, Constants.RESERVED_SEARCH_PARAMETER_NAME + parameter.getKey()));
+            }
+        }
         return errors;
 
     }
@@ -48,6 +48,8 @@ public class EmailServiceValidatorFactory {
             validator = new GetLetterValidator();
         } else if(("deleteLetter").equals(serviceMethod)){
             validator = new GetLetterValidator();
+        } else if(("sendStoredLetter").equals(serviceMethod)){
+            validator = new GetLetterValidator();
         } else {
             return null;
         }
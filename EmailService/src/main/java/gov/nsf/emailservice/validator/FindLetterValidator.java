@@ -42,12 +42,14 @@ public class FindLetterValidator extends EmailServiceValidator {
     protected List<BaseError> validateSearchParameters(List<SearchParameter> searchParameters){
         List<BaseError> errors = new ArrayList<BaseError>();
 
-        if(searchParameters.size() != 1){
+        if(searchParameters.isEmpty()){
             errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_NUMBER_OF_SEARCH_PARAMETERS));
         } else {
-            SearchParameter searchParameter = searchParameters.get(0);
-            if (isInvalidString(searchParameter.getKey()) || isInvalidString(searchParameter.getValue())) {
-                errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_PARAMETER_KEY_OR_VALUE));
+            for(SearchParameter searchParameter : searchParameters){
+                if (isInvalidString(searchParameter.getKey()) || isInvalidString(searchParameter.getValue())) {
+                    errors.add(new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_PARAMETER_KEY_OR_VALUE));
+                    break;
+                }
             }
         }
         return errors;
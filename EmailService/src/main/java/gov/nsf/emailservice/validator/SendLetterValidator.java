@@ -1,5 +1,6 @@
 package gov.nsf.emailservice.validator;
 
+import gov.mynsf.common.email.model.SendMetaData;
 import gov.nsf.common.exception.FormValidationException;
 import gov.nsf.common.model.BaseError;
 import gov.nsf.common.util.NsfValidationUtils;
@@ -7,6 +8,7 @@ import gov.nsf.emailservice.common.util.Constants;
 import gov.nsf.emailservice.common.util.Utils;
 import gov.nsf.emailservice.api.model.Letter;
 import gov.nsf.emailservice.api.model.request.SendLetterRequest;
+import gov.nsf.emailservice.api.model.request.SendStoredLetterRequest;
 import org.apache.commons.lang.StringUtils;
 
 import java.util.ArrayList;
@@ -63,13 +65,48 @@ public class SendLetterValidator{
         //emailRequest must not be null
         if (letterRequest == null) {
             errors.add(new BaseError(Constants.LETTER_REQUEST_FIELD, Constants.MISSING_NULL_EMPTY_FIELD + Constants.LETTER_REQUEST_FIELD));
-        } else if(letterRequest.getLetter() == null){
+        } else {
+            validateLetter(errors, letterRequest.getLetter(), true);
+            if (letterRequest.getLetter() != null && letterRequest.getLetter().getEmailInfo() != null) {
+                validateSendMetaData(errors, letterRequest.getSendMetaData());
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * Checks the letter and metaData of a POST /sendletter/bulk request for validity. The letter has no to
+     * addresses of its own; each merged letter is validated with validateRequest(SendLetterRequest).
+     *
+     * @param letter
+     * @param sendMetaData
+     * @throws FormValidationException
+     */
+    public void validateBulkRequest(Letter letter, SendMetaData sendMetaData) throws FormValidationException {
+        List<BaseError> errors = new ArrayList<BaseError>();
+
+        validateLetter(errors, letter, false);
+        validateSendMetaData(errors, sendMetaData);
+
+        if (!errors.isEmpty()) {
+            throw new FormValidationException(Constants.INVALID_FORM_DATA, errors);
+        }
+    }
+
+    /**
+     * Validates the content, subject and addresses of the letter
+     *
+     * @param errors
+     * @param letter
+     * @param requireToAddresses - whether the letter must have a to address
+     */
+    private void validateLetter(List<BaseError> errors, Letter letter, boolean requireToAddresses) {
+        if (letter == null) {
             errors.add(new BaseError(Constants.LETTER_FIELD, Constants.MISSING_LETTER));
-        } else if(letterRequest.getLetter().getEmailInfo() == null ){
+        } else if (letter.getEmailInfo() == null) {
             errors.add(new BaseError(Constants.EMAIL_INFO_FIELD, Constants.MISSING_EMAIL_INFO));
         } else {
-            Letter letter = letterRequest.getLetter();
-
             //emailRequest.body must be non-null/empty
             if (isInvalidString(letter.getEltrContent())) {
                 errors.add(new BaseError(Constants.MAIL_BODY_EMAIL_FIELD, Constants.MISSING_EMAIL_BODY));
@@ -86,22 +123,52 @@ public class SendLetterValidator{
             }
 
             // We only require that a to field is present.
-            if (letter.getEmailInfo().getToAddresses().isEmpty()) {
+            if (requireToAddresses && letter.getEmailInfo().getToAddresses().isEmpty()) {
                 errors.add(new BaseError(Constants.TO_EMAIL_RECIPIENTS_FIELD, Constants.EMPTY_TO_EMAIL_RECIPIENTS));
             }
 
             validateAddress(errors, Constants.TO_EMAIL_RECIPIENTS_FIELD, letter.getEmailInfo().getToAddresses());
             validateAddress(errors, Constants.CC_EMAIL_RECIPIENTS_FIELD, letter.getEmailInfo().getCcAddresses());
             validateAddress(errors, Constants.BCC_EMAIL_RECIPIENTS_FIELD, letter.getEmailInfo().getBccAddresses());
+        }
+    }
 
-            if (letterRequest.getSendMetaData() != null) {
-                validateAddress(errors, Constants.META_DEBUG_EMAIL_RECIPIENTS_FIELD, letterRequest.getSendMetaData().getDebugRecipients());
-                validateAddress(errors, Constants.META_DEFAULT_BCC_EMAIL_RECIPIENTS_FIELD, letterRequest.getSendMetaData().getDefaultBccRecipients());
-                validateAddress(errors, Constants.META_PROD_SUPPORT_EMAIL_RECIPIENTS_FIELD, letterRequest.getSendMetaData().getProdSupportRecipients());
+    /**
+     * Checks the body of a POST /letter/{id}/send request for validity. The stored letter itself is validated
+     * with validateRequest(SendLetterRequest) once it has been read.
+     *
+     * @param sendStoredLetterRequest
+     * @throws FormValidationException
+     */
+    public void validateRequest(SendStoredLetterRequest sendStoredLetterRequest) throws FormValidationException {
+        List<BaseError> errors = new ArrayList<BaseError>();
+
+        if (sendStoredLetterRequest == null) {
+            errors.add(new BaseError(Constants.SEND_STORED_LETTER_REQUEST_FIELD, Constants.MISSING_NULL_EMPTY_FIELD + Constants.SEND_STORED_LETTER_REQUEST_FIELD));
+        } else {
+            if (isInvalidString(sendStoredLetterRequest.getEltrStatusUser())) {
+                errors.add(new BaseError(Constants.ELTR_USER_FIELD, Constants.MISSING_ELTR_USER));
             }
+            validateSendMetaData(errors, sendStoredLetterRequest.getSendMetaData());
         }
 
-        return errors;
+        if (!errors.isEmpty()) {
+            throw new FormValidationException(Constants.INVALID_FORM_DATA, errors);
+        }
+    }
+
+    /**
+     * Validates the address Lists of the SendMetaData, if any
+     *
+     * @param errors
+     * @param sendMetaData
+     */
+    private static void validateSendMetaData(List<BaseError> errors, SendMetaData sendMetaData) {
+        if (sendMetaData != null) {
+            validateAddress(errors, Constants.META_DEBUG_EMAIL_RECIPIENTS_FIELD, sendMetaData.getDebugRecipients());
+            validateAddress(errors, Constants.META_DEFAULT_BCC_EMAIL_RECIPIENTS_FIELD, sendMetaData.getDefaultBccRecipients());
+            validateAddress(errors, Constants.META_PROD_SUPPORT_EMAIL_RECIPIENTS_FIELD, sendMetaData.getProdSupportRecipients());
+        }
     }
 
     /**
@@ -0,0 +1,91 @@
+package gov.nsf.emailservice.cache;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ClusteredEhCacheCacheManager JUnit tests - two nodes sharing a LocalCacheInvalidationBus
+ *
+ */
+public class ClusteredEhCacheCacheManagerTest {
+
+    private CacheManager ehcacheA;
+    private CacheManager ehcacheB;
+    private ClusteredEhCacheCacheManager nodeA;
+    private ClusteredEhCacheCacheManager nodeB;
+
+    @Before
+    public void setUp() {
+        LocalCacheInvalidationBus bus = new LocalCacheInvalidationBus();
+        ehcacheA = createEhcache("nodeA");
+        ehcacheB = createEhcache("nodeB");
+        nodeA = createNode(ehcacheA, bus);
+        nodeB = createNode(ehcacheB, bus);
+    }
+
+    @After
+    public void tearDown() {
+        ehcacheA.shutdown();
+        ehcacheB.shutdown();
+    }
+
+    /**
+     * Tests that an eviction on one node removes only that key from the other node
+     */
+    @Test
+    public void evictRemovesKeyOnOtherNodesTest() {
+        for (CacheManager ehcache : Arrays.asList(ehcacheA, ehcacheB)) {
+            ehcache.getCache("letters").put(new Element("1", "letter 1"));
+            ehcache.getCache("letters").put(new Element("2", "letter 2"));
+            ehcache.getCache("letters").put(new Element(Arrays.asList("panel_id", "p1"), "ids"));
+        }
+
+        nodeA.getCache("letters").evict("1");
+        nodeA.getCache("letters").evict(Arrays.asList("panel_id", "p1"));
+
+        for (CacheManager ehcache : Arrays.asList(ehcacheA, ehcacheB)) {
+            assertFalse(ehcache.getCache("letters").isKeyInCache("1"));
+            assertFalse(ehcache.getCache("letters").isKeyInCache(Arrays.asList("panel_id", "p1")));
+            assertTrue(ehcache.getCache("letters").isKeyInCache("2"));
+        }
+    }
+
+    /**
+     * Tests that clearing a cache on one node clears it on the other node
+     */
+    @Test
+    public void clearRemovesAllKeysOnOtherNodesTest() {
+        ehcacheB.getCache("letters").put(new Element("1", "letter 1"));
+        ehcacheB.getCache("letters").put(new Element("2", "letter 2"));
+
+        nodeA.getCache("letters").clear();
+
+        assertEquals(0, ehcacheB.getCache("letters").getSize());
+    }
+
+    private static CacheManager createEhcache(String name) {
+        CacheManager ehcache = new CacheManager(new Configuration().name(name));
+        ehcache.addCache(new Cache(new CacheConfiguration("letters", 100)));
+        return ehcache;
+    }
+
+    private static ClusteredEhCacheCacheManager createNode(CacheManager ehcache, CacheInvalidationBus bus) {
+        ClusteredEhCacheCacheManager node = new ClusteredEhCacheCacheManager();
+        node.setCacheManager(ehcache);
+        node.setInvalidationBus(bus);
+        node.afterPropertiesSet();
+        return node;
+    }
+}
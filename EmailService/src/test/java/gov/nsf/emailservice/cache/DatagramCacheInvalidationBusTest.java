@@ -0,0 +1,126 @@
+package gov.nsf.emailservice.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DatagramCacheInvalidationBus JUnit tests - two buses on the loopback interface, signing with a shared secret
+ *
+ */
+public class DatagramCacheInvalidationBusTest {
+
+    private static final int MAC_LENGTH = 32;
+
+    private DatagramCacheInvalidationBus receivingBus;
+    private DatagramCacheInvalidationBus publishingBus;
+
+    @Before
+    public void setUp() throws Exception {
+        receivingBus = new DatagramCacheInvalidationBus();
+        receivingBus.setPeers(Collections.singletonList("127.0.0.1:47001"));
+        receivingBus.setSharedSecret("secret");
+        receivingBus.afterPropertiesSet();
+
+        publishingBus = new DatagramCacheInvalidationBus();
+        publishingBus.setPeers(Collections.singletonList("127.0.0.1:" + receivingBus.getLocalPort()));
+        publishingBus.setSharedSecret("secret");
+        publishingBus.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receivingBus.destroy();
+        publishingBus.destroy();
+    }
+
+    /**
+     * Tests that an invalidation published on one bus reaches the listeners of its peer with an equal key
+     *
+     * @throws Exception
+     */
+    @Test
+    public void publishReachesPeerTest() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        final AtomicReference<CacheInvalidation> invalidation = new AtomicReference<CacheInvalidation>();
+        receivingBus.subscribe(new CacheInvalidationListener() {
+            @Override
+            public void onInvalidation(CacheInvalidation cacheInvalidation) {
+                invalidation.set(cacheInvalidation);
+                received.countDown();
+            }
+        });
+
+        publishingBus.publish(new CacheInvalidation("node1", "searchParameterLetterIDs", Arrays.asList("panel_id", "p1")));
+
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertEquals("node1", invalidation.get().getOrigin());
+        assertEquals("searchParameterLetterIDs", invalidation.get().getCacheName());
+        assertEquals(Arrays.asList("panel_id", "p1"), invalidation.get().getKey());
+    }
+
+    /**
+     * Tests that datagrams from hosts that are not peers are dropped
+     *
+     * @throws Exception
+     */
+    @Test
+    public void nonPeerDroppedTest() throws Exception {
+        DatagramCacheInvalidationBus bus = new DatagramCacheInvalidationBus();
+        bus.setPeers(Collections.singletonList("192.0.2.1:47001"));
+        bus.afterPropertiesSet();
+        try {
+            byte[] message = "{}".getBytes(StandardCharsets.UTF_8);
+            DatagramPacket packet = new DatagramPacket(message, message.length, InetAddress.getByName("127.0.0.1"), 47001);
+            assertNull(bus.readMessage(packet));
+
+            packet.setAddress(InetAddress.getByName("192.0.2.1"));
+            assertArrayEquals(message, bus.readMessage(packet));
+        } finally {
+            bus.destroy();
+        }
+    }
+
+    /**
+     * Tests that unsigned datagrams and datagrams signed with another secret are dropped
+     *
+     * @throws Exception
+     */
+    @Test
+    public void invalidSignatureDroppedTest() throws Exception {
+        byte[] message = "{}".getBytes(StandardCharsets.UTF_8);
+        InetAddress peer = InetAddress.getByName("127.0.0.1");
+        assertArrayEquals(message, receivingBus.readMessage(new DatagramPacket(publishingBus.sign(message), MAC_LENGTH + message.length, peer, 47001)));
+        assertNull(receivingBus.readMessage(new DatagramPacket(message, message.length, peer, 47001)));
+
+        publishingBus.setSharedSecret("other secret");
+        byte[] signed = publishingBus.sign(message);
+        assertNull(receivingBus.readMessage(new DatagramPacket(signed, signed.length, peer, 47001)));
+    }
+
+    /**
+     * Tests that a peer without a port is rejected
+     *
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPeerTest() throws Exception {
+        DatagramCacheInvalidationBus bus = new DatagramCacheInvalidationBus();
+        bus.setPeers(Collections.singletonList("emailsvc-node2"));
+        bus.afterPropertiesSet();
+    }
+}
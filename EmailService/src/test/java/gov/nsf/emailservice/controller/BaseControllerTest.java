@@ -5,6 +5,7 @@ import gov.nsf.common.exception.ResourceNotFoundException;
 import gov.nsf.common.exception.RollbackException;
 import gov.nsf.emailservice.api.model.InvalidSearchParameterException;
 import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.LetterNotFoundException;
 import gov.nsf.emailservice.api.service.EmailService;
 import gov.nsf.emailservice.common.util.TestConstants;
 import gov.nsf.emailservice.common.util.TestUtils;
@@ -28,6 +29,7 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -80,6 +82,14 @@ public class BaseControllerTest {
         verify(serviceMock, times(1)).saveLetter(any(Letter.class),any(String.class));
     }
 
+    @Test
+    public void letterNotFoundExceptionTest() throws Exception {
+        String URL = TestConstants.LETTER_ENDPOINT + "/" + TestConstants.TEST_ELTR_ID;
+        when(serviceMock.getLetter(TestConstants.TEST_ELTR_ID)).thenThrow(new LetterNotFoundException("Letter ID does not exist: " + TestConstants.TEST_ELTR_ID));
+        mockMvc.perform(get(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isNotFound()).andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8));
+        verify(serviceMock, times(1)).getLetter(TestConstants.TEST_ELTR_ID);
+    }
+
     @Test
     public void rollbackExceptionTest() throws Exception {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
@@ -1,35 +1,61 @@
 package gov.nsf.emailservice.controller;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import gov.mynsf.common.email.model.SendMetaData;
 import gov.nsf.common.exception.RollbackException;
+import gov.nsf.common.model.BaseResponseWrapper;
 import gov.nsf.emailservice.api.model.*;
+import gov.nsf.emailservice.api.model.request.BulkSendRow;
+import gov.nsf.emailservice.api.model.request.SendStoredLetterRequest;
+import gov.nsf.emailservice.common.util.Constants;
 import gov.nsf.emailservice.common.util.TestConstants;
 import gov.nsf.emailservice.common.util.TestUtils;
+import gov.nsf.emailservice.common.util.Utils;
 
+import gov.nsf.emailservice.api.service.BulkSendHandler;
 import gov.nsf.emailservice.api.service.EmailService;
+import gov.nsf.emailservice.filter.CompressionFilter;
+import gov.nsf.emailservice.api.service.LetterHandler;
 import gov.nsf.emailservice.validator.CreateLetterValidator;
 import gov.nsf.emailservice.validator.EmailServiceValidatorFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.util.StreamUtils;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
 
 /**
  * EmailController JUnit tests
@@ -45,6 +71,9 @@ public class EmailControllerTest {
     @Spy
     private EmailServiceValidatorFactory factory;
 
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @Mock
     private CreateLetterValidator createLetterValidator;
 
@@ -88,6 +117,70 @@ public class EmailControllerTest {
         verify(serviceMock, times(1)).getLetter(TestConstants.TEST_ELTR_ID);
     }
 
+    /**
+     * Tests that a GET request to the getLetter route returns the letter's validators, and an empty 304
+     * response when If-None-Match or If-Modified-Since still match them
+     */
+    @Test
+    public void getLetterConditionalRequestTest() throws Exception {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        mockedLetter.setEltrStatus(LetterStatus.Draft);
+        mockedLetter.setLastUpdated(1500000000000L);
+        String URL = TestConstants.LETTER_ENDPOINT + "/" + TestConstants.TEST_ELTR_ID;
+        when(serviceMock.getLetter(TestConstants.TEST_ELTR_ID)).thenReturn(new LetterResponseWrapper(mockedLetter));
+
+        MvcResult result = mockMvc.perform(get(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andReturn();
+        String eTag = result.getResponse().getHeader("ETag");
+        assertEquals("W/\"" + TestConstants.TEST_ELTR_ID + "-" + Long.toHexString(1500000000000L) + "\"", eTag);
+        assertEquals("private, no-cache", result.getResponse().getHeader("Cache-Control"));
+        assertEquals(1500000000000L, result.getResponse().getDateHeader("Last-Modified"));
+
+        result = mockMvc.perform(get(URL).header("If-None-Match", eTag)).andExpect(status().isNotModified()).andReturn();
+        assertEquals(0, result.getResponse().getContentLength());
+        assertEquals(eTag, result.getResponse().getHeader("ETag"));
+
+        mockMvc.perform(get(URL).header("If-Modified-Since", result.getResponse().getHeader("Last-Modified"))).andExpect(status().isNotModified());
+
+        mockedLetter.setLastUpdated(1500000001000L);
+        mockMvc.perform(get(URL).header("If-None-Match", eTag)).andExpect(status().isOk()).andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8));
+    }
+
+    /**
+     * Tests that a large letter is gzip encoded by the CompressionFilter when the client accepts it
+     */
+    @Test
+    public void getLetterCompressedTest() throws Exception {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append("<p>Dear PI, your proposal has been received.</p>");
+        }
+        mockedLetter.setEltrContent(content.toString());
+        String URL = TestConstants.LETTER_ENDPOINT + "/" + TestConstants.TEST_ELTR_ID;
+        when(serviceMock.getLetter(TestConstants.TEST_ELTR_ID)).thenReturn(new LetterResponseWrapper(mockedLetter));
+        MockMvc compressingMockMvc = MockMvcBuilders.standaloneSetup(controller).addFilters(new CompressionFilter()).build();
+
+        MvcResult result = compressingMockMvc.perform(get(URL).header("Accept-Encoding", "gzip")).andExpect(status().isOk()).andReturn();
+        assertEquals("gzip", result.getResponse().getHeader("Content-Encoding"));
+        String json = StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray())), StandardCharsets.UTF_8);
+        assertEquals(content.toString(), new ObjectMapper().readTree(json).findValue("eltrContent").asText());
+    }
+
+    /**
+     * Tests that a Sent letter is returned as immutable
+     */
+    @Test
+    public void getLetterSentImmutableTest() throws Exception {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        mockedLetter.setEltrStatus(LetterStatus.Sent);
+        mockedLetter.setLastUpdated(1500000000000L);
+        String URL = TestConstants.LETTER_ENDPOINT + "/" + TestConstants.TEST_ELTR_ID;
+        when(serviceMock.getLetter(TestConstants.TEST_ELTR_ID)).thenReturn(new LetterResponseWrapper(mockedLetter));
+
+        MvcResult result = mockMvc.perform(get(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andReturn();
+        assertEquals("private, max-age=31536000, immutable", result.getResponse().getHeader("Cache-Control"));
+    }
+
     /**
      * Tests that a GET request to the saveLetter route returns a 200 OK response
      * <p>
@@ -199,6 +292,128 @@ public class EmailControllerTest {
         verify(serviceMock, times(1)).findLetter(eq(searchParameter));
     }
 
+    /**
+     * Tests that a GET request to the findLetter route with limit and after returns one page
+     * <p>
+     * Mocks the EmailService.findLetter to return a page of Letter objects
+     */
+    @Test
+    public void findLetterPageRequestHappyPathTest() throws Exception {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "10001");
+        String after = Utils.encodeLetterCursor("5");
+        String URL = TestConstants.LETTER_ENDPOINT + "?Award_Id=10001&limit=20&after=" + after;
+        when(serviceMock.findLetter(any(SearchParameter.class), anyInt(), any(String.class))).thenReturn(new LetterListResponseWrapper(Collections.singletonList(mockedLetter), Utils.encodeLetterCursor("6")));
+        mockMvc.perform(get(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8));
+        verify(serviceMock, times(1)).findLetter(eq(searchParameter), eq(20), eq(after));
+        verify(serviceMock, never()).findLetter(any(SearchParameter.class));
+    }
+
+    /**
+     * Tests that a GET request to the findLetter route with several search parameters and filters
+     * finds the letters matching all of them
+     * <p>
+     * Mocks the EmailService.findLetter to return a Letter object
+     */
+    @Test
+    public void findLetterSearchCriteriaRequestHappyPathTest() throws Exception {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        String URL = TestConstants.LETTER_ENDPOINT + "?Award_Id=10001&Panel_Id=p1&applID=42&status=Draft&fromDate=2017-01-01&toDate=2017-01-31";
+        when(serviceMock.findLetter(any(LetterSearchCriteria.class))).thenReturn(new LetterListResponseWrapper(Collections.singletonList(mockedLetter)));
+        mockMvc.perform(get(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8));
+
+        ArgumentCaptor<LetterSearchCriteria> criteria = ArgumentCaptor.forClass(LetterSearchCriteria.class);
+        verify(serviceMock, times(1)).findLetter(criteria.capture());
+        assertEquals(2, criteria.getValue().getSearchParameters().size());
+        assertTrue(criteria.getValue().getSearchParameters().containsAll(Arrays.asList(new SearchParameter("Award_Id", "10001"), new SearchParameter("Panel_Id", "p1"))));
+        assertEquals("42", criteria.getValue().getApplID());
+        assertEquals(LetterStatus.Draft, criteria.getValue().getStatus());
+        assertEquals("2017-01-01", criteria.getValue().getFromDate());
+        assertEquals("2017-01-31", criteria.getValue().getToDate());
+        verify(serviceMock, never()).findLetter(any(SearchParameter.class));
+    }
+
+    /**
+     * Tests that a GET request to the findLetter route with an invalid status filter returns a 400 response
+     */
+    @Test
+    public void findLetterInvalidFilterRequestTest() throws Exception {
+        String URL = TestConstants.LETTER_ENDPOINT + "?Award_Id=10001&status=Pending";
+        mockMvc.perform(get(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isBadRequest());
+        verify(serviceMock, never()).findLetter(any(LetterSearchCriteria.class));
+        verify(serviceMock, never()).findLetter(any(SearchParameter.class));
+    }
+
+    /**
+     * Tests that a GET request to the findLetter route with an invalid limit returns a 400 response
+     */
+    @Test
+    public void findLetterPageRequestInvalidLimitTest() throws Exception {
+        String URL = TestConstants.LETTER_ENDPOINT + "?Award_Id=10001&limit=0";
+        mockMvc.perform(get(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isBadRequest());
+        mockMvc.perform(get(TestConstants.LETTER_ENDPOINT + "?Award_Id=10001&limit=99999999999").contentType(MediaType.APPLICATION_JSON)).andExpect(status().isBadRequest());
+        verify(serviceMock, never()).findLetter(any(SearchParameter.class), anyInt(), any(String.class));
+    }
+
+    /**
+     * Tests that a GET request to the findLetter route with Accept: application/x-ndjson streams
+     * one letter per line
+     * <p>
+     * Mocks the EmailService.findLetter to hand two Letter objects to the LetterHandler
+     */
+    @Test
+    public void findLetterStreamRequestHappyPathTest() throws Exception {
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "10001");
+        String URL = TestConstants.LETTER_ENDPOINT + "?Award_Id=10001";
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                LetterHandler letterHandler = (LetterHandler) invocation.getArguments()[1];
+                letterHandler.handleLetter(TestUtils.getMockLetter("5"));
+                letterHandler.handleLetter(TestUtils.getMockLetter("6"));
+                return null;
+            }
+        }).when(serviceMock).findLetter(any(SearchParameter.class), any(LetterHandler.class));
+
+        MvcResult result = mockMvc.perform(get(URL).accept("application/x-ndjson")).andExpect(status().isOk()).andReturn();
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("5", new ObjectMapper().readValue(lines[0], Letter.class).getEltrID());
+        assertEquals("6", new ObjectMapper().readValue(lines[1], Letter.class).getEltrID());
+        verify(serviceMock, times(1)).findLetter(eq(searchParameter), any(LetterHandler.class));
+        verify(serviceMock, never()).findLetter(any(SearchParameter.class));
+    }
+
+    /**
+     * Tests that an error after the first streamed letter ends the NDJSON stream with a baseResponseWrapper
+     * line carrying the error, and that an error before it returns the error line with a 500 response
+     */
+    @Test
+    public void findLetterStreamRequestErrorTest() throws Exception {
+        String URL = TestConstants.LETTER_ENDPOINT + "?Award_Id=10001";
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                LetterHandler letterHandler = (LetterHandler) invocation.getArguments()[1];
+                letterHandler.handleLetter(TestUtils.getMockLetter("5"));
+                throw new RollbackException("Connection reset");
+            }
+        }).doThrow(new RollbackException("Connection refused")).when(serviceMock).findLetter(any(SearchParameter.class), any(LetterHandler.class));
+
+        MvcResult result = mockMvc.perform(get(URL).accept("application/x-ndjson")).andExpect(status().isOk()).andReturn();
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("5", new ObjectMapper().readValue(lines[0], Letter.class).getEltrID());
+        JsonNode error = new ObjectMapper().readTree(lines[1]).get(Constants.BASE_RESPONSE_WRAPPER);
+        assertNotNull(error);
+        assertTrue(error.toString().contains("Connection reset"));
+
+        result = mockMvc.perform(get(URL).accept("application/x-ndjson")).andExpect(status().isInternalServerError()).andReturn();
+        error = new ObjectMapper().readTree(result.getResponse().getContentAsString()).get(Constants.BASE_RESPONSE_WRAPPER);
+        assertNotNull(error);
+        assertTrue(error.toString().contains("Connection refused"));
+    }
+
     /**
      * Tests that a GET request to the findLetter route returns a 500 response
      * when a Service error is encountered
@@ -225,9 +440,22 @@ public class EmailControllerTest {
     public void deleteLetterRequestHappyPathTest() throws Exception {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
         String URL = TestConstants.LETTER_ENDPOINT + "/" + TestConstants.TEST_ELTR_ID;
-        when(serviceMock.deleteLetter(TestConstants.TEST_ELTR_ID)).thenReturn(new LetterResponseWrapper(mockedLetter));
+        when(serviceMock.deleteLetter(TestConstants.TEST_ELTR_ID, true)).thenReturn(new LetterResponseWrapper(mockedLetter));
         mockMvc.perform(delete(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8));
-        verify(serviceMock, times(1)).deleteLetter(TestConstants.TEST_ELTR_ID);
+        verify(serviceMock, times(1)).deleteLetter(TestConstants.TEST_ELTR_ID, true);
+    }
+
+    /**
+     * Tests that a DELETE request with returnDeleted=false asks the service not to read the deleted letter
+     * <p>
+     * Mocks the EmailService.deleteLetter to return no Letter object
+     */
+    @Test
+    public void deleteLetterRequestReturnDeletedTest() throws Exception {
+        String URL = TestConstants.LETTER_ENDPOINT + "/" + TestConstants.TEST_ELTR_ID + "?returnDeleted=false";
+        when(serviceMock.deleteLetter(TestConstants.TEST_ELTR_ID, false)).thenReturn(new LetterResponseWrapper(null));
+        mockMvc.perform(delete(URL).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8));
+        verify(serviceMock, times(1)).deleteLetter(TestConstants.TEST_ELTR_ID, false);
     }
 
     /**
@@ -239,8 +467,215 @@ public class EmailControllerTest {
     @Test
     public void deleteLetterRequestServerErrorTest() throws Exception {
         String URL = TestConstants.LETTER_ENDPOINT + "/" + TestConstants.TEST_ELTR_ID;
-        when(serviceMock.deleteLetter(TestConstants.TEST_ELTR_ID)).thenThrow(new RollbackException("Some service exception occured"));
+        when(serviceMock.deleteLetter(TestConstants.TEST_ELTR_ID, true)).thenThrow(new RollbackException("Some service exception occured"));
         MvcResult result = mockMvc.perform(delete(URL).contentType(MediaType.APPLICATION_JSON)).andReturn();
-        verify(serviceMock, times(1)).deleteLetter(TestConstants.TEST_ELTR_ID);
+        verify(serviceMock, times(1)).deleteLetter(TestConstants.TEST_ELTR_ID, true);
+    }
+
+    /**
+     * Tests that a POST request to the sendletter route answers 202 Accepted with the tracking ID and its status
+     * URL when the service queues the letter in the send outbox
+     * <p>
+     * Mocks the EmailService.sendLetter to return a SendLetterResponseWrapper
+     */
+    @Test
+    public void sendLetterQueuedTest() throws Exception {
+        String body = new ObjectMapper().writeValueAsString(TestUtils.convertEmailRequestToSendLetterRequest(TestUtils.getMockEmailRequest()));
+        when(serviceMock.sendLetter(any(Letter.class), any(SendMetaData.class))).thenReturn(new SendLetterResponseWrapper("42", SendStatus.Queued));
+
+        MvcResult result = mockMvc.perform(post("/sendletter").content(body).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isAccepted()).andReturn();
+        assertEquals("/sendletter/42", result.getResponse().getHeader("Location"));
+        assertTrue(result.getResponse().getContentAsString().contains("\"sendLetterResponseWrapper\":{\"trackingID\":\"42\",\"sendStatus\":\"Queued\""));
+    }
+
+    /**
+     * Tests that a GET request to the sendletter status route returns the status of the send request, and
+     * 404 for an unknown tracking ID
+     */
+    @Test
+    public void getSendStatusTest() throws Exception {
+        SendLetterResponseWrapper wrapper = new SendLetterResponseWrapper("42", SendStatus.Sent);
+        wrapper.setAttempts(1);
+        when(serviceMock.getSendStatus("42")).thenReturn(wrapper);
+        when(serviceMock.getSendStatus("43")).thenThrow(new SendRequestNotFoundException("Tracking ID does not exist: 43"));
+
+        MvcResult result = mockMvc.perform(get("/sendletter/42")).andExpect(status().isOk()).andReturn();
+        assertTrue(result.getResponse().getContentAsString().contains("\"sendStatus\":\"Sent\",\"attempts\":1"));
+        mockMvc.perform(get("/sendletter/43")).andExpect(status().isNotFound());
+    }
+
+    /**
+     * Tests that a POST request to the letter send route sends the stored letter, answers 202 with the status
+     * URL when it is queued, 400 for a letter that has already been sent and for a missing eltrStatusUser
+     */
+    @Test
+    public void sendStoredLetterTest() throws Exception {
+        String body = new ObjectMapper().writeValueAsString(new SendStoredLetterRequest(new SendMetaData(), "sender"));
+        when(serviceMock.sendStoredLetter(eq("1"), any(SendMetaData.class), eq("sender"))).thenReturn(new BaseResponseWrapper());
+        when(serviceMock.sendStoredLetter(eq("2"), any(SendMetaData.class), eq("sender"))).thenReturn(new SendLetterResponseWrapper("42", SendStatus.Queued));
+        when(serviceMock.sendStoredLetter(eq("137"), any(SendMetaData.class), eq("sender"))).thenThrow(new LetterAlreadySentException(Constants.ERROR_LETTER_ALREADY_SENT_SEND));
+
+        mockMvc.perform(post("/letter/1/send").content(body).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk());
+
+        MvcResult result = mockMvc.perform(post("/auth/letter/2/send").content(body).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isAccepted()).andReturn();
+        assertEquals("/auth/sendletter/42", result.getResponse().getHeader("Location"));
+
+        mockMvc.perform(post("/letter/137/send").content(body).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isBadRequest());
+
+        String noUserBody = new ObjectMapper().writeValueAsString(new SendStoredLetterRequest(new SendMetaData(), null));
+        mockMvc.perform(post("/letter/1/send").content(noUserBody).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isBadRequest());
+        verify(serviceMock, times(1)).sendStoredLetter(eq("1"), any(SendMetaData.class), eq("sender"));
+    }
+
+    /**
+     * Tests that a POST request to the bulk send route hands the rows to the service as they are read and
+     * streams one result per row, followed by a result with the read error when a row cannot be read
+     * <p>
+     * Mocks the EmailService.sendBulkLetter to report every row it reads
+     */
+    @Test
+    public void sendBulkLetterTest() throws Exception {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                Iterator<BulkSendRow> rows = (Iterator<BulkSendRow>) invocation.getArguments()[2];
+                BulkSendHandler handler = (BulkSendHandler) invocation.getArguments()[3];
+                int row = 0;
+                while (rows.hasNext()) {
+                    BulkSendRow bulkSendRow = rows.next();
+                    BulkSendResult result = new BulkSendResult(++row);
+                    result.setSendStatus(SendStatus.Sent);
+                    result.setTrackingID(bulkSendRow.getVariables().get("name"));
+                    result.setProcessed(row);
+                    handler.handleResult(result);
+                }
+                return null;
+            }
+        }).when(serviceMock).sendBulkLetter(any(Letter.class), any(SendMetaData.class), any(Iterator.class), any(BulkSendHandler.class));
+
+        ObjectMapper mapper = new ObjectMapper();
+        String letter = mapper.writeValueAsString(TestUtils.getMockLetter(null));
+        String rows = mapper.writeValueAsString(Arrays.asList(
+                new BulkSendRow(Collections.singletonList("a@nsf.gov"), Collections.singletonMap("name", "A")),
+                new BulkSendRow(Collections.singletonList("b@nsf.gov"), Collections.singletonMap("name", "B"))));
+        String body = "{\"letter\":" + letter + ",\"sendMetaData\":{},\"rows\":" + rows + "}";
+
+        MvcResult result = mockMvc.perform(post("/sendletter/bulk").content(body).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andReturn();
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("A", mapper.readValue(lines[0], BulkSendResult.class).getTrackingID());
+        assertEquals(2, mapper.readValue(lines[1], BulkSendResult.class).getProcessed());
+
+        // the row after the first cannot be read
+        String truncated = "{\"letter\":" + letter + ",\"rows\":[{\"toAddresses\":[\"a@nsf.gov\"],\"variables\":{\"name\":\"A\"}},{\"toAddresses\":42x}]}";
+        result = mockMvc.perform(post("/auth/sendletter/bulk").content(truncated).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andReturn();
+        lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        BulkSendResult readError = mapper.readValue(lines[1], BulkSendResult.class);
+        assertEquals(2, readError.getRow());
+        assertEquals(1, readError.getErrors().size());
+        assertNull(readError.getSendStatus());
+
+        // rows must follow the letter
+        String rowsFirst = "{\"rows\":" + rows + ",\"letter\":" + letter + "}";
+        result = mockMvc.perform(post("/sendletter/bulk").content(rowsFirst).contentType(MediaType.APPLICATION_JSON).accept("application/x-ndjson", MediaType.APPLICATION_JSON_VALUE)).andExpect(status().isBadRequest()).andReturn();
+        assertTrue(result.getResponse().getContentAsString().contains(Constants.BULK_SEND_ROWS_BEFORE_LETTER));
+        verify(serviceMock, times(2)).sendBulkLetter(any(Letter.class), any(SendMetaData.class), any(Iterator.class), any(BulkSendHandler.class));
+    }
+
+    /**
+     * Tests that the result of a bulk send row is written as the row finishes when the client sends
+     * X-Stream-Results: true, and held back until the last row has been read otherwise
+     * <p>
+     * Mocks the EmailService.sendBulkLetter to report the first row before it reads the second
+     */
+    @Test
+    public void sendBulkLetterStreamResultsTest() throws Exception {
+        final MockHttpServletResponse[] response = new MockHttpServletResponse[1];
+        final String[] writtenBeforeLastRow = new String[1];
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                Iterator<BulkSendRow> rows = (Iterator<BulkSendRow>) invocation.getArguments()[2];
+                BulkSendHandler handler = (BulkSendHandler) invocation.getArguments()[3];
+                int row = 0;
+                while (rows.hasNext()) {
+                    rows.next();
+                    handler.handleResult(new BulkSendResult(++row));
+                    if (row == 1) {
+                        writtenBeforeLastRow[0] = response[0].getContentAsString();
+                    }
+                }
+                return null;
+            }
+        }).when(serviceMock).sendBulkLetter(any(Letter.class), any(SendMetaData.class), any(Iterator.class), any(BulkSendHandler.class));
+
+        String rows = new ObjectMapper().writeValueAsString(Arrays.asList(
+                new BulkSendRow(Collections.singletonList("a@nsf.gov"), Collections.singletonMap("name", "A")),
+                new BulkSendRow(Collections.singletonList("b@nsf.gov"), Collections.singletonMap("name", "B"))));
+
+        response[0] = new MockHttpServletResponse();
+        MockHttpServletRequest request = getBulkSendRequest(rows);
+        request.addHeader(Constants.BULK_SEND_STREAM_RESULTS_HEADER, "true");
+        controller.sendBulkLetter(request, response[0]);
+        assertEquals(1, writtenBeforeLastRow[0].split("\n").length);
+        assertEquals(2, response[0].getContentAsString().split("\n").length);
+
+        response[0] = new MockHttpServletResponse();
+        controller.sendBulkLetter(getBulkSendRequest(rows), response[0]);
+        assertEquals("", writtenBeforeLastRow[0]);
+        assertEquals(2, response[0].getContentAsString().split("\n").length);
+    }
+
+    /**
+     * Tests that the held back results of a large bulk send are written out in order once they no longer fit
+     * in memory
+     * <p>
+     * Mocks the EmailService.sendBulkLetter to report many results before the last row is read
+     */
+    @Test
+    public void sendBulkLetterHeldResultsTest() throws Exception {
+        final int resultCount = 2 * Constants.MAX_HELD_BULK_SEND_RESULTS_IN_MEMORY_BYTES / 100;
+        final String trackingID = String.format("%0100d", 0);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                Iterator<BulkSendRow> rows = (Iterator<BulkSendRow>) invocation.getArguments()[2];
+                BulkSendHandler handler = (BulkSendHandler) invocation.getArguments()[3];
+                rows.next();
+                for (int row = 1; row <= resultCount; row++) {
+                    BulkSendResult result = new BulkSendResult(row);
+                    result.setTrackingID(trackingID);
+                    handler.handleResult(result);
+                }
+                while (rows.hasNext()) {
+                    rows.next();
+                }
+                return null;
+            }
+        }).when(serviceMock).sendBulkLetter(any(Letter.class), any(SendMetaData.class), any(Iterator.class), any(BulkSendHandler.class));
+
+        String rows = new ObjectMapper().writeValueAsString(Arrays.asList(
+                new BulkSendRow(Collections.singletonList("a@nsf.gov"), Collections.singletonMap("name", "A")),
+                new BulkSendRow(Collections.singletonList("b@nsf.gov"), Collections.singletonMap("name", "B"))));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.sendBulkLetter(getBulkSendRequest(rows), response);
+
+        String[] lines = response.getContentAsString().split("\n");
+        assertEquals(resultCount, lines.length);
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals(1, mapper.readValue(lines[0], BulkSendResult.class).getRow());
+        assertEquals(resultCount, mapper.readValue(lines[resultCount - 1], BulkSendResult.class).getRow());
+    }
+
+    private static MockHttpServletRequest getBulkSendRequest(String rows) throws Exception {
+        String letter = new ObjectMapper().writeValueAsString(TestUtils.getMockLetter(null));
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/sendletter/bulk");
+        request.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        request.setContent(("{\"letter\":" + letter + ",\"sendMetaData\":{},\"rows\":" + rows + "}").getBytes(StandardCharsets.UTF_8));
+        return request;
     }
 }
@@ -0,0 +1,103 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.emailservice.api.model.EmailInfo;
+import gov.nsf.emailservice.common.util.Constants;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares per-row and batched mail recipient inserts against the embedded H2 DB
+ *
+ * Excluded from the CI build by the *_NoCI* surefire exclude - run manually with:
+ * mvn test -Dtest=EmailDaoBatchInsertBenchmark_NoCI
+ */
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"Embedded-EmailDaoTest-Context.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class EmailDaoBatchInsertBenchmark_NoCI {
+
+    @Autowired
+    private EmailDaoImpl emailDao;
+
+    private static final String ELTR_ID = "3";
+    private static final int RECIPIENT_COUNT = 1000;
+    private static final int ITERATIONS = 10;
+
+    private static final String COUNT_MAIL_RECIPIENTS_QUERY = "select count(*) from dbo.ntfy_ltr_recp where ntfy_ltr_id = :" + Constants.ELTR_ID;
+    private static final String DELETE_MAIL_RECIPIENTS_QUERY = "delete from dbo.ntfy_ltr_recp where ntfy_ltr_id = :" + Constants.ELTR_ID;
+
+    @Test
+    public void insertMailRecipientsBenchmark() throws Exception {
+        EmailInfo emailInfo = getEmailInfo(RECIPIENT_COUNT);
+
+        // warm up both code paths before timing
+        insertPerRow(emailInfo);
+        insertBatched(emailInfo);
+
+        long perRowNanos = 0;
+        long batchedNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            perRowNanos += insertPerRow(emailInfo);
+            batchedNanos += insertBatched(emailInfo);
+        }
+
+        System.out.println("Inserted " + (RECIPIENT_COUNT + 1) + " mail recipients " + ITERATIONS + " times");
+        System.out.println("  per-row inserts: " + (perRowNanos / ITERATIONS / 1000000.0) + " ms/letter");
+        System.out.println("  batched inserts: " + (batchedNanos / ITERATIONS / 1000000.0) + " ms/letter (batchInsertSize=" + emailDao.getBatchInsertSize() + ")");
+    }
+
+    private long insertPerRow(EmailInfo emailInfo) throws Exception {
+        clearMailRecipients();
+        long start = System.nanoTime();
+
+        emailDao.insertMailRecipient(ELTR_ID, emailInfo.getFromAddress(), Constants.FROM);
+        for (String address : emailInfo.getBccAddresses()) {
+            emailDao.insertMailRecipient(ELTR_ID, address, Constants.BCC);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        assertEquals(RECIPIENT_COUNT + 1, countMailRecipients());
+        return elapsed;
+    }
+
+    private long insertBatched(EmailInfo emailInfo) throws Exception {
+        clearMailRecipients();
+        long start = System.nanoTime();
+
+        emailDao.insertMailRecipients(emailInfo, ELTR_ID);
+
+        long elapsed = System.nanoTime() - start;
+        assertEquals(RECIPIENT_COUNT + 1, countMailRecipients());
+        return elapsed;
+    }
+
+    private void clearMailRecipients() {
+        emailDao.getJdbcTemplate().update(DELETE_MAIL_RECIPIENTS_QUERY, Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(ELTR_ID)));
+    }
+
+    private int countMailRecipients() {
+        return emailDao.getJdbcTemplate().queryForObject(COUNT_MAIL_RECIPIENTS_QUERY, Collections.singletonMap(Constants.ELTR_ID, Integer.parseInt(ELTR_ID)), Integer.class);
+    }
+
+    private static EmailInfo getEmailInfo(int bccCount) {
+        EmailInfo emailInfo = new EmailInfo();
+        emailInfo.setFromAddress("benchmark-from@nsf.gov");
+        emailInfo.setToAddresses(new ArrayList<String>());
+        emailInfo.setCcAddresses(new ArrayList<String>());
+        emailInfo.setBccAddresses(new ArrayList<String>());
+        for (int i = 0; i < bccCount; i++) {
+            emailInfo.getBccAddresses().add("benchmark-" + i + "@nsf.gov");
+        }
+        return emailInfo;
+    }
+}
@@ -3,8 +3,19 @@ package gov.nsf.emailservice.dao;
 import gov.nsf.common.exception.ResourceNotFoundException;
 import gov.nsf.common.exception.RollbackException;
 import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.LetterAlreadySentException;
+import gov.nsf.emailservice.api.model.LetterNotFoundException;
+import gov.nsf.emailservice.api.model.LetterSearchCriteria;
+import gov.nsf.emailservice.api.model.LetterStatus;
 import gov.nsf.emailservice.api.model.SearchParameter;
+import gov.nsf.emailservice.api.service.LetterHandler;
+import gov.nsf.emailservice.cache.CacheInvalidation;
+import gov.nsf.emailservice.cache.CacheInvalidationListener;
+import gov.nsf.emailservice.cache.LocalCacheInvalidationBus;
 import gov.nsf.emailservice.common.util.TestUtils;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -15,10 +26,18 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
@@ -37,6 +56,12 @@ public class EmailDaoIntgTest {
     @Autowired
     private EmailDaoImpl emailDao;
 
+    @Autowired
+    private CacheManager ehcache;
+
+    @Autowired
+    private LocalCacheInvalidationBus cacheInvalidationBus;
+
 
     @Before
     public void checkFieldsNotNull() {
@@ -51,15 +76,273 @@ public class EmailDaoIntgTest {
 
     @Test
     public void getSearchParameterNamesCacheTest() throws Exception{
+        NamedParameterJdbcTemplate originalTemplate = emailDao.getJdbcTemplate();
+        NamedParameterJdbcTemplate mockTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        emailDao.setJdbcTemplate(mockTemplate);
+
+        try {
+            when(mockTemplate.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(new ArrayList<SearchParameterLookup.Definition>());
+            emailDao.reloadSearchParameters();
+            emailDao.getSearchParameterNames();
+            emailDao.getSearchParameterNames();
+            emailDao.getSearchParameterNames();
+
+            verify(mockTemplate, times(1)).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+        } finally {
+            emailDao.setJdbcTemplate(originalTemplate);
+            emailDao.reloadSearchParameters();
+        }
+    }
+
+    @Test
+    public void getSearchParameterIDsCacheTest() throws Exception{
+        NamedParameterJdbcTemplate originalTemplate = emailDao.getJdbcTemplate();
+        NamedParameterJdbcTemplate mockTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        emailDao.setJdbcTemplate(mockTemplate);
+
+        try {
+            when(mockTemplate.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(new ArrayList<SearchParameterLookup.Definition>());
+            emailDao.reloadSearchParameters();
+            emailDao.getSearchParameterIDs();
+            emailDao.getSearchParameterIDs();
+            emailDao.getSearchParameterIDs();
+
+            verify(mockTemplate, times(1)).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+        } finally {
+            emailDao.setJdbcTemplate(originalTemplate);
+            emailDao.reloadSearchParameters();
+        }
+    }
+
+    /**
+     * Tests that only the search parameters effective now in the lkup table are returned
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getSearchParameterIDsEffectiveDatingTest() throws Exception{
+        emailDao.reloadSearchParameters();
+
+        Map<String, Integer> expectedIDs = new HashMap<String, Integer>();
+        expectedIDs.put("award_id", 1);
+        expectedIDs.put("panel_id", 2);
+        assertEquals(expectedIDs, emailDao.getSearchParameterIDs());
+        assertEquals(expectedIDs.keySet(), emailDao.getSearchParameterNames());
+    }
+
+    /**
+     * Tests that the dao.getLetter reads a letter from the letters cache after the first call, hands out a new
+     * Letter on every read (whatever the leading zeros of the eltrID), expires drafts but not Sent letters, and
+     * that updateLetter evicts the letter
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getLetterCacheTest() throws Exception {
+        Ehcache letters = ehcache.getEhcache("letters");
+        Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        String eltrID = savedLetter.getEltrID();
+        long hits = letters.getStatistics().cacheHitCount();
+        long misses = letters.getStatistics().cacheMissCount();
+
+        Letter firstLetter = emailDao.getLetter(eltrID);
+        assertNotNull(firstLetter.getLastUpdated());
+        assertEquals(savedLetter.getLastUpdated(), firstLetter.getLastUpdated());
+        firstLetter.setEltrContent("Changed by the caller");
+        Letter secondLetter = emailDao.getLetter(eltrID);
+        assertEquals(misses + 1, letters.getStatistics().cacheMissCount());
+        assertEquals(hits + 1, letters.getStatistics().cacheHitCount());
+        assertNotSame(firstLetter, secondLetter);
+        assertEquals(savedLetter.getEltrContent(), secondLetter.getEltrContent());
+        assertEquals(eltrID, emailDao.getLetter("0" + eltrID).getEltrID());
+        assertEquals(misses + 1, letters.getStatistics().cacheMissCount());
+        assertEquals(hits + 2, letters.getStatistics().cacheHitCount());
+
+        Element draftElement = letters.getQuiet(eltrID);
+        assertFalse(draftElement.isEternal());
+        assertEquals(60, draftElement.getTimeToLive());
+
+        secondLetter.setEltrContent("This is the new eltrContent");
+        secondLetter.setEltrStatus(LetterStatus.Sent);
+        emailDao.updateLetter(secondLetter);
+        assertFalse(letters.isKeyInCache(eltrID));
+
+        Letter sentLetter = emailDao.getLetter(eltrID);
+        assertEquals("This is the new eltrContent", sentLetter.getEltrContent());
+        assertTrue(sentLetter.getLastUpdated() >= secondLetter.getLastUpdated());
+        assertEquals(LetterStatus.Sent, sentLetter.getEltrStatus());
+        assertTrue(letters.getQuiet(eltrID).isEternal());
+    }
+
+    /**
+     * Tests that a deleted or non-existing eltrID is answered from the missingLetters cache without reaching
+     * the DB, and that saving a letter with a cached eltrID evicts it
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getLetterMissingCacheTest() throws Exception {
+        Ehcache missingLetters = ehcache.getEhcache("missingLetters");
+        Letter deletedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        emailDao.deleteLetter(deletedLetter.getEltrID());
+        assertTrue(missingLetters.isKeyInCache(deletedLetter.getEltrID()));
+
+        NamedParameterJdbcTemplate originalTemplate = emailDao.getJdbcTemplate();
+        NamedParameterJdbcTemplate mockTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
+        emailDao.setJdbcTemplate(mockTemplate);
+        try {
+            emailDao.getLetter(deletedLetter.getEltrID());
+            fail("Expected LetterNotFoundException");
+        } catch (LetterNotFoundException e) {
+            assertEquals(0, e.getStackTrace().length);
+            verifyZeroInteractions(mockTemplate);
+        } finally {
+            emailDao.setJdbcTemplate(originalTemplate);
+        }
+
+        String nextEltrID = String.valueOf(Integer.parseInt(deletedLetter.getEltrID()) + 1);
+        missingLetters.put(new Element(nextEltrID, Boolean.TRUE));
+        Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        assertEquals(nextEltrID, savedLetter.getEltrID());
+        assertFalse(missingLetters.isKeyInCache(nextEltrID));
+        assertEquals(nextEltrID, emailDao.getLetter(nextEltrID).getEltrID());
+    }
+
+    /**
+     * Tests that letters and missing eltrIDs read in a transaction served by a replica are not cached
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getLetterReplicaReadNotCachedTest() throws Exception {
+        Ehcache letters = ehcache.getEhcache("letters");
+        Ehcache missingLetters = ehcache.getEhcache("missingLetters");
+        Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        String missingEltrID = String.valueOf(Integer.parseInt(savedLetter.getEltrID()) + 1000);
+
+        ReplicaRoutingDataSource routingDataSource = new ReplicaRoutingDataSource();
+        routingDataSource.setPrimaryDataSource(emailDao.getDataSource());
+        routingDataSource.setReplicaDataSources(Collections.singletonList(emailDao.getDataSource()));
+        routingDataSource.setReplicationLagQuery(null);
+        routingDataSource.afterPropertiesSet();
+
+        TransactionSynchronizationManager.initSynchronization();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        try {
+            routingDataSource.getConnection().close();
+            assertTrue(ReplicaRoutingDataSource.isReplicaRead());
+
+            assertEquals(savedLetter.getEltrID(), emailDao.getLetter(savedLetter.getEltrID()).getEltrID());
+            assertFalse(letters.isKeyInCache(savedLetter.getEltrID()));
+            try {
+                emailDao.getLetter(missingEltrID);
+                fail("Expected LetterNotFoundException");
+            } catch (LetterNotFoundException e) {
+                assertFalse(missingLetters.isKeyInCache(missingEltrID));
+            }
+        } finally {
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+            TransactionSynchronizationManager.clearSynchronization();
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+            routingDataSource.destroy();
+        }
+        assertFalse(ReplicaRoutingDataSource.isReplicaRead());
+
+        emailDao.getLetter(savedLetter.getEltrID());
+        assertTrue(letters.isKeyInCache(savedLetter.getEltrID()));
+    }
+
+    /**
+     * Tests that a repeated dao.findLetter does not reach the DB, and that storeSearchParameters and
+     * deleteLetter evict the cached letter IDs of the affected key-value pairs
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterCacheTest() throws Exception {
+        Set<String> validSearchParameters = Collections.singleton("panel_id");
+        SearchParameter searchParameter = new SearchParameter("panel_id", "cache-test");
+        Letter firstLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        firstLetter.setSearchParameters(Collections.singletonList(new SearchParameter("panel_id", "cache-test")));
+        emailDao.storeSearchParameters(firstLetter, Collections.singletonMap("panel_id", 2));
+        assertEquals(1, emailDao.findLetter(searchParameter, validSearchParameters).size());
+
+        NamedParameterJdbcTemplate originalTemplate = emailDao.getJdbcTemplate();
         NamedParameterJdbcTemplate mockTemplate = Mockito.mock(NamedParameterJdbcTemplate.class);
         emailDao.setJdbcTemplate(mockTemplate);
+        try {
+            List<Letter> letters = emailDao.findLetter(searchParameter, validSearchParameters);
+            assertEquals(1, letters.size());
+            assertEquals(firstLetter.getEltrID(), letters.get(0).getEltrID());
+            verifyZeroInteractions(mockTemplate);
+        } finally {
+            emailDao.setJdbcTemplate(originalTemplate);
+        }
+
+        Letter secondLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        secondLetter.setSearchParameters(Collections.singletonList(new SearchParameter("panel_id", "cache-test")));
+        emailDao.storeSearchParameters(secondLetter, Collections.singletonMap("panel_id", 2));
+        assertEquals(2, emailDao.findLetter(searchParameter, validSearchParameters).size());
 
-        when(mockTemplate.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(new HashSet<String>());
-        emailDao.getSearchParameterNames();
-        emailDao.getSearchParameterNames();
-        emailDao.getSearchParameterNames();
+        secondLetter.setSearchParameters(Collections.singletonList(new SearchParameter("panel_id", "cache-test-moved")));
+        emailDao.storeSearchParameters(secondLetter, Collections.singletonMap("panel_id", 2));
+        assertEquals(1, emailDao.findLetter(searchParameter, validSearchParameters).size());
 
-        verify(mockTemplate, times(1)).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+        emailDao.deleteLetter(firstLetter.getEltrID(), false);
+        assertTrue(emailDao.findLetter(searchParameter, validSearchParameters).isEmpty());
+    }
+
+    /**
+     * Tests that the dao writes publish key-level invalidations for the letter and its key-value pairs, keyed
+     * by the trimmed, lower-cased value
+     *
+     * @throws Exception
+     */
+    @Test
+    public void cacheInvalidationPublishedTest() throws Exception {
+        final List<String> invalidations = new ArrayList<String>();
+        cacheInvalidationBus.subscribe(new CacheInvalidationListener() {
+            @Override
+            public void onInvalidation(CacheInvalidation invalidation) {
+                invalidations.add(invalidation.getCacheName() + "=" + invalidation.getKey());
+            }
+        });
+        Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        assertEquals(Collections.singletonList("missingLetters=" + savedLetter.getEltrID()), invalidations);
+
+        invalidations.clear();
+        savedLetter.setSearchParameters(Collections.singletonList(new SearchParameter("panel_id", " Bus-Test ")));
+        emailDao.storeSearchParameters(savedLetter, Collections.singletonMap("panel_id", 2));
+        assertEquals(Arrays.asList("searchParameterLetterIDs=[panel_id, bus-test]", "letters=" + savedLetter.getEltrID()), invalidations);
+
+        invalidations.clear();
+        emailDao.deleteLetter(savedLetter.getEltrID(), false);
+        assertEquals(Arrays.asList("searchParameterLetterIDs=[panel_id, bus-test]", "letters=" + savedLetter.getEltrID()), invalidations);
+    }
+
+    /**
+     * Tests that the dao.storeSearchParameters replaces the stored search parameters of a letter
+     * with the passed ones, resolving each key to its ntfy_ltr_atr_id
+     *
+     * @throws Exception
+     */
+    @Test
+    public void storeSearchParametersHappyPathTest() throws Exception {
+        Letter letter = new Letter("3");
+        letter.setEltrStatusUser("MyNSF");
+        letter.setSearchParameters(Arrays.asList(new SearchParameter("award_id", "111111"), new SearchParameter("panel_id", "p1")));
+
+        Map<String, Integer> searchParameterIDs = new HashMap<String, Integer>();
+        searchParameterIDs.put("award_id", 1);
+        searchParameterIDs.put("panel_id", 2);
+        emailDao.storeSearchParameters(letter, searchParameterIDs);
+
+        List<Letter> letters = emailDao.findLetter(new SearchParameter("panel_id", "p1"), searchParameterIDs.keySet());
+        assertEquals(1, letters.size());
+        assertEquals("3", letters.get(0).getEltrID());
+        assertEquals(2, letters.get(0).getSearchParameters().size());
     }
 
     /**
@@ -75,6 +358,148 @@ public class EmailDaoIntgTest {
         System.out.println(letter);
     }
 
+    /**
+     * Tests that the dao.getLetter returns the letter with its recipients and search parameters read together
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getLetterWithSearchParametersTest() throws Exception {
+        Letter letter = emailDao.getLetter("2");
+        assertEquals("2", letter.getEltrID());
+        assertEquals("ktest@nsf.gov", letter.getEmailInfo().getFromAddress());
+        assertEquals(Collections.singletonList("jtest@nsf.gov"), letter.getEmailInfo().getToAddresses());
+        assertEquals(Collections.singletonList("atest@nsf.gov"), letter.getEmailInfo().getCcAddresses());
+        assertEquals(Collections.singletonList("gtest@nsf.gov"), letter.getEmailInfo().getBccAddresses());
+        assertEquals(2, letter.getSearchParameters().size());
+        assertTrue(letter.getSearchParameters().containsAll(emailDao.getSearchParameters("2")));
+    }
+
+    /**
+     * Tests that the dao.findLetter returns the matched letters with their recipients and search parameters
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterHappyPathTest() throws Exception {
+        List<Letter> letters = emailDao.findLetter(new SearchParameter("award_id", "654321"), Collections.singleton("award_id"));
+        assertEquals(1, letters.size());
+        assertEquals("2", letters.get(0).getEltrID());
+        assertEquals("ktest@nsf.gov", letters.get(0).getEmailInfo().getFromAddress());
+        assertEquals(2, letters.get(0).getSearchParameters().size());
+    }
+
+    /**
+     * Tests that the streaming dao.findLetter hands each matched letter, with its recipients and
+     * search parameters, to the LetterHandler
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterStreamTest() throws Exception {
+        final List<Letter> letters = new ArrayList<Letter>();
+        int letterCount = emailDao.findLetter(new SearchParameter("award_id", "654321"), Collections.singleton("award_id"), new LetterHandler() {
+            @Override
+            public void handleLetter(Letter letter) {
+                letters.add(letter);
+            }
+        });
+        assertEquals(1, letterCount);
+        assertEquals(1, letters.size());
+        assertEquals("2", letters.get(0).getEltrID());
+        assertEquals("ktest@nsf.gov", letters.get(0).getEmailInfo().getFromAddress());
+        assertEquals(Collections.singletonList("jtest@nsf.gov"), letters.get(0).getEmailInfo().getToAddresses());
+        assertEquals(2, letters.get(0).getSearchParameters().size());
+    }
+
+    /**
+     * Tests that the dao.findLetterIDs pages through the matching letters in ntfy_ltr_id order
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterIDsPageTest() throws Exception {
+        List<String> savedIDs = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+            savedLetter.setSearchParameters(Collections.singletonList(new SearchParameter("panel_id", "page-test")));
+            emailDao.storeSearchParameters(savedLetter, Collections.singletonMap("panel_id", 2));
+            savedIDs.add(savedLetter.getEltrID());
+        }
+        Set<String> validSearchParameters = Collections.singleton("panel_id");
+        SearchParameter searchParameter = new SearchParameter("panel_id", "page-test");
+
+        List<String> firstPage = emailDao.findLetterIDs(searchParameter, validSearchParameters, 2, null);
+        assertEquals(savedIDs.subList(0, 2), trim(firstPage));
+
+        List<String> secondPage = emailDao.findLetterIDs(searchParameter, validSearchParameters, 2, firstPage.get(1).trim());
+        assertEquals(savedIDs.subList(2, 3), trim(secondPage));
+
+        List<Letter> letters = emailDao.getLetters(secondPage);
+        assertEquals(1, letters.size());
+        assertEquals(savedIDs.get(2), letters.get(0).getEltrID());
+    }
+
+    /**
+     * Tests that the dao.findLetter with a LetterSearchCriteria only returns the letters with every search
+     * parameter that pass every filter, for the list, page and streaming variants
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterSearchCriteriaTest() throws Exception {
+        Map<String, Integer> searchParameterIDs = new HashMap<String, Integer>();
+        searchParameterIDs.put("award_id", 1);
+        searchParameterIDs.put("panel_id", 2);
+        List<String> savedIDs = new ArrayList<String>();
+        for (String panelID : new String[]{"criteria-p1", "criteria-p2"}) {
+            Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+            savedLetter.setSearchParameters(Arrays.asList(new SearchParameter("award_id", "criteria-test"), new SearchParameter("panel_id", panelID)));
+            emailDao.storeSearchParameters(savedLetter, searchParameterIDs);
+            savedIDs.add(savedLetter.getEltrID());
+        }
+
+        LetterSearchCriteria criteria = new LetterSearchCriteria(Arrays.asList(new SearchParameter("award_id", "criteria-test"), new SearchParameter("panel_id", "criteria-p2")));
+        List<Letter> letters = emailDao.findLetter(criteria, searchParameterIDs);
+        assertEquals(1, letters.size());
+        assertEquals(savedIDs.get(1), letters.get(0).getEltrID());
+
+        criteria.setSearchParameters(Arrays.asList(new SearchParameter("award_id", "criteria-test"), new SearchParameter("panel_id", "no-such-panel")));
+        assertTrue(emailDao.findLetter(criteria, searchParameterIDs).isEmpty());
+
+        String today = LocalDate.now().toString();
+        criteria.setSearchParameters(Arrays.asList(new SearchParameter("award_id", "criteria-test"), new SearchParameter("award_id", "criteria-test")));
+        criteria.setApplID("42");
+        criteria.setStatus(TestUtils.getMockLetter(null).getEltrStatus());
+        criteria.setFromDate(today);
+        criteria.setToDate(today);
+        assertEquals(2, emailDao.findLetter(criteria, searchParameterIDs).size());
+        assertEquals(savedIDs.subList(0, 1), trim(emailDao.findLetterIDs(criteria, searchParameterIDs, 1, null)));
+        assertEquals(savedIDs.subList(1, 2), trim(emailDao.findLetterIDs(criteria, searchParameterIDs, 1, savedIDs.get(0))));
+
+        final List<Letter> streamedLetters = new ArrayList<Letter>();
+        int letterCount = emailDao.findLetter(criteria, searchParameterIDs, new LetterHandler() {
+            @Override
+            public void handleLetter(Letter letter) {
+                streamedLetters.add(letter);
+            }
+        });
+        assertEquals(2, letterCount);
+        assertEquals(2, streamedLetters.get(0).getSearchParameters().size());
+
+        criteria.setToDate(LocalDate.now().minusDays(1).toString());
+        criteria.setFromDate(null);
+        assertTrue(emailDao.findLetter(criteria, searchParameterIDs).isEmpty());
+    }
+
+    private static List<String> trim(List<String> ids) {
+        List<String> trimmed = new ArrayList<String>();
+        for (String id : ids) {
+            trimmed.add(id.trim());
+        }
+        return trimmed;
+    }
+
     /**
      * Tests that the dao.getLetter throws a ResourceNotFoundException when a non-existing ID is passed
      *
@@ -141,6 +566,57 @@ public class EmailDaoIntgTest {
         assertEquals(updatedLetter.getEltrContent(), newContent);
     }
 
+    /**
+     * Tests that the dao.updateLetter sets the status date and user only when the status changes, and that
+     * a letter can no longer be updated once it has been sent
+     *
+     * @throws Exception
+     */
+    @Test
+    public void updateLetterStatusChangeTest() throws Exception {
+        Letter draftLetter = emailDao.getLetter("2");
+        assertEquals(LetterStatus.Draft, draftLetter.getEltrStatus());
+
+        Letter inputLetter = emailDao.getLetter("2");
+        inputLetter.setEltrStatusUser("newuser");
+        Letter returnedLetter = emailDao.updateLetter(inputLetter);
+        assertEquals(draftLetter.getEltrStatusDate(), returnedLetter.getEltrStatusDate());
+        assertEquals(draftLetter.getEltrStatusUser(), returnedLetter.getEltrStatusUser());
+
+        inputLetter.setEltrStatus(LetterStatus.Sent);
+        returnedLetter = emailDao.updateLetter(inputLetter);
+        assertEquals(LetterStatus.Sent, returnedLetter.getEltrStatus());
+        assertEquals("newuser", returnedLetter.getEltrStatusUser());
+        assertNotEquals(draftLetter.getEltrStatusDate(), returnedLetter.getEltrStatusDate());
+
+        try {
+            emailDao.updateLetter(inputLetter);
+            fail("Expected LetterAlreadySentException");
+        } catch (LetterAlreadySentException ex) {
+            assertEquals(LetterStatus.Sent, emailDao.getLetter("2").getEltrStatus());
+        }
+    }
+
+    /**
+     * Tests that the dao.updateLetter stores exactly the passed recipients when only some of them changed
+     *
+     * @throws Exception
+     */
+    @Test
+    public void updateLetterMailRecipientsTest() throws Exception {
+        Letter inputLetter = emailDao.getLetter("4");
+        inputLetter.getEmailInfo().setCcAddresses(new ArrayList<String>(Collections.singletonList(" ATEST@nsf.gov")));
+        inputLetter.getEmailInfo().setBccAddresses(new ArrayList<String>(Arrays.asList("btest@nsf.gov", "ctest@nsf.gov")));
+
+        emailDao.updateLetter(inputLetter);
+
+        Letter updatedLetter = emailDao.getLetter("4");
+        assertEquals("ktest@nsf.gov", updatedLetter.getEmailInfo().getFromAddress());
+        assertEquals(Collections.singletonList("jtest@nsf.gov"), updatedLetter.getEmailInfo().getToAddresses());
+        assertEquals(Collections.singletonList("ATEST@nsf.gov"), updatedLetter.getEmailInfo().getCcAddresses());
+        assertEquals(new HashSet<String>(Arrays.asList("btest@nsf.gov", "ctest@nsf.gov")), new HashSet<String>(updatedLetter.getEmailInfo().getBccAddresses()));
+    }
+
     /**
      * Tests that the dao.updateLetter throws a ResourceNotFoundException when a non-existing ID is passed
      *
@@ -168,6 +644,97 @@ public class EmailDaoIntgTest {
         emailDao.updateLetter(inputLetter);
     }
 
+    /**
+     * Tests that the dao.markLetterSent marks a Draft letter Sent exactly once, and evicts the cached letter
+     *
+     * @throws Exception
+     */
+    @Test
+    public void markLetterSentTest() throws Exception {
+        Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        assertEquals(LetterStatus.Draft, emailDao.getLetter(savedLetter.getEltrID()).getEltrStatus());
+
+        Letter sentLetter = emailDao.markLetterSent(savedLetter.getEltrID(), "sender");
+        assertEquals(LetterStatus.Sent, sentLetter.getEltrStatus());
+        assertEquals("sender", sentLetter.getEltrStatusUser());
+        assertEquals(savedLetter.getEltrContent(), sentLetter.getEltrContent());
+        assertEquals(savedLetter.getEmailInfo().getToAddresses(), sentLetter.getEmailInfo().getToAddresses());
+        assertEquals(LetterStatus.Sent, emailDao.getLetter(savedLetter.getEltrID()).getEltrStatus());
+
+        try {
+            emailDao.markLetterSent(savedLetter.getEltrID(), "another");
+            fail("Expected LetterAlreadySentException");
+        } catch (LetterAlreadySentException ex) {
+            assertEquals("sender", emailDao.getLetter(savedLetter.getEltrID()).getEltrStatusUser());
+        }
+    }
+
+    /**
+     * Tests that the dao.markLetterSent throws a ResourceNotFoundException when a non-existing ID is passed
+     *
+     * @throws Exception
+     */
+    @Test(expected=ResourceNotFoundException.class)
+    public void markLetterSentNonExistentIDTest() throws Exception {
+        emailDao.markLetterSent(NON_EXISTING_ELTR_ID, "sender");
+    }
+
+    /**
+     * Tests that the dao.deleteLetter removes the letter, its mail recipients and its search parameters
+     * without returning the deleted letter when returnDeleted is false
+     *
+     * @throws Exception
+     */
+    @Test
+    public void deleteLetterWithoutReturnDeletedTest() throws Exception {
+        Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        savedLetter.setSearchParameters(Collections.singletonList(new SearchParameter("award_id", "777777")));
+        emailDao.storeSearchParameters(savedLetter, Collections.singletonMap("award_id", 1));
+
+        assertNull(emailDao.deleteLetter(savedLetter.getEltrID(), false));
+        assertTrue(emailDao.getSearchParameters(savedLetter.getEltrID()).isEmpty());
+        try {
+            emailDao.getLetter(savedLetter.getEltrID());
+            fail("Expected ResourceNotFoundException");
+        } catch (ResourceNotFoundException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the dao.deleteLetter leaves a Sent letter and its mail recipients and search parameters in place
+     *
+     * @throws Exception
+     */
+    @Test
+    public void deleteLetterSentStatusTest() throws Exception {
+        Letter savedLetter = emailDao.saveLetter(TestUtils.getMockLetter(null), null);
+        savedLetter.setSearchParameters(Collections.singletonList(new SearchParameter("award_id", "888888")));
+        emailDao.storeSearchParameters(savedLetter, Collections.singletonMap("award_id", 1));
+        savedLetter.setEltrStatus(LetterStatus.Sent);
+        emailDao.updateLetter(savedLetter);
+
+        try {
+            emailDao.deleteLetter(savedLetter.getEltrID(), false);
+            fail("Expected LetterAlreadySentException");
+        } catch (LetterAlreadySentException ex) {
+            Letter storedLetter = emailDao.getLetter(savedLetter.getEltrID());
+            assertEquals(LetterStatus.Sent, storedLetter.getEltrStatus());
+            assertEquals(savedLetter.getEmailInfo().getFromAddress(), storedLetter.getEmailInfo().getFromAddress());
+            assertEquals(1, emailDao.getSearchParameters(savedLetter.getEltrID()).size());
+        }
+    }
+
+    /**
+     * Tests that the dao.deleteLetter throws a ResourceNotFoundException when a non-existing ID is passed
+     *
+     * @throws Exception
+     */
+    @Test(expected=ResourceNotFoundException.class)
+    public void deleteLetterNonExistentIDTest() throws Exception {
+        emailDao.deleteLetter(NON_EXISTING_ELTR_ID, false);
+    }
+
     /**
      * Tests that the dao.getLetter successfully returns a Letter object from the DB when an existing ID is passed
      *
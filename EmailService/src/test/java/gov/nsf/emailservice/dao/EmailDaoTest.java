@@ -1,21 +1,31 @@
 package gov.nsf.emailservice.dao;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
 import gov.nsf.common.exception.ResourceNotFoundException;
 import gov.nsf.common.exception.RollbackException;
 import gov.nsf.emailservice.api.model.InvalidSearchParameterException;
+import gov.nsf.emailservice.api.model.LetterAlreadySentException;
+import gov.nsf.emailservice.api.model.LetterSearchCriteria;
 import gov.nsf.emailservice.api.model.SearchParameter;
+import gov.nsf.emailservice.api.service.LetterHandler;
 import gov.nsf.emailservice.common.util.Constants;
 import gov.nsf.emailservice.common.util.TestConstants;
 import gov.nsf.emailservice.common.util.TestUtils;
 import gov.nsf.emailservice.dao.rowmapper.LetterResultsSetExtractor;
+import gov.nsf.emailservice.dao.rowmapper.LetterWithSearchParametersResultSetExtractor;
 
 import java.util.*;
 
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
 import gov.nsf.emailservice.api.model.Letter;
 import gov.nsf.emailservice.api.model.LetterStatus;
 import gov.nsf.emailservice.dao.rowmapper.SearchParameterResultSetExtractor;
@@ -25,10 +35,15 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.jmx.export.MBeanExporter;
 
 /**
  * EmailDao JUnit tests
@@ -90,32 +105,171 @@ public class EmailDaoTest {
     }
 
     /**
-     * Tests that the getLetter(int) method properly handles exceptions thrown from
-     * the DB while getting the search parameters
-     *
-     * Stubs the NamedParameterJdbcTemplate to throw an Exception
+     * Tests that the getLetter(int) method reads the letter, its recipients and its
+     * search parameters with a single query
      *
-     * Test requires that a RollbackException is caught to pass
+     * Asserts the NamedParameterJdbcTemplate.query method is called once
      *
      * @throws RollbackException
      */
     @SuppressWarnings("unchecked")
-    @Test(expected = RollbackException.class)
-    public void getLetterByIdGetSearchParametersExceptionTest() throws RollbackException {
+    @Test
+    public void getLetterByIdSingleQueryTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(LetterResultsSetExtractor.class))).thenReturn(mockedLetter).thenThrow(new DataAccessResourceFailureException("Some DB exception occurred"));
-        emailDao.getLetter(TestConstants.TEST_ELTR_ID);
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(mockedLetter);
+        Letter returnedLetter = emailDao.getLetter(TestConstants.TEST_ELTR_ID);
+        assertEquals(mockedLetter.getSearchParameters(), returnedLetter.getSearchParameters());
+
+        verify(jdbcTemplateMock, times(1)).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+        verify(jdbcTemplateMock, times(1)).query(eq(Constants.GET_LETTER_WITH_SEARCH_PARAMETERS_BY_ID_QUERY), any(Map.class), any(LetterWithSearchParametersResultSetExtractor.class));
     }
 
     @Test
     public void findLetterHappyPathTest() throws Exception {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
         SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
-        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(Collections.singletonList(TestConstants.TEST_ELTR_ID)).thenReturn(mockedLetter).thenReturn(mockedLetter.getSearchParameters());
+        mockedLetter.setEltrID("1");
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(Collections.singletonList("1")).thenReturn(Collections.singletonList(mockedLetter)).thenReturn(Collections.singletonMap("1", mockedLetter.getSearchParameters()));
         Set<String> validSearchParameters = new HashSet<String>();
         validSearchParameters.add(searchParameter.getKey());
 
-        emailDao.findLetter(searchParameter, validSearchParameters);
+        List<Letter> letters = emailDao.findLetter(searchParameter, validSearchParameters);
+        assertEquals(1, letters.size());
+        assertEquals(mockedLetter.getSearchParameters(), letters.get(0).getSearchParameters());
+        verify(jdbcTemplateMock, times(3)).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+    }
+
+    /**
+     * Tests that findLetter reads the matched letters in batches of batchFetchSize IDs
+     * (one letter query and one search parameter query per batch) instead of once per letter
+     *
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void findLetterBatchFetchTest() throws Exception {
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
+        Set<String> validSearchParameters = Collections.singleton(searchParameter.getKey());
+        List<Letter> firstBatch = Arrays.asList(TestUtils.getMockLetter("2"), TestUtils.getMockLetter("1"));
+        List<Letter> secondBatch = Collections.singletonList(TestUtils.getMockLetter("3"));
+
+        emailDao.setBatchFetchSize(2);
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class)))
+                .thenReturn(Arrays.asList("1", "2", "3"))
+                .thenReturn(firstBatch).thenReturn(Collections.emptyMap())
+                .thenReturn(secondBatch).thenReturn(Collections.emptyMap());
+
+        List<Letter> letters = emailDao.findLetter(searchParameter, validSearchParameters);
+        assertEquals(3, letters.size());
+        assertEquals("1", letters.get(0).getEltrID());
+        assertEquals("2", letters.get(1).getEltrID());
+        assertEquals("3", letters.get(2).getEltrID());
+        assertTrue(letters.get(0).getSearchParameters().isEmpty());
+        verify(jdbcTemplateMock, times(5)).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+    }
+
+    /**
+     * Tests that findLetterIDs passes the page limit and the ID to read after to the keyset page query
+     *
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void findLetterIDsPageTest() throws Exception {
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
+        when(jdbcTemplateMock.query(eq(Constants.GET_LETTER_IDS_PAGE_QUERY), any(Map.class), any(ResultSetExtractor.class))).thenReturn(Arrays.asList("8", "9"));
+
+        List<String> eltrIDs = emailDao.findLetterIDs(searchParameter, Collections.singleton(searchParameter.getKey()), 2, "7");
+        assertEquals(Arrays.asList("8", "9"), eltrIDs);
+
+        Map<String, Object> expectedParameters = new HashMap<String, Object>();
+        expectedParameters.put(Constants.ATR_NAME, "Award_Id");
+        expectedParameters.put(Constants.SEARCH_PARAMETER_VALUE, "1234");
+        expectedParameters.put(Constants.PAGE_LIMIT, 2);
+        expectedParameters.put(Constants.AFTER_ELTR_ID, 7);
+        verify(jdbcTemplateMock, times(1)).query(eq(Constants.GET_LETTER_IDS_PAGE_QUERY), eq(expectedParameters), any(ResultSetExtractor.class));
+    }
+
+    /**
+     * Tests that findLetterIDs with several search parameters drives the keyset page query from the search
+     * parameter with the fewest matching rows and intersects the others and the filters with it
+     *
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void findLetterIDsSearchCriteriaTest() throws Exception {
+        LetterSearchCriteria criteria = new LetterSearchCriteria(Arrays.asList(new SearchParameter("Award_Id", "1234"), new SearchParameter("Panel_Id", "p1")));
+        criteria.setApplID("42");
+        criteria.setStatus(LetterStatus.Draft);
+        Map<String, Integer> searchParameterIDs = new HashMap<String, Integer>();
+        searchParameterIDs.put("Award_Id", 1);
+        searchParameterIDs.put("Panel_Id", 2);
+
+        // counts are keyed by the position of the search parameter in the criteria
+        when(jdbcTemplateMock.query(startsWith(String.format(Constants.SEARCH_PARAMETER_MATCH_COUNT_QUERY, 0)), any(Map.class), any(ResultSetExtractor.class))).thenReturn(new int[] {500, 3});
+        when(jdbcTemplateMock.query(startsWith(Constants.SEARCH_CRITERIA_LETTER_IDS_PAGE_SELECT), any(Map.class), any(ResultSetExtractor.class))).thenReturn(Arrays.asList("8", "9"));
+
+        List<String> eltrIDs = emailDao.findLetterIDs(criteria, searchParameterIDs, 2, "7");
+        assertEquals(Arrays.asList("8", "9"), eltrIDs);
+
+        String expectedQuery = Constants.SEARCH_CRITERIA_LETTER_IDS_PAGE_SELECT +
+                Constants.SEARCH_CRITERIA_LETTER_IDS_FROM +
+                String.format(Constants.SEARCH_CRITERIA_SEARCH_PARAMETER_CLAUSE, 1) +
+                Constants.SEARCH_CRITERIA_LETTER_CLAUSE +
+                Constants.SEARCH_CRITERIA_APPL_ID_CLAUSE +
+                Constants.SEARCH_CRITERIA_STATUS_CLAUSE + ")" +
+                Constants.SEARCH_CRITERIA_PAGE_CLAUSE;
+        Map<String, Object> expectedParameters = new HashMap<String, Object>();
+        expectedParameters.put(Constants.ATR_ID + 0, 2);
+        expectedParameters.put(Constants.ATR_VAL + 0, "p1");
+        expectedParameters.put(Constants.ATR_ID + 1, 1);
+        expectedParameters.put(Constants.ATR_VAL + 1, "1234");
+        expectedParameters.put(Constants.APPL_ID, 42);
+        expectedParameters.put(Constants.ELTR_STATUS, "D");
+        expectedParameters.put(Constants.PAGE_LIMIT, 2);
+        expectedParameters.put(Constants.AFTER_ELTR_ID, 7);
+        verify(jdbcTemplateMock, times(1)).query(eq(expectedQuery), eq(expectedParameters), any(ResultSetExtractor.class));
+    }
+
+    /**
+     * Tests that findLetter runs no letter query when one of several search parameters matches no row
+     *
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void findLetterSearchCriteriaNoMatchTest() throws Exception {
+        LetterSearchCriteria criteria = new LetterSearchCriteria(Arrays.asList(new SearchParameter("Award_Id", "1234"), new SearchParameter("Panel_Id", "p1")));
+        Map<String, Integer> searchParameterIDs = new HashMap<String, Integer>();
+        searchParameterIDs.put("Award_Id", 1);
+        searchParameterIDs.put("Panel_Id", 2);
+        when(jdbcTemplateMock.query(startsWith(String.format(Constants.SEARCH_PARAMETER_MATCH_COUNT_QUERY, 0)), any(Map.class), any(ResultSetExtractor.class))).thenReturn(new int[] {500, 0});
+
+        List<Letter> letters = emailDao.findLetter(criteria, searchParameterIDs);
+        assertTrue(letters.isEmpty());
+        verify(jdbcTemplateMock, times(1)).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+    }
+
+    @Test(expected=InvalidSearchParameterException.class)
+    public void findLetterSearchCriteriaInvalidSearchParameterTest() throws Exception {
+        LetterSearchCriteria criteria = new LetterSearchCriteria(Arrays.asList(new SearchParameter("Award_Id", "1234"), new SearchParameter("Bogus_Id", "p1")));
+
+        emailDao.findLetter(criteria, Collections.singletonMap("Award_Id", 1));
+    }
+
+    @Test(expected=InvalidSearchParameterException.class)
+    public void findLetterIDsInvalidSearchParameterTest() throws Exception {
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
+
+        emailDao.findLetterIDs(searchParameter, Collections.<String>emptySet(), 2, null);
+    }
+
+    @Test(expected=InvalidSearchParameterException.class)
+    public void findLetterStreamInvalidSearchParameterTest() throws Exception {
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
+
+        emailDao.findLetter(searchParameter, Collections.<String>emptySet(), mock(LetterHandler.class));
     }
 
     @Test(expected=InvalidSearchParameterException.class)
@@ -164,11 +318,39 @@ public class EmailDaoTest {
     public void saveLetterHappyPathTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
         when(jdbcTemplateMock.queryForObject(any(String.class), any(Map.class), eq(Integer.class))).thenReturn(1);
-        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
+        mockGeneratedEltrID(Integer.parseInt(TestConstants.TEST_ELTR_ID));
         when(jdbcTemplateMock.query(any(String.class),any(Map.class), any(LetterResultsSetExtractor.class))).thenReturn(mockedLetter);
         emailDao.saveLetter(mockedLetter,null);
     }
 
+    /**
+     * Tests that the saveLetter method inserts the sender and all recipients as JDBC batches
+     * of at most batchInsertSize rows
+     *
+     * The mocked Letter has 5 mail recipients (FROM, 2 TO, CC, BCC), so a batch size of 2 requires 3 batches
+     *
+     * @throws RollbackException
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void saveLetterBatchInsertMailRecipientsTest() throws RollbackException {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        emailDao.setBatchInsertSize(2);
+        mockGeneratedEltrID(Integer.parseInt(TestConstants.TEST_ELTR_ID));
+        when(jdbcTemplateMock.query(any(String.class),any(Map.class), any(LetterResultsSetExtractor.class))).thenReturn(mockedLetter);
+        emailDao.saveLetter(mockedLetter,null);
+
+        verify(jdbcTemplateMock, times(3)).batchUpdate(eq(Constants.INSERT_MAIL_RECIPIENT_QUERY_WITH_ID), any(SqlParameterSource[].class));
+    }
+
+    /**
+     * Tests that a batchInsertSize below 1 is rejected instead of looping forever in executeBatchUpdate
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void setBatchInsertSizeInvalidTest() {
+        emailDao.setBatchInsertSize(0);
+    }
+
 
     /**
      * Tests that the saveLetter method properly handles exceptions thrown from
@@ -184,10 +366,31 @@ public class EmailDaoTest {
     @Test(expected = RollbackException.class)
     public void saveLetterExceptionOnInsertEltrTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenThrow(new DataAccessResourceFailureException("Some DB exception occurred"));
+        when(jdbcTemplateMock.update(any(String.class), any(SqlParameterSource.class), any(KeyHolder.class), any(String[].class))).thenThrow(new DataAccessResourceFailureException("Some DB exception occurred"));
         emailDao.saveLetter(mockedLetter,null);
     }
 
+    /**
+     * Tests that the saveLetter method fails when the DB does not return a generated eltrID for the inserted letter
+     *
+     * Test requires that a RollbackException is caught to pass and that no recipients are inserted
+     *
+     * @throws RollbackException
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void saveLetterNoGeneratedKeyTest() throws RollbackException {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        when(jdbcTemplateMock.update(any(String.class), any(SqlParameterSource.class), any(KeyHolder.class), any(String[].class))).thenReturn(1);
+
+        try {
+            emailDao.saveLetter(mockedLetter,null);
+            fail("Expected RollbackException");
+        } catch (RollbackException ex) {
+            verify(jdbcTemplateMock, never()).batchUpdate(any(String.class), any(SqlParameterSource[].class));
+        }
+    }
+
     /**
      * Tests that the saveLetter method properly handles exceptions thrown from
      * the DB
@@ -202,7 +405,7 @@ public class EmailDaoTest {
     @Test(expected=RollbackException.class)
     public void saveLetterExceptionOnGetAfterInsertTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
+        mockGeneratedEltrID(Integer.parseInt(TestConstants.TEST_ELTR_ID));
         when(jdbcTemplateMock.query(any(String.class),any(Map.class), any(LetterResultsSetExtractor.class))).thenThrow(new DataAccessResourceFailureException("Something failed on query"));
 
         emailDao.saveLetter(mockedLetter,null);
@@ -223,7 +426,7 @@ public class EmailDaoTest {
     @Test(expected=RollbackException.class)
     public void saveLetterNullOnGetAfterInsertTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
+        mockGeneratedEltrID(Integer.parseInt(TestConstants.TEST_ELTR_ID));
         when(jdbcTemplateMock.query(any(String.class),any(Map.class), any(LetterResultsSetExtractor.class))).thenReturn(null);
 
         emailDao.saveLetter(mockedLetter,null);
@@ -378,11 +581,14 @@ public class EmailDaoTest {
     @Test(expected = RollbackException.class)
     public void updateLetterExceptionOnDeleteMailRcptTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        Letter passedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        passedLetter.getEmailInfo().getBccAddresses().clear();
         when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(mockedLetter).thenReturn(Collections.singletonList(new SearchParameter("1", "pizza")));
-        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1).thenThrow(new DataAccessResourceFailureException("Exception occured during delete mail recipeints"));
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
+        when(jdbcTemplateMock.batchUpdate(eq(Constants.DELETE_MAIL_RECIPIENT_QUERY), any(SqlParameterSource[].class))).thenThrow(new DataAccessResourceFailureException("Exception occured during delete mail recipeints"));
         when(jdbcTemplateMock.queryForObject(any(String.class), any(Map.class), eq(Integer.class))).thenReturn(1);
 
-        emailDao.updateLetter(mockedLetter);
+        emailDao.updateLetter(passedLetter);
     }
 
     /**
@@ -399,18 +605,104 @@ public class EmailDaoTest {
     @Test(expected = RollbackException.class)
     public void updateLetterExceptionOnMailRcptInsertTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        Letter passedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        passedLetter.getEmailInfo().getBccAddresses().add("new@nsf.gov");
         when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(mockedLetter).thenReturn(Collections.singletonList(new SearchParameter("1", "pizza")));
-        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1).thenReturn(1).thenThrow(new DataAccessResourceFailureException("Exception occured during insert mail recipeint"));
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
+        when(jdbcTemplateMock.batchUpdate(eq(Constants.INSERT_MAIL_RECIPIENT_QUERY_WITH_ID), any(SqlParameterSource[].class))).thenThrow(new DataAccessResourceFailureException("Exception occured during insert mail recipeint"));
         when(jdbcTemplateMock.queryForObject(any(String.class), any(Map.class), eq(Integer.class))).thenReturn(1);
 
-        emailDao.updateLetter(mockedLetter);
+        emailDao.updateLetter(passedLetter);
+    }
+
+    /**
+     * Tests that the updateLetter method only deletes and inserts the mail recipients that changed
+     *
+     * The passed Letter replaces one BCC address of the stored Letter and changes the body, so the sender,
+     * both TO rows and the CC row must be left alone
+     *
+     * @throws RollbackException
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void updateLetterDifferentialMailRecipientsTest() throws RollbackException {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        Letter passedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        passedLetter.setEltrContent("This is the new eltrContent");
+        passedLetter.getEmailInfo().setBccAddresses(new ArrayList<String>(Collections.singletonList("new@nsf.gov")));
+        passedLetter.getEmailInfo().getCcAddresses().set(0, " TEST@nsf.gov");
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(mockedLetter).thenReturn(Collections.singletonList(new SearchParameter("1", "pizza"))).thenReturn(passedLetter).thenReturn(Collections.singletonList(new SearchParameter("1", "pizza")));
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
+
+        emailDao.updateLetter(passedLetter);
+
+        verify(jdbcTemplateMock, never()).update(eq(Constants.DELETE_MAIL_RECIPIENTS_QUERY), any(Map.class));
+        verify(jdbcTemplateMock, times(1)).batchUpdate(eq(Constants.DELETE_MAIL_RECIPIENT_QUERY), any(SqlParameterSource[].class));
+        verify(jdbcTemplateMock, times(1)).batchUpdate(eq(Constants.INSERT_MAIL_RECIPIENT_QUERY_WITH_ID), any(SqlParameterSource[].class));
+        assertEquals(2, emailDao.getMailRecipientRowsDeleted());
+        assertEquals(2, emailDao.getMailRecipientRowsInserted());
+        assertEquals(3, emailDao.getMailRecipientRowsUnchanged());
+    }
+
+    /**
+     * Tests that the updateLetter method does not touch the mail recipient rows when the recipients did not change
+     *
+     * @throws RollbackException
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void updateLetterUnchangedMailRecipientsTest() throws RollbackException {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        Letter passedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        passedLetter.setEltrContent("This is the new eltrContent");
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(mockedLetter).thenReturn(Collections.singletonList(new SearchParameter("1", "pizza"))).thenReturn(passedLetter).thenReturn(Collections.singletonList(new SearchParameter("1", "pizza")));
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
+
+        Letter returnedLetter = emailDao.updateLetter(passedLetter);
+        assertNotNull(returnedLetter);
+
+        verify(jdbcTemplateMock, times(1)).update(eq(Constants.UPDATE_UNSENT_LETTER_QUERY), any(Map.class));
+        verify(jdbcTemplateMock, times(1)).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+        verify(jdbcTemplateMock, never()).batchUpdate(any(String.class), any(SqlParameterSource[].class));
+        assertEquals(0, emailDao.getMailRecipientRowsDeleted());
+        assertEquals(0, emailDao.getMailRecipientRowsInserted());
+        assertEquals(5, emailDao.getMailRecipientRowsUnchanged());
+    }
+
+    /**
+     * Tests that an MBeanExporter publishes the mail recipient row counters as JMX attributes
+     *
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void mailRecipientRowsMXBeanTest() throws Exception {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        mockGeneratedEltrID(Integer.parseInt(TestConstants.TEST_ELTR_ID));
+        when(jdbcTemplateMock.query(any(String.class),any(Map.class), any(LetterResultsSetExtractor.class))).thenReturn(mockedLetter);
+        emailDao.saveLetter(mockedLetter, null);
+
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("gov.nsf.emailservice:type=MailRecipientRows");
+        MBeanExporter exporter = new MBeanExporter();
+        exporter.setServer(server);
+        exporter.setBeans(Collections.<String, Object>singletonMap(name.toString(), emailDao));
+        exporter.afterPropertiesSet();
+        exporter.afterSingletonsInstantiated();
+        try {
+            assertEquals(5L, server.getAttribute(name, "MailRecipientRowsInserted"));
+            assertEquals(0L, server.getAttribute(name, "MailRecipientRowsDeleted"));
+            assertEquals(0L, server.getAttribute(name, "MailRecipientRowsUnchanged"));
+        } finally {
+            exporter.destroy();
+        }
     }
 
     /**
      * Tests that the updateLetter method properly handles exceptions thrown from
      * the DB
      *
-     * Stubs the NamedParameterJdbcTemplate to throw an Exception when trying to retrieve the updated Letter
+     * Stubs the NamedParameterJdbcTemplate to throw an Exception when trying to retrieve the stored Letter after the update
      *
      * Test requires that a RollbackException is caught to pass
      *
@@ -420,16 +712,31 @@ public class EmailDaoTest {
     @Test(expected = RollbackException.class)
     public void updateLetterExceptionOnGetAfterUpdateTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(mockedLetter).thenReturn(Collections.singletonList(new SearchParameter("1", "pizza"))).thenThrow(new DataAccessResourceFailureException("Some exception"));
-        when(jdbcTemplateMock.queryForObject(any(String.class), any(Map.class), eq(Integer.class))).thenReturn(1);
-        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1).thenReturn(1);
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenThrow(new DataAccessResourceFailureException("Some exception"));
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
         emailDao.updateLetter(mockedLetter);
     }
 
+    /**
+     * Tests that the updateLetter method throws a LetterAlreadySentException when the conditional update
+     * matches no row but the letter exists
+     *
+     * @throws RollbackException
+     */
+    @SuppressWarnings("unchecked")
+    @Test(expected = LetterAlreadySentException.class)
+    public void updateLetterConditionalUpdateNoRowsTest() throws RollbackException {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        mockedLetter.setEltrStatus(LetterStatus.Sent);
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(0);
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(mockedLetter);
+        emailDao.updateLetter(TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID));
+    }
+
     /**
      * Tests that the normal behavior of the storeSearchParameters method properly calls
-     * the NamedParameterJdbcTemplate.update method to insert the parameters in the
-     * DB
+     * the NamedParameterJdbcTemplate.update method to delete the old parameters and
+     * a single NamedParameterJdbcTemplate.batchUpdate to insert the new parameters in the DB
      *
      * Mocks the jdbcTemplate holding the DB connection to successfully "insert"
      * the DB
@@ -442,14 +749,16 @@ public class EmailDaoTest {
     @Test
     public void storeSearchParametersHappyPathTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(jdbcTemplateMock.queryForObject(any(String.class), any(Map.class), eq(Integer.class))).thenReturn(1);
         when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1);
 
-        Set<String> parameterNames = new HashSet<String>();
+        Map<String, Integer> parameterIDs = new HashMap<String, Integer>();
         for( SearchParameter param : mockedLetter.getSearchParameters()){
-            parameterNames.add(param.getKey());
+            parameterIDs.put(param.getKey(), parameterIDs.size() + 1);
         }
-        emailDao.storeSearchParameters(mockedLetter, parameterNames);
+        emailDao.storeSearchParameters(mockedLetter, parameterIDs);
+
+        verify(jdbcTemplateMock, times(1)).update(eq(Constants.DELETE_SEARCH_PARAMETERS_QUERY), any(Map.class));
+        verify(jdbcTemplateMock, times(1)).batchUpdate(eq(Constants.INSERT_SEARCH_PARAMETER_QUERY), any(SqlParameterSource[].class));
     }
 
     /**
@@ -464,8 +773,7 @@ public class EmailDaoTest {
     @Test(expected = InvalidSearchParameterException.class)
     public void storeSearchParametersParameterNotFoundTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(jdbcTemplateMock.queryForObject(any(String.class), any(Map.class), eq(Integer.class))).thenReturn(0);
-        emailDao.storeSearchParameters(mockedLetter, Collections.emptySet());
+        emailDao.storeSearchParameters(mockedLetter, Collections.<String, Integer>emptyMap());
     }
     /**
      * Tests that the storeSearchParameters method properly handles exceptions thrown from
@@ -481,9 +789,8 @@ public class EmailDaoTest {
     @Test(expected = RollbackException.class)
     public void storeSearchParametersExceptionTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(jdbcTemplateMock.queryForObject(any(String.class), any(Map.class), eq(Integer.class))).thenReturn(1);
         when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenThrow(new DataAccessResourceFailureException("Some DB exception occurred"));
-        emailDao.storeSearchParameters(mockedLetter, Collections.emptySet());
+        emailDao.storeSearchParameters(mockedLetter, Collections.<String, Integer>emptyMap());
     }
 
     /**
@@ -700,4 +1007,74 @@ public class EmailDaoTest {
         when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(1).thenReturn(1).thenThrow(new DataAccessResourceFailureException("Exception occured during delete eltr"));
         emailDao.deleteLetter(TestConstants.TEST_ELTR_ID);
     }
+
+    /**
+     * Tests that the deleteLetter method runs only the status-guarded delete statements when the
+     * deleted letter is not requested
+     *
+     * Asserts no letter is read and null is returned
+     *
+     * @throws RollbackException
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void deleteLetterWithoutReturnDeletedTest() throws RollbackException {
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(2).thenReturn(4).thenReturn(1);
+
+        Letter returnedLetter = emailDao.deleteLetter(TestConstants.TEST_ELTR_ID, false);
+        assertEquals(null, returnedLetter);
+
+        verify(jdbcTemplateMock, never()).query(any(String.class), any(Map.class), any(ResultSetExtractor.class));
+        verify(jdbcTemplateMock, times(1)).update(eq(Constants.DELETE_UNSENT_SEARCH_PARAMETERS_QUERY), any(Map.class));
+        verify(jdbcTemplateMock, times(1)).update(eq(Constants.DELETE_UNSENT_MAIL_RECIPIENTS_QUERY), any(Map.class));
+        verify(jdbcTemplateMock, times(1)).update(eq(Constants.DELETE_UNSENT_ELTR_QUERY), any(Map.class));
+    }
+
+    /**
+     * Tests that the deleteLetter method throws a LetterAlreadySentException when the guarded delete
+     * removes no letter and the stored letter has been sent
+     *
+     * @throws RollbackException
+     */
+    @SuppressWarnings("unchecked")
+    @Test(expected = LetterAlreadySentException.class)
+    public void deleteLetterWithoutReturnDeletedSentStatusTest() throws RollbackException {
+        Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
+        mockedLetter.setEltrStatus(LetterStatus.Sent);
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(0);
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(mockedLetter);
+
+        emailDao.deleteLetter(TestConstants.TEST_ELTR_ID, false);
+    }
+
+    /**
+     * Tests that the deleteLetter method throws a ResourceNotFoundException when the guarded delete
+     * removes no letter and no letter is stored with the given ID
+     *
+     * @throws RollbackException
+     */
+    @SuppressWarnings("unchecked")
+    @Test(expected = ResourceNotFoundException.class)
+    public void deleteLetterWithoutReturnDeletedDoesntExistTest() throws RollbackException {
+        when(jdbcTemplateMock.update(any(String.class), any(Map.class))).thenReturn(0);
+        when(jdbcTemplateMock.query(any(String.class), any(Map.class), any(ResultSetExtractor.class))).thenReturn(null);
+
+        emailDao.deleteLetter(TestConstants.TEST_ELTR_ID, false);
+    }
+
+    /**
+     * Stubs the letter insert to succeed and return the given eltrID as its generated key
+     *
+     * @param eltrID
+     */
+    private void mockGeneratedEltrID(final int eltrID) {
+        when(jdbcTemplateMock.update(any(String.class), any(SqlParameterSource.class), any(KeyHolder.class), any(String[].class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) {
+                KeyHolder keyHolder = (KeyHolder) invocation.getArguments()[2];
+                keyHolder.getKeyList().add(Collections.<String, Object>singletonMap(Constants.ELTR_ID, eltrID));
+                return 1;
+            }
+        });
+    }
 }
@@ -0,0 +1,129 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.LetterStatus;
+import gov.nsf.emailservice.common.util.Constants;
+import gov.nsf.emailservice.common.util.TestUtils;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * LetterCacheDecoratorFactory JUnit tests
+ *
+ */
+public class LetterCacheDecoratorFactoryTest {
+
+    private CacheManager ehcache;
+    private OffHeapContentStore contentStore;
+    private LetterCacheDecoratorFactory.LetterCache letterCache;
+
+    @Before
+    public void setUp() {
+        ehcache = new CacheManager(new Configuration().name("letterCacheTest"));
+        Cache cache = new Cache(new CacheConfiguration("letters", 100));
+        ehcache.addCache(cache);
+        contentStore = new OffHeapContentStore(8192, 1024);
+        letterCache = new LetterCacheDecoratorFactory.LetterCache(cache, 60, contentStore, 100);
+    }
+
+    @After
+    public void tearDown() {
+        ehcache.shutdown();
+    }
+
+    /**
+     * Tests that a large eltrContent is kept off the heap and that every read returns a new, equal Letter
+     */
+    @Test
+    public void offHeapContentTest() {
+        Letter letter = TestUtils.getMockLetter("1");
+        letter.setEltrContent(StringUtils.repeat("<p>Dear PI</p>", 200));
+        letterCache.put(new Element("1", letter));
+
+        assertEquals(letter.getEltrContent().length(), contentStore.getUsedBytes());
+        Letter firstRead = (Letter) letterCache.get("1").getObjectValue();
+        Letter secondRead = (Letter) letterCache.get("1").getObjectValue();
+        assertNotSame(firstRead, secondRead);
+        assertEquals(letter.getEltrContent(), firstRead.getEltrContent());
+        assertEquals(letter.getEmailInfo().getMailSubject(), firstRead.getEmailInfo().getMailSubject());
+        assertEquals(60, letterCache.getQuiet("1").getTimeToLive());
+    }
+
+    /**
+     * Tests that a small eltrContent stays with the metadata and that Sent letters never expire
+     */
+    @Test
+    public void inlineContentTest() {
+        Letter letter = TestUtils.getMockLetter("2");
+        letter.setEltrContent("short");
+        letter.setEltrStatus(LetterStatus.Sent);
+        letterCache.put(new Element("2", letter));
+
+        assertEquals(0, contentStore.getUsedBytes());
+        assertEquals("short", ((Letter) letterCache.get("2").getObjectValue()).getEltrContent());
+        assertTrue(letterCache.getQuiet("2").isEternal());
+    }
+
+    /**
+     * Tests that changing a letter read from the cache does not change the cached letter, and that its content
+     * is only read from the content store when getEltrContent is called
+     */
+    @Test
+    public void copyOnReadTest() {
+        Letter letter = TestUtils.getMockLetter("1");
+        letter.setEltrContent(StringUtils.repeat("<p>Dear PI</p>", 200));
+        letterCache.put(new Element("1", letter));
+
+        Letter firstRead = (Letter) letterCache.get("1").getObjectValue();
+        firstRead.setEltrContent("changed");
+        firstRead.getEmailInfo().setMailSubject("changed");
+        firstRead.getEmailInfo().getToAddresses().clear();
+        Letter secondRead = (Letter) letterCache.get("1").getObjectValue();
+        assertEquals(letter.getEltrContent(), secondRead.getEltrContent());
+        assertEquals(letter.getEmailInfo().getMailSubject(), secondRead.getEmailInfo().getMailSubject());
+        assertEquals(letter.getEmailInfo().getToAddresses(), secondRead.getEmailInfo().getToAddresses());
+
+        Letter unreadContent = (Letter) letterCache.get("1").getObjectValue();
+        contentStore.clear();
+        try {
+            unreadContent.getEltrContent();
+            fail("Expected CacheException");
+        } catch (CacheException e) {
+            assertTrue(e.getMessage().startsWith(Constants.CACHED_LETTER_CONTENT_EVICTED));
+        }
+    }
+
+    /**
+     * Tests that a letter whose content was evicted from the content store is a miss (in the statistics too),
+     * and that removing a letter frees its content
+     */
+    @Test
+    public void contentEvictionTest() {
+        Letter firstLetter = TestUtils.getMockLetter("1");
+        firstLetter.setEltrContent(StringUtils.repeat("a", 6000));
+        Letter secondLetter = TestUtils.getMockLetter("2");
+        secondLetter.setEltrContent(StringUtils.repeat("b", 6000));
+
+        letterCache.put(new Element("1", firstLetter));
+        letterCache.put(new Element("2", secondLetter));
+        long hits = letterCache.getStatistics().cacheHitCount();
+        long misses = letterCache.getStatistics().cacheMissCount();
+        assertNull(letterCache.get("1"));
+        assertFalse(letterCache.isKeyInCache("1"));
+        assertEquals(hits, letterCache.getStatistics().cacheHitCount());
+        assertEquals(misses + 1, letterCache.getStatistics().cacheMissCount());
+
+        letterCache.remove("2");
+        assertEquals(0, contentStore.getUsedBytes());
+    }
+}
@@ -0,0 +1,107 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.LetterStatus;
+import gov.nsf.emailservice.common.util.TestUtils;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the heap footprint and GC activity of the letters cache with and without the off-heap content tier
+ * - loads LETTER_COUNT Sent letters with CONTENT_BYTES of HTML each, then reads READ_COUNT random letters,
+ *   first without and then with their eltrContent
+ *
+ * Excluded from the CI build by the *_NoCI* surefire exclude - run manually with:
+ * mvn test -Dtest=LetterCacheOffHeapBenchmark_NoCI -DargLine="-Xmx2g -XX:MaxDirectMemorySize=1g -XX:+UseG1GC"
+ */
+public class LetterCacheOffHeapBenchmark_NoCI {
+
+    private static final int LETTER_COUNT = 2000;
+    private static final int CONTENT_BYTES = 200 * 1024;
+    private static final int READ_COUNT = 20000;
+    private static final long OFF_HEAP_CONTENT_BYTES = 512L * 1024 * 1024;
+    private static final int OFF_HEAP_PAGE_SIZE = 4096;
+
+    @Test
+    public void offHeapContentBenchmark() {
+        run("heap only", null);
+        run("off-heap content", new OffHeapContentStore(OFF_HEAP_CONTENT_BYTES, OFF_HEAP_PAGE_SIZE));
+    }
+
+    private void run(String name, OffHeapContentStore contentStore) {
+        CacheManager ehcache = new CacheManager(new Configuration().name("letterCacheBenchmark"));
+        try {
+            Cache cache = new Cache(new CacheConfiguration("letters", LETTER_COUNT));
+            ehcache.addCache(cache);
+            LetterCacheDecoratorFactory.LetterCache letterCache = new LetterCacheDecoratorFactory.LetterCache(cache, 60, contentStore, 4096);
+
+            long baselineHeap = getLiveHeapBytes();
+            long[] gcBefore = getGcCountAndMillis();
+            for (int i = 0; i < LETTER_COUNT; i++) {
+                Letter letter = TestUtils.getMockLetter(String.valueOf(i));
+                letter.setEltrStatus(LetterStatus.Sent);
+                letter.setEltrContent(StringUtils.repeat("<p>Dear PI " + i + "</p>", CONTENT_BYTES / 20));
+                letterCache.put(new Element(String.valueOf(i), letter));
+            }
+            long[] gcAfterLoad = getGcCountAndMillis();
+            long liveHeap = getLiveHeapBytes() - baselineHeap;
+
+            Random random = new Random(42);
+            long[] gcBeforeReads = getGcCountAndMillis();
+            for (int i = 0; i < READ_COUNT; i++) {
+                assertNotNull(letterCache.get(String.valueOf(random.nextInt(LETTER_COUNT))));
+            }
+            long[] gcAfterReads = getGcCountAndMillis();
+            for (int i = 0; i < READ_COUNT; i++) {
+                Letter letter = (Letter) letterCache.get(String.valueOf(random.nextInt(LETTER_COUNT))).getObjectValue();
+                assertNotNull(letter.getEltrContent());
+            }
+            long[] gcAfterContentReads = getGcCountAndMillis();
+
+            System.out.println(name + ":");
+            System.out.println("  live heap after load: " + liveHeap / (1024 * 1024) + " MB, direct memory: " + getDirectBytes() / (1024 * 1024) + " MB");
+            System.out.println("  load GC: " + (gcAfterLoad[1] - gcBefore[1]) + " ms over " + (gcAfterLoad[0] - gcBefore[0]) + " collections");
+            System.out.println("  read GC: " + (gcAfterReads[1] - gcBeforeReads[1]) + " ms over " + (gcAfterReads[0] - gcBeforeReads[0]) + " collections");
+            System.out.println("  read with content GC: " + (gcAfterContentReads[1] - gcAfterReads[1]) + " ms over " + (gcAfterContentReads[0] - gcAfterReads[0]) + " collections");
+        } finally {
+            ehcache.shutdown();
+        }
+    }
+
+    private static long getLiveHeapBytes() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long[] getGcCountAndMillis() {
+        long[] countAndMillis = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            countAndMillis[0] += Math.max(0, collector.getCollectionCount());
+            countAndMillis[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return countAndMillis;
+    }
+
+    private static long getDirectBytes() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,76 @@
+package gov.nsf.emailservice.dao;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * OffHeapContentStore JUnit tests
+ *
+ */
+public class OffHeapContentStoreTest {
+
+    /**
+     * Tests that a value spanning several pages is read back unchanged and frees its pages when removed
+     */
+    @Test
+    public void putGetRemoveTest() {
+        OffHeapContentStore store = new OffHeapContentStore(64, 16);
+        byte[] value = bytes(40, (byte) 7);
+
+        long stamp = store.put("1", value);
+        assertTrue(stamp != 0);
+        assertArrayEquals(value, store.get("1", stamp));
+        assertEquals(40, store.getUsedBytes());
+
+        store.remove("1", stamp);
+        assertNull(store.get("1", stamp));
+        assertEquals(0, store.getUsedBytes());
+        assertEquals(0, store.getSize());
+    }
+
+    /**
+     * Tests that replacing a value invalidates the stamp of the old one, and that a remove with the old
+     * stamp leaves the new value in place
+     */
+    @Test
+    public void replaceTest() {
+        OffHeapContentStore store = new OffHeapContentStore(64, 16);
+        long oldStamp = store.put("1", bytes(10, (byte) 1));
+        long newStamp = store.put("1", bytes(20, (byte) 2));
+
+        assertNull(store.get("1", oldStamp));
+        store.remove("1", oldStamp);
+        assertArrayEquals(bytes(20, (byte) 2), store.get("1", newStamp));
+        assertEquals(20, store.getUsedBytes());
+    }
+
+    /**
+     * Tests that the least recently read values are evicted when there are not enough free pages, and that
+     * a value larger than the store is not stored
+     */
+    @Test
+    public void evictionTest() {
+        OffHeapContentStore store = new OffHeapContentStore(64, 16);
+        long firstStamp = store.put("1", bytes(32, (byte) 1));
+        long secondStamp = store.put("2", bytes(32, (byte) 2));
+        assertNotNull(store.get("1", firstStamp));
+
+        long thirdStamp = store.put("3", bytes(17, (byte) 3));
+        assertNotNull(store.get("1", firstStamp));
+        assertNull(store.get("2", secondStamp));
+        assertArrayEquals(bytes(17, (byte) 3), store.get("3", thirdStamp));
+        assertEquals(1, store.getEvictions());
+
+        assertEquals(0, store.put("4", bytes(65, (byte) 4)));
+        assertEquals(2, store.getSize());
+    }
+
+    private static byte[] bytes(int length, byte value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+}
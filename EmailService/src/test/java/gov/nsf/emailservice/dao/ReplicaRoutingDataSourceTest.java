@@ -0,0 +1,181 @@
+package gov.nsf.emailservice.dao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * ReplicaRoutingDataSource JUnit tests
+ *
+ */
+public class ReplicaRoutingDataSourceTest {
+
+    private DataSource primaryMock;
+    private DataSource replicaMock1;
+    private DataSource replicaMock2;
+    private Connection primaryConnection;
+    private Connection replicaConnection1;
+    private Connection replicaConnection2;
+
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Before
+    public void setUp() throws SQLException {
+        primaryMock = mock(DataSource.class);
+        replicaMock1 = mock(DataSource.class);
+        replicaMock2 = mock(DataSource.class);
+        primaryConnection = mock(Connection.class);
+        replicaConnection1 = mock(Connection.class);
+        replicaConnection2 = mock(Connection.class);
+        when(primaryMock.getConnection()).thenReturn(primaryConnection);
+        when(replicaMock1.getConnection()).thenReturn(replicaConnection1);
+        when(replicaMock2.getConnection()).thenReturn(replicaConnection2);
+
+        routingDataSource = new ReplicaRoutingDataSource();
+        routingDataSource.setPrimaryDataSource(primaryMock);
+        routingDataSource.setReplicaDataSources(Arrays.asList(replicaMock1, replicaMock2));
+        routingDataSource.setReplicationLagQuery(null);
+        routingDataSource.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        routingDataSource.destroy();
+    }
+
+    /**
+     * Tests that connections outside of read-only transactions come from the primary
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void readWriteUsesPrimaryTest() throws SQLException {
+        assertSame(primaryConnection, routingDataSource.getConnection());
+        verify(replicaMock1, never()).getConnection();
+        verify(replicaMock2, never()).getConnection();
+    }
+
+    /**
+     * Tests that read-only transactions take turns on the replicas
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void readOnlyUsesReplicasRoundRobinTest() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(replicaConnection1, routingDataSource.getConnection());
+        assertSame(replicaConnection2, routingDataSource.getConnection());
+        assertSame(replicaConnection1, routingDataSource.getConnection());
+        assertEquals(3, routingDataSource.getReplicaConnections());
+        verify(primaryMock, never()).getConnection();
+    }
+
+    /**
+     * Tests that an unreachable replica is skipped and that the primary is used once no replica is left
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void unreachableReplicaFallbackTest() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        when(replicaMock1.getConnection()).thenThrow(new SQLException("Connection refused"));
+
+        assertSame(replicaConnection2, routingDataSource.getConnection());
+        assertSame(replicaConnection2, routingDataSource.getConnection());
+        verify(replicaMock1, times(1)).getConnection();
+
+        when(replicaMock2.getConnection()).thenThrow(new SQLException("Connection refused"));
+        assertSame(primaryConnection, routingDataSource.getConnection());
+        assertEquals(1, routingDataSource.getPrimaryFallbacks());
+    }
+
+    /**
+     * Tests that a replica whose replication lag is above the maximum is skipped
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void laggingReplicaFallbackTest() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        DataSource laggingReplica = new DriverManagerDataSource("jdbc:h2:mem:replicaRoutingTest");
+
+        routingDataSource.setReplicaDataSources(Arrays.asList(laggingReplica));
+        routingDataSource.setReplicationLagQuery("select 60");
+        routingDataSource.setMaxReplicationLagSeconds(30);
+        routingDataSource.afterPropertiesSet();
+        assertSame(primaryConnection, routingDataSource.getConnection());
+        assertEquals(1, routingDataSource.getPrimaryFallbacks());
+
+        routingDataSource.setReplicationLagQuery("select 10");
+        routingDataSource.afterPropertiesSet();
+        Connection connection = routingDataSource.getConnection();
+        connection.close();
+        assertEquals(1, routingDataSource.getReplicaConnections());
+    }
+
+    /**
+     * Tests that requests use the replication lag of the last background check instead of checking it themselves
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void backgroundLagCheckTest() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        routingDataSource.setReplicaDataSources(Arrays.<DataSource>asList(new DriverManagerDataSource("jdbc:h2:mem:replicaRoutingTest")));
+        routingDataSource.setReplicationLagQuery("select 10");
+        routingDataSource.setMaxReplicationLagSeconds(30);
+        routingDataSource.setLagCheckIntervalMillis(60000);
+        routingDataSource.afterPropertiesSet();
+
+        routingDataSource.setReplicationLagQuery("select 60");
+        Connection connection = routingDataSource.getConnection();
+        connection.close();
+        assertEquals(1, routingDataSource.getReplicaConnections());
+
+        routingDataSource.checkReplicationLag();
+        assertSame(primaryConnection, routingDataSource.getConnection());
+        assertEquals(1, routingDataSource.getPrimaryFallbacks());
+    }
+
+    /**
+     * Tests that a transaction served by a replica is flagged as a replica read until it completes
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void replicaReadTest() throws SQLException {
+        TransactionSynchronizationManager.initSynchronization();
+        routingDataSource.getConnection();
+        assertFalse(ReplicaRoutingDataSource.isReplicaRead());
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        assertSame(replicaConnection1, routingDataSource.getConnection());
+        assertSame(replicaConnection2, routingDataSource.getConnection());
+        assertTrue(ReplicaRoutingDataSource.isReplicaRead());
+        assertEquals(1, TransactionSynchronizationManager.getSynchronizations().size());
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        assertFalse(ReplicaRoutingDataSource.isReplicaRead());
+    }
+}
@@ -0,0 +1,183 @@
+package gov.nsf.emailservice.dao;
+
+import gov.nsf.common.exception.RollbackException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * SearchParameterLookup JUnit tests
+ *
+ */
+public class SearchParameterLookupTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private SearchParameterLookup lookup;
+
+    @After
+    public void tearDown() {
+        if (lookup != null) {
+            lookup.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a due reload runs in the background while the loaded search parameters are still served
+     *
+     * @throws Exception
+     */
+    @Test
+    public void refreshAheadServesStaleDuringReloadTest() throws Exception {
+        final long now = System.currentTimeMillis();
+        final CountDownLatch reloadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseReload = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        lookup = new SearchParameterLookup(new SearchParameterLookup.Loader() {
+            @Override
+            public List<SearchParameterLookup.Definition> load() throws RollbackException {
+                if (loads.incrementAndGet() == 1) {
+                    return Collections.singletonList(new SearchParameterLookup.Definition(1, "award_id", now - DAY, now + DAY));
+                }
+                reloadStarted.countDown();
+                await(releaseReload);
+                return Arrays.asList(new SearchParameterLookup.Definition(1, "award_id", now - DAY, now + DAY),
+                        new SearchParameterLookup.Definition(2, "panel_id", now - DAY, now + DAY));
+            }
+        }, 0, 0);
+
+        assertEquals(Collections.singleton("award_id"), lookup.getSearchParameterNames());
+        assertEquals(Collections.singleton("award_id"), lookup.getSearchParameterNames());
+        assertTrue(reloadStarted.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singleton("award_id"), lookup.getSearchParameterNames());
+        assertEquals(2, loads.get());
+
+        releaseReload.countDown();
+        // the background reload holds the lookup's monitor until it has stored the new rows
+        synchronized (lookup) {
+            assertEquals(Integer.valueOf(2), lookup.getSearchParameterIDs().get("panel_id"));
+        }
+    }
+
+    /**
+     * Tests that search parameters start and stop being effective on their eff_date and end_date without
+     * a reload
+     *
+     * @throws Exception
+     */
+    @Test
+    public void effectiveDatingTest() throws Exception {
+        final long now = System.currentTimeMillis();
+        final AtomicLong clock = new AtomicLong(now);
+        final AtomicInteger loads = new AtomicInteger();
+        lookup = new SearchParameterLookup(new SearchParameterLookup.Loader() {
+            @Override
+            public List<SearchParameterLookup.Definition> load() throws RollbackException {
+                loads.incrementAndGet();
+                return Arrays.asList(new SearchParameterLookup.Definition(1, "award_id", now - DAY, now + 300),
+                        new SearchParameterLookup.Definition(2, "panel_id", now + 300, now + DAY),
+                        new SearchParameterLookup.Definition(3, "retired_id", now - 2 * DAY, now - DAY));
+            }
+        }, DAY, DAY) {
+            @Override
+            protected long currentTimeMillis() {
+                return clock.get();
+            }
+        };
+
+        assertEquals(Collections.singleton("award_id"), lookup.getSearchParameterNames());
+        clock.addAndGet(300);
+        assertEquals(Collections.singleton("panel_id"), lookup.getSearchParameterNames());
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * Tests that recomputing the effective search parameters for a passed end_date does not replace the rows
+     * of a reload that completed in the meantime
+     *
+     * @throws Exception
+     */
+    @Test
+    public void recomputeKeepsConcurrentReloadTest() throws Exception {
+        final long now = System.currentTimeMillis();
+        final AtomicLong clock = new AtomicLong(now);
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicBoolean reloadOnNextRead = new AtomicBoolean();
+        lookup = new SearchParameterLookup(new SearchParameterLookup.Loader() {
+            @Override
+            public List<SearchParameterLookup.Definition> load() throws RollbackException {
+                if (loads.incrementAndGet() == 1) {
+                    return Collections.singletonList(new SearchParameterLookup.Definition(1, "award_id", now - DAY, now + 300));
+                }
+                return Arrays.asList(new SearchParameterLookup.Definition(1, "award_id", now - DAY, now + 300),
+                        new SearchParameterLookup.Definition(2, "panel_id", now - DAY, now + DAY));
+            }
+        }, DAY, DAY) {
+            @Override
+            protected long currentTimeMillis() {
+                // a reload completing while a read recomputes the snapshot it started from
+                if (reloadOnNextRead.compareAndSet(true, false)) {
+                    try {
+                        reload();
+                    } catch (RollbackException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return clock.get();
+            }
+        };
+
+        assertEquals(Collections.singleton("award_id"), lookup.getSearchParameterNames());
+        clock.addAndGet(300);
+        reloadOnNextRead.set(true);
+        assertEquals(Collections.singleton("panel_id"), lookup.getSearchParameterNames());
+        assertEquals(Collections.singleton("panel_id"), lookup.getSearchParameterNames());
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * Tests that the loaded search parameters are still served when a background reload fails
+     *
+     * @throws Exception
+     */
+    @Test
+    public void failedReloadServesStaleTest() throws Exception {
+        final long now = System.currentTimeMillis();
+        final CountDownLatch reloadFailed = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        lookup = new SearchParameterLookup(new SearchParameterLookup.Loader() {
+            @Override
+            public List<SearchParameterLookup.Definition> load() throws RollbackException {
+                if (loads.incrementAndGet() > 1) {
+                    reloadFailed.countDown();
+                    throw new RollbackException("DB unavailable");
+                }
+                return new ArrayList<SearchParameterLookup.Definition>(Collections.singletonList(new SearchParameterLookup.Definition(1, "award_id", now - DAY, now + DAY)));
+            }
+        }, 0, DAY);
+
+        lookup.getSearchParameterNames();
+        assertTrue(reloadFailed.await(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), lookup.getSearchParameterIDs().get("award_id"));
+        assertEquals(2, loads.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package gov.nsf.emailservice.filter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * CompressionFilter JUnit tests
+ *
+ */
+public class CompressionFilterTest {
+
+    private static final String LARGE_LETTER = repeat("{\"eltrContent\":\"<p>Dear PI, your proposal has been received.</p>\"}", 100);
+    private static final String SMALL_LETTER = "{\"eltrID\":\"1\"}";
+
+    private CompressionFilter compressionFilter;
+
+    @Before
+    public void setUp() {
+        compressionFilter = new CompressionFilter();
+        compressionFilter.setMinCompressSize(1024);
+    }
+
+    /**
+     * Tests that Accept-Encoding is negotiated by q-value, preferring gzip
+     */
+    @Test
+    public void negotiateEncodingTest() {
+        assertNull(CompressionFilter.negotiateEncoding(null));
+        assertNull(CompressionFilter.negotiateEncoding("identity"));
+        assertNull(CompressionFilter.negotiateEncoding("gzip;q=0, deflate;q=0"));
+        assertEquals("gzip", CompressionFilter.negotiateEncoding("gzip, deflate"));
+        assertEquals("gzip", CompressionFilter.negotiateEncoding("*"));
+        assertEquals("deflate", CompressionFilter.negotiateEncoding("gzip;q=0.5, deflate"));
+        assertEquals("deflate", CompressionFilter.negotiateEncoding("deflate, *;q=0"));
+    }
+
+    /**
+     * Tests that a response above the minimum size is gzip encoded when the client accepts gzip
+     *
+     * @throws Exception
+     */
+    @Test
+    public void gzipResponseTest() throws Exception {
+        MockHttpServletResponse response = filter(getRequest("gzip, deflate"), LARGE_LETTER, "application/json;charset=UTF-8");
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertTrue(response.getContentAsByteArray().length < LARGE_LETTER.length() / 10);
+        assertEquals(LARGE_LETTER, read(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))));
+    }
+
+    /**
+     * Tests that a response is deflate encoded when the client prefers deflate
+     *
+     * @throws Exception
+     */
+    @Test
+    public void deflateResponseTest() throws Exception {
+        MockHttpServletResponse response = filter(getRequest("deflate, gzip;q=0.1"), LARGE_LETTER, "application/json;charset=UTF-8");
+
+        assertEquals("deflate", response.getHeader("Content-Encoding"));
+        assertEquals(LARGE_LETTER, read(new InflaterInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))));
+    }
+
+    /**
+     * Tests that responses below the minimum size, of a content type that is not compressible, or to a client
+     * that does not accept a compressed response are sent as they are
+     *
+     * @throws Exception
+     */
+    @Test
+    public void uncompressedResponseTest() throws Exception {
+        MockHttpServletResponse response = filter(getRequest("gzip"), SMALL_LETTER, "application/json;charset=UTF-8");
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(SMALL_LETTER, response.getContentAsString());
+        assertEquals(SMALL_LETTER.length(), response.getContentLength());
+
+        response = filter(getRequest("gzip"), LARGE_LETTER, "image/png");
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(LARGE_LETTER, response.getContentAsString());
+
+        response = filter(getRequest(null), LARGE_LETTER, "application/json;charset=UTF-8");
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(LARGE_LETTER, response.getContentAsString());
+    }
+
+    /**
+     * Tests that gzip and deflate request bodies are decompressed before they reach the servlet
+     *
+     * @throws Exception
+     */
+    @Test
+    public void compressedRequestTest() throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzipped);
+        gzipOutputStream.write(LARGE_LETTER.getBytes(StandardCharsets.UTF_8));
+        gzipOutputStream.close();
+        assertEquals(LARGE_LETTER, filterRequestBody("gzip", gzipped.toByteArray()));
+
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(deflated);
+        deflaterOutputStream.write(LARGE_LETTER.getBytes(StandardCharsets.UTF_8));
+        deflaterOutputStream.close();
+        assertEquals(LARGE_LETTER, filterRequestBody("deflate", deflated.toByteArray()));
+    }
+
+    /**
+     * Tests that a request body in an unsupported encoding is rejected, and that a request body that
+     * decompresses to more than the maximum fails
+     *
+     * @throws Exception
+     */
+    @Test
+    public void rejectedRequestTest() throws Exception {
+        MockHttpServletRequest request = getRequest(null);
+        request.addHeader("Content-Encoding", "br");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain filterChain = new MockFilterChain();
+        compressionFilter.doFilter(request, response, filterChain);
+        assertEquals(415, response.getStatus());
+        assertNull(filterChain.getRequest());
+
+        compressionFilter.setMaxInflatedRequestBytes(100);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzipped);
+        gzipOutputStream.write(LARGE_LETTER.getBytes(StandardCharsets.UTF_8));
+        gzipOutputStream.close();
+        try {
+            filterRequestBody("gzip", gzipped.toByteArray());
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("100"));
+        }
+    }
+
+    /**
+     * Tests that a body held back below the minimum size is still written out when the servlet throws
+     *
+     * @throws Exception
+     */
+    @Test
+    public void failedRequestTest() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            compressionFilter.doFilter(getRequest("gzip"), response, new MockFilterChain(new HttpServlet() {
+                @Override
+                public void service(ServletRequest request, ServletResponse response) throws IOException {
+                    response.setContentType("application/json;charset=UTF-8");
+                    response.getWriter().write(SMALL_LETTER);
+                    throw new IOException("Connection reset");
+                }
+            }));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+        assertEquals(SMALL_LETTER, response.getContentAsString());
+    }
+
+    /**
+     * Tests that a 304 response is not given a Content-Length
+     *
+     * @throws Exception
+     */
+    @Test
+    public void notModifiedResponseTest() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        compressionFilter.doFilter(getRequest("gzip"), response, new MockFilterChain(new HttpServlet() {
+            @Override
+            public void service(ServletRequest request, ServletResponse response) {
+                ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                ((HttpServletResponse) response).setHeader("ETag", "\"1\"");
+            }
+        }));
+        assertEquals(304, response.getStatus());
+        assertNull(response.getHeader("Content-Length"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    /**
+     * Tests that a write listener is registered with the output stream of the wrapped response
+     *
+     * @throws Exception
+     */
+    @Test
+    public void writeListenerTest() throws Exception {
+        final WriteListener[] registered = new WriteListener[1];
+        final ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public boolean isReady() {
+                return false;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                registered[0] = writeListener;
+            }
+        };
+        HttpServletResponse response = new HttpServletResponseWrapper(new MockHttpServletResponse()) {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return outputStream;
+            }
+        };
+        final WriteListener writeListener = new WriteListener() {
+            @Override
+            public void onWritePossible() {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        };
+        final boolean[] ready = new boolean[1];
+        compressionFilter.doFilter(getRequest("gzip"), response, new MockFilterChain(new HttpServlet() {
+            @Override
+            public void service(ServletRequest request, ServletResponse response) throws IOException {
+                response.getOutputStream().setWriteListener(writeListener);
+                ready[0] = response.getOutputStream().isReady();
+            }
+        }));
+        assertSame(writeListener, registered[0]);
+        assertFalse(ready[0]);
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request, final String body, final String contentType) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        compressionFilter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            public void service(ServletRequest request, ServletResponse response) throws IOException {
+                response.setContentType(contentType);
+                response.getWriter().write(body);
+                response.flushBuffer();
+            }
+        }));
+        return response;
+    }
+
+    private String filterRequestBody(String contentEncoding, byte[] body) throws Exception {
+        MockHttpServletRequest request = getRequest(null);
+        request.setMethod("POST");
+        request.addHeader("Content-Encoding", contentEncoding);
+        request.setContent(body);
+        final String[] received = new String[1];
+        compressionFilter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain(new HttpServlet() {
+            @Override
+            public void service(ServletRequest request, ServletResponse response) throws ServletException, IOException {
+                assertNull(((javax.servlet.http.HttpServletRequest) request).getHeader("Content-Encoding"));
+                assertEquals(-1, request.getContentLength());
+                received[0] = read(request.getInputStream());
+            }
+        }));
+        return received[0];
+    }
+
+    private static MockHttpServletRequest getRequest(String acceptEncoding) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/letter/1");
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        return request;
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        return StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package gov.nsf.emailservice.mail;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * BatchingJavaMailSender JUnit tests against a GreenMail SMTP server and a mocked JavaMailSender
+ *
+ */
+public class BatchingJavaMailSenderTest {
+
+    private GreenMail greenMail;
+    private PooledJavaMailSender pooledJavaMailSender;
+    private BatchingJavaMailSender batchingJavaMailSender;
+
+    @Before
+    public void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.setUser("test@mail.extern", "test", "xxx");
+        greenMail.start();
+
+        pooledJavaMailSender = PooledJavaMailSenderTest.getMailSender();
+        pooledJavaMailSender.afterPropertiesSet();
+        batchingJavaMailSender = new BatchingJavaMailSender(pooledJavaMailSender);
+    }
+
+    @After
+    public void tearDown() {
+        pooledJavaMailSender.destroy();
+        greenMail.stop();
+    }
+
+    /**
+     * Tests that the messages of a batch are sent over one connection, and that an item whose ItemSender
+     * throws fails on its own
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sendBatchTest() throws Exception {
+        List<Integer> items = Arrays.asList(0, 1, 2, 3, 4);
+        List<Exception> failures = batchingJavaMailSender.sendBatch(items, new BatchingJavaMailSender.ItemSender<Integer>() {
+            @Override
+            public void send(Integer item) {
+                if (item == 2) {
+                    throw new IllegalArgumentException("no recipient");
+                }
+                batchingJavaMailSender.send(PooledJavaMailSenderTest.getMessage(item));
+            }
+        });
+
+        assertEquals(5, failures.size());
+        for (int i = 0; i < 5; i++) {
+            if (i == 2) {
+                assertTrue(failures.get(i) instanceof IllegalArgumentException);
+            } else {
+                assertNull(failures.get(i));
+            }
+        }
+        assertTrue(greenMail.waitForIncomingEmail(5000, 4));
+        SmtpTransportPoolMetrics metrics = pooledJavaMailSender.getPoolMetrics();
+        assertEquals(1, metrics.getCreated());
+        assertEquals(1, metrics.getBorrowed());
+        assertEquals(4, metrics.getMessagesSent());
+
+        // outside sendBatch messages are sent straight away
+        batchingJavaMailSender.send(PooledJavaMailSenderTest.getMessage(5));
+        assertTrue(greenMail.waitForIncomingEmail(5000, 5));
+    }
+
+    /**
+     * Tests that a message rejected by the mail server fails only the item that sent it
+     *
+     * @throws Exception
+     */
+    @Test
+    public void rejectedMessageTest() throws Exception {
+        final IllegalStateException rejected = new IllegalStateException("550 mailbox unavailable");
+        JavaMailSender javaMailSender = mock(JavaMailSender.class);
+        when(javaMailSender.createMimeMessage()).thenAnswer(new Answer<MimeMessage>() {
+            @Override
+            public MimeMessage answer(InvocationOnMock invocation) {
+                return new MimeMessage((Session) null);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                Map<Object, Exception> failedMessages = new LinkedHashMap<Object, Exception>();
+                for (Object message : invocation.getArguments()) {
+                    if (((MimeMessage) message).getAllRecipients()[0].toString().startsWith("bad")) {
+                        failedMessages.put(message, rejected);
+                    }
+                }
+                throw new MailSendException(failedMessages);
+            }
+        }).when(javaMailSender).send((MimeMessage[]) anyVararg());
+        final BatchingJavaMailSender sender = new BatchingJavaMailSender(javaMailSender);
+
+        List<String> recipients = Arrays.asList("first@nsf.gov", "bad@nsf.gov", "last@nsf.gov");
+        List<Exception> failures = sender.sendBatch(recipients, new BatchingJavaMailSender.ItemSender<String>() {
+            @Override
+            public void send(final String recipient) {
+                sender.send(new MimeMessagePreparator() {
+                    @Override
+                    public void prepare(MimeMessage mimeMessage) throws Exception {
+                        MimeMessageHelper helper = new MimeMessageHelper(mimeMessage);
+                        helper.setFrom("test@mail.extern");
+                        helper.setTo(recipient);
+                        helper.setSubject("Batched message");
+                        helper.setText("Body");
+                    }
+                });
+            }
+        });
+
+        assertNull(failures.get(0));
+        assertSame(rejected, failures.get(1));
+        assertNull(failures.get(2));
+        verify(javaMailSender, times(1)).send((MimeMessage[]) anyVararg());
+    }
+}
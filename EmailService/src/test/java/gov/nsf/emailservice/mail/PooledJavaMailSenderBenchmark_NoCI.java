@@ -0,0 +1,85 @@
+package gov.nsf.emailservice.mail;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares a JavaMailSenderImpl, which connects and authenticates for every send, with a PooledJavaMailSender
+ * against an in-process GreenMail SMTP server
+ *
+ * Excluded from the CI build by the *_NoCI* surefire exclude - run manually with:
+ * mvn test -Dtest=PooledJavaMailSenderBenchmark_NoCI
+ */
+public class PooledJavaMailSenderBenchmark_NoCI {
+
+    private static final int MESSAGE_COUNT = 500;
+    private static final int ITERATIONS = 5;
+
+    private GreenMail greenMail;
+
+    @Before
+    public void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.setUser("test@mail.extern", "test", "xxx");
+        greenMail.start();
+    }
+
+    @After
+    public void tearDown() {
+        greenMail.stop();
+    }
+
+    @Test
+    public void sendBenchmark() throws Exception {
+        JavaMailSenderImpl unpooled = new JavaMailSenderImpl();
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.auth", "true");
+        unpooled.setJavaMailProperties(properties);
+        unpooled.setHost("localhost");
+        unpooled.setPort(ServerSetupTest.SMTP.getPort());
+        unpooled.setUsername("test");
+        unpooled.setPassword("xxx");
+
+        PooledJavaMailSender pooled = PooledJavaMailSenderTest.getMailSender();
+        pooled.afterPropertiesSet();
+
+        // warm up both senders before timing
+        send(unpooled);
+        send(pooled);
+
+        long unpooledNanos = 0;
+        long pooledNanos = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            unpooledNanos += send(unpooled);
+            pooledNanos += send(pooled);
+        }
+
+        System.out.println("Sent " + MESSAGE_COUNT + " messages one send() at a time " + ITERATIONS + " times");
+        System.out.println("  connection per send: " + (unpooledNanos / ITERATIONS / MESSAGE_COUNT / 1000.0) + " us/message");
+        System.out.println("  pooled connections:  " + (pooledNanos / ITERATIONS / MESSAGE_COUNT / 1000.0) + " us/message");
+        System.out.println("  " + pooled.getPoolMetrics());
+        pooled.destroy();
+    }
+
+    private long send(JavaMailSender mailSender) throws Exception {
+        int received = greenMail.getReceivedMessages().length;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            mailSender.send(PooledJavaMailSenderTest.getMessage(i));
+        }
+
+        long elapsed = System.nanoTime() - start;
+        assertTrue(greenMail.waitForIncomingEmail(10000, received + MESSAGE_COUNT));
+        return elapsed;
+    }
+}
@@ -0,0 +1,151 @@
+package gov.nsf.emailservice.mail;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jmx.export.MBeanExporter;
+import org.springframework.mail.SimpleMailMessage;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PooledJavaMailSender JUnit tests against a GreenMail SMTP server
+ *
+ */
+public class PooledJavaMailSenderTest {
+
+    private GreenMail greenMail;
+    private PooledJavaMailSender mailSender;
+
+    @Before
+    public void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.setUser("test@mail.extern", "test", "xxx");
+        greenMail.start();
+
+        mailSender = getMailSender();
+        mailSender.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        mailSender.destroy();
+        greenMail.stop();
+    }
+
+    /**
+     * Tests that consecutive sends share one authenticated connection
+     *
+     * @throws Exception
+     */
+    @Test
+    public void connectionReusedTest() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            mailSender.send(getMessage(i));
+        }
+
+        assertTrue(greenMail.waitForIncomingEmail(5000, 5));
+        SmtpTransportPoolMetrics metrics = mailSender.getPoolMetrics();
+        assertEquals(1, metrics.getCreated());
+        assertEquals(4, metrics.getReused());
+        assertEquals(5, metrics.getMessagesSent());
+        assertEquals(1, metrics.getIdle());
+    }
+
+    /**
+     * Tests that an MBeanExporter publishes the pool metrics as a composite JMX attribute
+     *
+     * @throws Exception
+     */
+    @Test
+    public void poolMetricsMXBeanTest() throws Exception {
+        mailSender.send(getMessage(0));
+        assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("gov.nsf.emailservice:type=SmtpTransportPool");
+        MBeanExporter exporter = new MBeanExporter();
+        exporter.setServer(server);
+        exporter.setBeans(Collections.<String, Object>singletonMap(name.toString(), mailSender));
+        exporter.afterPropertiesSet();
+        exporter.afterSingletonsInstantiated();
+        try {
+            CompositeData metrics = (CompositeData) server.getAttribute(name, "PoolMetrics");
+            assertEquals(1L, metrics.get("messagesSent"));
+            assertEquals(1, metrics.get("idle"));
+        } finally {
+            exporter.destroy();
+        }
+    }
+
+    /**
+     * Tests that a connection is replaced after maxMessagesPerConnection messages
+     *
+     * @throws Exception
+     */
+    @Test
+    public void maxMessagesPerConnectionTest() throws Exception {
+        mailSender.setMaxMessagesPerConnection(2);
+        mailSender.send(getMessage(0), getMessage(1), getMessage(2), getMessage(3), getMessage(4));
+
+        assertTrue(greenMail.waitForIncomingEmail(5000, 5));
+        SmtpTransportPoolMetrics metrics = mailSender.getPoolMetrics();
+        assertEquals(3, metrics.getCreated());
+        assertEquals(2, metrics.getRetired());
+    }
+
+    /**
+     * Tests that a connection the server has dropped fails its NOOP health check and is replaced
+     *
+     * @throws Exception
+     */
+    @Test
+    public void brokenConnectionReplacedTest() throws Exception {
+        mailSender.setValidateAfterIdleMillis(0);
+        mailSender.send(getMessage(0));
+
+        greenMail.stop();
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.setUser("test@mail.extern", "test", "xxx");
+        greenMail.start();
+        Thread.sleep(5);
+
+        mailSender.send(getMessage(1));
+        assertTrue(greenMail.waitForIncomingEmail(5000, 1));
+        SmtpTransportPoolMetrics metrics = mailSender.getPoolMetrics();
+        assertEquals(2, metrics.getCreated());
+        assertEquals(1, metrics.getValidationFailures());
+    }
+
+    static PooledJavaMailSender getMailSender() {
+        PooledJavaMailSender mailSender = new PooledJavaMailSender();
+        Properties properties = new Properties();
+        properties.setProperty("mail.smtp.auth", "true");
+        mailSender.setJavaMailProperties(properties);
+        mailSender.setHost("localhost");
+        mailSender.setPort(ServerSetupTest.SMTP.getPort());
+        mailSender.setUsername("test");
+        mailSender.setPassword("xxx");
+        mailSender.setDefaultEncoding("utf8");
+        return mailSender;
+    }
+
+    static SimpleMailMessage getMessage(int i) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom("test@mail.extern");
+        message.setTo("recipient" + i + "@nsf.gov");
+        message.setSubject("Pooled message " + i);
+        message.setText("Body of pooled message " + i);
+        return message;
+    }
+}
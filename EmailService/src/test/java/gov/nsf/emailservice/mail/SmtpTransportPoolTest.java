@@ -0,0 +1,138 @@
+package gov.nsf.emailservice.mail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * SmtpTransportPool JUnit tests against mocked Transports
+ *
+ */
+public class SmtpTransportPoolTest {
+
+    private final List<Transport> connected = new ArrayList<Transport>();
+    private SmtpTransportPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new SmtpTransportPool(new SmtpTransportPool.TransportConnector() {
+            @Override
+            public Transport connect() {
+                Transport transport = mock(Transport.class);
+                when(transport.isConnected()).thenReturn(true);
+                connected.add(transport);
+                return transport;
+            }
+        });
+    }
+
+    /**
+     * Tests that a released connection is reused instead of connecting again
+     *
+     * @throws Exception
+     */
+    @Test
+    public void reuseTest() throws Exception {
+        SmtpTransportPool.PooledTransport first = pool.borrow();
+        pool.messageSent(first);
+        pool.release(first, true);
+
+        SmtpTransportPool.PooledTransport second = pool.borrow();
+        assertSame(first, second);
+        assertEquals(1, connected.size());
+
+        SmtpTransportPoolMetrics metrics = pool.getMetrics();
+        assertEquals(1, metrics.getCreated());
+        assertEquals(2, metrics.getBorrowed());
+        assertEquals(1, metrics.getReused());
+        assertEquals(1, metrics.getActive());
+        assertEquals(1, metrics.getMessagesSent());
+    }
+
+    /**
+     * Tests that a connection is closed once it has sent maxMessagesPerConnection messages, and one
+     * released as broken is never reused
+     *
+     * @throws Exception
+     */
+    @Test
+    public void retireTest() throws Exception {
+        pool.setMaxMessagesPerConnection(2);
+        SmtpTransportPool.PooledTransport pooled = pool.borrow();
+        pool.messageSent(pooled);
+        pool.messageSent(pooled);
+        pool.release(pooled, true);
+        verify(connected.get(0), times(1)).close();
+
+        pooled = pool.borrow();
+        pool.release(pooled, false);
+        verify(connected.get(1), times(1)).close();
+
+        SmtpTransportPoolMetrics metrics = pool.getMetrics();
+        assertEquals(2, metrics.getCreated());
+        assertEquals(2, metrics.getClosed());
+        assertEquals(1, metrics.getRetired());
+        assertEquals(0, metrics.getOpen());
+    }
+
+    /**
+     * Tests that idle connections are closed by evictIdle, and that a connection idle for longer than
+     * validateAfterIdleMillis is replaced when its NOOP fails
+     *
+     * @throws Exception
+     */
+    @Test
+    public void evictAndValidateTest() throws Exception {
+        pool.setMaxIdleMillis(0);
+        SmtpTransportPool.PooledTransport pooled = pool.borrow();
+        pool.release(pooled, true);
+        Thread.sleep(5);
+        assertEquals(1, pool.evictIdle());
+        assertEquals(1, pool.getMetrics().getEvicted());
+        assertEquals(0, pool.getMetrics().getOpen());
+
+        pool.setMaxIdleMillis(60000);
+        pool.setValidateAfterIdleMillis(0);
+        pooled = pool.borrow();
+        pool.release(pooled, true);
+        when(connected.get(1).isConnected()).thenReturn(false);
+        Thread.sleep(5);
+
+        SmtpTransportPool.PooledTransport replaced = pool.borrow();
+        assertSame(connected.get(2), replaced.getTransport());
+        verify(connected.get(1), times(1)).close();
+        assertEquals(1, pool.getMetrics().getValidationFailures());
+    }
+
+    /**
+     * Tests that no more than maxTotal connections are opened and that borrow times out when all are in use
+     *
+     * @throws Exception
+     */
+    @Test
+    public void maxTotalTest() throws Exception {
+        pool.setMaxTotal(1);
+        pool.setBorrowTimeoutMillis(50);
+        SmtpTransportPool.PooledTransport pooled = pool.borrow();
+        try {
+            pool.borrow();
+            fail("Expected MessagingException");
+        } catch (MessagingException e) {
+            assertEquals(1, pool.getMetrics().getBorrowTimeouts());
+        }
+
+        pool.release(pooled, true);
+        assertSame(pooled, pool.borrow());
+        assertEquals(1, connected.size());
+    }
+}
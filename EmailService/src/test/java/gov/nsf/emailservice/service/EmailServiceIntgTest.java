@@ -1,18 +1,41 @@
 package gov.nsf.emailservice.service;
 
+import gov.mynsf.common.email.model.EmailRequest;
+import gov.mynsf.common.email.model.SendLevelEnum;
+import gov.mynsf.common.email.model.SendMetaData;
+import gov.mynsf.common.email.util.NsfEmailUtil;
 import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.LetterNotFoundException;
 import gov.nsf.emailservice.api.model.LetterResponseWrapper;
+import gov.nsf.emailservice.api.model.LetterStatus;
 import gov.nsf.emailservice.common.util.TestUtils;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.MailSendException;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * Created by jacklinden on 2/2/17.
@@ -26,6 +49,15 @@ public class EmailServiceIntgTest {
     @Autowired
     private EmailServiceImpl emailService;
 
+    @Autowired
+    private CacheManager ehcache;
+
+    @Autowired
+    private NsfEmailUtil nsfEmailUtil;
+
+    @Autowired
+    private DataSource dataSource;
+
     @Test
     public void getLetterTest() throws Exception {
         LetterResponseWrapper wrapper = emailService.getLetter("1");
@@ -73,5 +105,65 @@ public class EmailServiceIntgTest {
         System.out.println(savedLetter);
     }
 
+    /**
+     * Tests that a getLetter for a missing eltrID caches the miss in the missingLetters cache, although the
+     * LetterNotFoundException ends the getLetter transaction
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getLetterMissingCacheTest() throws Exception {
+        Ehcache missingLetters = ehcache.getEhcache("missingLetters");
+        String missingEltrID = "9400";
+        assertFalse(missingLetters.isKeyInCache(missingEltrID));
+
+        try {
+            emailService.getLetter(missingEltrID);
+            fail("Expected LetterNotFoundException");
+        } catch (LetterNotFoundException e) {
+            assertTrue(missingLetters.isKeyInCache(missingEltrID));
+        }
+    }
 
+    /**
+     * Tests that sendStoredLetter sends the letter only after the Sent status has been committed, and leaves the
+     * letter Sent when the send fails, so it cannot be sent twice
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sendStoredLetterAfterCommitTest() throws Exception {
+        final String eltrID = emailService.saveLetter(TestUtils.getMockLetter(null), null).getLetter().getEltrID();
+        final String[] committedStatus = new String[1];
+        NsfEmailUtil failingEmailUtil = mock(NsfEmailUtil.class);
+        when(failingEmailUtil.getSendLevel()).thenReturn(SendLevelEnum.ProdLevel);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                // a connection of its own only sees the status once it is committed
+                Connection connection = dataSource.getConnection();
+                try {
+                    PreparedStatement statement = connection.prepareStatement("select ltr_stts_code from dbo.ntfy_ltr where ntfy_ltr_id = ?");
+                    statement.setInt(1, Integer.parseInt(eltrID));
+                    ResultSet resultSet = statement.executeQuery();
+                    resultSet.next();
+                    committedStatus[0] = resultSet.getString(1);
+                } finally {
+                    connection.close();
+                }
+                throw new IllegalStateException("mail server down");
+            }
+        }).when(failingEmailUtil).sendEmail(any(EmailRequest.class));
+
+        emailService.setNsfEmailUtil(failingEmailUtil);
+        try {
+            emailService.sendStoredLetter(eltrID, new SendMetaData(), "sender");
+            fail("Expected MailSendException");
+        } catch (MailSendException e) {
+            assertEquals(LetterStatus.Sent.getCode(), committedStatus[0]);
+            assertEquals(LetterStatus.Sent, emailService.getLetter(eltrID).getLetter().getEltrStatus());
+        } finally {
+            emailService.setNsfEmailUtil(nsfEmailUtil);
+        }
+    }
 }
@@ -1,31 +1,58 @@
 package gov.nsf.emailservice.service;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import gov.mynsf.common.email.model.EmailRequest;
 import gov.mynsf.common.email.model.SendLevelEnum;
 import gov.mynsf.common.email.model.SendMetaData;
 import gov.mynsf.common.email.util.NsfEmailUtil;
+import gov.nsf.common.exception.FormValidationException;
 import gov.nsf.common.exception.RollbackException;
+import gov.nsf.common.model.BaseError;
+import gov.nsf.common.model.BaseResponseWrapper;
 import gov.nsf.emailservice.api.model.*;
+import gov.nsf.emailservice.api.model.request.BulkSendRow;
+import gov.nsf.emailservice.api.service.BulkSendHandler;
+import gov.nsf.emailservice.api.service.LetterHandler;
 import gov.nsf.emailservice.common.util.Constants;
 import gov.nsf.emailservice.common.util.TestConstants;
 import gov.nsf.emailservice.common.util.TestUtils;
+import gov.nsf.emailservice.common.util.Utils;
 import gov.nsf.emailservice.dao.EmailDaoImpl;
+import gov.nsf.emailservice.dao.SendOutboxEntry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mail.MailSendException;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -99,6 +126,87 @@ public class EmailServiceTest {
 
     }
 
+    /**
+     * Tests that findLetter reads one ID more than the page limit, returns only limit letters and
+     * points the nextCursor after the last of them
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterPageTest() throws Exception {
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
+        when(emailDao.getSearchParameterNames()).thenReturn(new HashSet<String>());
+        when(emailDao.findLetterIDs(any(SearchParameter.class), any(Set.class), eq(3), eq("7"))).thenReturn(Arrays.asList("8", "9", "11"));
+        when(emailDao.getLetters(Arrays.asList("8", "9"))).thenReturn(Arrays.asList(TestUtils.getMockLetter("8"), TestUtils.getMockLetter("9")));
+
+        LetterListResponseWrapper wrapper = emailService.findLetter(searchParameter, 2, Utils.encodeLetterCursor("7"));
+        assertEquals(2, wrapper.getLetters().size());
+        assertEquals(Utils.encodeLetterCursor("9"), wrapper.getNextCursor());
+    }
+
+    /**
+     * Tests that findLetter returns no nextCursor on the last page
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterLastPageTest() throws Exception {
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
+        when(emailDao.getSearchParameterNames()).thenReturn(new HashSet<String>());
+        when(emailDao.findLetterIDs(any(SearchParameter.class), any(Set.class), eq(3), eq((String) null))).thenReturn(Arrays.asList("8", "9"));
+        when(emailDao.getLetters(Arrays.asList("8", "9"))).thenReturn(Arrays.asList(TestUtils.getMockLetter("8"), TestUtils.getMockLetter("9")));
+
+        LetterListResponseWrapper wrapper = emailService.findLetter(searchParameter, 2, null);
+        assertEquals(2, wrapper.getLetters().size());
+        assertNull(wrapper.getNextCursor());
+    }
+
+    /**
+     * Tests that the streaming findLetter passes the LetterHandler through to the EmailDao
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterStreamTest() throws Exception {
+        SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
+        LetterHandler letterHandler = mock(LetterHandler.class);
+        Set<String> searchParameterNames = Collections.singleton("Award_Id");
+        when(emailDao.getSearchParameterNames()).thenReturn(searchParameterNames);
+
+        emailService.findLetter(searchParameter, letterHandler);
+        verify(emailDao, times(1)).findLetter(searchParameter, searchParameterNames, letterHandler);
+    }
+
+    /**
+     * Tests that findLetter with a LetterSearchCriteria looks the search parameters up by ID and pages
+     * like the single search parameter findLetter
+     *
+     * @throws Exception
+     */
+    @Test
+    public void findLetterSearchCriteriaPageTest() throws Exception {
+        LetterSearchCriteria criteria = new LetterSearchCriteria(Arrays.asList(new SearchParameter("Award_Id", "1234"), new SearchParameter("Panel_Id", "p1")));
+        Map<String, Integer> searchParameterIDs = Collections.singletonMap("Award_Id", 1);
+        when(emailDao.getSearchParameterIDs()).thenReturn(searchParameterIDs);
+        when(emailDao.findLetterIDs(criteria, searchParameterIDs, 3, "7")).thenReturn(Arrays.asList("8", "9", "11"));
+        when(emailDao.getLetters(Arrays.asList("8", "9"))).thenReturn(Arrays.asList(TestUtils.getMockLetter("8"), TestUtils.getMockLetter("9")));
+
+        LetterListResponseWrapper wrapper = emailService.findLetter(criteria, 2, Utils.encodeLetterCursor("7"));
+        assertEquals(2, wrapper.getLetters().size());
+        assertEquals(Utils.encodeLetterCursor("9"), wrapper.getNextCursor());
+    }
+
+    @Test
+    public void findLetterSearchCriteriaTest() throws Exception {
+        LetterSearchCriteria criteria = new LetterSearchCriteria(Arrays.asList(new SearchParameter("Award_Id", "1234"), new SearchParameter("Panel_Id", "p1")));
+        Map<String, Integer> searchParameterIDs = Collections.singletonMap("Award_Id", 1);
+        when(emailDao.getSearchParameterIDs()).thenReturn(searchParameterIDs);
+        when(emailDao.findLetter(criteria, searchParameterIDs)).thenReturn(Collections.singletonList(TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID)));
+
+        LetterListResponseWrapper wrapper = emailService.findLetter(criteria);
+        assertEquals(1, wrapper.getLetters().size());
+    }
+
     @Test( expected = RollbackException.class )
     public void findLetterExceptionTest() throws Exception {
         SearchParameter searchParameter = new SearchParameter("Award_Id", "1234");
@@ -123,8 +231,8 @@ public class EmailServiceTest {
     public void saveLetterHappyPathTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
         when(emailDao.saveLetter(mockedLetter,null)).thenReturn(mockedLetter);
-        when(emailDao.getSearchParameterNames()).thenReturn(new HashSet<String>());
-        doNothing().when(emailDao).storeSearchParameters(any(Letter.class), any(Set.class));
+        when(emailDao.getSearchParameterIDs()).thenReturn(new HashMap<String, Integer>());
+        doNothing().when(emailDao).storeSearchParameters(any(Letter.class), any(Map.class));
         LetterResponseWrapper returnedLetterWrapper = emailService.saveLetter(mockedLetter);
         assertNotNull(returnedLetterWrapper);
     }
@@ -237,6 +345,119 @@ public class EmailServiceTest {
         emailService.sendLetter(letter,metaData);
     }
 
+    /**
+     * Tests that with a send outbox the letter is queued instead of sent, and the tracking ID is returned
+     *
+     * @throws RollbackException
+     */
+    @Test
+    public void sendLetterOutboxTest() throws RollbackException {
+        EmailRequest emailRequest = TestUtils.getMockEmailRequest();
+        Letter letter = TestUtils.convertEmailRequestToSendLetterRequest(emailRequest).getLetter();
+        SendMetaData metaData = emailRequest.getSendMetaData();
+        SendOutbox sendOutbox = mock(SendOutbox.class);
+        when(sendOutbox.enqueue(letter, metaData)).thenReturn("42");
+        when(nsfEmailUtil.getSendLevel()).thenReturn(SendLevelEnum.ProdLevel);
+        emailService.setSendOutbox(sendOutbox);
+
+        SendLetterResponseWrapper wrapper = (SendLetterResponseWrapper) emailService.sendLetter(letter, metaData);
+        assertEquals("42", wrapper.getTrackingID());
+        assertEquals(SendStatus.Queued, wrapper.getSendStatus());
+        verify(nsfEmailUtil, times(0)).sendEmail(any(EmailRequest.class));
+    }
+
+    /**
+     * Tests that getSendStatus returns the status of a queued send request, and throws
+     * SendRequestNotFoundException for unknown or malformed tracking IDs
+     *
+     * @throws RollbackException
+     */
+    @Test
+    public void getSendStatusTest() throws RollbackException {
+        SendOutbox sendOutbox = mock(SendOutbox.class);
+        when(sendOutbox.getSendStatus("42")).thenReturn(new SendOutboxEntry("42", null, SendStatus.Queued, 1, "mail server down"));
+        emailService.setSendOutbox(sendOutbox);
+
+        SendLetterResponseWrapper wrapper = emailService.getSendStatus("42");
+        assertEquals("42", wrapper.getTrackingID());
+        assertEquals(SendStatus.Queued, wrapper.getSendStatus());
+        assertEquals(Integer.valueOf(1), wrapper.getAttempts());
+        assertEquals("mail server down", wrapper.getLastError());
+
+        for (String trackingID : Arrays.asList("43", "abc", "", null)) {
+            try {
+                emailService.getSendStatus(trackingID);
+                fail("Expected SendRequestNotFoundException for " + trackingID);
+            } catch (SendRequestNotFoundException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Tests that sendStoredLetter marks the stored letter Sent and sends it, or queues it if a sendOutbox is set
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sendStoredLetterTest() throws Exception {
+        Letter letter = TestUtils.getMockLetter("1");
+        SendMetaData metaData = new SendMetaData();
+        when(emailDao.markLetterSent("1", "sender")).thenReturn(letter);
+        when(nsfEmailUtil.getSendLevel()).thenReturn(SendLevelEnum.ProdLevel);
+
+        BaseResponseWrapper wrapper = emailService.sendStoredLetter("1", metaData, "sender");
+        assertFalse(wrapper instanceof SendLetterResponseWrapper);
+        verify(nsfEmailUtil, times(1)).sendEmail(any(EmailRequest.class));
+
+        SendOutbox sendOutbox = mock(SendOutbox.class);
+        when(sendOutbox.enqueue(letter, metaData)).thenReturn("42");
+        emailService.setSendOutbox(sendOutbox);
+
+        wrapper = emailService.sendStoredLetter("1", metaData, "sender");
+        assertEquals("42", ((SendLetterResponseWrapper) wrapper).getTrackingID());
+        verify(nsfEmailUtil, times(1)).sendEmail(any(EmailRequest.class));
+    }
+
+    /**
+     * Tests that sendStoredLetter does not send a stored letter that cannot be sent, and fails (leaving the
+     * letter Sent) when the send fails
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sendStoredLetterFailureTest() throws Exception {
+        Letter letter = TestUtils.getMockLetter("1");
+        letter.getEmailInfo().getToAddresses().clear();
+        when(emailDao.markLetterSent("1", "sender")).thenReturn(letter);
+        when(nsfEmailUtil.getSendLevel()).thenReturn(SendLevelEnum.ProdLevel);
+        try {
+            emailService.sendStoredLetter("1", new SendMetaData(), "sender");
+            fail("Expected FormValidationException");
+        } catch (FormValidationException e) {
+            assertTrue(e.getValidationErrors().contains(new BaseError(Constants.TO_EMAIL_RECIPIENTS_FIELD, Constants.EMPTY_TO_EMAIL_RECIPIENTS)));
+            verify(nsfEmailUtil, times(0)).sendEmail(any(EmailRequest.class));
+        }
+
+        when(emailDao.markLetterSent("2", "sender")).thenReturn(TestUtils.getMockLetter("2"));
+        doThrow(new IllegalStateException("mail server down")).when(nsfEmailUtil).sendEmail(any(EmailRequest.class));
+        try {
+            emailService.sendStoredLetter("2", new SendMetaData(), "sender");
+            fail("Expected MailSendException");
+        } catch (MailSendException e) {
+            assertTrue(e.getMessage().startsWith(Constants.ERROR_SENDING_STORED_LETTER + "2"));
+            assertTrue(e.getMessage().contains(Constants.STORED_LETTER_STAYS_SENT));
+        }
+
+        when(emailDao.markLetterSent("137", "sender")).thenThrow(new LetterAlreadySentException(Constants.ERROR_LETTER_ALREADY_SENT_SEND));
+        try {
+            emailService.sendStoredLetter("137", new SendMetaData(), "sender");
+            fail("Expected LetterAlreadySentException");
+        } catch (LetterAlreadySentException e) {
+            verify(nsfEmailUtil, times(1)).sendEmail(any(EmailRequest.class));
+        }
+    }
+
     @Test(expected=IllegalArgumentException.class)
     public void sendLetterNullSendMetaDataTest() {
         EmailRequest emailRequest = TestUtils.getMockEmailRequest();
@@ -276,6 +497,93 @@ public class EmailServiceTest {
         emailService.sendLetter(letter, metaData);
     }
 
+    /**
+     * Tests that sendBulkLetter merges each row's variables into the letter, reports every row with its
+     * errors and the running totals, and reads no more rows than it has in flight
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sendBulkLetterTest() throws Exception {
+        final List<EmailRequest> emailRequests = Collections.synchronizedList(new ArrayList<EmailRequest>());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                emailRequests.add((EmailRequest) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(nsfEmailUtil).sendEmail(any(EmailRequest.class));
+        when(nsfEmailUtil.getSendLevel()).thenReturn(SendLevelEnum.ProdLevel);
+        emailService.setMailMergeConcurrency(2);
+
+        Letter letter = TestUtils.getMockLetter(null);
+        letter.setPlainText(false);
+        letter.setEltrContent("<p>Dear ${name}, award ${award}</p>");
+        letter.getEmailInfo().setMailSubject("Award ${award}");
+        letter.getEmailInfo().setToAddresses(null);
+
+        final List<BulkSendRow> rows = new ArrayList<BulkSendRow>();
+        for (int i = 1; i <= 20; i++) {
+            Map<String, String> variables = new HashMap<String, String>();
+            variables.put("name", i == 1 ? "Smith & Jones" : "PI " + i);
+            if (i != 2) {
+                variables.put("award", String.valueOf(1000 + i));
+            }
+            rows.add(new BulkSendRow(Collections.singletonList(i == 3 ? "not-an-address" : "pi" + i + "@nsf.gov"), variables));
+        }
+
+        final List<BulkSendResult> results = new ArrayList<BulkSendResult>();
+        final Iterator<BulkSendRow> rowIterator = rows.iterator();
+        final int[] rowsRead = new int[1];
+        emailService.sendBulkLetter(letter, new SendMetaData(), new Iterator<BulkSendRow>() {
+            @Override
+            public boolean hasNext() {
+                return rowIterator.hasNext();
+            }
+
+            @Override
+            public BulkSendRow next() {
+                // 2 threads x 2 rows in flight per thread
+                assertTrue(rowsRead[0] - results.size() < 4);
+                rowsRead[0]++;
+                return rowIterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }, new BulkSendHandler() {
+            @Override
+            public void handleResult(BulkSendResult result) {
+                results.add(result);
+            }
+        });
+        emailService.destroy();
+
+        assertEquals(20, results.size());
+        assertEquals(20, results.get(19).getProcessed());
+        assertEquals(2, results.get(19).getFailed());
+        assertEquals(18, emailRequests.size());
+
+        Map<Integer, BulkSendResult> resultsByRow = new HashMap<Integer, BulkSendResult>();
+        for (BulkSendResult result : results) {
+            resultsByRow.put(result.getRow(), result);
+        }
+        assertEquals(SendStatus.Sent, resultsByRow.get(1).getSendStatus());
+        assertTrue(resultsByRow.get(2).getErrors().contains(new BaseError(Constants.MERGE_VARIABLES_FIELD, Constants.MISSING_MERGE_VARIABLE + "award")));
+        assertTrue(resultsByRow.get(3).getErrors().contains(new BaseError(Constants.TO_EMAIL_RECIPIENTS_FIELD, Constants.INVALID_ADDRESS_ERROR)));
+        assertNull(resultsByRow.get(3).getSendStatus());
+
+        for (EmailRequest emailRequest : emailRequests) {
+            if (emailRequest.getTo().contains("pi1@nsf.gov")) {
+                assertEquals("<p>Dear Smith &amp; Jones, award 1001</p>", emailRequest.getBody());
+                assertEquals("Award 1001", emailRequest.getSubject());
+                assertEquals(letter.getEmailInfo().getCcAddresses(), emailRequest.getCc());
+            }
+        }
+    }
+
     /**
      * Tests that the normal behavior of the saveLetter method properly calls
      * the EmailDao.deleteLetter method and returns a LetterResponseWrapper
@@ -289,9 +597,29 @@ public class EmailServiceTest {
     @Test
     public void deleteLetterHappyPathTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(emailDao.deleteLetter(TestConstants.TEST_ELTR_ID)).thenReturn(mockedLetter);
+        when(emailDao.deleteLetter(TestConstants.TEST_ELTR_ID, true)).thenReturn(mockedLetter);
         LetterResponseWrapper returnedLetterWrapper = emailService.deleteLetter(TestConstants.TEST_ELTR_ID);
         assertNotNull(returnedLetterWrapper);
+        assertNotNull(returnedLetterWrapper.getLetter());
+    }
+
+    /**
+     * Tests that the deleteLetter method passes returnDeleted through to the
+     * EmailDao.deleteLetter method
+     *
+     * Mocks the EmailDao to return no Letter object
+     *
+     * Asserts that a LetterResponseWrapper object without a Letter is returned
+     *
+     * @throws RollbackException
+     */
+    @Test
+    public void deleteLetterWithoutReturnDeletedTest() throws RollbackException {
+        when(emailDao.deleteLetter(TestConstants.TEST_ELTR_ID, false)).thenReturn(null);
+        LetterResponseWrapper returnedLetterWrapper = emailService.deleteLetter(TestConstants.TEST_ELTR_ID, false);
+        assertNotNull(returnedLetterWrapper);
+        assertNull(returnedLetterWrapper.getLetter());
+        verify(emailDao, times(1)).deleteLetter(TestConstants.TEST_ELTR_ID, false);
     }
 
     /**
@@ -307,7 +635,7 @@ public class EmailServiceTest {
     @Test(expected = RollbackException.class)
     public void deleteLetterWithTemplateExceptionTest() throws RollbackException {
         Letter mockedLetter = TestUtils.getMockLetter(TestConstants.TEST_ELTR_ID);
-        when(emailDao.deleteLetter(TestConstants.TEST_ELTR_ID)).thenThrow(new RollbackException(Constants.ERROR_DELETING_LETTER));
+        when(emailDao.deleteLetter(TestConstants.TEST_ELTR_ID, true)).thenThrow(new RollbackException(Constants.ERROR_DELETING_LETTER));
         emailService.deleteLetter(TestConstants.TEST_ELTR_ID);
     }
 
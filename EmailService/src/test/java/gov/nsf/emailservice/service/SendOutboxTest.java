@@ -0,0 +1,313 @@
+package gov.nsf.emailservice.service;
+
+import gov.mynsf.common.email.model.EmailRequest;
+import gov.mynsf.common.email.model.SendMetaData;
+import gov.mynsf.common.email.util.NsfEmailUtil;
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.SendStatus;
+import gov.nsf.emailservice.common.util.TestUtils;
+import gov.nsf.emailservice.dao.SendOutboxDaoImpl;
+import gov.nsf.emailservice.dao.SendOutboxEntry;
+import gov.nsf.emailservice.mail.BatchingJavaMailSender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * SendOutbox JUnit tests against the embedded ntfy_ltr_send_otbx table
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"Embedded-EmailServiceTest-Context.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class SendOutboxTest {
+
+    private static final long WAIT_MILLIS = 5000;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private SendOutboxDaoImpl sendOutboxDao;
+    private NsfEmailUtil nsfEmailUtil;
+    private SendOutbox sendOutbox;
+
+    @Before
+    public void setUp() {
+        sendOutboxDao = new SendOutboxDaoImpl();
+        sendOutboxDao.setDataSource(dataSource);
+        nsfEmailUtil = mock(NsfEmailUtil.class);
+
+        sendOutbox = new SendOutbox();
+        sendOutbox.setSendOutboxDao(sendOutboxDao);
+        sendOutbox.setNsfEmailUtil(nsfEmailUtil);
+        sendOutbox.setPollIntervalMillis(50);
+    }
+
+    @After
+    public void tearDown() {
+        sendOutbox.stop();
+    }
+
+    /**
+     * Tests that a queued letter is sent in the background and its send request marked Sent
+     *
+     * @throws Exception
+     */
+    @Test
+    public void enqueueSendsLetterTest() throws Exception {
+        final CountDownLatch sent = new CountDownLatch(1);
+        final List<EmailRequest> emailRequests = Collections.synchronizedList(new ArrayList<EmailRequest>());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                emailRequests.add((EmailRequest) invocation.getArguments()[0]);
+                sent.countDown();
+                return null;
+            }
+        }).when(nsfEmailUtil).sendEmail(any(EmailRequest.class));
+        sendOutbox.start();
+
+        Letter letter = TestUtils.getMockLetter(null);
+        String trackingID = sendOutbox.enqueue(letter, getSendMetaData());
+        assertNotNull(trackingID);
+
+        assertTrue(sent.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(letter.getEmailInfo().getMailSubject(), emailRequests.get(0).getSubject());
+        assertEquals(letter.getEltrContent(), emailRequests.get(0).getBody());
+
+        SendOutboxEntry entry = waitForStatus(trackingID, SendStatus.Sent);
+        assertEquals(1, entry.getAttempts());
+        assertNull(entry.getLastError());
+    }
+
+    /**
+     * Tests that a failed send is queued again with its error, and is Failed once maxAttempts attempts have failed
+     *
+     * @throws Exception
+     */
+    @Test
+    public void failedSendRetriedTest() throws Exception {
+        doThrow(new IllegalStateException("mail server down")).when(nsfEmailUtil).sendEmail(any(EmailRequest.class));
+        sendOutbox.setMaxAttempts(2);
+        sendOutbox.setRetryDelayMillis(60000);
+        sendOutbox.start();
+
+        String trackingID = sendOutbox.enqueue(TestUtils.getMockLetter(null), getSendMetaData());
+        SendOutboxEntry entry = waitForStatus(trackingID, SendStatus.Queued, 1);
+        assertTrue(entry.getLastError().contains("mail server down"));
+
+        // the retry is not due for a minute - claim it as if the retry delay had passed
+        List<SendOutboxEntry> due = sendOutboxDao.findDueSendRequests(new Date(System.currentTimeMillis() + 120000), new Date(0), 1000);
+        for (SendOutboxEntry dueEntry : due) {
+            if (dueEntry.getTrackingID().equals(trackingID) && sendOutboxDao.claimSendRequest(dueEntry, new Date())) {
+                sendOutbox.send(dueEntry);
+            }
+        }
+
+        entry = waitForStatus(trackingID, SendStatus.Failed, 2);
+        assertTrue(entry.getLastError().contains("mail server down"));
+    }
+
+    /**
+     * Tests that no more than concurrency letters are sent at the same time, and that the backlog is drained
+     *
+     * @throws Exception
+     */
+    @Test
+    public void concurrencyBoundTest() throws Exception {
+        final AtomicInteger sending = new AtomicInteger();
+        final AtomicInteger maxSending = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws InterruptedException {
+                int now = sending.incrementAndGet();
+                synchronized (maxSending) {
+                    maxSending.set(Math.max(maxSending.get(), now));
+                }
+                started.countDown();
+                release.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                sending.decrementAndGet();
+                return null;
+            }
+        }).when(nsfEmailUtil).sendEmail(any(EmailRequest.class));
+        sendOutbox.setConcurrency(2);
+        sendOutbox.start();
+
+        List<String> trackingIDs = new ArrayList<String>();
+        for (int i = 0; i < 6; i++) {
+            trackingIDs.add(sendOutbox.enqueue(TestUtils.getMockLetter(null), getSendMetaData()));
+        }
+        assertTrue(started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(2, maxSending.get());
+
+        release.countDown();
+        for (String trackingID : trackingIDs) {
+            waitForStatus(trackingID, SendStatus.Sent);
+        }
+        assertEquals(2, maxSending.get());
+    }
+
+    /**
+     * Tests that requests queued together are sent in one batch, and that a letter rejected by the mail server
+     * is retried on its own while the others are Sent
+     *
+     * @throws Exception
+     */
+    @Test
+    public void batchSendTest() throws Exception {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        JavaMailSender javaMailSender = mock(JavaMailSender.class);
+        when(javaMailSender.createMimeMessage()).thenAnswer(new Answer<MimeMessage>() {
+            @Override
+            public MimeMessage answer(InvocationOnMock invocation) {
+                return new MimeMessage((Session) null);
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                Object[] messages = invocation.getArguments();
+                batchSizes.add(messages.length);
+                Map<Object, Exception> failedMessages = new LinkedHashMap<Object, Exception>();
+                for (Object message : messages) {
+                    if (((MimeMessage) message).getSubject().startsWith("Rejected")) {
+                        failedMessages.put(message, new IllegalStateException("550 mailbox unavailable"));
+                    }
+                }
+                if (!failedMessages.isEmpty()) {
+                    throw new MailSendException(failedMessages);
+                }
+                return null;
+            }
+        }).when(javaMailSender).send((MimeMessage[]) anyVararg());
+
+        // sends through the batching sender as NsfEmailUtilImpl sends through its JavaMailSender
+        final BatchingJavaMailSender batchingJavaMailSender = new BatchingJavaMailSender(javaMailSender);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                EmailRequest emailRequest = (EmailRequest) invocation.getArguments()[0];
+                SimpleMailMessage message = new SimpleMailMessage();
+                message.setFrom(emailRequest.getFrom());
+                message.setTo(emailRequest.getTo().toArray(new String[0]));
+                message.setSubject(emailRequest.getSubject());
+                message.setText(emailRequest.getBody());
+                batchingJavaMailSender.send(message);
+                return null;
+            }
+        }).when(nsfEmailUtil).sendEmail(any(EmailRequest.class));
+        sendOutbox.setBatchingJavaMailSender(batchingJavaMailSender);
+
+        // queued before the poller starts, so the first drain claims all of them
+        List<String> trackingIDs = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            Letter letter = TestUtils.getMockLetter(null);
+            letter.getEmailInfo().setMailSubject((i == 1 ? "Rejected " : "Batched ") + i);
+            trackingIDs.add(sendOutbox.enqueue(letter, getSendMetaData()));
+        }
+        sendOutbox.start();
+
+        waitForStatus(trackingIDs.get(0), SendStatus.Sent);
+        waitForStatus(trackingIDs.get(2), SendStatus.Sent);
+        SendOutboxEntry rejected = waitForStatus(trackingIDs.get(1), SendStatus.Queued, 1);
+        assertTrue(rejected.getLastError().contains("550 mailbox unavailable"));
+        assertEquals(Collections.singletonList(3), batchSizes);
+    }
+
+    /**
+     * Tests that only one caller can claim a send request
+     *
+     * @throws Exception
+     */
+    @Test
+    public void claimSendRequestTest() throws Exception {
+        String trackingID = sendOutboxDao.insertSendRequest("{}", new Date());
+        SendOutboxEntry first = null;
+        SendOutboxEntry second = null;
+        for (SendOutboxEntry entry : sendOutboxDao.findDueSendRequests(new Date(), new Date(0), 1000)) {
+            if (entry.getTrackingID().equals(trackingID)) {
+                first = entry;
+            }
+        }
+        for (SendOutboxEntry entry : sendOutboxDao.findDueSendRequests(new Date(), new Date(0), 1000)) {
+            if (entry.getTrackingID().equals(trackingID)) {
+                second = entry;
+            }
+        }
+        assertNotNull(first);
+        assertNotNull(second);
+
+        assertTrue(sendOutboxDao.claimSendRequest(first, new Date()));
+        assertFalse(sendOutboxDao.claimSendRequest(second, new Date()));
+        assertEquals(SendStatus.Sending, first.getSendStatus());
+        assertEquals(1, first.getAttempts());
+
+        // a claim older than the claim timeout can be taken over
+        SendOutboxEntry stale = null;
+        for (SendOutboxEntry entry : sendOutboxDao.findDueSendRequests(new Date(), new Date(System.currentTimeMillis() + 1000), 1000)) {
+            if (entry.getTrackingID().equals(trackingID)) {
+                stale = entry;
+            }
+        }
+        assertNotNull(stale);
+        assertTrue(sendOutboxDao.claimSendRequest(stale, new Date()));
+        assertFalse(sendOutboxDao.completeSendRequest(first, SendStatus.Sent, new Date(), null, new Date()));
+        assertTrue(sendOutboxDao.completeSendRequest(stale, SendStatus.Sent, new Date(), null, new Date()));
+        assertEquals(SendStatus.Sent, sendOutboxDao.getSendRequestStatus(trackingID).getSendStatus());
+        assertNull(sendOutboxDao.getSendRequestStatus("999999"));
+    }
+
+    private SendOutboxEntry waitForStatus(String trackingID, SendStatus sendStatus) throws Exception {
+        return waitForStatus(trackingID, sendStatus, -1);
+    }
+
+    private SendOutboxEntry waitForStatus(String trackingID, SendStatus sendStatus, int attempts) throws Exception {
+        long giveUpAt = System.currentTimeMillis() + WAIT_MILLIS;
+        SendOutboxEntry entry = sendOutboxDao.getSendRequestStatus(trackingID);
+        while (entry.getSendStatus() != sendStatus || (attempts >= 0 && entry.getAttempts() != attempts)) {
+            assertTrue("send request " + trackingID + " is " + entry.getSendStatus(), System.currentTimeMillis() < giveUpAt);
+            Thread.sleep(20);
+            entry = sendOutboxDao.getSendRequestStatus(trackingID);
+        }
+        return entry;
+    }
+
+    private static SendMetaData getSendMetaData() {
+        SendMetaData metaData = new SendMetaData();
+        metaData.setDebugRecipients(Collections.singletonList("debugRecipients@testemail.nsf.gov"));
+        return metaData;
+    }
+}
@@ -24,6 +24,7 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -77,6 +78,24 @@ public class CreateLetterValidatorTest {
         validator.validateRequest(letter);
     }
 
+    /**
+     * Tests that a search parameter named like a findLetter filter or page parameter is rejected, as it
+     * could never be searched for
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validateRequestReservedSearchParameterTest() throws FormValidationException {
+        Letter letter = TestUtils.getMockLetter(null);
+        letter.setSearchParameters(Arrays.asList(new SearchParameter("status", "Draft"), new SearchParameter("award_id", "42")));
+        try {
+            validator.validateRequest(letter);
+            fail("Expected FormValidationException");
+        } catch (FormValidationException ex) {
+            assertContains(ex.getValidationErrors(), new BaseError(Constants.SEARCH_PARAMETERS_FIELD, Constants.RESERVED_SEARCH_PARAMETER_NAME + "status"));
+        }
+    }
+
     @Test
     public void validateRequestNullLetterTest() throws FormValidationException {
         Letter letter = null;
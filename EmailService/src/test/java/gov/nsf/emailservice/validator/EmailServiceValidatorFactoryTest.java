@@ -58,6 +58,12 @@ public class EmailServiceValidatorFactoryTest {
         assertTrue(validator instanceof GetLetterValidator);
     }
 
+    @Test
+    public void sendStoredLetterValidatorTest(){
+        EmailServiceValidator validator = factory.getValidator("sendStoredLetter");
+        assertTrue(validator instanceof GetLetterValidator);
+    }
+
     @Test
     public void getSearchParametersValidatorTest(){
         EmailServiceValidator validator = factory.getValidator("getSearchParameters");
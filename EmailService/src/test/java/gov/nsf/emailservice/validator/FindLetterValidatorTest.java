@@ -7,6 +7,7 @@ import gov.nsf.emailservice.api.model.SearchParameter;
 import gov.nsf.emailservice.common.util.Constants;
 import gov.nsf.emailservice.common.util.TestConstants;
 import gov.nsf.emailservice.common.util.TestUtils;
+import gov.nsf.emailservice.common.util.Utils;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -99,7 +100,7 @@ public class FindLetterValidatorTest {
     }
 
     /**
-     * Tests that passing more than one search parameters produces an error
+     * Tests that passing more than one search parameter throws no form validation exception
      *
      * @throws FormValidationException
      */
@@ -111,6 +112,22 @@ public class FindLetterValidatorTest {
         searchParameters.add(new SearchParameter("Panel_Id", "424242"));
         letter.setSearchParameters(searchParameters);
 
+        validator.validateRequest(letter);
+    }
+
+    /**
+     * Tests that an empty value in any of several search parameters produces an error
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validateRequestMoreThanOneSearchParameterEmptyValueTest() throws FormValidationException{
+        Letter letter = new Letter(TestConstants.TEST_ELTR_ID);
+        List<SearchParameter> searchParameters = new ArrayList<SearchParameter>();
+        searchParameters.add(new SearchParameter("Award_Id", "123456"));
+        searchParameters.add(new SearchParameter("Panel_Id", " "));
+        letter.setSearchParameters(searchParameters);
+
         try{
             validator.validateRequest(letter);
             fail("Expected FormValidationException");
@@ -118,7 +135,116 @@ public class FindLetterValidatorTest {
         } catch( FormValidationException ex ){
             assertEquals(1, ex.getValidationErrors().size());
             TestUtils.assertContains(ex.getValidationErrors(),
-                    new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_NUMBER_OF_SEARCH_PARAMETERS));
+                    new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_PARAMETER_KEY_OR_VALUE));
+        }
+    }
+
+    /**
+     * Tests that valid filter parameters, or none at all, produce no error
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validateFilterRequestHappyPath() throws FormValidationException {
+        validator.validateFilterRequest(null, null, null, null);
+        validator.validateFilterRequest("42", "Sent", "2017-01-01", "2017-01-01");
+        validator.validateFilterRequest(null, "Draft", null, "2017-12-31");
+    }
+
+    /**
+     * Tests that an invalid applID, status and dates each produce an error
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validateFilterRequestInvalidFiltersTest() throws FormValidationException {
+        try {
+            validator.validateFilterRequest("abc", "Pending", "2017-13-01", "01/31/2017");
+            fail("Expected FormValidationException");
+
+        } catch (FormValidationException ex) {
+            assertEquals(4, ex.getValidationErrors().size());
+            TestUtils.assertContains(ex.getValidationErrors(),
+                    new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_APPL_ID_FILTER));
+            TestUtils.assertContains(ex.getValidationErrors(),
+                    new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_STATUS_FILTER));
+            TestUtils.assertContains(ex.getValidationErrors(),
+                    new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_DATE_FILTER + Constants.FROM_DATE_FIELD));
+            TestUtils.assertContains(ex.getValidationErrors(),
+                    new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_DATE_FILTER + Constants.TO_DATE_FIELD));
+        }
+    }
+
+    /**
+     * Tests that an applID that does not fit in an int, or is negative, produces an error instead of overflowing
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validateFilterRequestApplIDOutOfRangeTest() throws FormValidationException {
+        validator.validateFilterRequest(String.valueOf(Integer.MAX_VALUE), null, null, null);
+        for (String applID : new String[]{"99999999999", "-1", "+42", ""}) {
+            try {
+                validator.validateFilterRequest(applID, null, null, null);
+                fail("Expected FormValidationException for " + applID);
+
+            } catch (FormValidationException ex) {
+                assertEquals(1, ex.getValidationErrors().size());
+                TestUtils.assertContains(ex.getValidationErrors(),
+                        new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_APPL_ID_FILTER));
+            }
+        }
+    }
+
+    /**
+     * Tests that a fromDate after the toDate produces an error
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validateFilterRequestInvalidDateRangeTest() throws FormValidationException {
+        try {
+            validator.validateFilterRequest(null, null, "2017-02-01", "2017-01-31");
+            fail("Expected FormValidationException");
+
+        } catch (FormValidationException ex) {
+            assertEquals(1, ex.getValidationErrors().size());
+            TestUtils.assertContains(ex.getValidationErrors(),
+                    new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_DATE_RANGE));
+        }
+    }
+
+    /**
+     * Tests that valid page parameters, or none at all, produce no error
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validatePageRequestHappyPath() throws FormValidationException {
+        validator.validatePageRequest(null, null);
+        validator.validatePageRequest("1", null);
+        validator.validatePageRequest(String.valueOf(Constants.MAX_PAGE_LIMIT), Utils.encodeLetterCursor("42"));
+    }
+
+    /**
+     * Tests that an out of range limit and a malformed cursor each produce an error
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validatePageRequestInvalidLimitAndCursorTest() throws FormValidationException {
+        for (String limit : new String[]{"0", "-5", "abc", String.valueOf(Constants.MAX_PAGE_LIMIT + 1), "99999999999", "+5"}) {
+            try {
+                validator.validatePageRequest(limit, "not-a-cursor");
+                fail("Expected FormValidationException");
+
+            } catch (FormValidationException ex) {
+                assertEquals(2, ex.getValidationErrors().size());
+                TestUtils.assertContains(ex.getValidationErrors(),
+                        new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_PAGE_LIMIT));
+                TestUtils.assertContains(ex.getValidationErrors(),
+                        new BaseError(Constants.QUERY_PARAMETERS, Constants.INVALID_PAGE_CURSOR));
+            }
         }
     }
 }
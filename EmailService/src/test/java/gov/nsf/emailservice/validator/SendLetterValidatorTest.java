@@ -1,12 +1,17 @@
 package gov.nsf.emailservice.validator;
 
 import gov.mynsf.common.email.model.EmailRequest;
+import gov.mynsf.common.email.model.SendMetaData;
 import gov.nsf.common.exception.FormValidationException;
 import gov.nsf.common.model.BaseError;
+import gov.nsf.emailservice.api.model.Letter;
+import gov.nsf.emailservice.api.model.request.SendStoredLetterRequest;
 import gov.nsf.emailservice.common.util.Constants;
 import gov.nsf.emailservice.common.util.TestUtils;
 import org.junit.Test;
 
+import java.util.Collections;
+
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -170,6 +175,68 @@ public class SendLetterValidatorTest {
             //assertTrue(ex.getValidationErrors().get(0).equals( new BaseError(Constants.TO_EMAIL_RECIPIENTS_FIELD, Constants.EMPTY_STRING_EMAIL_RECIPIENTS)));
         }
     }
-}
 
+    /**
+     * Tests that the validateRequest method validates the body of a send stored letter request
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validateSendStoredLetterRequestTest() throws FormValidationException {
+        SendMetaData metaData = new SendMetaData();
+        send.validateRequest(new SendStoredLetterRequest(metaData, "sender"));
 
+        try{
+            send.validateRequest(new SendStoredLetterRequest(metaData, ""));
+            fail("Expected test to throw FormValidationException");
+        } catch( FormValidationException ex){
+            assertTrue(ex.getValidationErrors().size()  == 1);
+            assertTrue(ex.getValidationErrors().get(0).equals( new BaseError(Constants.ELTR_USER_FIELD, Constants.MISSING_ELTR_USER)));
+        }
+
+        metaData.setDebugRecipients(Collections.singletonList("not an address"));
+        try{
+            send.validateRequest(new SendStoredLetterRequest(metaData, "sender"));
+            fail("Expected test to throw FormValidationException");
+        } catch( FormValidationException ex){
+            assertTrue(ex.getValidationErrors().size()  == 1);
+            assertTrue(ex.getValidationErrors().get(0).equals( new BaseError(Constants.META_DEBUG_EMAIL_RECIPIENTS_FIELD, Constants.INVALID_ADDRESS_ERROR)));
+        }
+
+        try{
+            send.validateRequest((SendStoredLetterRequest) null);
+            fail("Expected test to throw FormValidationException");
+        } catch( FormValidationException ex){
+            assertTrue(ex.getValidationErrors().size()  == 1);
+        }
+    }
+
+    /**
+     * Tests that the validateBulkRequest method accepts a letter without to addresses, which come from the rows,
+     * and still validates the rest of the letter
+     *
+     * @throws FormValidationException
+     */
+    @Test
+    public void validateBulkRequestTest() throws FormValidationException {
+        Letter letter = TestUtils.getMockLetter(null);
+        letter.getEmailInfo().setToAddresses(null);
+        send.validateBulkRequest(letter, new SendMetaData());
+
+        letter.getEmailInfo().setMailSubject(null);
+        try{
+            send.validateBulkRequest(letter, new SendMetaData());
+            fail("Expected test to throw FormValidationException");
+        } catch( FormValidationException ex){
+            assertTrue(ex.getValidationErrors().size()  == 1);
+            assertTrue(ex.getValidationErrors().get(0).equals( new BaseError(Constants.MAIL_SUBJECT_EMAIL_FIELD, Constants.MISSING_EMAIL_SUBJECT)));
+        }
+
+        try{
+            send.validateBulkRequest(null, null);
+            fail("Expected test to throw FormValidationException");
+        } catch( FormValidationException ex){
+            assertTrue(ex.getValidationErrors().get(0).equals( new BaseError(Constants.LETTER_FIELD, Constants.MISSING_LETTER)));
+        }
+    }
+}
@@ -52,6 +52,22 @@ SET SCHEMA dbo;
         last_updt_tmsp DATETIME NOT NULL
     );
 
+    CREATE TABLE IF NOT EXISTS
+    ntfy_ltr_send_otbx
+    (
+        send_rqst_id NUMERIC(10,0) NOT NULL IDENTITY,
+        send_rqst_txt TEXT NOT NULL,
+        send_stts_code CHAR(1) NOT NULL,
+        atmp_cnt NUMERIC(3,0) NOT NULL,
+        next_atmp_tmsp DATETIME NOT NULL,
+        last_err_txt VARCHAR(512) NULL,
+        last_updt_pgm CHAR(8) NOT NULL,
+        last_updt_user CHAR(8) NOT NULL,
+        last_updt_tmsp DATETIME NOT NULL
+    );
+
+    CREATE INDEX IF NOT EXISTS ntfy_ltr_send_otbx_due ON ntfy_ltr_send_otbx (send_stts_code, next_atmp_tmsp);
+
 
  
 
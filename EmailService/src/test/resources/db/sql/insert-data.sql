@@ -32,3 +32,4 @@ INSERT INTO ntfy_ltr_addl_info (ntfy_ltr_id, ntfy_ltr_atr_id, atr_val, last_updt
 
 INSERT INTO ntfy_ltr_atr_lkup (ntfy_ltr_atr_id, atr_name, eff_date, end_date, last_updt_pgm, last_updt_user, last_updt_tmsp) VALUES (1, 'award_id', '2016-11-18 16:14:28', '2016-11-18 16:14:28','EmailSvc', 'MyNSF', '2016-11-18 16:14:28');
 INSERT INTO ntfy_ltr_atr_lkup (ntfy_ltr_atr_id, atr_name, eff_date, end_date, last_updt_pgm, last_updt_user, last_updt_tmsp) VALUES (2, 'panel_id', '2016-11-18 16:14:28', '2016-11-18 16:14:28','EmailSvc', 'MyNSF', '2016-11-18 16:14:28');
+INSERT INTO ntfy_ltr_atr_lkup (ntfy_ltr_atr_id, atr_name, eff_date, end_date, last_updt_pgm, last_updt_user, last_updt_tmsp) VALUES (3, 'retired_id', '2016-11-18 16:14:28', '2017-01-01 00:00:00','EmailSvc', 'MyNSF', '2016-11-18 16:14:28');